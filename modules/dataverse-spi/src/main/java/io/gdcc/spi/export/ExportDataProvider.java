@@ -50,6 +50,24 @@ public interface ExportDataProvider {
      */
     JsonArray getDatasetFileDetails();
 
+    /**
+     * A streaming alternative to {@link #getDatasetFileDetails()}.
+     * 
+     * @return - the same entries as getDatasetFileDetails(), one per file, for
+     *         Exporters that process the files one at a time. Each call to
+     *         iterator() starts a new pass over the files, so the Iterable can
+     *         be traversed several times.
+     * @apiNote - with datasets containing many tabular files, the
+     *          variable-level metadata can be very large. Providers may
+     *          generate the entries lazily, so that only the entry being
+     *          processed needs to be held in memory; Exporters should then not
+     *          keep references to the entries they have already processed. The
+     *          default implementation iterates over getDatasetFileDetails().
+     */
+    default Iterable<JsonObject> getDatasetFileDetailsIterable() {
+        return getDatasetFileDetails().getValuesAs(JsonObject.class);
+    }
+
     /**
      * 
      * @return - the subset of metadata conforming to the schema.org standard as
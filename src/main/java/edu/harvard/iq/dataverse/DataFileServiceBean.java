@@ -3,6 +3,7 @@ package edu.harvard.iq.dataverse;
 import edu.harvard.iq.dataverse.DatasetVersion.VersionState;
 import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
 import edu.harvard.iq.dataverse.dataaccess.DataAccess;
+import edu.harvard.iq.dataverse.dataaccess.DataFileZipper;
 import edu.harvard.iq.dataverse.dataaccess.ImageThumbConverter;
 import edu.harvard.iq.dataverse.dataaccess.StorageIO;
 import edu.harvard.iq.dataverse.harvest.client.HarvestingClient;
@@ -34,6 +35,7 @@ import jakarta.ejb.EJB;
 import jakarta.ejb.Stateless;
 import jakarta.ejb.TransactionAttribute;
 import jakarta.ejb.TransactionAttributeType;
+import jakarta.enterprise.concurrent.ManagedExecutorDefinition;
 import jakarta.inject.Named;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.NoResultException;
@@ -47,6 +49,13 @@ import jakarta.persistence.TypedQuery;
  * 
  */
 
+// The executor fetching the files of the zip downloads ahead of time (see
+// DataFileZipper, which can't define it itself); its prefetches don't wait
+// for anything, so it is shared by all the downloads in progress.
+@ManagedExecutorDefinition(
+    name = DataFileZipper.PREFETCH_EXECUTOR,
+    maxAsync = 16
+)
 @Stateless
 @Named
 public class DataFileServiceBean implements java.io.Serializable {
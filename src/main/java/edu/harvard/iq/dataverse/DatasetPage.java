@@ -198,6 +198,8 @@ public class DatasetPage implements java.io.Serializable {
     @EJB
     DatasetVersionServiceBean datasetVersionService;
     @EJB
+    DatasetVersionDifferenceServiceBean versionDifferenceService;
+    @EJB
     DataFileServiceBean datafileService;
     @EJB
     PermissionServiceBean permissionService;
@@ -4589,6 +4591,9 @@ public class DatasetPage implements java.io.Serializable {
             setVersionTabList(resetVersionTabList());
         }
 
+        for (DatasetVersion version : this.getVersionTabList()) {
+            version.setDefaultVersionSummary(versionDifferenceService.getDefaultSummary(version));
+        }
         this.setVersionTabListForPostLoad(this.getVersionTabList());
 
 
@@ -20,6 +20,7 @@ import edu.harvard.iq.dataverse.export.ExportService;
 import edu.harvard.iq.dataverse.globus.GlobusServiceBean;
 import edu.harvard.iq.dataverse.harvest.server.OAIRecordServiceBean;
 import edu.harvard.iq.dataverse.search.IndexServiceBean;
+import edu.harvard.iq.dataverse.settings.JvmSettings;
 import edu.harvard.iq.dataverse.settings.SettingsServiceBean;
 import edu.harvard.iq.dataverse.util.BundleUtil;
 import edu.harvard.iq.dataverse.util.SystemConfig;
@@ -28,15 +29,21 @@ import edu.harvard.iq.dataverse.workflows.WorkflowComment;
 import java.io.*;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import jakarta.annotation.Resource;
 import jakarta.ejb.Asynchronous;
 import jakarta.ejb.EJB;
 import jakarta.ejb.EJBException;
 import jakarta.ejb.Stateless;
 import jakarta.ejb.TransactionAttribute;
 import jakarta.ejb.TransactionAttributeType;
+import jakarta.enterprise.concurrent.ManagedExecutorDefinition;
+import jakarta.enterprise.concurrent.ManagedExecutorService;
 import jakarta.inject.Named;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.NoResultException;
@@ -52,6 +59,13 @@ import org.apache.commons.lang3.StringUtils;
  */
 
 
+// The executor running the metadata exporters (see ExportService, which
+// can't define it itself); the number of exporters running at the same time
+// is set with dataverse.export.parallel-formats, up to maxAsync.
+@ManagedExecutorDefinition(
+    name = ExportService.EXPORT_EXECUTOR,
+    maxAsync = 16
+)
 @Stateless
 @Named
 public class DatasetServiceBean implements java.io.Serializable {
@@ -93,6 +107,9 @@ public class DatasetServiceBean implements java.io.Serializable {
     @EJB
     UserNotificationServiceBean userNotificationService;
 
+    @Resource
+    ManagedExecutorService executor;
+
     private static final SimpleDateFormat logFormatter = new SimpleDateFormat("yyyy-MM-dd'T'HH-mm-ss");
 
     @PersistenceContext(unitName = "VDCNet-ejbPU")
@@ -229,6 +246,21 @@ public class DatasetServiceBean implements java.io.Serializable {
         return em.createQuery("SELECT o.id FROM Dataset o WHERE o.harvestedFrom IS null ORDER BY o.id", Long.class).getResultList();
     }
 
+    /**
+     * Keyset-paginated version of {@link #findAllLocalDatasetIds()}, for jobs
+     * that walk all the local datasets without loading all the ids (or
+     * entities) at once.
+     * @param lastId the last id of the previous page; null for the first page
+     * @param limit the maximum number of ids to return
+     * @return the next (up to) {@code limit} local dataset ids greater than {@code lastId}, in ascending order
+     */
+    public List<Long> findLocalDatasetIdsAfter(Long lastId, int limit) {
+        return em.createQuery("SELECT o.id FROM Dataset o WHERE o.harvestedFrom IS null AND o.id > :lastId ORDER BY o.id", Long.class)
+                .setParameter("lastId", lastId == null ? 0L : lastId)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
     public List<Long> findAllUnindexed() {
         return em.createQuery("SELECT o.id FROM Dataset o WHERE o.indexTime IS null ORDER BY o.id DESC", Long.class).getResultList();
     }
@@ -706,9 +738,9 @@ public class DatasetServiceBean implements java.io.Serializable {
     }
 
     public void exportAllDatasets(boolean forceReExport) {
-        Integer countAll = 0;
-        Integer countSuccess = 0;
-        Integer countError = 0;
+        AtomicInteger countAll = new AtomicInteger();
+        AtomicInteger countSuccess = new AtomicInteger();
+        AtomicInteger countError = new AtomicInteger();
         String logTimestamp = logFormatter.format(new Date());
         Logger exportLogger = Logger.getLogger("edu.harvard.iq.dataverse.harvest.client.DatasetServiceBean." + "ExportAll" + logTimestamp);
         String logFileName = System.getProperty("com.sun.aas.instanceRoot") + File.separator + "logs" + File.separator + "export_" + logTimestamp + ".log";
@@ -728,8 +760,13 @@ public class DatasetServiceBean implements java.io.Serializable {
         } else {
             exportLogger = logger;
         }
+        final Logger jobLogger = exportLogger;
 
-        exportLogger.info("Starting an export all job");
+        // The datasets are exported by a bounded number of workers, each one
+        // exporting one dataset at a time, in its own transaction.
+        int parallelDatasets = Math.max(1, JvmSettings.EXPORT_PARALLEL_DATASETS.lookupOptional(Integer.class).orElse(4));
+        Semaphore workers = new Semaphore(parallelDatasets);
+        jobLogger.info("Starting an export all job, exporting up to " + parallelDatasets + " datasets at a time");
 
         for (Long datasetId : findAllLocalDatasetIds()) {
             // Potentially, there's a godzillion datasets in this Dataverse.
@@ -750,23 +787,48 @@ public class DatasetServiceBean implements java.io.Serializable {
                     if (forceReExport || (publicationDate != null
                             && (dataset.getLastExportTime() == null
                             || dataset.getLastExportTime().before(publicationDate)))) {
-                        countAll++;
+                        countAll.incrementAndGet();
+                        try {
+                            workers.acquire();
+                        } catch (InterruptedException ie) {
+                            Thread.currentThread().interrupt();
+                            jobLogger.warning("Export all job interrupted; no more datasets will be exported");
+                            break;
+                        }
+                        // The worker only gets the id: the dataset is loaded
+                        // again in the worker's own transaction (the entity
+                        // found here belongs to this thread's EntityManager).
+                        String label = dataset.getDisplayName() + " " + dataset.getGlobalId().asString();
                         try {
-                            recordService.exportAllFormatsInNewTransaction(dataset);
-                            exportLogger.info("Success exporting dataset: " + dataset.getDisplayName() + " " + dataset.getGlobalId().asString());
-                            countSuccess++;
-                        } catch (Exception ex) {
-                            exportLogger.log(Level.INFO, "Error exporting dataset: " + dataset.getDisplayName() + " " + dataset.getGlobalId().asString() + "; " + ex.getMessage(), ex);
-                            countError++;
+                            executor.submit(() -> {
+                                try {
+                                    recordService.exportAllFormatsInNewTransaction(datasetId);
+                                    jobLogger.info("Success exporting dataset: " + label);
+                                    countSuccess.incrementAndGet();
+                                } catch (Exception ex) {
+                                    jobLogger.log(Level.INFO, "Error exporting dataset: " + label + "; " + ex.getMessage(), ex);
+                                    countError.incrementAndGet();
+                                } finally {
+                                    workers.release();
+                                }
+                            });
+                        } catch (RejectedExecutionException ree) {
+                            workers.release();
+                            jobLogger.log(Level.INFO, "Error exporting dataset: " + label + "; " + ree.getMessage(), ree);
+                            countError.incrementAndGet();
                         }
                     }
                 }
             }
         }
-        exportLogger.info("Datasets processed: " + countAll.toString());
-        exportLogger.info("Datasets exported successfully: " + countSuccess.toString());
-        exportLogger.info("Datasets failures: " + countError.toString());
-        exportLogger.info("Finished export-all job.");
+        // Wait for the last workers to finish:
+        workers.acquireUninterruptibly(parallelDatasets);
+        workers.release(parallelDatasets);
+
+        jobLogger.info("Datasets processed: " + countAll.get());
+        jobLogger.info("Datasets exported successfully: " + countSuccess.get());
+        jobLogger.info("Datasets failures: " + countError.get());
+        jobLogger.info("Finished export-all job.");
 
         if (fileHandlerSuceeded) {
             fileHandler.close();
@@ -215,6 +215,9 @@ public class DatasetVersion implements Serializable {
     
     @Transient
     private DatasetVersionDifference dvd;
+
+    @Transient
+    private DatasetVersionDifferenceSummary defaultVersionSummary;
     
     @Transient 
     private JsonObject archivalStatus;
@@ -499,6 +502,19 @@ public class DatasetVersion implements Serializable {
         if(dvd!=null) {
             return dvd;
         }
+        DatasetVersion originalVersion = getDefaultOriginalVersion();
+        if (originalVersion != null) {
+            dvd = new DatasetVersionDifference(this, originalVersion);
+        }
+        return dvd;
+    }
+
+    /**
+     * @return the version this one is compared to by default: the previous
+     * version that was not deaccessioned, or null if there is none (or if this
+     * version is deaccessioned).
+     */
+    public DatasetVersion getDefaultOriginalVersion() {
         // if version is deaccessioned ignore it for differences purposes
         int index = 0;
         int size = this.getDataset().getVersions().size();
@@ -510,8 +526,7 @@ public class DatasetVersion implements Serializable {
                 if ((index + 1) <= (size - 1)) {
                     for (DatasetVersion dvTest : this.getDataset().getVersions().subList(index + 1, size)) {
                         if (!dvTest.isDeaccessioned()) {
-                            dvd = new DatasetVersionDifference(this, dvTest);
-                            return dvd;
+                            return dvTest;
                         }
                     }
                 }
@@ -520,7 +535,19 @@ public class DatasetVersion implements Serializable {
         }
         return null;
     }
-    
+
+    /**
+     * The summary of the differences with the default original version, as
+     * displayed on the versions tab (set by the page, from
+     * {@link DatasetVersionDifferenceServiceBean#getDefaultSummary}).
+     */
+    public DatasetVersionDifferenceSummary getDefaultVersionSummary() {
+        return defaultVersionSummary;
+    }
+
+    public void setDefaultVersionSummary(DatasetVersionDifferenceSummary defaultVersionSummary) {
+        this.defaultVersionSummary = defaultVersionSummary;
+    }
 
     public VersionState getPriorVersionState() {
         int index = 0;
@@ -63,22 +63,25 @@ public final class DatasetVersionDifference {
         setOriginalVersion(originalVersion);
         setNewVersion(newVersion);
         //Compare Data
+        // (the fields of each version indexed by type, rather than looked up
+        // in the fields of the other version for each field)
+        Map<DatasetFieldType, DatasetField> newFieldsByType = new HashMap<>();
+        for (DatasetField dsfn : newVersion.getDatasetFields()) {
+            newFieldsByType.putIfAbsent(dsfn.getDatasetFieldType(), dsfn);
+        }
+        Set<DatasetFieldType> originalFieldTypes = new HashSet<>();
         for (DatasetField dsfo : originalVersion.getDatasetFields()) {
-            boolean deleted = true;
-            for (DatasetField dsfn : newVersion.getDatasetFields()) {
-                if (dsfo.getDatasetFieldType().equals(dsfn.getDatasetFieldType())) {
-                    deleted = false;
-                    if (dsfo.getDatasetFieldType().isPrimitive()) {
-                        if (!dsfo.getDatasetFieldType().getFieldType().equals("email")) {
-                            compareValues(dsfo, dsfn, false);
-                        }
-                    } else {
-                        compareValues(dsfo, dsfn, true);
+            originalFieldTypes.add(dsfo.getDatasetFieldType());
+            DatasetField dsfn = newFieldsByType.get(dsfo.getDatasetFieldType());
+            if (dsfn != null) {
+                if (dsfo.getDatasetFieldType().isPrimitive()) {
+                    if (!dsfo.getDatasetFieldType().getFieldType().equals("email")) {
+                        compareValues(dsfo, dsfn, false);
                     }
-                    break; //if found go to next dataset field
+                } else {
+                    compareValues(dsfo, dsfn, true);
                 }
-            }
-            if (deleted && !dsfo.isEmpty()) {
+            } else if (!dsfo.isEmpty()) {
                 if (dsfo.getDatasetFieldType().isPrimitive()) {
                     if (dsfo.getDatasetFieldType().isControlledVocabulary()) {
                         updateBlockSummary(dsfo, 0, dsfo.getControlledVocabularyValues().size(), 0);
@@ -92,13 +95,7 @@ public final class DatasetVersionDifference {
             }
         }
         for (DatasetField dsfn : newVersion.getDatasetFields()) {
-            boolean added = true;
-            for (DatasetField dsfo : originalVersion.getDatasetFields()) {
-                if (dsfo.getDatasetFieldType().equals(dsfn.getDatasetFieldType())) {
-                    added = false;
-                    break;
-                }
-            }
+            boolean added = !originalFieldTypes.contains(dsfn.getDatasetFieldType());
 
             if (added && !dsfn.isEmpty()) {
                 if (dsfn.getDatasetFieldType().isPrimitive()){
@@ -387,8 +384,6 @@ public final class DatasetVersionDifference {
     }
     
     private void compareValues(DatasetField originalField, DatasetField newField, boolean compound) {
-        String originalValue = "";
-        String newValue = "";
         int countOriginal = 0;
         int countNew = 0;
         int totalAdded = 0;
@@ -397,21 +392,18 @@ public final class DatasetVersionDifference {
         int loopIndex = 0;
 
         if (compound) {
+            // The compound values are compared by position, each as the display
+            // values of all the compound values up to it (so a value inserted
+            // or removed counts all the ones after it as changed)
+            CumulativeValues values = new CumulativeValues();
+            List<DatasetFieldCompoundValue> newCompoundValues = newField.getDatasetFieldCompoundValues();
             for (DatasetFieldCompoundValue datasetFieldCompoundValueOriginal : originalField.getDatasetFieldCompoundValues()) {
-                if (newField.getDatasetFieldCompoundValues().size() >= loopIndex + 1) {
-                    for (DatasetField dsfo : datasetFieldCompoundValueOriginal.getChildDatasetFields()) {
-                        if (!dsfo.getDisplayValue().isEmpty()) {
-                            originalValue += dsfo.getDisplayValue() + ", ";
-                        }
-                    }
-                    for (DatasetField dsfn : newField.getDatasetFieldCompoundValues().get(loopIndex).getChildDatasetFields()) {
-                        if (!dsfn.getDisplayValue().isEmpty()) {
-                            newValue += dsfn.getDisplayValue() + ", ";
-                        }
-                    }
-                    if (originalValue.isEmpty() && !newValue.isEmpty()) {
+                if (newCompoundValues.size() >= loopIndex + 1) {
+                    values.appendOriginal(datasetFieldCompoundValueOriginal);
+                    values.appendNew(newCompoundValues.get(loopIndex));
+                    if (values.isOriginalEmpty() && !values.isNewEmpty()) {
                         totalAdded++;
-                    } else if (!newValue.isEmpty() && !originalValue.trim().equals(newValue.trim())) {
+                    } else if (!values.isNewEmpty() && !values.areEqual()) {
                         totalChanged++;
                     }
                 }
@@ -432,11 +424,12 @@ public final class DatasetVersionDifference {
                 }
             }
             String nString = "";
-            originalValue = originalField.getDisplayValue();
-            newValue = newField.getDisplayValue();
+            String originalValue = originalField.getDisplayValue();
+            String newValue = newField.getDisplayValue();
+            List<String> newValues = newField.getValues();
             for (String oString : originalField.getValues()) {
-                if (newField.getValues().size() >= (index + 1)) {
-                    nString = newField.getValues().get(index);
+                if (newValues.size() >= (index + 1)) {
+                    nString = newValues.get(index);
                 }
                 if (nString != null && oString != null && !oString.trim().equals(nString.trim())) {
                     totalChanged++;
@@ -466,42 +459,51 @@ public final class DatasetVersionDifference {
     }
 
     public String getFileNote() {
+        return getFileNote(addedFiles.size(), removedFiles.size(), replacedFiles.size(),
+                changedFileMetadata.size() / 2, changedVariableMetadata.size() / 2);
+    }
+
+    /**
+     * @return the note on the files added, removed, replaced, changed and
+     * with variable metadata changed, as displayed on the versions tab.
+     */
+    static String getFileNote(int added, int removed, int replaced, int changed, int variablesChanged) {
         String retString = "";
 
-        if (addedFiles.size() > 0) {
-            retString = BundleUtil.getStringFromBundle("dataset.version.file.added", Arrays.asList(addedFiles.size()+""));
+        if (added > 0) {
+            retString = BundleUtil.getStringFromBundle("dataset.version.file.added", Arrays.asList(added+""));
         }
 
-        if (removedFiles.size() > 0) {
+        if (removed > 0) {
             if (retString.isEmpty()) {
-                retString = BundleUtil.getStringFromBundle("dataset.version.file.removed", Arrays.asList(removedFiles.size()+""));
+                retString = BundleUtil.getStringFromBundle("dataset.version.file.removed", Arrays.asList(removed+""));
             } else {
-                retString += BundleUtil.getStringFromBundle("dataset.version.file.removed2", Arrays.asList(removedFiles.size()+""));
+                retString += BundleUtil.getStringFromBundle("dataset.version.file.removed2", Arrays.asList(removed+""));
             }
         }
         
-        if (replacedFiles.size() > 0) {
+        if (replaced > 0) {
             if (retString.isEmpty()) {
-                retString = BundleUtil.getStringFromBundle("dataset.version.file.replaced", Arrays.asList(replacedFiles.size()+""));
+                retString = BundleUtil.getStringFromBundle("dataset.version.file.replaced", Arrays.asList(replaced+""));
             } else {
-                retString += BundleUtil.getStringFromBundle("dataset.version.file.replaced2", Arrays.asList(replacedFiles.size()+""));
+                retString += BundleUtil.getStringFromBundle("dataset.version.file.replaced2", Arrays.asList(replaced+""));
             }
         }
         
 
-        if (changedFileMetadata.size() > 0) {
+        if (changed > 0) {
             if (retString.isEmpty()) {
-                retString = BundleUtil.getStringFromBundle("dataset.version.file.changed", Arrays.asList(changedFileMetadata.size() / 2+""));
+                retString = BundleUtil.getStringFromBundle("dataset.version.file.changed", Arrays.asList(changed+""));
             } else {
-                retString += BundleUtil.getStringFromBundle("dataset.version.file.changed2", Arrays.asList(changedFileMetadata.size() / 2+""));
+                retString += BundleUtil.getStringFromBundle("dataset.version.file.changed2", Arrays.asList(changed+""));
             }
         }
 
-        if (changedVariableMetadata.size()  > 0) {
+        if (variablesChanged > 0) {
             if (retString.isEmpty()) {
-                retString = BundleUtil.getStringFromBundle("dataset.version.variablemetadata.changed", Arrays.asList(changedVariableMetadata.size() / 2+""));
+                retString = BundleUtil.getStringFromBundle("dataset.version.variablemetadata.changed", Arrays.asList(variablesChanged+""));
             } else {
-                retString += BundleUtil.getStringFromBundle("dataset.version.variablemetadata.changed2", Arrays.asList(changedVariableMetadata.size() / 2+""));
+                retString += BundleUtil.getStringFromBundle("dataset.version.variablemetadata.changed2", Arrays.asList(variablesChanged+""));
             }
         }
 
@@ -628,11 +630,15 @@ public final class DatasetVersionDifference {
         
         if (!replacedFiles.isEmpty()) {
             
+            // The replaced and replacing files are taken off the lists below,
+            // in one pass over each list rather than one per replacement
+            Map<Long, Integer> replacedFileMetadataIds = new HashMap<>();
+            Map<Long, Integer> replacingFileMetadataIds = new HashMap<>();
             replacedFiles.stream().map((replacedPair) -> {
                 FileMetadata replacedFile = replacedPair[0];
                 FileMetadata newFile = replacedPair[1];
-                fileMetadatasNew.remove(newFile);
-                fileMetadatasOriginal.remove(replacedFile);
+                replacingFileMetadataIds.merge(newFile.getId(), 1, Integer::sum);
+                replacedFileMetadataIds.merge(replacedFile.getId(), 1, Integer::sum);
                 datasetFileDifferenceItem fdi = selectFileMetadataDiffs(replacedFile, newFile);
                 datasetReplaceFileItem fdr = new datasetReplaceFileItem();
                 String diffLabel = BundleUtil.getStringFromBundle("file.dataFilesTab.versions.replaced");
@@ -650,6 +656,8 @@ public final class DatasetVersionDifference {
             }).forEach((fdr) -> {
                 datasetFilesReplacementList.add(fdr);
             });
+            removeFileMetadatas(fileMetadatasNew, replacingFileMetadataIds);
+            removeFileMetadatas(fileMetadatasOriginal, replacedFileMetadataIds);
 
         }
 
@@ -766,6 +774,21 @@ public final class DatasetVersionDifference {
         }
     }
 
+    /**
+     * Removes the first (count) file metadatas with each id from the list, as
+     * List.remove() would (FileMetadata.equals() compares the ids).
+     */
+    private static void removeFileMetadatas(List<FileMetadata> fileMetadatas, Map<Long, Integer> countsById) {
+        fileMetadatas.removeIf(fileMetadata -> {
+            Integer count = countsById.get(fileMetadata.getId());
+            if (count == null || count == 0) {
+                return false;
+            }
+            countsById.put(fileMetadata.getId(), count - 1);
+            return true;
+        });
+    }
+
     private boolean fileMetadataIsDifferent(FileMetadata fm1, FileMetadata fm2) {
         if (fm1 == null){
             return fm2 != null;
@@ -1551,47 +1574,42 @@ public final class DatasetVersionDifference {
             }
 
         } else {
-            List<DatasetField> originalDatasetFields = new LinkedList<DatasetField>(originalVersion.getDatasetFields());
-            Iterator<DatasetField> dsfoIter = originalDatasetFields.listIterator();
-            while (dsfoIter.hasNext()) {
-                DatasetField dsfo = dsfoIter.next();
-                boolean deleted = true;
-                Iterator<DatasetField> dsfnIter = newDatasetFields.listIterator();
-
-                while (dsfnIter.hasNext()) {
-                    DatasetField dsfn = dsfnIter.next();
-                    if (dsfo.getDatasetFieldType().equals(dsfn.getDatasetFieldType())) {
-                        deleted = false;
-                        if (!changedBlockSet.contains(dsfo.getDatasetFieldType().getMetadataBlock())) {
-                            logger.fine("Checking " + dsfo.getDatasetFieldType().getName());
-                            if (dsfo.getDatasetFieldType().isPrimitive()) {
-                                if (fieldsAreDifferent(dsfo, dsfn, false)) {
-                                    logger.fine("Adding block for " + dsfo.getDatasetFieldType().getName());
-                                    changedBlockSet.add(dsfo.getDatasetFieldType().getMetadataBlock());
-                                }
-                            } else {
-                                if (fieldsAreDifferent(dsfo, dsfn, true)) {
-                                    logger.fine("Adding block for " + dsfo.getDatasetFieldType().getName());
-                                    changedBlockSet.add(dsfo.getDatasetFieldType().getMetadataBlock());
-                                }
+            // Each original field is compared with the first new field of the
+            // same type that hasn't been compared yet
+            Map<DatasetFieldType, LinkedList<DatasetField>> newDatasetFieldsByType = new HashMap<>();
+            for (DatasetField dsfn : newDatasetFields) {
+                newDatasetFieldsByType.computeIfAbsent(dsfn.getDatasetFieldType(), type -> new LinkedList<>()).add(dsfn);
+            }
+            for (DatasetField dsfo : originalVersion.getDatasetFields()) {
+                LinkedList<DatasetField> sameType = newDatasetFieldsByType.get(dsfo.getDatasetFieldType());
+                DatasetField dsfn = sameType == null ? null : sameType.poll();
+                if (dsfn != null) {
+                    if (!changedBlockSet.contains(dsfo.getDatasetFieldType().getMetadataBlock())) {
+                        logger.fine("Checking " + dsfo.getDatasetFieldType().getName());
+                        if (dsfo.getDatasetFieldType().isPrimitive()) {
+                            if (fieldsAreDifferent(dsfo, dsfn, false)) {
+                                logger.fine("Adding block for " + dsfo.getDatasetFieldType().getName());
+                                changedBlockSet.add(dsfo.getDatasetFieldType().getMetadataBlock());
+                            }
+                        } else {
+                            if (fieldsAreDifferent(dsfo, dsfn, true)) {
+                                logger.fine("Adding block for " + dsfo.getDatasetFieldType().getName());
+                                changedBlockSet.add(dsfo.getDatasetFieldType().getMetadataBlock());
                             }
                         }
-                        dsfnIter.remove();
-                        break; // if found go to next dataset field
                     }
-                }
-
-                if (deleted) {
+                } else {
                     logger.fine("Adding block for deleted " + dsfo.getDatasetFieldType().getName());
                     changedBlockSet.add(dsfo.getDatasetFieldType().getMetadataBlock());
                 }
-                dsfoIter.remove();
             }
             // Only fields left are non-matching ones but they may be empty
-            for (DatasetField dsfn : newDatasetFields) {
-                if (!dsfn.isEmpty()) {
-                    logger.fine("Adding block for added " + dsfn.getDatasetFieldType().getName());
-                    changedBlockSet.add(dsfn.getDatasetFieldType().getMetadataBlock());
+            for (LinkedList<DatasetField> sameType : newDatasetFieldsByType.values()) {
+                for (DatasetField dsfn : sameType) {
+                    if (!dsfn.isEmpty()) {
+                        logger.fine("Adding block for added " + dsfn.getDatasetFieldType().getName());
+                        changedBlockSet.add(dsfn.getDatasetFieldType().getMetadataBlock());
+                    }
                 }
             }
         }
@@ -1599,34 +1617,24 @@ public final class DatasetVersionDifference {
     }
 
     private static boolean fieldsAreDifferent(DatasetField originalField, DatasetField newField, boolean compound) {
-        String originalValue = "";
-        String newValue = "";
-
         if (compound) {
+            // (each of the original compound values is compared with the first new one)
+            CumulativeValues values = new CumulativeValues();
             for (DatasetFieldCompoundValue datasetFieldCompoundValueOriginal : originalField
                     .getDatasetFieldCompoundValues()) {
                 int loopIndex = 0;
                 if (newField.getDatasetFieldCompoundValues().size() >= loopIndex + 1) {
-                    for (DatasetField dsfo : datasetFieldCompoundValueOriginal.getChildDatasetFields()) {
-                        if (!dsfo.getDisplayValue().isEmpty()) {
-                            originalValue += dsfo.getDisplayValue() + ", ";
-                        }
-                    }
-                    for (DatasetField dsfn : newField.getDatasetFieldCompoundValues().get(loopIndex)
-                            .getChildDatasetFields()) {
-                        if (!dsfn.getDisplayValue().isEmpty()) {
-                            newValue += dsfn.getDisplayValue() + ", ";
-                        }
-                    }
-                    if (!originalValue.trim().equals(newValue.trim())) {
+                    values.appendOriginal(datasetFieldCompoundValueOriginal);
+                    values.appendNew(newField.getDatasetFieldCompoundValues().get(loopIndex));
+                    if (!values.areEqual()) {
                         return true;
                     }
                 }
                 loopIndex++;
             }
         } else {
-            originalValue = originalField.getDisplayValue();
-            newValue = newField.getDisplayValue();
+            String originalValue = originalField.getDisplayValue();
+            String newValue = newField.getDisplayValue();
             if (!originalValue.equalsIgnoreCase(newValue)) {
                 return true;
             }
@@ -1634,6 +1642,86 @@ public final class DatasetVersionDifference {
         return false;
     }
 
+    /**
+     * The display values of the compound values of a field in the 2 versions,
+     * each appended as "value, " for each of its non empty child fields, and
+     * compared (trimmed) after each compound value. The comparison picks up
+     * where it left off, rather than starting over with ever longer strings:
+     * comparing thousands of compound values is linear rather than quadratic.
+     */
+    static final class CumulativeValues {
+
+        private final StringBuilder originalValues = new StringBuilder();
+        private final StringBuilder newValues = new StringBuilder();
+        // The lengths of the values once trimmed at the end
+        private int originalLength;
+        private int newLength;
+        // The length of their common prefix, as far as it has been compared
+        private int commonLength;
+        private boolean differ;
+
+        void appendOriginal(DatasetFieldCompoundValue compoundValue) {
+            originalLength = append(originalValues, originalLength, compoundValue);
+        }
+
+        void appendNew(DatasetFieldCompoundValue compoundValue) {
+            newLength = append(newValues, newLength, compoundValue);
+        }
+
+        boolean isOriginalEmpty() {
+            return originalValues.length() == 0;
+        }
+
+        boolean isNewEmpty() {
+            return newValues.length() == 0;
+        }
+
+        /**
+         * @return whether the values appended so far are the same, once
+         * trimmed.
+         */
+        boolean areEqual() {
+            int length = Math.min(originalValues.length(), newValues.length());
+            while (!differ && commonLength < length) {
+                if (originalValues.charAt(commonLength) != newValues.charAt(commonLength)) {
+                    // and will, whatever is appended
+                    differ = true;
+                } else {
+                    commonLength++;
+                }
+            }
+            return originalLength == newLength && commonLength >= originalLength;
+        }
+
+        private static int append(StringBuilder values, int trimmedLength, DatasetFieldCompoundValue compoundValue) {
+            for (DatasetField childField : compoundValue.getChildDatasetFields()) {
+                trimmedLength = append(values, trimmedLength, childField.getDisplayValue());
+            }
+            return trimmedLength;
+        }
+
+        private static int append(StringBuilder values, int trimmedLength, String displayValue) {
+            if (displayValue.isEmpty()) {
+                return trimmedLength;
+            }
+            String value = displayValue + ", ";
+            int start = 0;
+            if (values.length() == 0) {
+                // trimmed at the start
+                while (start < value.length() && value.charAt(start) <= ' ') {
+                    start++;
+                }
+            }
+            values.append(value, start, value.length());
+            for (int i = values.length(); i > trimmedLength; i--) {
+                if (values.charAt(i - 1) > ' ') {
+                    return i;
+                }
+            }
+            return trimmedLength;
+        }
+    }
+
     List<FileMetadata> getChangedVariableMetadata() {
         return changedVariableMetadata;
     }
@@ -0,0 +1,143 @@
+package edu.harvard.iq.dataverse;
+
+import edu.harvard.iq.dataverse.util.json.JsonUtil;
+import jakarta.ejb.EJB;
+import jakarta.ejb.Stateless;
+import jakarta.ejb.TransactionAttribute;
+import jakarta.ejb.TransactionAttributeType;
+import jakarta.json.Json;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonObjectBuilder;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * The differences between the versions of the datasets, kept in the
+ * datasetversiondifference table for the pairs of versions that are both
+ * released: released versions don't change (but when their metadata is
+ * curated, see {@link #deleteDifferences}), so neither do their differences.
+ *
+ * The summary displayed on the versions tab is stored when a version is
+ * published, for the version and the previous one, and the first time it is
+ * displayed for those published before. The differences returned by the API
+ * are stored the first time they are requested. The differences with a draft
+ * are computed each time.
+ */
+@Stateless
+public class DatasetVersionDifferenceServiceBean {
+
+    private static final Logger logger = Logger.getLogger(DatasetVersionDifferenceServiceBean.class.getCanonicalName());
+
+    @PersistenceContext(unitName = "VDCNet-ejbPU")
+    EntityManager em;
+
+    @EJB
+    DatasetFieldServiceBean datasetFieldService;
+
+    /**
+     * @return the summary of the differences between the version and the one
+     * it is compared to by default, or null if there is none.
+     * @see DatasetVersion#getDefaultOriginalVersion()
+     */
+    public DatasetVersionDifferenceSummary getDefaultSummary(DatasetVersion version) {
+        DatasetVersion originalVersion = version.getDefaultOriginalVersion();
+        if (originalVersion == null) {
+            return null;
+        }
+        if (!bothReleased(version, originalVersion)) {
+            return DatasetVersionDifferenceSummary.of(version.getDefaultVersionDifference());
+        }
+        List<?> summaries = em.createNativeQuery("SELECT summary FROM datasetversiondifference WHERE newversion_id = ?1 AND originalversion_id = ?2")
+                .setParameter(1, version.getId())
+                .setParameter(2, originalVersion.getId())
+                .getResultList();
+        if (!summaries.isEmpty()) {
+            DatasetVersionDifferenceSummary summary = DatasetVersionDifferenceSummary.fromJson((String) summaries.get(0), datasetFieldService::find);
+            if (summary.getFieldNotes().stream().noneMatch(note -> note.getFieldType() == null)
+                    && summary.getBlockNotes().stream().noneMatch(note -> note.getFieldType() == null)) {
+                return summary;
+            }
+            // (a field type was removed since, with its metadata block)
+            logger.fine(() -> "Summary of the differences between versions " + originalVersion.getId() + " and " + version.getId() + " is out of date");
+        }
+        DatasetVersionDifferenceSummary summary = DatasetVersionDifferenceSummary.of(version.getDefaultVersionDifference());
+        storeSummary(version, originalVersion, summary);
+        return summary;
+    }
+
+    /**
+     * The differences between 2 versions, as returned by the API.
+     * @see DatasetVersionDifference#compareVersionsAsJson()
+     */
+    public JsonObjectBuilder compareVersions(DatasetVersion originalVersion, DatasetVersion newVersion) {
+        if (!bothReleased(newVersion, originalVersion)) {
+            return DatasetVersion.compareVersions(originalVersion, newVersion);
+        }
+        List<?> comparisons = em.createNativeQuery("SELECT comparison FROM datasetversiondifference WHERE newversion_id = ?1 AND originalversion_id = ?2 AND comparison IS NOT NULL")
+                .setParameter(1, newVersion.getId())
+                .setParameter(2, originalVersion.getId())
+                .getResultList();
+        if (!comparisons.isEmpty()) {
+            return Json.createObjectBuilder(JsonUtil.getJsonObject((String) comparisons.get(0)));
+        }
+        DatasetVersionDifference difference = new DatasetVersionDifference(newVersion, originalVersion);
+        JsonObject comparison = difference.compareVersionsAsJson().build();
+        em.createNativeQuery("INSERT INTO datasetversiondifference (newversion_id, originalversion_id, summary, comparison) VALUES (?1, ?2, ?3, ?4)"
+                + " ON CONFLICT (newversion_id, originalversion_id) DO UPDATE SET comparison = EXCLUDED.comparison")
+                .setParameter(1, newVersion.getId())
+                .setParameter(2, originalVersion.getId())
+                .setParameter(3, DatasetVersionDifferenceSummary.of(difference).toJson())
+                .setParameter(4, comparison.toString())
+                .executeUpdate();
+        return Json.createObjectBuilder(comparison);
+    }
+
+    /**
+     * Stores the summary of the differences between a version that was just
+     * published and the previous one (so that the versions tab doesn't have
+     * to compute it).
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void storeDifferences(DatasetVersion version) {
+        if (version == null || !version.isReleased()) {
+            return;
+        }
+        DatasetVersion originalVersion = version.getDefaultOriginalVersion();
+        if (originalVersion == null || !bothReleased(version, originalVersion)) {
+            return;
+        }
+        storeSummary(version, originalVersion, DatasetVersionDifferenceSummary.of(new DatasetVersionDifference(version, originalVersion)));
+    }
+
+    /**
+     * Deletes the differences with the version, because its metadata is
+     * being curated.
+     * @see edu.harvard.iq.dataverse.engine.command.impl.CuratePublishedDatasetVersionCommand
+     */
+    public int deleteDifferences(DatasetVersion version) {
+        return em.createNativeQuery("DELETE FROM datasetversiondifference WHERE newversion_id = ?1 OR originalversion_id = ?1")
+                .setParameter(1, version.getId())
+                .executeUpdate();
+    }
+
+    private void storeSummary(DatasetVersion version, DatasetVersion originalVersion, DatasetVersionDifferenceSummary summary) {
+        em.createNativeQuery("INSERT INTO datasetversiondifference (newversion_id, originalversion_id, summary) VALUES (?1, ?2, ?3)"
+                + " ON CONFLICT (newversion_id, originalversion_id) DO UPDATE SET summary = EXCLUDED.summary")
+                .setParameter(1, version.getId())
+                .setParameter(2, originalVersion.getId())
+                .setParameter(3, summary.toJson())
+                .executeUpdate();
+    }
+
+    /**
+     * @return whether the differences between the versions are (to be)
+     * stored: they are as long as both versions are released.
+     */
+    static boolean bothReleased(DatasetVersion newVersion, DatasetVersion originalVersion) {
+        return newVersion.getId() != null && originalVersion.getId() != null
+                && newVersion.isReleased() && originalVersion.isReleased();
+    }
+}
@@ -0,0 +1,172 @@
+package edu.harvard.iq.dataverse;
+
+import edu.harvard.iq.dataverse.util.json.JsonUtil;
+import jakarta.json.Json;
+import jakarta.json.JsonArrayBuilder;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonValue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * What the versions tab says about the differences between a version and the
+ * previous one: the number of values added, removed and changed per field and
+ * per metadata block, the number of files added, removed, replaced and
+ * changed, and whether the terms of use and access changed.
+ *
+ * Unlike a {@link DatasetVersionDifference}, it only refers to the field types
+ * by id, and to nothing else in the versions: it is serialized with
+ * {@link #toJson()} and stored, for versions that are both released, by the
+ * {@link DatasetVersionDifferenceServiceBean}. (The notes are put in words, in
+ * the language of the page, when displayed.)
+ */
+public final class DatasetVersionDifferenceSummary {
+
+    private final List<Note> fieldNotes;
+    private final List<Note> blockNotes;
+    private final int addedFiles;
+    private final int removedFiles;
+    private final int replacedFiles;
+    private final int changedFiles;
+    private final int changedVariables;
+    private final boolean termsOfUseAndAccessChanged;
+
+    /**
+     * The number of values added, removed and changed for a field, or for the
+     * fields of a metadata block (in which case fieldType is the first of them
+     * that changed).
+     */
+    public static final class Note {
+
+        private final DatasetFieldType fieldType;
+        private final int added;
+        private final int deleted;
+        private final int changed;
+
+        Note(DatasetFieldType fieldType, int added, int deleted, int changed) {
+            this.fieldType = fieldType;
+            this.added = added;
+            this.deleted = deleted;
+            this.changed = changed;
+        }
+
+        public DatasetFieldType getFieldType() {
+            return fieldType;
+        }
+
+        public int getAdded() {
+            return added;
+        }
+
+        public int getDeleted() {
+            return deleted;
+        }
+
+        public int getChanged() {
+            return changed;
+        }
+    }
+
+    private DatasetVersionDifferenceSummary(List<Note> fieldNotes, List<Note> blockNotes, int addedFiles, int removedFiles,
+            int replacedFiles, int changedFiles, int changedVariables, boolean termsOfUseAndAccessChanged) {
+        this.fieldNotes = fieldNotes;
+        this.blockNotes = blockNotes;
+        this.addedFiles = addedFiles;
+        this.removedFiles = removedFiles;
+        this.replacedFiles = replacedFiles;
+        this.changedFiles = changedFiles;
+        this.changedVariables = changedVariables;
+        this.termsOfUseAndAccessChanged = termsOfUseAndAccessChanged;
+    }
+
+    public static DatasetVersionDifferenceSummary of(DatasetVersionDifference difference) {
+        return new DatasetVersionDifferenceSummary(
+                notes(difference.getSummaryDataForNote()),
+                notes(difference.getBlockDataForNote()),
+                difference.getAddedFiles().size(),
+                difference.getRemovedFiles().size(),
+                difference.getReplacedFiles().size(),
+                difference.getChangedFileMetadata().size() / 2,
+                difference.getChangedVariableMetadata().size() / 2,
+                !difference.getChangedTermsAccess().isEmpty());
+    }
+
+    private static List<Note> notes(List<Object[]> dataForNote) {
+        List<Note> notes = new ArrayList<>(dataForNote.size());
+        for (Object[] note : dataForNote) {
+            notes.add(new Note(((DatasetField) note[0]).getDatasetFieldType(), (Integer) note[1], (Integer) note[2], (Integer) note[3]));
+        }
+        return notes;
+    }
+
+    public String toJson() {
+        return Json.createObjectBuilder()
+                .add("fields", toJson(fieldNotes))
+                .add("blocks", toJson(blockNotes))
+                .add("files", Json.createObjectBuilder()
+                        .add("added", addedFiles)
+                        .add("removed", removedFiles)
+                        .add("replaced", replacedFiles)
+                        .add("changed", changedFiles)
+                        .add("variablesChanged", changedVariables))
+                .add("termsOfUseAndAccessChanged", termsOfUseAndAccessChanged)
+                .build().toString();
+    }
+
+    private static JsonArrayBuilder toJson(List<Note> notes) {
+        JsonArrayBuilder jab = Json.createArrayBuilder();
+        for (Note note : notes) {
+            jab.add(Json.createObjectBuilder()
+                    .add("fieldTypeId", note.getFieldType().getId())
+                    .add("added", note.getAdded())
+                    .add("deleted", note.getDeleted())
+                    .add("changed", note.getChanged()));
+        }
+        return jab;
+    }
+
+    /**
+     * @param json as serialized by {@link #toJson()}.
+     * @param fieldTypes finds the field types by id.
+     */
+    public static DatasetVersionDifferenceSummary fromJson(String json, Function<Long, DatasetFieldType> fieldTypes) {
+        JsonObject summary = JsonUtil.getJsonObject(json);
+        JsonObject files = summary.getJsonObject("files");
+        return new DatasetVersionDifferenceSummary(
+                notes(summary.getJsonArray("fields").getValuesAs(JsonValue::asJsonObject), fieldTypes),
+                notes(summary.getJsonArray("blocks").getValuesAs(JsonValue::asJsonObject), fieldTypes),
+                files.getInt("added"),
+                files.getInt("removed"),
+                files.getInt("replaced"),
+                files.getInt("changed"),
+                files.getInt("variablesChanged"),
+                summary.getBoolean("termsOfUseAndAccessChanged"));
+    }
+
+    private static List<Note> notes(List<JsonObject> json, Function<Long, DatasetFieldType> fieldTypes) {
+        List<Note> notes = new ArrayList<>(json.size());
+        for (JsonObject note : json) {
+            notes.add(new Note(fieldTypes.apply(note.getJsonNumber("fieldTypeId").longValue()),
+                    note.getInt("added"), note.getInt("deleted"), note.getInt("changed")));
+        }
+        return notes;
+    }
+
+    public List<Note> getFieldNotes() {
+        return fieldNotes;
+    }
+
+    public List<Note> getBlockNotes() {
+        return blockNotes;
+    }
+
+    public String getFileNote() {
+        return DatasetVersionDifference.getFileNote(addedFiles, removedFiles, replacedFiles, changedFiles, changedVariables);
+    }
+
+    public boolean isTermsOfUseAndAccessChanged() {
+        return termsOfUseAndAccessChanged;
+    }
+}
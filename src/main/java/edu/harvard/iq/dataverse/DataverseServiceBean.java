@@ -27,11 +27,13 @@ import java.io.File;
 import java.io.IOException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 import java.util.Properties;
 
 import edu.harvard.iq.dataverse.validation.JSONDataValidation;
@@ -104,7 +106,7 @@ public class DataverseServiceBean implements java.io.Serializable {
     @PersistenceContext(unitName = "VDCNet-ejbPU")
     private EntityManager em;
 
-    private static final String BASE_QUERY_DATASET_TITLES_WITHIN_DV = "select v.value, o.id\n" 
+    private static final String BASE_QUERY_DATASET_TITLES = "select v.value, o.id\n" 
                 + "from datasetfieldvalue v, dvobject o "
                 + "where " 
                 + "v.datasetfield_id = (select id from datasetfield f where datasetfieldtype_id = 1 " 
@@ -904,11 +906,11 @@ public class DataverseServiceBean implements java.io.Serializable {
         return (result);
     }
     
-    // A quick custom query that finds all the (direct children) dataset titles 
-    // with a dataverse and returns a list of (dataset_id, title) pairs. 
-    public List<Object[]> getDatasetTitlesWithinDataverse(Long dataverseId) {
-        String cqString = BASE_QUERY_DATASET_TITLES_WITHIN_DV
-                + "and o.owner_id = " + dataverseId;
+    // A quick custom query that finds the titles of the given datasets 
+    // and returns a list of (title, dataset_id) pairs. 
+    public List<Object[]> getDatasetTitles(Collection<Integer> datasetIds) {
+        String cqString = BASE_QUERY_DATASET_TITLES
+                + "and o.id in (" + datasetIds.stream().map(String::valueOf).collect(Collectors.joining(",")) + ")";
 
         return em.createNativeQuery(cqString).getResultList();
     }
@@ -0,0 +1,122 @@
+package edu.harvard.iq.dataverse;
+
+import edu.harvard.iq.dataverse.util.SystemConfig;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import jakarta.ejb.ConcurrencyManagement;
+import jakarta.ejb.ConcurrencyManagementType;
+import jakarta.ejb.EJB;
+import jakarta.ejb.Singleton;
+import jakarta.ejb.Startup;
+import jakarta.enterprise.concurrent.ManagedScheduledExecutorService;
+import jakarta.enterprise.event.Observes;
+import jakarta.enterprise.event.TransactionPhase;
+
+/**
+ * Keeps the download counts of DownloadCountServiceBean up to date.
+ *
+ * The guestbook responses are added to the counts in batches, in the
+ * background, as soon as a transaction that saved responses has committed,
+ * and then every minute on the timer server, to pick up those left over by a
+ * server that went down. The counts are rebuilt from the responses once a
+ * day on the timer server, or on demand through the admin API.
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class DownloadCountAggregator {
+
+    private static final Logger logger = Logger.getLogger(DownloadCountAggregator.class.getCanonicalName());
+
+    static final int BATCH_SIZE = 1000;
+    private static final long POLLING_INTERVAL_SECONDS = 60;
+    private static final long RECONCILIATION_INTERVAL_HOURS = 24;
+
+    @Resource
+    ManagedScheduledExecutorService scheduler;
+
+    @EJB
+    DownloadCountServiceBean downloadCounts;
+    @EJB
+    SystemConfig systemConfig;
+
+    private final AtomicBoolean aggregating = new AtomicBoolean();
+    private final AtomicBoolean aggregationRequested = new AtomicBoolean();
+
+    @PostConstruct
+    public void init() {
+        if (systemConfig.isTimerServer()) {
+            scheduler.scheduleWithFixedDelay(this::requestAggregation, POLLING_INTERVAL_SECONDS, POLLING_INTERVAL_SECONDS, TimeUnit.SECONDS);
+            scheduler.scheduleWithFixedDelay(this::scheduledReconciliation, RECONCILIATION_INTERVAL_HOURS, RECONCILIATION_INTERVAL_HOURS, TimeUnit.HOURS);
+        }
+    }
+
+    /**
+     * Adds the response to the counts once its transaction has committed.
+     */
+    public void onResponseSaved(@Observes(during = TransactionPhase.AFTER_SUCCESS) DownloadCountServiceBean.ResponseSaved event) {
+        requestAggregation();
+    }
+
+    /**
+     * Starts adding the responses to the counts in the background, unless
+     * that is being done already: then it will go on for another round, to
+     * pick up the responses that were just saved.
+     */
+    void requestAggregation() {
+        aggregationRequested.set(true);
+        if (aggregating.compareAndSet(false, true)) {
+            scheduler.execute(this::aggregateWhileRequested);
+        }
+    }
+
+    private void aggregateWhileRequested() {
+        do {
+            try {
+                while (aggregationRequested.getAndSet(false)) {
+                    aggregate();
+                }
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Failed to update the download counts", e);
+            } finally {
+                aggregating.set(false);
+            }
+            // A request may have come in after the last round, but before
+            // aggregating was reset: if nobody else picked it up, we do.
+        } while (aggregationRequested.get() && aggregating.compareAndSet(false, true));
+    }
+
+    private void aggregate() {
+        int counted;
+        do {
+            counted = downloadCounts.aggregate(BATCH_SIZE);
+        } while (counted == BATCH_SIZE);
+    }
+
+    /**
+     * Rebuilds the download counts from the guestbook responses.
+     *
+     * @return the number of counts that were off, and fixed.
+     */
+    public int reconcile() {
+        int fixed = downloadCounts.reconcile();
+        if (fixed > 0) {
+            logger.info("Fixed " + fixed + " download counts that were off");
+        }
+        return fixed;
+    }
+
+    private void scheduledReconciliation() {
+        try {
+            reconcile();
+        } catch (RuntimeException e) {
+            // (not thrown, or there would be no next time)
+            logger.log(Level.WARNING, "Failed to rebuild the download counts", e);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package edu.harvard.iq.dataverse;
+
+import java.util.List;
+import java.util.logging.Logger;
+import jakarta.ejb.Stateless;
+import jakarta.ejb.TransactionAttribute;
+import jakarta.ejb.TransactionAttributeType;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+/**
+ * The download counts of the files and datasets, and their total, kept in
+ * the datafiledownloadcount, datasetdownloadcount and totaldownloadcount
+ * tables rather than counted from the guestbookresponse table each time they
+ * are displayed.
+ *
+ * As with the counts they replace, any GuestbookResponse that is not of
+ * eventtype 'AccessRequest' is a download. The responses are added to the
+ * counts by the DownloadCountAggregator, shortly after they are saved: each
+ * one is marked as counted (guestbookresponse.downloadcounted) in the
+ * transaction that adds it to the counts, so it is counted once, whichever
+ * server gets to it.
+ */
+@Stateless
+public class DownloadCountServiceBean {
+
+    private static final Logger logger = Logger.getLogger(DownloadCountServiceBean.class.getCanonicalName());
+
+    /**
+     * Fired when a guestbook response is saved. Observed once the transaction
+     * has committed, to add it to the counts.
+     */
+    public record ResponseSaved() {}
+
+    private static final String DOWNLOAD = "eventtype != '" + GuestbookResponse.ACCESS_REQUEST + "'";
+
+    // Marks a batch of the responses that haven't been counted as counted,
+    // and adds the downloads among them to the counts, in one statement.
+    // (Responses being counted by another server are skipped.)
+    private static final String AGGREGATE_QUERY = "WITH claimed AS ("
+            + " UPDATE guestbookresponse SET downloadcounted = true"
+            + " WHERE id IN (SELECT id FROM guestbookresponse WHERE NOT downloadcounted ORDER BY id LIMIT ?1 FOR UPDATE SKIP LOCKED)"
+            + " RETURNING datafile_id, dataset_id, eventtype"
+            + "), files AS ("
+            + " INSERT INTO datafiledownloadcount (datafile_id, downloadcount)"
+            + " SELECT datafile_id, COUNT(*) FROM claimed WHERE datafile_id IS NOT NULL AND " + DOWNLOAD + " GROUP BY datafile_id"
+            + " ON CONFLICT (datafile_id) DO UPDATE SET downloadcount = datafiledownloadcount.downloadcount + EXCLUDED.downloadcount"
+            + "), datasets AS ("
+            + " INSERT INTO datasetdownloadcount (dataset_id, downloadcount)"
+            + " SELECT dataset_id, COUNT(*) FROM claimed WHERE dataset_id IS NOT NULL AND " + DOWNLOAD + " GROUP BY dataset_id"
+            + " ON CONFLICT (dataset_id) DO UPDATE SET downloadcount = datasetdownloadcount.downloadcount + EXCLUDED.downloadcount"
+            + "), total AS ("
+            + " UPDATE totaldownloadcount SET downloadcount = downloadcount + (SELECT COUNT(*) FROM claimed WHERE dataset_id IS NOT NULL AND " + DOWNLOAD + ")"
+            + " WHERE id = 1"
+            + ") SELECT COUNT(*) FROM claimed";
+
+    @PersistenceContext(unitName = "VDCNet-ejbPU")
+    private EntityManager em;
+
+    public Long getDataFileCount(Long dataFileId) {
+        return getCount("datafiledownloadcount", "datafile_id", dataFileId);
+    }
+
+    public Long getDatasetCount(Long datasetId) {
+        return getCount("datasetdownloadcount", "dataset_id", datasetId);
+    }
+
+    public Long getTotalCount() {
+        List<?> total = em.createNativeQuery("SELECT downloadcount FROM totaldownloadcount WHERE id = 1").getResultList();
+        return total.isEmpty() ? 0L : ((Number) total.get(0)).longValue();
+    }
+
+    private Long getCount(String table, String idColumn, Long id) {
+        // id is null, will return 0
+        if (id == null) {
+            return 0L;
+        }
+        List<?> counts = em.createNativeQuery("SELECT downloadcount FROM " + table + " WHERE " + idColumn + " = ?1")
+                .setParameter(1, id)
+                .getResultList();
+        return counts.isEmpty() ? 0L : ((Number) counts.get(0)).longValue();
+    }
+
+    /**
+     * Adds a batch of the responses that haven't been counted yet to the
+     * counts.
+     *
+     * @return the number of responses counted (downloads or not): if less
+     * than batchSize, there are none left, but for those being counted
+     * elsewhere.
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public int aggregate(int batchSize) {
+        Number counted = (Number) em.createNativeQuery(AGGREGATE_QUERY)
+                .setParameter(1, batchSize)
+                .getSingleResult();
+        return counted.intValue();
+    }
+
+    /**
+     * Rebuilds the counts from the responses that have been counted, fixing
+     * those that drifted from them (because responses were deleted, for
+     * instance). The counts can be read meanwhile; the responses saved
+     * meanwhile are added to them afterwards.
+     *
+     * @return the number of counts fixed.
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public int reconcile() {
+        // Waits for the aggregations under way, and holds off the next ones
+        em.createNativeQuery("LOCK TABLE datafiledownloadcount, datasetdownloadcount, totaldownloadcount IN SHARE ROW EXCLUSIVE MODE").executeUpdate();
+        int fixed = reconcile("datafiledownloadcount", "datafile_id") + reconcile("datasetdownloadcount", "dataset_id")
+                + em.createNativeQuery("INSERT INTO totaldownloadcount (id, downloadcount)"
+                        + " SELECT 1, COALESCE(SUM(downloadcount), 0) FROM datasetdownloadcount"
+                        + " ON CONFLICT (id) DO UPDATE SET downloadcount = EXCLUDED.downloadcount"
+                        + " WHERE totaldownloadcount.downloadcount != EXCLUDED.downloadcount")
+                .executeUpdate();
+        logger.fine(() -> "Fixed " + fixed + " download counts");
+        return fixed;
+    }
+
+    private int reconcile(String table, String idColumn) {
+        Number fixed = (Number) em.createNativeQuery("WITH actual AS ("
+                + " SELECT " + idColumn + ", COUNT(id) AS downloadcount FROM guestbookresponse"
+                + " WHERE downloadcounted AND " + idColumn + " IS NOT NULL AND " + DOWNLOAD + " GROUP BY " + idColumn
+                + "), updated AS ("
+                + " INSERT INTO " + table + " (" + idColumn + ", downloadcount) SELECT " + idColumn + ", downloadcount FROM actual"
+                + " ON CONFLICT (" + idColumn + ") DO UPDATE SET downloadcount = EXCLUDED.downloadcount"
+                + " WHERE " + table + ".downloadcount != EXCLUDED.downloadcount RETURNING 1"
+                + "), deleted AS ("
+                + " DELETE FROM " + table + " c WHERE NOT EXISTS (SELECT 1 FROM actual a WHERE a." + idColumn + " = c." + idColumn + ") RETURNING 1"
+                + ") SELECT (SELECT COUNT(*) FROM updated) + (SELECT COUNT(*) FROM deleted)")
+                .getSingleResult();
+        return fixed.intValue();
+    }
+}
@@ -40,6 +40,8 @@ import jakarta.persistence.*;
             query = "SELECT o FROM DvObject o WHERE UPPER(o.identifier)=UPPER(:identifier) and o.authority=:authority and o.protocol=:protocol"),
     @NamedQuery(name = "DvObject.findByOwnerId", 
                 query = "SELECT o FROM DvObject o WHERE o.owner.id=:ownerId  order by o.dtype desc, o.id"),
+    @NamedQuery(name = "DvObject.findByOwnerIdAndDtypeAfterId",
+                query = "SELECT o FROM DvObject o WHERE o.owner.id=:ownerId AND o.dtype=:dtype AND o.id>:afterId order by o.id"),
     @NamedQuery(name = "DvObject.findByAuthenticatedUserId", 
                 query = "SELECT o FROM DvObject o WHERE o.creator.id=:ownerId or o.releaseUser.id=:releaseUserId")
 })
@@ -75,6 +75,41 @@ public class DvObjectServiceBean implements java.io.Serializable {
         return em.createNamedQuery("DvObject.findByOwnerId").setParameter("ownerId", ownerId).getResultList();
     }
     
+    /**
+     * One page of the children of a container, in the same order as
+     * {@link #findByOwnerId(Long)}: the collections first, then the datasets,
+     * each by id. Used for keyset pagination, so that large collections can
+     * be listed without loading all their children at once.
+     *
+     * @param afterType the type of the last child of the previous page, or
+     * null for the first page. It is passed along with the id, rather than
+     * looked up, so that the listing still resumes at the right place when
+     * that child has been deleted in the meantime.
+     * @param afterId the id of the last child of the previous page, or null
+     * for the first page.
+     */
+    public List<DvObject> findByOwnerIdAfter(Long ownerId, DvObject.DType afterType, Long afterId, int limit) {
+        List<DvObject> page = new ArrayList<>(limit);
+        if (afterType == null || afterType == DvObject.DType.Dataverse) {
+            page.addAll(findByOwnerIdAndDtypeAfterId(ownerId, DvObject.DType.Dataverse, afterType == null ? 0L : afterId, limit));
+            if (page.size() < limit) {
+                page.addAll(findByOwnerIdAndDtypeAfterId(ownerId, DvObject.DType.Dataset, 0L, limit - page.size()));
+            }
+        } else {
+            page.addAll(findByOwnerIdAndDtypeAfterId(ownerId, DvObject.DType.Dataset, afterId, limit));
+        }
+        return page;
+    }
+
+    private List<DvObject> findByOwnerIdAndDtypeAfterId(Long ownerId, DvObject.DType dtype, Long afterId, int limit) {
+        return em.createNamedQuery("DvObject.findByOwnerIdAndDtypeAfterId", DvObject.class)
+                .setParameter("ownerId", ownerId)
+                .setParameter("dtype", dtype.getDType())
+                .setParameter("afterId", afterId)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
     public List<DvObject> findByAuthenticatedUserId(AuthenticatedUser user) {
         Query query = em.createNamedQuery("DvObject.findByAuthenticatedUserId"); 
         query.setParameter("ownerId", user.getId());
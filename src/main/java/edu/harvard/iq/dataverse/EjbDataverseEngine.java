@@ -133,6 +133,9 @@ public class EjbDataverseEngine {
     @EJB
     DatasetTypeServiceBean datasetTypeService;
 
+    @EJB
+    DatasetVersionDifferenceServiceBean versionDifferenceService;
+
     @EJB
     DataverseLinkingServiceBean dvLinking;
     
@@ -621,6 +624,11 @@ public class EjbDataverseEngine {
                     return datasetTypeService;
                 }
 
+                @Override
+                public DatasetVersionDifferenceServiceBean versionDifferences() {
+                    return versionDifferenceService;
+                }
+
                 @Override
                 public void beginCommandSequence() {
                     this.commandsCalled = new Stack();
@@ -9,28 +9,36 @@ import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
 import edu.harvard.iq.dataverse.authorization.users.User;
 import edu.harvard.iq.dataverse.externaltools.ExternalTool;
 import edu.harvard.iq.dataverse.util.StringUtil;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 import jakarta.ejb.EJB;
 import jakarta.ejb.Stateless;
 import jakarta.ejb.TransactionAttribute;
 import jakarta.ejb.TransactionAttributeType;
+import jakarta.enterprise.event.Event;
 import jakarta.faces.model.SelectItem;
+import jakarta.inject.Inject;
 import jakarta.inject.Named;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.PersistenceContext;
 import jakarta.persistence.Query;
-import jakarta.persistence.StoredProcedureQuery;
 import jakarta.persistence.TypedQuery;
 import org.apache.commons.text.StringEscapeUtils;
 /**
@@ -44,6 +52,11 @@ public class GuestbookResponseServiceBean {
     
     @EJB
     DataverseServiceBean dataverseService;
+    @EJB
+    DownloadCountServiceBean downloadCounts;
+
+    @Inject
+    Event<DownloadCountServiceBean.ResponseSaved> responseSaved;
     
     // The query below is used for retrieving guestbook responses used to download 
     // the collected data, in CSV format, from the manage-guestbooks and 
@@ -99,7 +112,7 @@ public class GuestbookResponseServiceBean {
     private static SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("MM/d/yyyy");
     
     @PersistenceContext(unitName = "VDCNet-ejbPU")
-    private EntityManager em;
+    EntityManager em;
 
     public List<GuestbookResponse> findAll() {
         return em.createQuery("select object(o) from GuestbookResponse as o order by o.responseTime desc", GuestbookResponse.class).getResultList();
@@ -129,30 +142,53 @@ public class GuestbookResponseServiceBean {
        This method is used for streaming downloads of guestbook responses, in 
        CSV format, both for individual guestbooks, and for entire dataverses
        (with guestbookId = null).
+       The responses are read a page at a time (with a keyset cursor, on their 
+       ids), along with the answers to the custom questions and the titles of 
+       the datasets of that page only, so that the memory needed doesn't grow 
+       with the number of responses.
      */
     private static final String SEPARATOR = ",";
     private static final String NEWLINE = "\n";
+    static final int EXPORT_PAGE_SIZE = 1000;
     public void streamResponsesByDataverseIdAndGuestbookId(OutputStream out, Long dataverseId, Long guestbookId) throws IOException {
-        
-        // Before we do anything else, create a map of all the custom question responses
-        // available for this dataverse (or, this individual guestbook within the
-        // dataverse; see the comment below, how it's saving us a metric f-ton
-        // of queries now) -- L.A. 
-        
-        Map<Integer, Object> customQandAs = mapCustomQuestionAnswersAsStrings(dataverseId, guestbookId);
-        Map<Integer, String> datasetTitles = mapDatasetTitles(dataverseId);
-                
-        List<Object[]> guestbookResults = getGuestbookResults( dataverseId,  guestbookId );
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
         // the CSV header:
-        out.write("Guestbook, Dataset, Dataset PID, Date, Type, File Name, File Id, File PID, User Name, Email, Institution, Position, Custom Questions\n".getBytes());
-        for (Object[] result : guestbookResults) {
-            StringBuilder sb = convertGuestbookResponsesToCSV(customQandAs, datasetTitles, result);
-            out.write(sb.toString().getBytes());
-            out.flush();
-        }
+        writer.write("Guestbook, Dataset, Dataset PID, Date, Type, File Name, File Id, File PID, User Name, Email, Institution, Position, Custom Questions\n");
+        
+        Integer lastResponseId = null;
+        List<Object[]> guestbookResults;
+        do {
+            guestbookResults = getGuestbookResults(dataverseId, guestbookId, lastResponseId, EXPORT_PAGE_SIZE);
+            if (guestbookResults.isEmpty()) {
+                break;
+            }
+            // (most recent first)
+            Integer firstResponseId = (Integer) guestbookResults.get(0)[0];
+            lastResponseId = (Integer) guestbookResults.get(guestbookResults.size() - 1)[0];
+            
+            // (the answers to the custom questions of the responses of the page)
+            Map<Integer, Object> customQandAs = selectCustomQuestionAnswers(dataverseId, guestbookId, true, firstResponseId, lastResponseId);
+            Set<Integer> datasetIds = new HashSet<>();
+            for (Object[] result : guestbookResults) {
+                datasetIds.add((Integer) result[2]);
+            }
+            Map<Integer, String> datasetTitles = mapDatasetTitles(datasetIds);
+            
+            for (Object[] result : guestbookResults) {
+                writer.write(convertGuestbookResponsesToCSV(customQandAs, datasetTitles, result).toString());
+            }
+            // once a page, rather than once a row
+            writer.flush();
+        } while (guestbookResults.size() == EXPORT_PAGE_SIZE);
+        writer.flush();
     }
     
-    public List<Object[]> getGuestbookResults(Long dataverseId, Long guestbookId ){
+    /*
+       The next page of (up to limit) guestbook responses to download as CSV,
+       most recent first: those with an id lower than beforeResponseId, or 
+       the first page if it's null.
+     */
+    List<Object[]> getGuestbookResults(Long dataverseId, Long guestbookId, Integer beforeResponseId, int limit) {
         
         String queryString = BASE_QUERY_STRING_FOR_DOWNLOAD_AS_CSV
                 + " and  o.owner_id = " 
@@ -162,7 +198,11 @@ public class GuestbookResponseServiceBean {
             queryString+= (" and r.guestbook_id = " + guestbookId.toString());
         }
         
-        queryString += " ORDER by r.id DESC;";
+        if (beforeResponseId != null) {
+            queryString += (" and r.id < " + beforeResponseId);
+        }
+        
+        queryString += " ORDER by r.id DESC LIMIT " + limit + ";";
         logger.fine("stream responses query: " + queryString);
         
         return  em.createNativeQuery(queryString).getResultList();
@@ -348,8 +388,8 @@ public class GuestbookResponseServiceBean {
     }
     
     /*
-       The 3 methods below are for caching all the custom question responses for this
-       guestbook and/or dataverse.
+       The 2 methods below are for caching the custom question responses for this
+       guestbook and/or dataverse (within a range of guestbook responses, if given).
        The results are saved in maps, and later re-combined with the individual 
        "normal" guestbook responses, retrieved from GuestbookResponse table. -- L.A. 
     */
@@ -357,10 +397,6 @@ public class GuestbookResponseServiceBean {
         return selectCustomQuestionAnswers(dataverseId, guestbookId, false, firstResponse, lastResponse);
     }
     
-    public Map<Integer, Object> mapCustomQuestionAnswersAsStrings(Long dataverseId, Long guestbookId) {
-        return selectCustomQuestionAnswers(dataverseId, guestbookId, true, null, null);
-    }
-    
     private Map<Integer, Object> selectCustomQuestionAnswers(Long dataverseId, Long guestbookId, boolean asString, Integer lastResponse, Integer firstResponse) {
         Map<Integer, Object> ret = new HashMap<>();
 
@@ -902,6 +938,7 @@ public class GuestbookResponseServiceBean {
     @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
     public void save(GuestbookResponse guestbookResponse) {
         em.persist(guestbookResponse);
+        responseSaved.fire(new DownloadCountServiceBean.ResponseSaved());
     }
     
     
@@ -910,60 +947,34 @@ public class GuestbookResponseServiceBean {
      * is not of eventtype=='AccessRequest' is considered a download. This includes
      * actual 'Download's, downloads of 'Subset's, and use by 'Explore' tools and
      * previewers (where eventtype is the previewer name)
+     *
+     * "SELECT COUNT(*)" is notoriously expensive in PostgresQL for large
+     * tables, and these counts are displayed on the file, dataset and home
+     * pages. So they are kept in counters of their own, updated in the
+     * background as responses are saved: see DownloadCountServiceBean.
      */
         
     public Long getDownloadCountByDataFileId(Long dataFileId) {
-        // datafile id is null, will return 0
-        Query query = em.createNativeQuery("select count(o.id) from GuestbookResponse  o  where o.datafile_id  = " + dataFileId + " and eventtype != '" + GuestbookResponse.ACCESS_REQUEST +"'");
-        return (Long) query.getSingleResult();
+        return downloadCounts.getDataFileCount(dataFileId);
     }
     
     public Long getDownloadCountByDatasetId(Long datasetId) {
-        return getDownloadCountByDatasetId(datasetId, null);
+        return downloadCounts.getDatasetCount(datasetId);
     }
     
     public Long getDownloadCountByDatasetId(Long datasetId, LocalDate date) {
-        // dataset id is null, will return 0        
-        Query query;
-        if(date != null) {
-            query = em.createNativeQuery("select count(o.id) from GuestbookResponse  o  where o.dataset_id  = " + datasetId + " and responsetime < '" + date.toString() + "' and eventtype != '" + GuestbookResponse.ACCESS_REQUEST +"'");
-        }else {
-            query = em.createNativeQuery("select count(o.id) from GuestbookResponse  o  where o.dataset_id  = " + datasetId+ " and eventtype != '" + GuestbookResponse.ACCESS_REQUEST +"'");
+        if (date == null) {
+            return getDownloadCountByDatasetId(datasetId);
         }
+        // The downloads before a date (when Make Data Count started being
+        // used) are not kept in the counters.
+        // dataset id is null, will return 0
+        Query query = em.createNativeQuery("select count(o.id) from GuestbookResponse  o  where o.dataset_id  = " + datasetId + " and responsetime < '" + date.toString() + "' and eventtype != '" + GuestbookResponse.ACCESS_REQUEST +"'");
         return (Long) query.getSingleResult();
     }    
 
     public Long getTotalDownloadCount() {
-        // dataset id is null, will return 0  
-        
-        // "SELECT COUNT(*)" is notoriously expensive in PostgresQL for large 
-        // tables. This makes this call fairly expensive for any installation 
-        // with a lot of download/access activity. (This "total download" metrics
-        // is always displayed when the homepage is loaded). 
-        // It is safe to say that no real life user will need this number to be
-        // precise down to the last few digits, and/or withing a second, 
-        // especially once that number is in the millions. The 
-        // solution implemented below relies on estimating the number. It is 
-        // very efficient, but also very PostgresQL specific - hence it is 
-        // defined as a custom database function. 
-        // An alternative solution would be to get the exact number every 
-        // hour or so, and cache it centrally for the rest of the application 
-        // somehow. -- L.A. 5.6
-        
-        
-        try {        
-            StoredProcedureQuery query = this.em.createNamedStoredProcedureQuery("GuestbookResponse.estimateGuestBookResponseTableSize");
-            query.execute();
-            Long totalCount = (Long) query.getOutputParameterValue(1);
-        
-            if (totalCount != null) {
-                return totalCount;
-            }
-        } catch (IllegalArgumentException iae) {
-            // Don't do anything, we'll fall back to using "SELECT COUNT()"
-        }
-        Query query = em.createNativeQuery("select count(o.id) from GuestbookResponse  o where eventtype != '" + GuestbookResponse.ACCESS_REQUEST +"';");
-        return (Long) query.getSingleResult();
+        return downloadCounts.getTotalCount();
     }
     
     //End Metrics/download counts
@@ -974,10 +985,10 @@ public class GuestbookResponseServiceBean {
         return query.getResultList();
     }
         
-    public Map<Integer, String> mapDatasetTitles(Long dataverseId) {
+    private Map<Integer, String> mapDatasetTitles(Collection<Integer> datasetIds) {
         Map<Integer, String> ret = new HashMap<>();
 
-        List<Object[]> titleResults = dataverseService.getDatasetTitlesWithinDataverse(dataverseId);
+        List<Object[]> titleResults = dataverseService.getDatasetTitles(datasetIds);
 
         if (titleResults != null) {
             for (Object[] titleObj : titleResults) {
@@ -11,6 +11,7 @@ import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
 import edu.harvard.iq.dataverse.branding.BrandingUtil;
 import edu.harvard.iq.dataverse.confirmemail.ConfirmEmailServiceBean;
 import edu.harvard.iq.dataverse.dataset.DatasetUtil;
+import edu.harvard.iq.dataverse.mail.MailOutboxServiceBean;
 import edu.harvard.iq.dataverse.settings.JvmSettings;
 import edu.harvard.iq.dataverse.settings.SettingsServiceBean;
 import edu.harvard.iq.dataverse.settings.SettingsServiceBean.Key;
@@ -73,6 +74,8 @@ public class MailServiceBean implements java.io.Serializable {
     GroupServiceBean groupService;
     @EJB
     ConfirmEmailServiceBean confirmEmailService;
+    @EJB
+    MailOutboxServiceBean mailOutboxService;
 
     private static final Logger logger = Logger.getLogger(MailServiceBean.class.getCanonicalName());
 
@@ -117,11 +120,7 @@ public class MailServiceBean implements java.io.Serializable {
             return false;
         }
         InternetAddress systemAddress = optionalAddress.get();
-        InternetAddress supportAddress = getSupportAddress().orElse(systemAddress);
-
-        String body = messageText +
-            BundleUtil.getStringFromBundle(isHtmlContent ? "notification.email.closing.html" : "notification.email.closing",
-                List.of(BrandingUtil.getSupportTeamEmailAddress(supportAddress), BrandingUtil.getSupportTeamName(supportAddress)));
+        String body = addClosing(messageText, isHtmlContent, systemAddress);
 
         logger.fine(() -> "Sending email to %s. Subject: <<<%s>>>. Body: %s".formatted(to, subject, body));
         try {
@@ -148,6 +147,38 @@ public class MailServiceBean implements java.io.Serializable {
         return false;
     }
     
+    /**
+     * Like {@link #sendSystemEmail(String, String, String, boolean)}, but the
+     * message is only added to the outbox, in the current transaction: it is 
+     * sent by the {@link edu.harvard.iq.dataverse.mail.MailOutboxSender} once 
+     * (and only if) the transaction commits. 
+     * @return Status: true if queued, false if no system address is set or
+     *         the recipients are not valid addresses.
+     */
+    public boolean queueSystemEmail(String to, String subject, String messageText, boolean isHtmlContent) {
+        Optional<InternetAddress> optionalAddress = getSystemAddress();
+        if (optionalAddress.isEmpty()) {
+            logger.fine(() -> "Skipping sending mail to " + to + ", because no system address has been set.");
+            return false;
+        }
+        try {
+            InternetAddress.parse(to);
+        } catch (AddressException ae) {
+            logger.log(Level.WARNING, "Not sending mail to %s: %s".formatted(to, ae.getMessage()));
+            return false;
+        }
+        String body = addClosing(messageText, isHtmlContent, optionalAddress.get());
+        mailOutboxService.enqueue(to, subject, body, isHtmlContent);
+        return true;
+    }
+
+    private String addClosing(String messageText, boolean isHtmlContent, InternetAddress systemAddress) {
+        InternetAddress supportAddress = getSupportAddress().orElse(systemAddress);
+        return messageText +
+            BundleUtil.getStringFromBundle(isHtmlContent ? "notification.email.closing.html" : "notification.email.closing",
+                List.of(BrandingUtil.getSupportTeamEmailAddress(supportAddress), BrandingUtil.getSupportTeamName(supportAddress)));
+    }
+    
     /**
      * Lookup the system mail address ({@code InternetAddress} may contain personal and actual address).
      * @return The system mail address or an empty {@code Optional} if not configured.
@@ -284,7 +315,7 @@ public class MailServiceBean implements java.io.Serializable {
                String messageText = getMessageTextBasedOnNotification(notification, objectOfNotification, comment, requestor);
                String subjectText = MailUtil.getSubjectTextBasedOnNotification(notification, objectOfNotification);
                if (!(StringUtils.isEmpty(messageText) || StringUtils.isEmpty(subjectText))){
-                   retval = sendSystemEmail(emailAddress, subjectText, messageText, isHtmlContent);
+                   retval = queueSystemEmail(emailAddress, subjectText, messageText, isHtmlContent);
                } else {
                    logger.warning("Skipping " + notification.getType() +  " notification, because couldn't get valid message");
                }
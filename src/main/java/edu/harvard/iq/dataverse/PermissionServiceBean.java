@@ -315,7 +315,18 @@ public class PermissionServiceBean {
      * @return list of {@code dvo} children over which {@code req} has at least {@code required} permissions.
      */
     public List<DvObject> whichChildrenHasPermissionsFor(DataverseRequest req, DvObjectContainer dvo, Set<Permission> required, boolean includeReleased) {
-        List<DvObject> children = dvObjectServiceBean.findByOwnerId(dvo.getId());
+        return whichChildrenHasPermissionsFor(req, dvo, dvObjectServiceBean.findByOwnerId(dvo.getId()), required, includeReleased);
+    }
+
+    /**
+     * Same as above, but only for the given children of {@code dvo} (e.g. one
+     * page of them, see {@link DvObjectServiceBean#findByOwnerIdAfter(Long, DvObject.DType, Long, int)}).
+     * The role assignments of the whole page are looked up in bulk.
+     * @param children children of {@code dvo}
+     */
+    public List<DvObject> whichChildrenHasPermissionsFor(DataverseRequest req, DvObjectContainer dvo, List<DvObject> children, Set<Permission> required, boolean includeReleased) {
+        // (the set is reduced below, as the role assignments are looked at)
+        required = required.isEmpty() ? EnumSet.noneOf(Permission.class) : EnumSet.copyOf(required);
         User user = req.getUser();
         
         // quick cases
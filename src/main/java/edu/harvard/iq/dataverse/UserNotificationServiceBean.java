@@ -122,10 +122,10 @@ public class UserNotificationServiceBean {
         userNotification.setAdditionalInfo(additionalInfo);
 
         if (!isEmailMuted(userNotification) && mailService.sendNotificationEmail(userNotification, comment, requestor, isHtmlContent)) {
-            logger.fine("email was sent");
+            logger.fine("email was queued");
             userNotification.setEmailed(true);
         } else {
-            logger.fine("email was not sent");
+            logger.fine("email was not queued");
         }
         if (!isNotificationMuted(userNotification)) {
             save(userNotification);
@@ -11,6 +11,7 @@ import edu.harvard.iq.dataverse.*;
 import static edu.harvard.iq.dataverse.api.Datasets.handleVersion;
 
 import edu.harvard.iq.dataverse.api.auth.AuthRequired;
+import edu.harvard.iq.dataverse.api.util.HttpCaching;
 import edu.harvard.iq.dataverse.authorization.DataverseRole;
 import edu.harvard.iq.dataverse.authorization.Permission;
 import edu.harvard.iq.dataverse.authorization.RoleAssignee;
@@ -44,7 +45,9 @@ import edu.harvard.iq.dataverse.util.SystemConfig;
 import edu.harvard.iq.dataverse.util.json.NullSafeJsonBuilder;
 
 import java.util.logging.Logger;
+import jakarta.annotation.Resource;
 import jakarta.ejb.EJB;
+import jakarta.enterprise.concurrent.ManagedExecutorService;
 import java.io.InputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -71,6 +74,7 @@ import jakarta.ws.rs.Produces;
 
 import jakarta.ws.rs.container.ContainerRequestContext;
 import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.EntityTag;
 import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.UriInfo;
 
@@ -86,6 +90,7 @@ import jakarta.ws.rs.PUT;
 import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.ServiceUnavailableException;
 import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.Request;
 import jakarta.ws.rs.core.Response;
 import static jakarta.ws.rs.core.Response.Status.BAD_REQUEST;
 import jakarta.ws.rs.core.StreamingOutput;
@@ -168,6 +173,8 @@ public class Access extends AbstractApiBean {
     MakeDataCountLoggingServiceBean mdcLogService;
     @Inject
     DataverseFeaturedItemServiceBean dataverseFeaturedItemServiceBean;
+    @Resource(lookup = DataFileZipper.PREFETCH_EXECUTOR)
+    ManagedExecutorService zipPrefetchExecutor;
     
     //@EJB
     
@@ -256,7 +263,7 @@ public class Access extends AbstractApiBean {
     @AuthRequired
     @Path("datafile/{fileId:.+}")
     @Produces({"application/xml","*/*"})
-    public Response datafile(@Context ContainerRequestContext crc, @PathParam("fileId") String fileId, @QueryParam("gbrecs") boolean gbrecs, @Context UriInfo uriInfo, @Context HttpHeaders headers, @Context HttpServletResponse response) /*throws NotFoundException, ServiceUnavailableException, PermissionDeniedException, AuthorizationRequiredException*/ {
+    public Response datafile(@Context ContainerRequestContext crc, @PathParam("fileId") String fileId, @QueryParam("gbrecs") boolean gbrecs, @Context UriInfo uriInfo, @Context HttpHeaders headers, @Context Request request, @Context HttpServletResponse response) /*throws NotFoundException, ServiceUnavailableException, PermissionDeniedException, AuthorizationRequiredException*/ {
         
         // check first if there's a trailing slash, and chop it: 
         while (fileId.lastIndexOf('/') == fileId.length() - 1) {
@@ -399,6 +406,19 @@ public class Access extends AbstractApiBean {
             throw new NotFoundException("datafile access error: requested optional service (image scaling, format conversion, etc.) is not supported on this datafile.");
         } // Else - the file itself was requested or we have the info needed to invoke the service and get the derived info
         logger.fine("Returning download instance");
+        if (serviceFound && "imageThumb".equals(downloadInstance.getConversionParam())) {
+            // A thumbnail only changes with the file it is generated from, and
+            // a replaced file is a new datafile; the checksum is for good measure.
+            // (Note that the guestbook response initiated above is only written
+            // when the content is actually sent.)
+            EntityTag tag = HttpCaching.entityTag("thumb", df.getId(), df.getChecksumValue(), downloadInstance.getConversionParamValue());
+            boolean publicContent = FileUtil.isPubliclyDownloadable(df.getFileMetadata());
+            Response notModified = HttpCaching.notModified(request, tag, null, publicContent);
+            if (notModified != null) {
+                return notModified;
+            }
+            return HttpCaching.withValidators(Response.ok(downloadInstance), tag, null, publicContent).build();
+        }
         /* 
          * Provide some browser-friendly headers: (?)
          */
@@ -564,13 +584,14 @@ public class Access extends AbstractApiBean {
     @GET
     @AuthRequired
     @Path("datafile/{fileId}/auxiliary/{formatTag}/{formatVersion}")
-    public DownloadInstance downloadAuxiliaryFile(@Context ContainerRequestContext crc,
-                                                  @PathParam("fileId") String fileId,
-                                                  @PathParam("formatTag") String formatTag,
-                                                  @PathParam("formatVersion") String formatVersion,
-                                                  @Context UriInfo uriInfo,
-                                                  @Context HttpHeaders headers,
-                                                  @Context HttpServletResponse response) throws ServiceUnavailableException {
+    public Response downloadAuxiliaryFile(@Context ContainerRequestContext crc,
+                                          @PathParam("fileId") String fileId,
+                                          @PathParam("formatTag") String formatTag,
+                                          @PathParam("formatVersion") String formatVersion,
+                                          @Context UriInfo uriInfo,
+                                          @Context HttpHeaders headers,
+                                          @Context Request request,
+                                          @Context HttpServletResponse response) throws ServiceUnavailableException {
     
         DataFile df = findDataFileOrDieWrapper(fileId);
         
@@ -626,7 +647,15 @@ public class Access extends AbstractApiBean {
             checkAuthorization(getRequestUser(crc), df);
         }
         
-        return downloadInstance;
+        // Aux files are never modified in place: depositing a new one 
+        // replaces the AuxiliaryFile entity.
+        EntityTag tag = HttpCaching.entityTag("aux", auxFile.getId(), auxFile.getChecksum());
+        boolean publicContent = publiclyAvailable || FileUtil.isPubliclyDownloadable(df.getFileMetadata());
+        Response notModified = HttpCaching.notModified(request, tag, null, publicContent);
+        if (notModified != null) {
+            return notModified;
+        }
+        return HttpCaching.withValidators(Response.ok(downloadInstance), tag, null, publicContent).build();
     }
     
     /* 
@@ -814,11 +843,24 @@ public class Access extends AbstractApiBean {
         
         StreamingOutput stream = new StreamingOutput() {
 
+            private DataFileZipper zipper = null; 
+
             @Override
             public void write(OutputStream os) throws IOException,
                     WebApplicationException {
+                try {
+                    writeZipStream(os);
+                } finally {
+                    // (the files fetched ahead are left pending when a file
+                    // can't be served, or when the client goes away)
+                    if (zipper != null) {
+                        zipper.discardPendingFiles();
+                    }
+                }
+            }
+
+            private void writeZipStream(OutputStream os) throws IOException {
                 String fileIdParams[] = fileIds.split(",");
-                DataFileZipper zipper = null; 
                 String fileManifest = "";
                 long sizeTotal = 0L;
                 
@@ -850,7 +892,7 @@ public class Access extends AbstractApiBean {
                                     if (zipper == null) {
                                         // This is the first file we can serve - so we now know that we are going to be able 
                                         // to produce some output.
-                                        zipper = new DataFileZipper(os);
+                                        zipper = new DataFileZipper(os, zipPrefetchExecutor);
                                         zipper.setFileManifest(fileManifest);
                                         response.setHeader("Content-disposition", "attachment; filename=\"dataverse_files.zip\"");
                                         response.setHeader("Content-Type", "application/zip; name=\"dataverse_files.zip\"");
@@ -891,7 +933,11 @@ public class Access extends AbstractApiBean {
                                         size = file.getFilesize();
                                     }
                                     if (sizeTotal + size < zipDownloadSizeLimit) {
-                                        sizeTotal += zipper.addFileToZipStream(file, getOriginal);
+                                        // The zipper may write the file later (it 
+                                        // fetches files ahead), so the size limit is
+                                        // checked against the sizes we know of.
+                                        zipper.addFileToZipStream(file, getOriginal);
+                                        sizeTotal += size;
                                     } else {
                                         String fileName = file.getFileMetadata().getLabel();
                                         String mimeType = file.getContentType();
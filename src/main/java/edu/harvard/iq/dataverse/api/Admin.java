@@ -13,10 +13,14 @@ import edu.harvard.iq.dataverse.Dataverse;
 import edu.harvard.iq.dataverse.DataverseRequestServiceBean;
 import edu.harvard.iq.dataverse.DataverseServiceBean;
 import edu.harvard.iq.dataverse.DataverseSession;
+import edu.harvard.iq.dataverse.DownloadCountAggregator;
 import edu.harvard.iq.dataverse.DvObject;
 import edu.harvard.iq.dataverse.DvObjectServiceBean;
 import edu.harvard.iq.dataverse.FileMetadata;
 import edu.harvard.iq.dataverse.api.auth.AuthRequired;
+import edu.harvard.iq.dataverse.api.imports.BatchImportFile;
+import edu.harvard.iq.dataverse.api.imports.BatchImportJob;
+import edu.harvard.iq.dataverse.api.imports.BatchImportJobServiceBean;
 import edu.harvard.iq.dataverse.settings.JvmSettings;
 import edu.harvard.iq.dataverse.util.StringUtil;
 import edu.harvard.iq.dataverse.util.json.NullSafeJsonBuilder;
@@ -46,6 +50,7 @@ import edu.harvard.iq.dataverse.confirmemail.ConfirmEmailException;
 import edu.harvard.iq.dataverse.confirmemail.ConfirmEmailInitResponse;
 import edu.harvard.iq.dataverse.dataaccess.DataAccess;
 import edu.harvard.iq.dataverse.dataaccess.DataAccessOption;
+import edu.harvard.iq.dataverse.dataaccess.S3ClientRegistry;
 import edu.harvard.iq.dataverse.dataaccess.StorageIO;
 import edu.harvard.iq.dataverse.engine.command.impl.AbstractSubmitToArchiveCommand;
 import edu.harvard.iq.dataverse.engine.command.impl.PublishDataverseCommand;
@@ -102,7 +107,11 @@ import edu.harvard.iq.dataverse.engine.command.impl.DeactivateUserCommand;
 import edu.harvard.iq.dataverse.engine.command.impl.DeleteRoleCommand;
 import edu.harvard.iq.dataverse.engine.command.impl.DeleteTemplateCommand;
 import edu.harvard.iq.dataverse.engine.command.impl.RegisterDvObjectCommand;
+import edu.harvard.iq.dataverse.ingest.IngestScheduler;
 import edu.harvard.iq.dataverse.ingest.IngestServiceBean;
+import edu.harvard.iq.dataverse.pidproviders.PidReRegistrationJob;
+import edu.harvard.iq.dataverse.pidproviders.PidReRegistrationJobServiceBean;
+import edu.harvard.iq.dataverse.pidproviders.PidReRegistrationServiceBean;
 import edu.harvard.iq.dataverse.pidproviders.handle.HandlePidProvider;
 import edu.harvard.iq.dataverse.settings.FeatureFlags;
 import edu.harvard.iq.dataverse.settings.SettingsServiceBean;
@@ -158,6 +167,10 @@ public class Admin extends AbstractApiBean {
     @EJB
     IngestServiceBean ingestService;
     @EJB
+    IngestScheduler ingestScheduler;
+    @EJB
+    DownloadCountAggregator downloadCountAggregator;
+    @EJB
     DataFileServiceBean fileService;
     @EJB
     DatasetServiceBean datasetService;
@@ -183,6 +196,14 @@ public class Admin extends AbstractApiBean {
     BannerMessageServiceBean bannerMessageService;
     @EJB
     TemplateServiceBean templateService;
+    @EJB
+    PidReRegistrationJobServiceBean pidReRegistrationJobService;
+    @EJB
+    PidReRegistrationServiceBean pidReRegistrationService;
+    @EJB
+    BatchImportJobServiceBean batchImportJobService;
+    @EJB
+    BatchServiceBean batchService;
 
     // Make the session available
     @Inject
@@ -1410,6 +1431,24 @@ public class Admin extends AbstractApiBean {
         return ok(info);
     }
 
+    @Path("ingest/scheduler")
+    @GET
+    public Response getIngestSchedulerMetrics() {
+        return ok(ingestScheduler.getMetrics());
+    }
+
+    @Path("s3/metrics")
+    @GET
+    public Response getS3Metrics() {
+        return ok(S3ClientRegistry.getMetrics());
+    }
+
+    @Path("downloadCounts/reconcile")
+    @POST
+    public Response reconcileDownloadCounts() {
+        return ok(Json.createObjectBuilder().add("fixed", downloadCountAggregator.reconcile()));
+    }
+
     @Path("datafiles/integrity/fixmissingoriginaltypes")
     @GET
     public Response fixMissingOriginalTypes() {
@@ -2129,6 +2168,121 @@ public class Admin extends AbstractApiBean {
         }
     }
     
+    /**
+     * Lists the bulk PID re-registration jobs started via
+     * /api/datasets/modifyRegistrationAll and /api/datasets/modifyRegistrationPIDMetadataAll,
+     * most recent first, with their progress and throughput.
+     */
+    @GET
+    @Path("/pidReRegistrationJobs")
+    public Response listPidReRegistrationJobs() {
+        JsonArrayBuilder jobs = Json.createArrayBuilder();
+        pidReRegistrationJobService.findAll().forEach(job -> jobs.add(job.toJson()));
+        return ok(jobs);
+    }
+
+    @GET
+    @Path("/pidReRegistrationJobs/{id}")
+    public Response getPidReRegistrationJob(@PathParam("id") Long id) {
+        PidReRegistrationJob job = pidReRegistrationJobService.find(id);
+        if (job == null) {
+            return notFound("PID re-registration job " + id + " not found");
+        }
+        return ok(job.toJson());
+    }
+
+    @POST
+    @Path("/pidReRegistrationJobs/{id}/resume")
+    public Response resumePidReRegistrationJob(@PathParam("id") Long id) {
+        try {
+            PidReRegistrationJob job = pidReRegistrationService.resume(id);
+            if (job == null) {
+                return notFound("PID re-registration job " + id + " not found");
+            }
+            return accepted(job.toJson());
+        } catch (IllegalStateException ise) {
+            return conflict(ise.getMessage());
+        }
+    }
+
+    @DELETE
+    @Path("/pidReRegistrationJobs/{id}")
+    public Response cancelPidReRegistrationJob(@PathParam("id") Long id) {
+        if (!pidReRegistrationService.cancel(id)) {
+            return notFound("No running or interrupted PID re-registration job " + id + " found");
+        }
+        return ok("PID re-registration job " + id + " will be cancelled.");
+    }
+
+    /**
+     * Lists the batch imports of metadata files (see BatchImport), most
+     * recent first, with their progress and throughput.
+     */
+    @GET
+    @Path("/batchImportJobs")
+    public Response listBatchImportJobs() {
+        long now = System.currentTimeMillis();
+        JsonArrayBuilder jobs = Json.createArrayBuilder();
+        batchImportJobService.findAll().forEach(job -> jobs.add(job.toJson(batchImportJobService.countFilesByStatus(job.getId()), now)));
+        return ok(jobs);
+    }
+
+    @GET
+    @Path("/batchImportJobs/{id}")
+    public Response getBatchImportJob(@PathParam("id") Long id) {
+        BatchImportJob job = batchImportJobService.find(id);
+        if (job == null) {
+            return notFound("Batch import job " + id + " not found");
+        }
+        return ok(job.toJson(batchImportJobService.countFilesByStatus(id), System.currentTimeMillis()));
+    }
+
+    /**
+     * Lists the files of a batch import that failed to import, with the
+     * reason.
+     */
+    @GET
+    @Path("/batchImportJobs/{id}/failures")
+    public Response getBatchImportJobFailures(@PathParam("id") Long id) {
+        if (batchImportJobService.find(id) == null) {
+            return notFound("Batch import job " + id + " not found");
+        }
+        JsonArrayBuilder failures = Json.createArrayBuilder();
+        for (BatchImportFile file : batchImportJobService.findFiles(id, BatchImportFile.Status.FAILED)) {
+            failures.add(jsonObjectBuilder()
+                    .add("id", file.getId())
+                    .add("path", file.getPath())
+                    .add("ownerId", file.getOwnerId())
+                    .add("attempts", file.getAttempts())
+                    .add("message", file.getMessage())
+                    .add("updateTime", file.getUpdateTime()));
+        }
+        return ok(failures);
+    }
+
+    @POST
+    @Path("/batchImportJobs/{id}/resume")
+    public Response resumeBatchImportJob(@PathParam("id") Long id) {
+        try {
+            BatchImportJob job = batchService.resume(id);
+            if (job == null) {
+                return notFound("Batch import job " + id + " not found");
+            }
+            return accepted(job.toJson(batchImportJobService.countFilesByStatus(id), System.currentTimeMillis()));
+        } catch (IllegalStateException ise) {
+            return conflict(ise.getMessage());
+        }
+    }
+
+    @DELETE
+    @Path("/batchImportJobs/{id}")
+    public Response cancelBatchImportJob(@PathParam("id") Long id) {
+        if (!batchService.cancel(id)) {
+            return notFound("No running or interrupted batch import job " + id + " found");
+        }
+        return ok("Batch import job " + id + " will be cancelled.");
+    }
+
     @DELETE
     @Path("/clearMetricsCache")
     public Response clearMetricsCache() {
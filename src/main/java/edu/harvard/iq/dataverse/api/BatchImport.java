@@ -10,9 +10,12 @@ import edu.harvard.iq.dataverse.MetadataBlockServiceBean;
 
 import edu.harvard.iq.dataverse.api.imports.ImportException;
 import edu.harvard.iq.dataverse.api.imports.ImportUtil.ImportType;
-import edu.harvard.iq.dataverse.authorization.users.User;
+import edu.harvard.iq.dataverse.api.imports.BatchImportJob;
+import edu.harvard.iq.dataverse.api.imports.BatchImportJobServiceBean;
+import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
 import edu.harvard.iq.dataverse.engine.command.DataverseRequest;
 import edu.harvard.iq.dataverse.settings.SettingsServiceBean;
+import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import jakarta.ejb.EJB;
@@ -44,13 +47,15 @@ public class BatchImport extends AbstractApiBean {
     ImportServiceBean importService;
     @EJB
     BatchServiceBean batchService;
+    @EJB
+    BatchImportJobServiceBean batchImportJobService;
 
     @GET
     @AuthRequired
     @Path("harvest")
-    public Response harvest(@Context ContainerRequestContext crc, @QueryParam("path") String fileDir, @QueryParam("dv") String parentIdtf, @QueryParam("createDV") Boolean createDV, @QueryParam("key") String apiKey) throws IOException {
+    public Response harvest(@Context ContainerRequestContext crc, @QueryParam("path") String fileDir, @QueryParam("dv") String parentIdtf, @QueryParam("createDV") Boolean createDV, @QueryParam("key") String apiKey, @QueryParam("concurrency") Integer concurrency) throws IOException {
         try {
-            return startBatchJob(getRequestAuthenticatedUserOrDie(crc), fileDir, parentIdtf, apiKey, ImportType.HARVEST, createDV);
+            return startBatchJob(getRequestAuthenticatedUserOrDie(crc), fileDir, parentIdtf, apiKey, ImportType.HARVEST, createDV, concurrency);
         } catch (WrappedResponse wr) {
             return wr.getResponse();
         }
@@ -100,23 +105,28 @@ public class BatchImport extends AbstractApiBean {
      * within the directory will be imported
      * @param parentIdtf the dataverse to import into (id or alias)
      * @param apiKey user's api key
-     * @return import status (including id's of the datasets created)
+     * @param concurrency the maximum number of files imported at the same time
+     * @return the batch import job started (see /api/admin/batchImportJobs
+     * for its progress)
      */
     @GET
     @AuthRequired
     @Path("import")
-    public Response getImport(@Context ContainerRequestContext crc, @QueryParam("path") String fileDir, @QueryParam("dv") String parentIdtf, @QueryParam("createDV") Boolean createDV, @QueryParam("key") String apiKey) {
+    public Response getImport(@Context ContainerRequestContext crc, @QueryParam("path") String fileDir, @QueryParam("dv") String parentIdtf, @QueryParam("createDV") Boolean createDV, @QueryParam("key") String apiKey, @QueryParam("concurrency") Integer concurrency) {
         try {
-            return startBatchJob(getRequestAuthenticatedUserOrDie(crc), fileDir, parentIdtf, apiKey, ImportType.NEW, createDV);
+            return startBatchJob(getRequestAuthenticatedUserOrDie(crc), fileDir, parentIdtf, apiKey, ImportType.NEW, createDV, concurrency);
         } catch (WrappedResponse wr) {
             return wr.getResponse();
         }
     }
 
-    private Response startBatchJob(User user, String fileDir, String parentIdtf, String apiKey, ImportType importType, Boolean createDV) {
+    private Response startBatchJob(AuthenticatedUser user, String fileDir, String parentIdtf, String apiKey, ImportType importType, Boolean createDV, Integer concurrency) {
         if (createDV == null) {
             createDV = Boolean.FALSE;
         }
+        if (fileDir == null || !new File(fileDir).exists()) {
+            return badRequest("Can't find file or directory at path='" + fileDir + "'");
+        }
         try {
             DataverseRequest dataverseRequest;
             dataverseRequest = createDataverseRequest(user);
@@ -131,12 +141,12 @@ public class BatchImport extends AbstractApiBean {
                     return error(Response.Status.NOT_FOUND, "Can't find dataverse with identifier='" + parentIdtf + "'");
                 }
             }
-            batchService.processFilePath(fileDir, parentIdtf, dataverseRequest, owner, importType, createDV);
+            BatchImportJob job = batchService.start(fileDir, owner, importType, createDV, user, concurrency);
+            return this.accepted(job.toJson(batchImportJobService.countFilesByStatus(job.getId()), System.currentTimeMillis()));
 
         } catch (ImportException e) {
             return this.error(Response.Status.BAD_REQUEST, "Import Exception, " + e.getMessage());
         }
-        return this.accepted();
     }
 
 }
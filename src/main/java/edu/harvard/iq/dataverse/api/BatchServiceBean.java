@@ -3,108 +3,331 @@ package edu.harvard.iq.dataverse.api;
 import edu.harvard.iq.dataverse.api.imports.ImportServiceBean;
 import edu.harvard.iq.dataverse.Dataverse;
 import edu.harvard.iq.dataverse.DataverseServiceBean;
+import edu.harvard.iq.dataverse.api.imports.BatchImportFile;
+import edu.harvard.iq.dataverse.api.imports.BatchImportJob;
+import edu.harvard.iq.dataverse.api.imports.BatchImportJob.Status;
+import edu.harvard.iq.dataverse.api.imports.BatchImportJobServiceBean;
 import edu.harvard.iq.dataverse.api.imports.ImportException;
 import edu.harvard.iq.dataverse.api.imports.ImportUtil;
+import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
 import edu.harvard.iq.dataverse.engine.command.DataverseRequest;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import jakarta.ejb.Asynchronous;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import jakarta.ejb.ConcurrencyManagement;
+import jakarta.ejb.ConcurrencyManagementType;
 import jakarta.ejb.EJB;
-import jakarta.ejb.Stateless;
-import jakarta.json.Json;
-import jakarta.json.JsonArrayBuilder;
-import jakarta.json.JsonObjectBuilder;
+import jakarta.ejb.EJBException;
+import jakarta.ejb.Singleton;
+import jakarta.ejb.Startup;
+import jakarta.enterprise.concurrent.ManagedExecutorDefinition;
+import jakarta.enterprise.concurrent.ManagedExecutorService;
+import jakarta.servlet.http.HttpServletRequest;
 
 /**
- * EJB for kicking off big batch jobs asynchronously from the REST API  (BatchImport.java)
+ * Runs the batch imports of metadata files started from the REST API
+ * (BatchImport.java) in the background.
+ * <p>
+ * A job first lists the files to import, along with the collection each of
+ * them goes into, and saves them as {@link BatchImportFile} checkpoints. The
+ * files are then handed to a managed executor of their own, with at most
+ * {@link BatchImportJob#getConcurrency()} of them being parsed, validated and
+ * imported at the same time, each in its own transaction. (Not on the default
+ * executor the job runs on: the job waits for its files, which could never
+ * start once a few jobs, ingests and workflows hold all its threads.) A file
+ * is marked IMPORTED in the transaction that imports it, so a job interrupted
+ * by a restart can be resumed via the admin API without importing any file
+ * twice; the files that failed are tried again on resume.
+ *
  * @author ellenk
+ * @see BatchImportJob
  */
-@Stateless
+@ManagedExecutorDefinition(
+    name = "java:app/concurrent/batchImport",
+    maxAsync = BatchServiceBean.MAX_CONCURRENCY
+)
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
 public class BatchServiceBean {
- private static final Logger logger = Logger.getLogger(BatchServiceBean.class.getCanonicalName());
+    private static final Logger logger = Logger.getLogger(BatchServiceBean.class.getCanonicalName());
+
+    public static final int DEFAULT_CONCURRENCY = 4;
+    public static final int MAX_CONCURRENCY = 32;
+    static final int PAGE_SIZE = 100;
+    static final int REGISTRATION_CHUNK_SIZE = 1000;
+
+    @Resource
+    ManagedExecutorService executor;
+    /**
+     * Imports the files of the jobs (the jobs themselves run on the executor
+     * above).
+     */
+    @Resource(lookup = "java:app/concurrent/batchImport")
+    ManagedExecutorService importExecutor;
 
     @EJB
     DataverseServiceBean dataverseService;
     @EJB
     ImportServiceBean importService;
-    
+    @EJB
+    BatchImportJobServiceBean jobService;
 
-    @Asynchronous
-    public void processFilePath(String fileDir, String parentIdtf, DataverseRequest dataverseRequest, Dataverse owner, ImportUtil.ImportType importType, Boolean createDV)  {
-        logger.info("BEGIN IMPORT");
-        PrintWriter validationLog = null;
-        PrintWriter cleanupLog = null;
-        try {
-        JsonArrayBuilder status = Json.createArrayBuilder();
-        Date timestamp = new Date();
-        
+    /**
+     * Ids of the jobs currently running on this instance.
+     */
+    private final Set<Long> runningJobs = ConcurrentHashMap.newKeySet();
+    /**
+     * Ids of the running jobs that have been asked to stop after their current page.
+     */
+    private final Set<Long> cancelRequests = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    public void init() {
+        int interrupted = jobService.markRunningAsInterrupted();
+        if (interrupted > 0) {
+            logger.info(interrupted + " batch import job(s) were interrupted by a shutdown and can be resumed via the admin API");
+        }
+    }
+
+    /**
+     * Creates a new job importing the file, or the files in the directory,
+     * and starts it in the background.
+     *
+     * @param concurrency the maximum number of files imported at the same
+     * time; null for the default
+     */
+    public BatchImportJob start(String fileDir, Dataverse owner, ImportUtil.ImportType importType, boolean createDV, AuthenticatedUser user, Integer concurrency) {
+        BatchImportJob job = jobService.create(fileDir, owner.getId(), importType, createDV, user, sanitizeConcurrency(concurrency));
+        launch(job);
+        return job;
+    }
+
+    /**
+     * Resumes an interrupted job: the files that have not been imported yet
+     * (including those that failed) are imported.
+     *
+     * @return the resumed job, or null if no job with this id exists
+     * @throws IllegalStateException if the job is not in the INTERRUPTED state
+     */
+    public BatchImportJob resume(Long jobId) {
+        BatchImportJob job = jobService.find(jobId);
+        if (job == null) {
+            return null;
+        }
+        if (job.getStatus() != Status.INTERRUPTED || runningJobs.contains(jobId)) {
+            throw new IllegalStateException("Only interrupted jobs can be resumed; job " + jobId + " is " + job.getStatus());
+        }
+        job = jobService.setStatus(jobId, Status.RUNNING);
+        launch(job);
+        return job;
+    }
+
+    /**
+     * Asks a running job to stop once its current page of files has been
+     * imported.
+     *
+     * @return true if the job was running on this instance
+     */
+    public boolean cancel(Long jobId) {
+        if (runningJobs.contains(jobId)) {
+            cancelRequests.add(jobId);
+            return true;
+        }
+        BatchImportJob job = jobService.find(jobId);
+        if (job != null && job.getStatus() == Status.INTERRUPTED) {
+            jobService.setStatus(jobId, Status.CANCELLED);
+            return true;
+        }
+        return false;
+    }
+
+    static int sanitizeConcurrency(Integer concurrency) {
+        if (concurrency == null || concurrency < 1) {
+            return DEFAULT_CONCURRENCY;
+        }
+        return Math.min(concurrency, MAX_CONCURRENCY);
+    }
+
+    private void launch(BatchImportJob job) {
+        runningJobs.add(job.getId());
+        // The datasets are created on behalf of the user who started the
+        // job; the http request of the API call is long gone by then.
+        DataverseRequest request = new DataverseRequest(job.getUser(), (HttpServletRequest) null);
+        executor.submit(() -> run(job, request));
+    }
+
+    private void run(BatchImportJob job, DataverseRequest dataverseRequest) {
+        Long jobId = job.getId();
+        logger.info("BEGIN IMPORT of " + job.getPath() + " (batch import job " + jobId + ")");
         SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd_HH:mm:ss");
-        
-        validationLog = new PrintWriter(new FileWriter( System.getProperty("com.sun.aas.instanceRoot") + File.separator + "logs" + File.separator + "validationLog"+  formatter.format(timestamp)+".txt"));
-        cleanupLog = new PrintWriter(new FileWriter( System.getProperty("com.sun.aas.instanceRoot") + File.separator + "logs" + File.separator + "cleanupLog"+  formatter.format(timestamp)+".txt"));
-        File dir = new File(fileDir);
-        if (dir.isDirectory()) {
-            for (File file : dir.listFiles()) {
-                if (!file.isHidden()) {
-                    if (file.isDirectory()) {
-                        try {
-                            status.add(handleDirectory(dataverseRequest, file, importType, validationLog, cleanupLog, createDV));
-                        } catch (ImportException e) {
-                            logger.log(Level.SEVERE, "Exception in handleDirectory() for "+ file.getName(),e);
-                        }
-                    } else {
-                        try {
-                            status.add(importService.handleFile(dataverseRequest, owner, file, importType, validationLog, cleanupLog));
-                        } catch(ImportException e) {
-                             logger.log(Level.SEVERE, "Exception in handleFile() for "+ file.getName(),e);
-                        }
+        String logDir = System.getProperty("com.sun.aas.instanceRoot") + File.separator + "logs" + File.separator;
+        String timestamp = formatter.format(new Date());
+        Long cursor = null;
+        try (PrintWriter validationLog = new PrintWriter(new FileWriter(logDir + "validationLog" + timestamp + ".txt"));
+                PrintWriter cleanupLog = new PrintWriter(new FileWriter(logDir + "cleanupLog" + timestamp + ".txt"))) {
+            File root = new File(job.getPath());
+            File baseDir = root.isDirectory() ? root : root.getParentFile();
+            registerFiles(job, root, dataverseRequest, validationLog);
 
+            Semaphore inFlight = new Semaphore(job.getConcurrency());
+            while (true) {
+                if (cancelRequests.remove(jobId)) {
+                    jobService.setStatus(jobId, Status.CANCELLED);
+                    logger.info("Batch import job " + jobId + " cancelled");
+                    return;
+                }
+                List<Long> ids = jobService.findFileIdsToImport(jobId, cursor, PAGE_SIZE);
+                if (ids.isEmpty()) {
+                    jobService.setStatus(jobId, Status.COMPLETED);
+                    logger.info("END IMPORT of " + job.getPath() + " (batch import job " + jobId + ")");
+                    return;
+                }
+                List<Future<?>> imports = new ArrayList<>(ids.size());
+                for (Long id : ids) {
+                    inFlight.acquire();
+                    try {
+                        imports.add(importExecutor.submit(() -> {
+                            try {
+                                importFile(job, id, baseDir, dataverseRequest, validationLog, cleanupLog);
+                            } finally {
+                                inFlight.release();
+                            }
+                        }));
+                    } catch (RuntimeException e) {
+                        inFlight.release();
+                        throw e;
                     }
                 }
+                for (Future<?> f : imports) {
+                    try {
+                        f.get();
+                    } catch (ExecutionException e) {
+                        logger.log(Level.WARNING, "Batch import job " + jobId + ": unexpected failure", e.getCause());
+                    }
+                }
+                cursor = ids.get(ids.size() - 1);
+                jobService.saveProgress(jobId);
             }
-        } else {
-            status.add(importService.handleFile(dataverseRequest, owner, dir, importType, validationLog, cleanupLog));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warning("Batch import job " + jobId + " interrupted after file id " + cursor);
+            jobService.setStatus(jobId, Status.INTERRUPTED);
+        } catch (IOException | RuntimeException e) {
+            logger.log(Level.SEVERE, "Batch import job " + jobId + " stopped after file id " + cursor, e);
+            jobService.setStatus(jobId, Status.INTERRUPTED);
+        } finally {
+            runningJobs.remove(jobId);
+            cancelRequests.remove(jobId);
+        }
+    }
 
+    /**
+     * Saves a checkpoint for each of the files to import that the job doesn't
+     * know about yet. The files at the top of a directory are imported into
+     * the owner of the job, those in a subdirectory into the collection with
+     * the alias of the subdirectory (created if the job says so).
+     */
+    private void registerFiles(BatchImportJob job, File root, DataverseRequest dataverseRequest, PrintWriter validationLog) {
+        Set<String> known = jobService.findFilePaths(job.getId());
+        Map<String, Long> files = new LinkedHashMap<>();
+        if (!root.isDirectory()) {
+            files.put(root.getName(), job.getOwnerId());
+        } else {
+            for (File file : listVisibleFiles(root)) {
+                if (file.isDirectory()) {
+                    try {
+                        Dataverse owner = findOrCreateOwner(file.getName(), job.isCreateDataverses(), dataverseRequest);
+                        for (File child : listVisibleFiles(file)) {
+                            files.put(file.getName() + "/" + child.getName(), owner.getId());
+                        }
+                    } catch (ImportException e) {
+                        logger.log(Level.SEVERE, "Exception in registerFiles() for " + file.getName(), e);
+                        validationLog.println(e.getMessage());
+                    }
+                } else {
+                    files.put(file.getName(), job.getOwnerId());
+                }
+            }
         }
+        files.keySet().removeAll(known);
+
+        Map<String, Long> chunk = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> file : files.entrySet()) {
+            chunk.put(file.getKey(), file.getValue());
+            if (chunk.size() == REGISTRATION_CHUNK_SIZE) {
+                jobService.addFiles(job.getId(), chunk);
+                chunk.clear();
+            }
         }
-        catch(Exception e) {
-                logger.log(Level.SEVERE, "Exception in processFilePath()", e);
-        } finally {
-            validationLog.close();
-            cleanupLog.close();
+        if (!chunk.isEmpty()) {
+            jobService.addFiles(job.getId(), chunk);
         }
-        logger.info("END IMPORT");
+        logger.info("Batch import job " + job.getId() + ": " + files.size() + " new file(s) to import, " + known.size() + " known already");
+    }
 
+    private static List<File> listVisibleFiles(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return List.of();
+        }
+        return Arrays.stream(files)
+                .filter(file -> !file.isHidden())
+                .sorted(Comparator.comparing(File::getName))
+                .toList();
     }
 
-    public JsonArrayBuilder handleDirectory(DataverseRequest dataverseRequest, File dir, ImportUtil.ImportType importType, PrintWriter validationLog, PrintWriter cleanupLog, Boolean createDV) throws ImportException{
-        JsonArrayBuilder status = Json.createArrayBuilder();
-        Dataverse owner = dataverseService.findByAlias(dir.getName());
-        if (owner == null ) {
+    private Dataverse findOrCreateOwner(String alias, boolean createDV, DataverseRequest dataverseRequest) throws ImportException {
+        Dataverse owner = dataverseService.findByAlias(alias);
+        if (owner == null) {
             if (createDV) {
-                System.out.println("creating new dataverse: " + dir.getName());
-                owner = importService.createDataverse(dir.getName(), dataverseRequest);
+                logger.info("creating new dataverse: " + alias);
+                owner = importService.createDataverse(alias, dataverseRequest);
             } else {
-                throw new ImportException("Can't find dataverse with identifier='" + dir.getName() + "'");
+                throw new ImportException("Can't find dataverse with identifier='" + alias + "'");
             }
         }
-        for (File file : dir.listFiles()) {
-            if (!file.isHidden()) {
-                try {
-                    JsonObjectBuilder fileStatus = importService.handleFile(dataverseRequest, owner, file, importType, validationLog, cleanupLog);
-                    status.add(fileStatus);
-                } catch (ImportException | IOException e) {
-                    status.add(Json.createObjectBuilder().add("importStatus", "Exception importing " + file.getName() + ", message = " + e.getMessage()));
-                }
+        return owner;
+    }
+
+    private void importFile(BatchImportJob job, Long fileId, File baseDir, DataverseRequest dataverseRequest, PrintWriter validationLog, PrintWriter cleanupLog) {
+        BatchImportFile checkpoint = jobService.findFile(fileId);
+        File file = new File(baseDir, checkpoint.getPath());
+        String msg;
+        try {
+            Dataverse owner = dataverseService.find(checkpoint.getOwnerId());
+            if (owner == null) {
+                throw new ImportException("Can't find dataverse with id=" + checkpoint.getOwnerId());
             }
+            importService.importFile(dataverseRequest, owner, file, job.getImportType(), cleanupLog, fileId);
+            return;
+        } catch (ImportException e) {
+            msg = "Import Exception processing file " + checkpoint.getPath() + ", msg:" + e.getMessage();
+        } catch (IOException | EJBException e) {
+            logger.log(Level.WARNING, "Unexpected Error importing file " + checkpoint.getPath(), e);
+            msg = "Unexpected Exception processing file " + checkpoint.getPath() + ", msg:" + e.getMessage();
         }
-        return status;
+        logger.info(msg);
+        validationLog.println(msg);
+        jobService.markFailed(fileId, msg);
     }
 
 }
@@ -6,6 +6,7 @@ import edu.harvard.iq.dataverse.DatasetLock.Reason;
 import edu.harvard.iq.dataverse.actionlogging.ActionLogRecord;
 import edu.harvard.iq.dataverse.api.auth.AuthRequired;
 import edu.harvard.iq.dataverse.api.dto.RoleAssignmentDTO;
+import edu.harvard.iq.dataverse.api.util.HttpCaching;
 import edu.harvard.iq.dataverse.authorization.AuthenticationServiceBean;
 import edu.harvard.iq.dataverse.authorization.DataverseRole;
 import edu.harvard.iq.dataverse.authorization.Permission;
@@ -40,6 +41,8 @@ import edu.harvard.iq.dataverse.makedatacount.*;
 import edu.harvard.iq.dataverse.makedatacount.MakeDataCountLoggingServiceBean.MakeDataCountEntry;
 import edu.harvard.iq.dataverse.metrics.MetricsUtil;
 import edu.harvard.iq.dataverse.pidproviders.PidProvider;
+import edu.harvard.iq.dataverse.pidproviders.PidReRegistrationJob;
+import edu.harvard.iq.dataverse.pidproviders.PidReRegistrationServiceBean;
 import edu.harvard.iq.dataverse.pidproviders.PidUtil;
 import edu.harvard.iq.dataverse.privateurl.PrivateUrl;
 import edu.harvard.iq.dataverse.privateurl.PrivateUrlServiceBean;
@@ -193,6 +196,12 @@ public class Datasets extends AbstractApiBean {
     @Inject
     DatasetTypeServiceBean datasetTypeSvc;
 
+    @EJB
+    PidReRegistrationServiceBean pidReRegistrationService;
+
+    @EJB
+    DatasetVersionDifferenceServiceBean versionDifferenceService;
+
     /**
      * Used to consolidate the way we parse and handle dataset versions.
      * @param <T> 
@@ -228,7 +237,7 @@ public class Datasets extends AbstractApiBean {
     @GET
     @Path("/export")
     @Produces({"application/xml", "application/json", "application/html", "application/ld+json", "*/*" })
-    public Response exportDataset(@QueryParam("persistentId") String persistentId, @QueryParam("exporter") String exporter, @Context UriInfo uriInfo, @Context HttpHeaders headers, @Context HttpServletResponse response) {
+    public Response exportDataset(@QueryParam("persistentId") String persistentId, @QueryParam("exporter") String exporter, @Context UriInfo uriInfo, @Context HttpHeaders headers, @Context Request request, @Context HttpServletResponse response) {
 
         try {
             Dataset dataset = datasetService.findByGlobalId(persistentId);
@@ -238,6 +247,21 @@ public class Datasets extends AbstractApiBean {
             
             ExportService instance = ExportService.getInstance();
             
+            // The cached exports only change when the dataset is re-exported, 
+            // so the last export time (along with the released version) makes 
+            // for a strong validator. Harvesters re-fetching an unchanged 
+            // export get a 304, without the export being read from storage.
+            EntityTag tag = null;
+            Date lastExportTime = dataset.getLastExportTime();
+            DatasetVersion releasedVersion = dataset.getReleasedVersion();
+            if (lastExportTime != null && releasedVersion != null && instance.isCachedExportCurrent(dataset, exporter)) {
+                tag = HttpCaching.entityTag(dataset.getId(), releasedVersion.getId(), lastExportTime.getTime(), exporter);
+                Response notModified = HttpCaching.notModified(request, tag, lastExportTime, true);
+                if (notModified != null) {
+                    return notModified;
+                }
+            }
+            
             InputStream is = instance.getExport(dataset, exporter);
            
             String mediaType = instance.getMediaType(exporter);
@@ -245,10 +269,15 @@ public class Datasets extends AbstractApiBean {
             MakeDataCountLoggingServiceBean.MakeDataCountEntry entry = new MakeDataCountEntry(uriInfo, headers, dvRequestService, dataset);
             mdcLogService.logEntry(entry);
             
-            return Response.ok()
+            Response.ResponseBuilder ok = Response.ok()
                     .entity(is)
-                    .type(mediaType).
-                    build();
+                    .type(mediaType);
+            // (Validators are only sent if the export was already cached; 
+            // getExport() may have just re-exported the dataset.)
+            if (tag != null && lastExportTime.equals(dataset.getLastExportTime())) {
+                HttpCaching.withValidators(ok, tag, lastExportTime, true);
+            }
+            return ok.build();
         } catch (Exception wr) {
             logger.warning(wr.getMessage());
             return error(Response.Status.FORBIDDEN, "Export Failed");
@@ -672,20 +701,15 @@ public class Datasets extends AbstractApiBean {
         }, getRequestUser(crc));
     }
     
+    /**
+     * Starts a background job re-registering the target URLs of all the local
+     * datasets. Progress can be followed via /api/admin/pidReRegistrationJobs.
+     */
     @POST
     @AuthRequired
     @Path("/modifyRegistrationAll")
-    public Response updateDatasetTargetURLAll(@Context ContainerRequestContext crc) {
-        return response( req -> {
-            datasetService.findAll().forEach( ds -> {
-                try {
-                    execCommand(new UpdateDatasetTargetURLCommand(findDatasetOrDie(ds.getId().toString()), req));
-                } catch (WrappedResponse ex) {
-                    Logger.getLogger(Datasets.class.getName()).log(Level.SEVERE, null, ex);
-                }
-            });
-            return ok("Update All Dataset target url completed");
-        }, getRequestUser(crc));
+    public Response updateDatasetTargetURLAll(@Context ContainerRequestContext crc, @QueryParam("concurrency") Integer concurrency) {
+        return startPidReRegistrationJob(crc, PidReRegistrationJob.JobType.TARGET_URL, concurrency);
     }
     
     @POST
@@ -710,27 +734,30 @@ public class Datasets extends AbstractApiBean {
         }, getRequestUser(crc));
     }
     
+    /**
+     * Starts a background job updating the PID metadata of all the published
+     * local datasets at their providers. Progress can be followed via
+     * /api/admin/pidReRegistrationJobs.
+     */
     @POST
     @AuthRequired
     @Path("/modifyRegistrationPIDMetadataAll")
-    public Response updateDatasetPIDMetadataAll(@Context ContainerRequestContext crc) {
-        return response( req -> {
-            datasetService.findAll().forEach( ds -> {
-                try {
-                    logger.fine("ReRegistering: " + ds.getId() + " : " + ds.getIdentifier());
-                    if (!ds.isReleased() || (!ds.isIdentifierRegistered() || (ds.getIdentifier() == null))) {
-                        if (ds.isReleased()) {
-                            logger.warning("Dataset id=" + ds.getId() + " is in an inconsistent state (publicationdate but no identifier/identifier not registered");
-                        }
-                    } else {
-                    execCommand(new UpdateDvObjectPIDMetadataCommand(findDatasetOrDie(ds.getId().toString()), req));
-                    }
-                } catch (WrappedResponse ex) {
-                    Logger.getLogger(Datasets.class.getName()).log(Level.SEVERE, null, ex);
-                }
-            });
-            return ok(BundleUtil.getStringFromBundle("datasets.api.updatePIDMetadata.success.for.update.all"));
-        }, getRequestUser(crc));
+    public Response updateDatasetPIDMetadataAll(@Context ContainerRequestContext crc, @QueryParam("concurrency") Integer concurrency) {
+        return startPidReRegistrationJob(crc, PidReRegistrationJob.JobType.PID_METADATA, concurrency);
+    }
+
+    private Response startPidReRegistrationJob(ContainerRequestContext crc, PidReRegistrationJob.JobType jobType, Integer concurrency) {
+        AuthenticatedUser user;
+        try {
+            user = getRequestAuthenticatedUserOrDie(crc);
+        } catch (WrappedResponse wr) {
+            return wr.getResponse();
+        }
+        if (!user.isSuperuser()) {
+            return error(Response.Status.FORBIDDEN, BundleUtil.getStringFromBundle("datasets.api.updatePIDMetadata.auth.mustBeSuperUser"));
+        }
+        PidReRegistrationJob job = pidReRegistrationService.start(jobType, user, concurrency);
+        return accepted(job.toJson());
     }
   
     @PUT
@@ -3040,7 +3067,7 @@ public class Datasets extends AbstractApiBean {
             if (dsv1.getCreateTime().getTime() > dsv2.getCreateTime().getTime()) {
                 return error(BAD_REQUEST, BundleUtil.getStringFromBundle("dataset.version.compare.incorrect.order"));
             }
-            return ok(DatasetVersion.compareVersions(dsv1, dsv2));
+            return ok(versionDifferenceService.compareVersions(dsv1, dsv2));
         } catch (WrappedResponse wr) {
             return wr.getResponse();
         }
@@ -47,6 +47,7 @@ import jakarta.ejb.EJBException;
 import jakarta.ejb.Stateless;
 import jakarta.json.*;
 import jakarta.json.JsonValue.ValueType;
+import jakarta.json.stream.JsonGenerator;
 import jakarta.json.stream.JsonParsingException;
 import jakarta.validation.ConstraintViolationException;
 import jakarta.ws.rs.BadRequestException;
@@ -88,6 +89,7 @@ public class Dataverses extends AbstractApiBean {
 
     private static final Logger logger = Logger.getLogger(Dataverses.class.getCanonicalName());
     private static final SimpleDateFormat dateFormatter = new SimpleDateFormat("yyyy-MM-dd'T'HH-mm-ss");
+    private static final int MAX_CONTENTS_PAGE_SIZE = 1000;
 
     @EJB
     ExplicitGroupServiceBean explicitGroupSvc;
@@ -1191,7 +1193,8 @@ public class Dataverses extends AbstractApiBean {
     @GET
     @AuthRequired
     @Path("{identifier}/contents")
-    public Response listContent(@Context ContainerRequestContext crc, @PathParam("identifier") String dvIdtf) throws WrappedResponse {
+    public Response listContent(@Context ContainerRequestContext crc, @PathParam("identifier") String dvIdtf,
+            @QueryParam("limit") Integer limit, @QueryParam("after") String after) throws WrappedResponse {
 
         DvObject.Visitor<JsonObjectBuilder> ser = new DvObject.Visitor<JsonObjectBuilder>() {
             @Override
@@ -1212,12 +1215,69 @@ public class Dataverses extends AbstractApiBean {
             }
         };
 
-        return response(req -> ok(
-                execCommand(new ListDataverseContentCommand(req, findDataverseOrDie(dvIdtf)))
-                        .stream()
-                        .map(dvo -> (JsonObjectBuilder) dvo.accept(ser))
-                        .collect(toJsonArray())
-        ), getRequestUser(crc));
+        if (limit != null && limit < 1) {
+            return badRequest("The limit must be a positive number");
+        }
+        ListDataverseContentCommand.Cursor afterCursor = null;
+        if (after != null) {
+            afterCursor = ListDataverseContentCommand.Cursor.parse(after);
+            if (afterCursor == null) {
+                return badRequest("Invalid value for after: " + after + ". Use the nextPageAfter value of the previous page.");
+            }
+        }
+        // Without a limit, the whole content is listed; it is still read a 
+        // page at a time, and written to the response as it goes.
+        boolean paged = limit != null;
+        int pageSize = paged ? Math.min(limit, MAX_CONTENTS_PAGE_SIZE) : MAX_CONTENTS_PAGE_SIZE;
+
+        // The first page is read right away, so that a missing dataverse or 
+        // a permission problem can still be reported with the proper status.
+        DataverseRequest req;
+        Dataverse dv;
+        List<DvObject> firstPage;
+        try {
+            req = createDataverseRequest(getRequestUser(crc));
+            dv = findDataverseOrDie(dvIdtf);
+            firstPage = execCommand(new ListDataverseContentCommand(req, dv, afterCursor, pageSize));
+        } catch (WrappedResponse wr) {
+            return wr.getResponse();
+        }
+
+        StreamingOutput stream = os -> {
+            try (JsonGenerator generator = Json.createGenerator(os)) {
+                generator.writeStartObject()
+                        .write("status", ApiConstants.STATUS_OK)
+                        .writeStartArray("data");
+                List<DvObject> page = firstPage;
+                ListDataverseContentCommand.Cursor nextPageAfter = null;
+                while (true) {
+                    for (DvObject dvo : page) {
+                        generator.write(((JsonObjectBuilder) dvo.accept(ser)).build());
+                    }
+                    if (page.size() < pageSize) {
+                        break;
+                    }
+                    ListDataverseContentCommand.Cursor last = ListDataverseContentCommand.Cursor.after(page.get(page.size() - 1));
+                    if (paged) {
+                        nextPageAfter = last;
+                        break;
+                    }
+                    generator.flush();
+                    page = execCommand(new ListDataverseContentCommand(req, dv, last, pageSize));
+                }
+                generator.writeEnd();
+                if (nextPageAfter != null) {
+                    generator.write("nextPageAfter", nextPageAfter.toString());
+                }
+                generator.writeEnd();
+            } catch (WrappedResponse wr) {
+                // The response has already been started, so there is not much 
+                // more that can be done than cutting it short.
+                logger.log(Level.WARNING, "Failed to list the contents of dataverse " + dvIdtf, wr);
+                throw new WebApplicationException(wr.getResponse());
+            }
+        };
+        return Response.ok(stream, MediaType.APPLICATION_JSON_TYPE).build();
     }
 
     @GET
@@ -1543,15 +1603,7 @@ public class Dataverses extends AbstractApiBean {
             public void write(OutputStream os) throws IOException,
                     WebApplicationException {
 
-                Map<Integer, Object> customQandAs = guestbookResponseService.mapCustomQuestionAnswersAsStrings(dv.getId(), gbId);
-                Map<Integer, String> datasetTitles = guestbookResponseService.mapDatasetTitles(dv.getId());
-
-                List<Object[]> guestbookResults = guestbookResponseService.getGuestbookResults(dv.getId(), gbId);
-                os.write("Guestbook, Dataset, Dataset PID, Date, Type, File Name, File Id, File PID, User Name, Email, Institution, Position, Custom Questions\n".getBytes());
-                for (Object[] result : guestbookResults) {
-                    StringBuilder sb = guestbookResponseService.convertGuestbookResponsesToCSV(customQandAs, datasetTitles, result);
-                    os.write(sb.toString().getBytes());
-                }
+                guestbookResponseService.streamResponsesByDataverseIdAndGuestbookId(os, dv.getId(), gbId);
             }
         };
         return Response.ok(stream).build();
@@ -38,9 +38,11 @@ import java.io.FileInputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
+import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import jakarta.inject.Inject;
@@ -60,6 +62,19 @@ import org.apache.tika.mime.MimeTypes;
 @Provider
 public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstance> {
 
+    /**
+     * The maximum number of ranges in a multipart/byteranges response (after
+     * coalescing), and in the Range header of the request; many small ranges
+     * make for a lot of overhead, both in the response and on the storage.
+     */
+    static final int MAX_RANGES = 50;
+    static final int MAX_RANGES_REQUESTED = 200;
+    /**
+     * Ranges separated by fewer bytes than this are sent as one; that's about
+     * the overhead of the headers of a part in a multipart/byteranges response.
+     */
+    static final int RANGE_COALESCE_GAP = 80;
+
     @Inject
     MakeDataCountLoggingServiceBean mdcLogService;
     @Inject
@@ -450,8 +465,36 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
 
                 } 
 
-                try (InputStream instream = storageIO.getInputStream()) {
-                    if (instream != null) {
+                // User may have requested a range (or several ranges) of bytes.
+                // Ranges are only supported when the size of the content 
+                // stream is known (i.e., it's not a dynamically generated 
+                // stream). 
+                List<Range> ranges = new ArrayList<>();
+                String rangeHeader = null;
+                HttpHeaders headers = di.getRequestHttpHeaders();
+                if (headers != null) {
+                    rangeHeader = headers.getHeaderString("Range");
+                }
+                long contentSize = getContentSize(storageIO);
+                if (contentSize > 0) {
+                    try {
+                        ranges = getRanges(rangeHeader, contentSize);
+                    } catch (Exception ex) {
+                        logger.fine("Exception caught processing Range header: " + ex.getLocalizedMessage());
+                        throw new ClientErrorException("Error due to Range header: " + ex.getLocalizedMessage(), Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE);
+                    }
+                } else if (rangeHeader != null) {
+                    // Content size unknown, must be a dynamically
+                    // generated stream, such as a subsetting request.
+                    // We do NOT want to support rangeHeader requests on such streams:
+                    throw new NotFoundException("Range headers are not supported on dynamically-generated content, such as tabular subsetting.");
+                }
+
+                // The ranges are read with StorageIO.getRangeInputStream(), 
+                // so for range requests the main input stream is not opened 
+                // here (on S3, that would start a GET of the whole object).
+                try (InputStream instream = ranges.isEmpty() ? storageIO.getInputStream() : null) {
+                    if (instream != null || !ranges.isEmpty()) {
                         // headers:
 
                         String fileName = storageIO.getFileName();
@@ -463,146 +506,81 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
                         // a space to + so we change it back to a space (%20).
                         String finalFileName = URLEncoder.encode(fileName, "UTF-8").replaceAll("\\+", "%20");
                         httpHeaders.add("Content-disposition", "attachment; filename=\"" + finalFileName + "\"");
-                        httpHeaders.add("Content-Type", mimeType + "; name=\"" + finalFileName + "\"");
-
-                        long contentSize;
-                        
-                        // User may have requested a rangeHeader of bytes.
-                        // Ranges are only supported when the size of the content 
-                        // stream is known (i.e., it's not a dynamically generated 
-                        // stream. 
-                        List<Range> ranges = new ArrayList<>();
-                        String rangeHeader = null;
-                        HttpHeaders headers = di.getRequestHttpHeaders();
-                        if (headers != null) {
-                            rangeHeader = headers.getHeaderString("Range");
-                        }
-                        long offset = 0;
-                        long leftToRead = -1L; 
-                        // Moving the "left to read" var. here; - since we may need 
-                        // to start counting our rangeHeader bytes outside the main .write()
-                        // loop, if it's a tabular file with a header. 
-                        
-                        if ((contentSize = getContentSize(storageIO)) > 0) {
-                            try {
-                                ranges = getRanges(rangeHeader, contentSize);
-                            } catch (Exception ex) {
-                                logger.fine("Exception caught processing Range header: " + ex.getLocalizedMessage());
-                                throw new ClientErrorException("Error due to Range header: " + ex.getLocalizedMessage(), Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE);
-                            }
-                            
-                            if (ranges.isEmpty()) {
-                                logger.fine("Content size (retrieved from the AccessObject): " + contentSize);
-                                httpHeaders.add("Content-Length", contentSize);
-                            } else  {
-                                // For now we only support a single rangeHeader.
-                                long rangeContentSize = ranges.get(0).getLength();
-                                logger.fine("Content size (Range header in use): " + rangeContentSize);
-                                httpHeaders.add("Content-Length", rangeContentSize);
-                                
-                                offset = ranges.get(0).getStart();
-                                leftToRead = rangeContentSize;
-                                httpHeaders.add("Accept-Ranges", "bytes");
-                                httpHeaders.add("Content-Range", "bytes "+offset+"-"+(offset+rangeContentSize-1)+"/"+contentSize);
+                        String contentType = mimeType + "; name=\"" + finalFileName + "\"";
 
-                            }
-                        } else {
-                            // Content size unknown, must be a dynamically
-                            // generated stream, such as a subsetting request.
-                            // We do NOT want to support rangeHeader requests on such streams:
-                            if (rangeHeader != null) {
-                                throw new NotFoundException("Range headers are not supported on dynamically-generated content, such as tabular subsetting.");
-                            }
-                            
+                        byte[] varHeader = null;
+                        if (storageIO.getVarHeader() != null && storageIO.getVarHeader().getBytes().length > 0) {
+                            logger.fine("storageIO.getVarHeader().getBytes().length: " + storageIO.getVarHeader().getBytes().length);
+                            varHeader = storageIO.getVarHeader().getBytes();
                         }
 
                         // (the httpHeaders map must be modified *before* writing any
                         // data in the output stream!)
-                        int bufsize;
-                        byte[] bffr = new byte[4 * 8192];
+                        if (ranges.isEmpty()) {
+                            httpHeaders.add("Content-Type", contentType);
+                            if (contentSize > 0) {
+                                logger.fine("Content size (retrieved from the AccessObject): " + contentSize);
+                                httpHeaders.add("Content-Length", contentSize);
+                            }
 
-                        // Before writing out any bytes from the input stream, write
-                        // any extra content, such as the variable header for the 
-                        // subsettable files: 
-                        if (storageIO.getVarHeader() != null) {
-                            logger.fine("storageIO.getVarHeader().getBytes().length: " + storageIO.getVarHeader().getBytes().length);
-                            if (storageIO.getVarHeader().getBytes().length > 0) {
-                                // If a rangeHeader is not being requested, let's call that the normal case.
-                                // Write the entire line of variable headers. Later, the rest of the file
-                                // will be written.
-                                if (ranges.isEmpty()) {
-                                    logger.fine("writing the entire variable header");
-                                    outstream.write(storageIO.getVarHeader().getBytes());
-                                } else {
-                                    // Range requested. Since the output stream of a 
-                                    // tabular file is made up of the varHeader and the body of 
-                                    // the physical file, we should assume that the requested 
-                                    // rangeHeader may span any portion of the combined stream.
-                                    // Thus we may or may not have to write the header, or a 
-                                    // portion thereof. 
-                                    int headerLength = storageIO.getVarHeader().getBytes().length;
-                                    if (offset >= headerLength) {
-                                        // We can skip the entire header. 
-                                        // All we need to do is adjust the byte offset 
-                                        // in the physical file; the number of bytes
-                                        // left to write stays unchanged, since we haven't
-                                        // written anything.
-                                        logger.fine("Skipping the variable header completely.");
-                                        offset -= headerLength;
-                                    } else {
-                                        // We need to write some portion of the header; 
-                                        // Once we are done, we may or may not still have 
-                                        // some bytes left to write from the main physical file.
-                                        if (offset + leftToRead <= headerLength) {
-                                            // This is a more straightforward case - we just need to 
-                                            // write a portion of the header, and then we are done!
-                                            logger.fine("Writing this many bytes of the variable header line: " + leftToRead);
-                                            outstream.write(Arrays.copyOfRange(storageIO.getVarHeader().getBytes(), (int)offset, (int)offset + (int)leftToRead));
-                                            // set "left to read" to zero, indicating that we are done:
-                                            leftToRead = 0; 
-                                        } else {
-                                            // write the requested portion of the header:
-                                            logger.fine("Writing this many bytes of the variable header line: " + (headerLength - offset));
-                                            outstream.write(Arrays.copyOfRange(storageIO.getVarHeader().getBytes(), (int)offset, headerLength));
-                                            // and adjust the file offset and remaining number of bytes accordingly: 
-                                            leftToRead -= (headerLength - offset);
-                                            offset = 0;
-                                        }
-                                        
-                                    }
-                                }
+                            // Before writing out any bytes from the input stream, write
+                            // any extra content, such as the variable header for the 
+                            // subsettable files: 
+                            if (varHeader != null) {
+                                logger.fine("writing the entire variable header");
+                                outstream.write(varHeader);
                             }
-                        }
 
-                        // Dynamic streams, etc. Normal operation. No leftToRead.
-                        if (ranges.isEmpty()) {
                             logger.fine("Normal, non-range request of file id " + dataFile.getId());
-                            while ((bufsize = instream.read(bffr)) != -1) {
-                                outstream.write(bffr, 0, bufsize);
-                            }
-                        } else if (leftToRead > 0) {
-                            // This is a rangeHeader request, and we still have bytes to read 
-                            // (for a tabular file, we may have already written enough
-                            // bytes from the variable header!)
-                            storageIO.setOffset(offset);
-                            // Thinking about it, we could just do instream.skip(offset) 
-                            // here... But I would like to have this offset functionality 
-                            // in StorageIO, for any future cases where we may not 
-                            // be able to do that on the stream directly (?) -- L.A.
-                            logger.fine("Range request of file id " + dataFile.getId());
-                            // Read a rangeHeader of bytes instead of the whole file. We'll count down as we write.
-                            // For now we only support a single rangeHeader.
-                            while ((bufsize = instream.read(bffr)) != -1) {
-                                if ((leftToRead -= bufsize) > 0) {
-                                    // Just do a normal write. Potentially lots to go. Don't break.
+                            if (storageIO instanceof FileAccessIO<?> localFile) {
+                                // An unmodified local file: send it straight 
+                                // from the file channel.
+                                localFile.transferTo(0, Long.MAX_VALUE, outstream);
+                            } else {
+                                // Dynamic streams, etc. Normal operation.
+                                int bufsize;
+                                byte[] bffr = new byte[4 * 8192];
+                                while ((bufsize = instream.read(bffr)) != -1) {
                                     outstream.write(bffr, 0, bufsize);
-                                } else {
-                                    // Get those last bytes or bytes equal to bufsize. Last one. Then break.
-                                    outstream.write(bffr, 0, (int) leftToRead + bufsize);
-                                    break;
                                 }
                             }
+                        } else if (ranges.size() == 1) {
+                            Range range = ranges.get(0);
+                            logger.fine("Content size (Range header in use): " + range.getLength());
+                            httpHeaders.add("Content-Type", contentType);
+                            httpHeaders.add("Content-Length", range.getLength());
+                            httpHeaders.add("Accept-Ranges", "bytes");
+                            httpHeaders.add("Content-Range", getContentRange(range, contentSize));
+
+                            logger.fine("Range request of file id " + dataFile.getId());
+                            writeRange(storageIO, varHeader, range, outstream);
+                        } else {
+                            // multipart/byteranges (RFC 7233, Appendix A): each 
+                            // range is sent as a part with its own Content-Range.
+                            logger.fine("Multiple range request (" + ranges.size() + " ranges) of file id " + dataFile.getId());
+                            String boundary = UUID.randomUUID().toString();
+                            List<byte[]> partHeaders = new ArrayList<>(ranges.size());
+                            long multipartSize = 0;
+                            for (Range range : ranges) {
+                                byte[] partHeader = ("\r\n--" + boundary + "\r\n"
+                                        + "Content-Type: " + contentType + "\r\n"
+                                        + "Content-Range: " + getContentRange(range, contentSize) + "\r\n\r\n")
+                                        .getBytes(StandardCharsets.UTF_8);
+                                partHeaders.add(partHeader);
+                                multipartSize += partHeader.length + range.getLength();
+                            }
+                            byte[] closingBoundary = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8);
+                            multipartSize += closingBoundary.length;
+
+                            httpHeaders.add("Content-Type", "multipart/byteranges; boundary=" + boundary);
+                            httpHeaders.add("Content-Length", multipartSize);
+                            httpHeaders.add("Accept-Ranges", "bytes");
 
+                            for (int i = 0; i < ranges.size(); i++) {
+                                outstream.write(partHeaders.get(i));
+                                writeRange(storageIO, varHeader, ranges.get(i), outstream);
+                            }
+                            outstream.write(closingBoundary);
                         }
 
                         logger.fine("di conversion param: " + di.getConversionParam() + ", value: " + di.getConversionParamValue());
@@ -626,6 +604,10 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
                         outstream.close();
                         return;
                     }
+                } finally {
+                    if (!ranges.isEmpty()) {
+                        storageIO.closeInputStream();
+                    }
                 }
             }
         }
@@ -703,6 +685,49 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
         return -1;
     }
 
+    /**
+     * Writes one range of the content, which is made of the variable header
+     * (if there is one, e.g. for tabular files) followed by the physical file.
+     * The requested range may thus span any portion of the combined stream:
+     * we may or may not have to write the header, or a portion thereof.
+     */
+    private void writeRange(StorageIO<?> storageIO, byte[] varHeader, Range range, OutputStream outstream) throws IOException {
+        long offset = range.getStart();
+        long leftToRead = range.getLength();
+        if (varHeader != null) {
+            if (offset >= varHeader.length) {
+                // We can skip the entire header. All we need to do is adjust 
+                // the byte offset in the physical file.
+                offset -= varHeader.length;
+            } else {
+                int headerBytes = (int) Math.min(varHeader.length - offset, leftToRead);
+                logger.fine("Writing this many bytes of the variable header line: " + headerBytes);
+                outstream.write(varHeader, (int) offset, headerBytes);
+                leftToRead -= headerBytes;
+                offset = 0;
+            }
+        }
+        if (leftToRead > 0 && storageIO instanceof FileAccessIO<?> localFile) {
+            leftToRead -= localFile.transferTo(offset, leftToRead, outstream);
+        } else if (leftToRead > 0) {
+            try (InputStream rangeStream = storageIO.getRangeInputStream(offset, leftToRead)) {
+                int bufsize;
+                byte[] bffr = new byte[4 * 8192];
+                while (leftToRead > 0 && (bufsize = rangeStream.read(bffr, 0, (int) Math.min(bffr.length, leftToRead))) != -1) {
+                    outstream.write(bffr, 0, bufsize);
+                    leftToRead -= bufsize;
+                }
+            }
+        }
+        if (leftToRead > 0) {
+            throw new IOException("Premature end of file while reading range " + getContentRange(range, -1));
+        }
+    }
+
+    private static String getContentRange(Range range, long contentSize) {
+        return "bytes " + range.getStart() + "-" + range.getEnd() + "/" + (contentSize > 0 ? contentSize : "*");
+    }
+
     private long getFileSize(DownloadInstance di) {
         return getFileSize(di, null);
     }
@@ -744,8 +769,11 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
     }
 
     /**
-     * @param range "bytes 0-10" for example. Found in the "Range" HTTP header.
+     * @param range "bytes=0-10" for example, or "bytes=0-10,90-99" for several
+     * ranges. Found in the "Range" HTTP header.
      * @param fileSize File size in bytes.
+     * @return the requested ranges, sorted; ranges that overlap, or that are 
+     * separated by less than {@link #RANGE_COALESCE_GAP} bytes, are merged.
      * @throws RunTimeException on any problems processing the Range header.
      */
     public List<Range> getRanges(String range, long fileSize) {
@@ -756,19 +784,17 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
         if (range != null) {
             logger.fine("Range header supplied: " + range);
 
-            // Technically this regex supports multiple ranges.
-            // Below we have a check to enforce a single range.
             if (!range.matches("^bytes=\\d*-\\d*(,\\d*-\\d*)*$")) {
                 throw new RuntimeException("The format is bytes=<range-start>-<range-end> where start and end are optional.");
             }
 
             // The 6 is to remove "bytes="
             String[] parts = range.substring(6).split(",");
-            if (parts.length > 1) {
-                // Only allow a single range.
-                throw new RuntimeException("Only one range is allowed.");
+            // Checked before parsing as well as after coalescing, so that a 
+            // huge header is not even parsed.
+            if (parts.length > MAX_RANGES_REQUESTED) {
+                throw new RuntimeException("Too many ranges; at most " + MAX_RANGES_REQUESTED + " are allowed.");
             }
-            // This loop is here in case we ever want to support multiple ranges.
             for (String part : parts) {
 
                 long start = getRangeStart(part);
@@ -776,7 +802,7 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
 
                 if (start == -1) {
                     // start does not exist. Base start off of how many bytes from end.
-                    start = fileSize - end;
+                    start = Math.max(0, fileSize - end);
                     end = fileSize - 1;
                 } else if (end == -1 || end > fileSize - 1) {
                     // Set end when it doesn't exist.
@@ -792,11 +818,36 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
                 ranges.add(new Range(start, end));
 
             }
+
+            ranges = coalesce(ranges);
+            if (ranges.size() > MAX_RANGES) {
+                throw new RuntimeException("Too many ranges; at most " + MAX_RANGES + " non-adjacent ranges are allowed.");
+            }
         }
 
         return ranges;
     }
 
+    private static List<Range> coalesce(List<Range> ranges) {
+        if (ranges.size() < 2) {
+            return ranges;
+        }
+        List<Range> sorted = new ArrayList<>(ranges);
+        sorted.sort(Comparator.comparingLong(Range::getStart));
+        List<Range> coalesced = new ArrayList<>();
+        Range current = sorted.get(0);
+        for (Range next : sorted.subList(1, sorted.size())) {
+            if (next.getStart() <= current.getEnd() + 1 + RANGE_COALESCE_GAP) {
+                current = new Range(current.getStart(), Math.max(current.getEnd(), next.getEnd()));
+            } else {
+                coalesced.add(current);
+                current = next;
+            }
+        }
+        coalesced.add(current);
+        return coalesced;
+    }
+
     /**
      * @return Return a positive long or -1 if start does not exist.
      */
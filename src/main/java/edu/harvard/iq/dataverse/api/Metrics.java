@@ -2,8 +2,9 @@ package edu.harvard.iq.dataverse.api;
 
 import edu.harvard.iq.dataverse.DatasetVersion;
 import edu.harvard.iq.dataverse.Dataverse;
-import edu.harvard.iq.dataverse.Metric;
 import edu.harvard.iq.dataverse.makedatacount.MakeDataCountUtil;
+import edu.harvard.iq.dataverse.metrics.MetricsRollupServiceBean;
+import edu.harvard.iq.dataverse.metrics.MetricsRollupServiceBean.Expiry;
 import edu.harvard.iq.dataverse.metrics.MetricsUtil;
 import edu.harvard.iq.dataverse.util.FileUtil;
 
@@ -12,8 +13,10 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Logger;
 
+import jakarta.ejb.EJB;
 import jakarta.json.JsonArray;
 import jakarta.json.JsonObject;
+import jakarta.ws.rs.BadRequestException;
 import jakarta.ws.rs.GET;
 import jakarta.ws.rs.NotFoundException;
 import jakarta.ws.rs.Path;
@@ -32,10 +35,11 @@ import jakarta.ws.rs.core.Variant;
 /**
  * API endpoints for various metrics.
  *
- * These endpoints look a bit heavy because they check for a timely cached value
- * to use before responding. The caching code resides here because the this is
- * the point at which JSON is generated and this JSON was deemed the easiest to
- * cache.
+ * These endpoints answer from the JSON of the metrics stored by
+ * {@link MetricsRollupServiceBean}, which runs the queries given here when a
+ * metric has to be computed (once, however many requests ask for it) and
+ * keeps the metrics that are asked for up to date. The JSON is generated here,
+ * as this JSON was deemed the easiest to cache.
  *
  * @author pdurbin, madunlap
  */
@@ -43,6 +47,9 @@ import jakarta.ws.rs.core.Variant;
 public class Metrics extends AbstractApiBean {
     private static final Logger logger = Logger.getLogger(Metrics.class.getName());
 
+    @EJB
+    MetricsRollupServiceBean metricsRollups;
+
     /** Dataverses */
 
     @GET
@@ -63,13 +70,8 @@ public class Metrics extends AbstractApiBean {
             return error(BAD_REQUEST, ia.getLocalizedMessage());
         }
         String metricName = "dataverses";
-        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsSvc.returnUnexpiredCacheAllTime(metricName, null, d));
-
-        if (null == jsonArray) { // run query and save
-
-            jsonArray = metricsSvc.getDataversesTimeSeries(uriInfo, d);
-            metricsSvc.save(new Metric(metricName, null, null, d, jsonArray.toString()));
-        }
+        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsRollups.get(metricName, null, null, d, Expiry.ALL_TIME,
+                () -> metricsSvc.getDataversesTimeSeries(uriInfo, d)));
         MediaType requestedType = getVariant(req, MediaType.valueOf(FileUtil.MIME_TYPE_CSV), MediaType.APPLICATION_JSON_TYPE);
         if ((requestedType != null) && (requestedType.equals(MediaType.APPLICATION_JSON_TYPE))) {
             return ok(jsonArray);
@@ -91,13 +93,8 @@ public class Metrics extends AbstractApiBean {
         String metricName = "dataversesToMonth";
 
         String sanitizedyyyymm = MetricsUtil.sanitizeYearMonthUserInput(yyyymm);
-        JsonObject jsonObj = MetricsUtil.stringToJsonObject(metricsSvc.returnUnexpiredCacheMonthly(metricName, sanitizedyyyymm, null, d));
-
-        if (null == jsonObj) { // run query and save
-            Long count = metricsSvc.dataversesToMonth(sanitizedyyyymm, d);
-            jsonObj = MetricsUtil.countToJson(count).build();
-            metricsSvc.save(new Metric(metricName, sanitizedyyyymm, null, d, jsonObj.toString()));
-        }
+        JsonObject jsonObj = MetricsUtil.stringToJsonObject(metricsRollups.get(metricName, sanitizedyyyymm, null, d, Expiry.MONTHLY,
+                () -> MetricsUtil.countToJson(metricsSvc.dataversesToMonth(sanitizedyyyymm, d)).build()));
 
         return ok(jsonObj);
 
@@ -119,13 +116,8 @@ public class Metrics extends AbstractApiBean {
         if (days < 1) {
             return error(BAD_REQUEST, "Invalid parameter for number of days.");
         }
-        JsonObject jsonObj = MetricsUtil.stringToJsonObject(metricsSvc.returnUnexpiredCacheDayBased(metricName, String.valueOf(days), null, d));
-
-        if (null == jsonObj) { // run query and save
-            Long count = metricsSvc.dataversesPastDays(days, d);
-            jsonObj = MetricsUtil.countToJson(count).build();
-            metricsSvc.save(new Metric(metricName, String.valueOf(days), null, d, jsonObj.toString()));
-        }
+        JsonObject jsonObj = MetricsUtil.stringToJsonObject(metricsRollups.get(metricName, String.valueOf(days), null, d, Expiry.DAY_BASED,
+                () -> MetricsUtil.countToJson(metricsSvc.dataversesPastDays(days, d)).build()));
 
         return ok(jsonObj);
 
@@ -145,12 +137,8 @@ public class Metrics extends AbstractApiBean {
 
         String metricName = "dataversesByCategory";
 
-        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsSvc.returnUnexpiredCacheAllTime(metricName, null, d));
-
-        if (null == jsonArray) { // run query and save
-            jsonArray = MetricsUtil.dataversesByCategoryToJson(metricsSvc.dataversesByCategory(d)).build();
-            metricsSvc.save(new Metric(metricName, null, null, d, jsonArray.toString()));
-        }
+        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsRollups.get(metricName, null, null, d, Expiry.ALL_TIME,
+                () -> MetricsUtil.dataversesByCategoryToJson(metricsSvc.dataversesByCategory(d)).build()));
         MediaType requestedType = getVariant(req, MediaType.valueOf(FileUtil.MIME_TYPE_CSV), MediaType.APPLICATION_JSON_TYPE);
         if ((requestedType != null) && (requestedType.equals(MediaType.APPLICATION_JSON_TYPE))) {
             return ok(jsonArray);
@@ -172,12 +160,8 @@ public class Metrics extends AbstractApiBean {
 
         String metricName = "dataversesBySubject";
 
-        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsSvc.returnUnexpiredCacheAllTime(metricName, null, d));
-
-        if (null == jsonArray) { // run query and save
-            jsonArray = MetricsUtil.dataversesBySubjectToJson(metricsSvc.dataversesBySubject(d)).build();
-            metricsSvc.save(new Metric(metricName, null, null, d, jsonArray.toString()));
-        }
+        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsRollups.get(metricName, null, null, d, Expiry.ALL_TIME,
+                () -> MetricsUtil.dataversesBySubjectToJson(metricsSvc.dataversesBySubject(d)).build()));
 
         MediaType requestedType = getVariant(req, MediaType.valueOf(FileUtil.MIME_TYPE_CSV), MediaType.APPLICATION_JSON_TYPE);
         if ((requestedType != null) && (requestedType.equals(MediaType.APPLICATION_JSON_TYPE))) {
@@ -207,13 +191,8 @@ public class Metrics extends AbstractApiBean {
         }
         String metricName = "datasets";
         String validDataLocation = MetricsUtil.validateDataLocationStringType(dataLocation);
-        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsSvc.returnUnexpiredCacheAllTime(metricName, validDataLocation, d));
-
-        if (null == jsonArray) { // run query and save
-
-            jsonArray = metricsSvc.getDatasetsTimeSeries(uriInfo, validDataLocation, d);
-            metricsSvc.save(new Metric(metricName, null, validDataLocation, d, jsonArray.toString()));
-        }
+        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsRollups.get(metricName, null, validDataLocation, d, Expiry.ALL_TIME,
+                () -> metricsSvc.getDatasetsTimeSeries(uriInfo, validDataLocation, d)));
         MediaType requestedType = getVariant(req, MediaType.valueOf(FileUtil.MIME_TYPE_CSV), MediaType.APPLICATION_JSON_TYPE);
         if ((requestedType != null) && (requestedType.equals(MediaType.APPLICATION_JSON_TYPE))) {
             return ok(jsonArray);
@@ -236,13 +215,8 @@ public class Metrics extends AbstractApiBean {
 
         String sanitizedyyyymm = MetricsUtil.sanitizeYearMonthUserInput(yyyymm);
         String validDataLocation = MetricsUtil.validateDataLocationStringType(dataLocation);
-        JsonObject jsonObj = MetricsUtil.stringToJsonObject(metricsSvc.returnUnexpiredCacheMonthly(metricName, sanitizedyyyymm, validDataLocation, d));
-
-        if (null == jsonObj) { // run query and save
-            Long count = metricsSvc.datasetsToMonth(sanitizedyyyymm, validDataLocation, d);
-            jsonObj = MetricsUtil.countToJson(count).build();
-            metricsSvc.save(new Metric(metricName, sanitizedyyyymm, validDataLocation, d, jsonObj.toString()));
-        }
+        JsonObject jsonObj = MetricsUtil.stringToJsonObject(metricsRollups.get(metricName, sanitizedyyyymm, validDataLocation, d, Expiry.MONTHLY,
+                () -> MetricsUtil.countToJson(metricsSvc.datasetsToMonth(sanitizedyyyymm, validDataLocation, d)).build()));
 
         return ok(jsonObj);
 
@@ -265,13 +239,8 @@ public class Metrics extends AbstractApiBean {
             return error(BAD_REQUEST, "Invalid parameter for number of days.");
         }
         String validDataLocation = MetricsUtil.validateDataLocationStringType(dataLocation);
-        JsonObject jsonObj = MetricsUtil.stringToJsonObject(metricsSvc.returnUnexpiredCacheDayBased(metricName, String.valueOf(days), validDataLocation, d));
-
-        if (null == jsonObj) { // run query and save
-            Long count = metricsSvc.datasetsPastDays(days, validDataLocation, d);
-            jsonObj = MetricsUtil.countToJson(count).build();
-            metricsSvc.save(new Metric(metricName, String.valueOf(days), validDataLocation, d, jsonObj.toString()));
-        }
+        JsonObject jsonObj = MetricsUtil.stringToJsonObject(metricsRollups.get(metricName, String.valueOf(days), validDataLocation, d, Expiry.DAY_BASED,
+                () -> MetricsUtil.countToJson(metricsSvc.datasetsPastDays(days, validDataLocation, d)).build()));
 
         return ok(jsonObj);
 
@@ -300,12 +269,8 @@ public class Metrics extends AbstractApiBean {
 
         String sanitizedyyyymm = MetricsUtil.sanitizeYearMonthUserInput(yyyymm);
         String validDataLocation = MetricsUtil.validateDataLocationStringType(dataLocation);
-        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsSvc.returnUnexpiredCacheMonthly(metricName, sanitizedyyyymm, validDataLocation, d));
-
-        if (null == jsonArray) { // run query and save
-            jsonArray = MetricsUtil.datasetsBySubjectToJson(metricsSvc.datasetsBySubjectToMonth(sanitizedyyyymm, validDataLocation, d)).build();
-            metricsSvc.save(new Metric(metricName, sanitizedyyyymm, validDataLocation, d, jsonArray.toString()));
-        }
+        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsRollups.get(metricName, sanitizedyyyymm, validDataLocation, d, Expiry.MONTHLY,
+                () -> MetricsUtil.datasetsBySubjectToJson(metricsSvc.datasetsBySubjectToMonth(sanitizedyyyymm, validDataLocation, d)).build()));
         MediaType requestedType = getVariant(req, MediaType.valueOf(FileUtil.MIME_TYPE_CSV), MediaType.APPLICATION_JSON_TYPE);
         if ((requestedType != null) && (requestedType.equals(MediaType.APPLICATION_JSON_TYPE))) {
             return ok(jsonArray);
@@ -332,13 +297,8 @@ public class Metrics extends AbstractApiBean {
         }
         String metricName = "files";
 
-        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsSvc.returnUnexpiredCacheAllTime(metricName, null, d));
-
-        if (null == jsonArray) { // run query and save
-
-            jsonArray = metricsSvc.filesTimeSeries(d);
-            metricsSvc.save(new Metric(metricName, null, null, d, jsonArray.toString()));
-        }
+        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsRollups.get(metricName, null, null, d, Expiry.ALL_TIME,
+                () -> metricsSvc.filesTimeSeries(d)));
         MediaType requestedType = getVariant(req, MediaType.valueOf(FileUtil.MIME_TYPE_CSV), MediaType.APPLICATION_JSON_TYPE);
         if ((requestedType != null) && (requestedType.equals(MediaType.APPLICATION_JSON_TYPE))) {
             return ok(jsonArray);
@@ -361,15 +321,8 @@ public class Metrics extends AbstractApiBean {
 
         String sanitizedyyyymm = MetricsUtil.sanitizeYearMonthUserInput(yyyymm);
         logger.fine("yyyymm: " + sanitizedyyyymm);
-        JsonObject jsonObj = MetricsUtil.stringToJsonObject(metricsSvc.returnUnexpiredCacheMonthly(metricName, sanitizedyyyymm, null, d));
-        logger.fine("Returned");
-        if (null == jsonObj) { // run query and save
-            logger.fine("Getting filesToMonth : " + sanitizedyyyymm + " dvId=" + ((d==null) ? "not sent" : d.getId()));
-            Long count = metricsSvc.filesToMonth(sanitizedyyyymm, d);
-            logger.fine("count = " + count);
-            jsonObj = MetricsUtil.countToJson(count).build();
-            metricsSvc.save(new Metric(metricName, sanitizedyyyymm, null, d, jsonObj.toString()));
-        }
+        JsonObject jsonObj = MetricsUtil.stringToJsonObject(metricsRollups.get(metricName, sanitizedyyyymm, null, d, Expiry.MONTHLY,
+                () -> MetricsUtil.countToJson(metricsSvc.filesToMonth(sanitizedyyyymm, d)).build()));
 
         return ok(jsonObj);
     }
@@ -391,13 +344,8 @@ public class Metrics extends AbstractApiBean {
             return error(BAD_REQUEST, "Invalid parameter for number of days.");
         }
 
-        JsonObject jsonObj = MetricsUtil.stringToJsonObject(metricsSvc.returnUnexpiredCacheDayBased(metricName, String.valueOf(days), null, d));
-
-        if (null == jsonObj) { // run query and save
-            Long count = metricsSvc.filesPastDays(days, d);
-            jsonObj = MetricsUtil.countToJson(count).build();
-            metricsSvc.save(new Metric(metricName, String.valueOf(days), null, d, jsonObj.toString()));
-        }
+        JsonObject jsonObj = MetricsUtil.stringToJsonObject(metricsRollups.get(metricName, String.valueOf(days), null, d, Expiry.DAY_BASED,
+                () -> MetricsUtil.countToJson(metricsSvc.filesPastDays(days, d)).build()));
 
         return ok(jsonObj);
 
@@ -415,13 +363,9 @@ public class Metrics extends AbstractApiBean {
         }
         String metricName = "filesByTypeMonthly";
 
-        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsSvc.returnUnexpiredCacheAllTime(metricName, null, d));
-
-        if (null == jsonArray) { // run query and save
-            // Only handling published right now
-            jsonArray = metricsSvc.filesByTypeTimeSeries(d, true);
-            metricsSvc.save(new Metric(metricName, null, null, d, jsonArray.toString()));
-        }
+        // Only handling published right now
+        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsRollups.get(metricName, null, null, d, Expiry.ALL_TIME,
+                () -> metricsSvc.filesByTypeTimeSeries(d, true)));
         MediaType requestedType = getVariant(req, MediaType.valueOf(FileUtil.MIME_TYPE_CSV), MediaType.APPLICATION_JSON_TYPE);
         if ((requestedType != null) && (requestedType.equals(MediaType.APPLICATION_JSON_TYPE))) {
             return ok(jsonArray);
@@ -442,12 +386,8 @@ public class Metrics extends AbstractApiBean {
 
         String metricName = "filesByType";
 
-        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsSvc.returnUnexpiredCacheAllTime(metricName, null, d));
-
-        if (null == jsonArray) { // run query and save
-            jsonArray = metricsSvc.filesByType(d);
-            metricsSvc.save(new Metric(metricName, null, null, d, jsonArray.toString()));
-        }
+        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsRollups.get(metricName, null, null, d, Expiry.ALL_TIME,
+                () -> metricsSvc.filesByType(d)));
 
         MediaType requestedType = getVariant(req, MediaType.valueOf(FileUtil.MIME_TYPE_CSV), MediaType.APPLICATION_JSON_TYPE);
         if ((requestedType != null) && (requestedType.equals(MediaType.APPLICATION_JSON_TYPE))) {
@@ -476,13 +416,9 @@ public class Metrics extends AbstractApiBean {
         }
         String metricName = "downloads";
 
-        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsSvc.returnUnexpiredCacheAllTime(metricName, null, d));
-
-        if (null == jsonArray) { // run query and save
-            // Only handling published right now
-            jsonArray = metricsSvc.downloadsTimeSeries(d);
-            metricsSvc.save(new Metric(metricName, null, null, d, jsonArray.toString()));
-        }
+        // Only handling published right now
+        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsRollups.get(metricName, null, null, d, Expiry.ALL_TIME,
+                () -> metricsSvc.downloadsTimeSeries(d)));
 
         MediaType requestedType = getVariant(req, MediaType.valueOf(FileUtil.MIME_TYPE_CSV), MediaType.APPLICATION_JSON_TYPE);
         if ((requestedType != null) && (requestedType.equals(MediaType.APPLICATION_JSON_TYPE))) {
@@ -505,18 +441,14 @@ public class Metrics extends AbstractApiBean {
         String metricName = "downloadsToMonth";
 
         String sanitizedyyyymm = MetricsUtil.sanitizeYearMonthUserInput(yyyymm);
-        JsonObject jsonObj = MetricsUtil.stringToJsonObject(metricsSvc.returnUnexpiredCacheMonthly(metricName, sanitizedyyyymm, null, d));
-
-        if (null == jsonObj) { // run query and save
-            Long count;
-            try {
-                count = metricsSvc.downloadsToMonth(sanitizedyyyymm, d);
-            } catch (ParseException e) {
-                return error(BAD_REQUEST, "Unable to parse supplied date: " + e.getLocalizedMessage());
-            }
-            jsonObj = MetricsUtil.countToJson(count).build();
-            metricsSvc.save(new Metric(metricName, sanitizedyyyymm, null, d, jsonObj.toString()));
-        }
+        JsonObject jsonObj = MetricsUtil.stringToJsonObject(metricsRollups.get(metricName, sanitizedyyyymm, null, d, Expiry.MONTHLY,
+                () -> {
+                    try {
+                        return MetricsUtil.countToJson(metricsSvc.downloadsToMonth(sanitizedyyyymm, d)).build();
+                    } catch (ParseException e) {
+                        throw new BadRequestException("Unable to parse supplied date: " + e.getLocalizedMessage());
+                    }
+                }));
 
         return ok(jsonObj);
     }
@@ -537,13 +469,8 @@ public class Metrics extends AbstractApiBean {
         if (days < 1) {
             return error(BAD_REQUEST, "Invalid parameter for number of days.");
         }
-        JsonObject jsonObj = MetricsUtil.stringToJsonObject(metricsSvc.returnUnexpiredCacheDayBased(metricName, String.valueOf(days), null, d));
-
-        if (null == jsonObj) { // run query and save
-            Long count = metricsSvc.downloadsPastDays(days, d);
-            jsonObj = MetricsUtil.countToJson(count).build();
-            metricsSvc.save(new Metric(metricName, String.valueOf(days), null, d, jsonObj.toString()));
-        }
+        JsonObject jsonObj = MetricsUtil.stringToJsonObject(metricsRollups.get(metricName, String.valueOf(days), null, d, Expiry.DAY_BASED,
+                () -> MetricsUtil.countToJson(metricsSvc.downloadsPastDays(days, d)).build()));
 
         return ok(jsonObj);
     }
@@ -568,18 +495,14 @@ public class Metrics extends AbstractApiBean {
 
         String metricName = "accountsToMonth";
         String sanitizedyyyymm = MetricsUtil.sanitizeYearMonthUserInput(yyyymm);
-        JsonObject jsonObj = MetricsUtil.stringToJsonObject(metricsSvc.returnUnexpiredCacheMonthly(metricName, sanitizedyyyymm, null, null));
-
-        if (null == jsonObj) { // run query and save
-            Long count;
-            try {
-                count = metricsSvc.accountsToMonth(sanitizedyyyymm);
-            } catch (ParseException e) {
-                return error(BAD_REQUEST, "Unable to parse supplied date: " + e.getLocalizedMessage());
-            }
-            jsonObj = MetricsUtil.countToJson(count).build();
-            metricsSvc.save(new Metric(metricName, sanitizedyyyymm, null, null, jsonObj.toString()));
-        }
+        JsonObject jsonObj = MetricsUtil.stringToJsonObject(metricsRollups.get(metricName, sanitizedyyyymm, null, null, Expiry.MONTHLY,
+                () -> {
+                    try {
+                        return MetricsUtil.countToJson(metricsSvc.accountsToMonth(sanitizedyyyymm)).build();
+                    } catch (ParseException e) {
+                        throw new BadRequestException("Unable to parse supplied date: " + e.getLocalizedMessage());
+                    }
+                }));
 
         return ok(jsonObj);
     }
@@ -600,13 +523,8 @@ public class Metrics extends AbstractApiBean {
             return error(BAD_REQUEST, "Invalid parameter for number of days.");
         }
 
-        JsonObject jsonObj = MetricsUtil.stringToJsonObject(metricsSvc.returnUnexpiredCacheDayBased(metricName, String.valueOf(days), null, null));
-
-        if (null == jsonObj) { // run query and save
-            Long count = metricsSvc.accountsPastDays(days);
-            jsonObj = MetricsUtil.countToJson(count).build();
-            metricsSvc.save(new Metric(metricName, String.valueOf(days), null, null, jsonObj.toString()));
-        }
+        JsonObject jsonObj = MetricsUtil.stringToJsonObject(metricsRollups.get(metricName, String.valueOf(days), null, null, Expiry.DAY_BASED,
+                () -> MetricsUtil.countToJson(metricsSvc.accountsPastDays(days)).build()));
 
         return ok(jsonObj);
     }
@@ -623,13 +541,9 @@ public class Metrics extends AbstractApiBean {
         }
 
         String metricName = "accounts";
-        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsSvc.returnUnexpiredCacheAllTime(metricName, null, null));
-
-        if (null == jsonArray) { // run query and save
-            // Only handling published right now
-            jsonArray = metricsSvc.accountsTimeSeries();
-            metricsSvc.save(new Metric(metricName, null, null, null, jsonArray.toString()));
-        }
+        // Only handling published right now
+        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsRollups.get(metricName, null, null, null, Expiry.ALL_TIME,
+                () -> metricsSvc.accountsTimeSeries()));
 
         MediaType requestedType = getVariant(req, MediaType.valueOf(FileUtil.MIME_TYPE_CSV), MediaType.APPLICATION_JSON_TYPE);
         if ((requestedType != null) && (requestedType.equals(MediaType.APPLICATION_JSON_TYPE))) {
@@ -651,7 +565,7 @@ public class Metrics extends AbstractApiBean {
     @Produces("text/csv, application/json")
     public Response getMakeDataCountMetricTimeSeries(@Context Request req, @Context UriInfo uriInfo, @PathParam("metric") String metricSupplied, @QueryParam("country") String country, @QueryParam("parentAlias") String parentAlias) {
         Dataverse d = findDataverseOrDieIfNotFound(parentAlias);
-        MakeDataCountUtil.MetricType metricType = null;
+        MakeDataCountUtil.MetricType metricType;
         try {
             errorIfUnrecongizedQueryParamPassed(uriInfo, new String[] { "parentAlias", "country" });
         } catch (IllegalArgumentException ia) {
@@ -664,13 +578,9 @@ public class Metrics extends AbstractApiBean {
         }
         String metricName = "MDC-" + metricType.toString() + ((country == null) ? "" : "-" + country);
 
-        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsSvc.returnUnexpiredCacheAllTime(metricName, null, d));
-
-        if (null == jsonArray) { // run query and save
-            // Only handling published right now
-            jsonArray = metricsSvc.mdcMetricTimeSeries(metricType, country, d);
-            metricsSvc.save(new Metric(metricName, null, null, d, jsonArray.toString()));
-        }
+        // Only handling published right now
+        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsRollups.get(metricName, null, null, d, Expiry.ALL_TIME,
+                () -> metricsSvc.mdcMetricTimeSeries(metricType, country, d)));
         MediaType requestedType = getVariant(req, MediaType.valueOf(FileUtil.MIME_TYPE_CSV), MediaType.APPLICATION_JSON_TYPE);
         if ((requestedType != null) && (requestedType.equals(MediaType.APPLICATION_JSON_TYPE))) {
             return ok(jsonArray);
@@ -682,7 +592,7 @@ public class Metrics extends AbstractApiBean {
     @Path("makeDataCount/{metric}/toMonth/{yyyymm}")
     public Response getMakeDataCountMetricToMonth(@Context UriInfo uriInfo, @PathParam("metric") String metricSupplied, @PathParam("yyyymm") String yyyymm, @QueryParam("country") String country, @QueryParam("parentAlias") String parentAlias) {
         Dataverse d = findDataverseOrDieIfNotFound(parentAlias);
-        MakeDataCountUtil.MetricType metricType = null;
+        MakeDataCountUtil.MetricType metricType;
         try {
             errorIfUnrecongizedQueryParamPassed(uriInfo, new String[] { "parentAlias", "country" });
         } catch (IllegalArgumentException ia) {
@@ -693,26 +603,16 @@ public class Metrics extends AbstractApiBean {
         } catch (IllegalArgumentException ex) {
             return error(Response.Status.BAD_REQUEST, ex.getMessage());
         }
-        if (country != null) {
-            country = country.toLowerCase();
-
-            if (!MakeDataCountUtil.isValidCountryCode(country)) {
-                return error(Response.Status.BAD_REQUEST, "Country must be one of the ISO 1366 Country Codes");
-            }
-        }
-        String metricName = "MDC-" + metricType.toString() + ((country == null) ? "" : "-" + country);
-
-        String sanitizedyyyymm = null;
-        if (yyyymm != null) {
-            sanitizedyyyymm = MetricsUtil.sanitizeYearMonthUserInput(yyyymm);
+        String countryCode = (country == null) ? null : country.toLowerCase();
+        if (countryCode != null && !MakeDataCountUtil.isValidCountryCode(countryCode)) {
+            return error(Response.Status.BAD_REQUEST, "Country must be one of the ISO 1366 Country Codes");
         }
+        String metricName = "MDC-" + metricType.toString() + ((countryCode == null) ? "" : "-" + countryCode);
 
-        JsonObject jsonObj = MetricsUtil.stringToJsonObject(metricsSvc.returnUnexpiredCacheMonthly(metricName, sanitizedyyyymm, null, d));
+        String sanitizedyyyymm = (yyyymm == null) ? null : MetricsUtil.sanitizeYearMonthUserInput(yyyymm);
 
-        if (null == jsonObj) { // run query and save
-            jsonObj = metricsSvc.getMDCDatasetMetrics(metricType, sanitizedyyyymm, country, d);
-            metricsSvc.save(new Metric(metricName, sanitizedyyyymm, null, d, jsonObj.toString()));
-        }
+        JsonObject jsonObj = MetricsUtil.stringToJsonObject(metricsRollups.get(metricName, sanitizedyyyymm, null, d, Expiry.MONTHLY,
+                () -> metricsSvc.getMDCDatasetMetrics(metricType, sanitizedyyyymm, countryCode, d)));
 
         return ok(jsonObj);
     }
@@ -739,12 +639,8 @@ public class Metrics extends AbstractApiBean {
         String metricName = "fileDownloads";
 
         String sanitizedyyyymm = MetricsUtil.sanitizeYearMonthUserInput(yyyymm);
-        JsonArray jsonArr = MetricsUtil.stringToJsonArray(metricsSvc.returnUnexpiredCacheMonthly(metricName, sanitizedyyyymm, null, d));
-
-        if (null == jsonArr) { // run query and save
-            jsonArr = metricsSvc.fileDownloads(sanitizedyyyymm, d, false);
-            metricsSvc.save(new Metric(metricName, sanitizedyyyymm, null, d, jsonArr.toString()));
-        }
+        JsonArray jsonArr = MetricsUtil.stringToJsonArray(metricsRollups.get(metricName, sanitizedyyyymm, null, d, Expiry.MONTHLY,
+                () -> metricsSvc.fileDownloads(sanitizedyyyymm, d, false)));
         MediaType requestedType = getVariant(req, MediaType.valueOf(FileUtil.MIME_TYPE_CSV), MediaType.APPLICATION_JSON_TYPE);
         if ((requestedType != null) && (requestedType.equals(MediaType.APPLICATION_JSON_TYPE))) {
             return ok(jsonArr);
@@ -764,13 +660,9 @@ public class Metrics extends AbstractApiBean {
         }
         String metricName = "fileDownloads";
 
-        JsonArray jsonArr = MetricsUtil.stringToJsonArray(metricsSvc.returnUnexpiredCacheAllTime(metricName, null, d));
-
-        if (null == jsonArr) { // run query and save
-            // Only handling published right now
-            jsonArr = metricsSvc.fileDownloadsTimeSeries(d, false);
-            metricsSvc.save(new Metric(metricName, null, null, d, jsonArr.toString()));
-        }
+        // Only handling published right now
+        JsonArray jsonArr = MetricsUtil.stringToJsonArray(metricsRollups.get(metricName, null, null, d, Expiry.ALL_TIME,
+                () -> metricsSvc.fileDownloadsTimeSeries(d, false)));
         MediaType requestedType = getVariant(req, MediaType.valueOf(FileUtil.MIME_TYPE_CSV), MediaType.APPLICATION_JSON_TYPE);
         if ((requestedType != null) && (requestedType.equals(MediaType.APPLICATION_JSON_TYPE))) {
             return ok(jsonArr);
@@ -797,13 +689,9 @@ public class Metrics extends AbstractApiBean {
         }
         String metricName = "uniqueDownloads";
 
-        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsSvc.returnUnexpiredCacheAllTime(metricName, null, d));
-
-        if (null == jsonArray) { // run query and save
-            // Only handling published right now
-            jsonArray = metricsSvc.uniqueDownloadsTimeSeries(d);
-            metricsSvc.save(new Metric(metricName, null, null, d, jsonArray.toString()));
-        }
+        // Only handling published right now
+        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsRollups.get(metricName, null, null, d, Expiry.ALL_TIME,
+                () -> metricsSvc.uniqueDownloadsTimeSeries(d)));
         MediaType requestedType = getVariant(req, MediaType.valueOf(FileUtil.MIME_TYPE_CSV), MediaType.APPLICATION_JSON_TYPE);
         if ((requestedType != null) && (requestedType.equals(MediaType.APPLICATION_JSON_TYPE))) {
             return ok(jsonArray);
@@ -826,12 +714,8 @@ public class Metrics extends AbstractApiBean {
         String metricName = "uniqueDownloads";
 
         String sanitizedyyyymm = MetricsUtil.sanitizeYearMonthUserInput(yyyymm);
-        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsSvc.returnUnexpiredCacheMonthly(metricName, sanitizedyyyymm, null, d));
-
-        if (null == jsonArray) { // run query and save
-            jsonArray = metricsSvc.uniqueDatasetDownloads(sanitizedyyyymm, d);
-            metricsSvc.save(new Metric(metricName, sanitizedyyyymm, null, d, jsonArray.toString()));
-        }
+        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsRollups.get(metricName, sanitizedyyyymm, null, d, Expiry.MONTHLY,
+                () -> metricsSvc.uniqueDatasetDownloads(sanitizedyyyymm, d)));
         MediaType requestedType = getVariant(req, MediaType.valueOf(FileUtil.MIME_TYPE_CSV), MediaType.APPLICATION_JSON_TYPE);
         if ((requestedType != null) && (requestedType.equals(MediaType.APPLICATION_JSON_TYPE))) {
             return ok(jsonArray);
@@ -861,12 +745,8 @@ public class Metrics extends AbstractApiBean {
         String metricName = "uniquefileDownloads";
 
         String sanitizedyyyymm = MetricsUtil.sanitizeYearMonthUserInput(yyyymm);
-        JsonArray jsonArr = MetricsUtil.stringToJsonArray(metricsSvc.returnUnexpiredCacheMonthly(metricName, sanitizedyyyymm, null, d));
-
-        if (null == jsonArr) { // run query and save
-            jsonArr = metricsSvc.fileDownloads(sanitizedyyyymm, d, true);
-            metricsSvc.save(new Metric(metricName, sanitizedyyyymm, null, d, jsonArr.toString()));
-        }
+        JsonArray jsonArr = MetricsUtil.stringToJsonArray(metricsRollups.get(metricName, sanitizedyyyymm, null, d, Expiry.MONTHLY,
+                () -> metricsSvc.fileDownloads(sanitizedyyyymm, d, true)));
         MediaType requestedType = getVariant(req, MediaType.valueOf(FileUtil.MIME_TYPE_CSV), MediaType.APPLICATION_JSON_TYPE);
         if ((requestedType != null) && (requestedType.equals(MediaType.APPLICATION_JSON_TYPE))) {
             return ok(jsonArr);
@@ -886,13 +766,9 @@ public class Metrics extends AbstractApiBean {
         }
         String metricName = "uniquefileDownloads";
 
-        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsSvc.returnUnexpiredCacheAllTime(metricName, null, d));
-
-        if (null == jsonArray) { // run query and save
-            // Only handling published right now
-            jsonArray = metricsSvc.fileDownloadsTimeSeries(d, true);
-            metricsSvc.save(new Metric(metricName, null, null, d, jsonArray.toString()));
-        }
+        // Only handling published right now
+        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsRollups.get(metricName, null, null, d, Expiry.ALL_TIME,
+                () -> metricsSvc.fileDownloadsTimeSeries(d, true)));
         MediaType requestedType = getVariant(req, MediaType.valueOf(FileUtil.MIME_TYPE_CSV), MediaType.APPLICATION_JSON_TYPE);
         if ((requestedType != null) && (requestedType.equals(MediaType.APPLICATION_JSON_TYPE))) {
             return ok(jsonArray);
@@ -921,11 +797,8 @@ public class Metrics extends AbstractApiBean {
         String metricName = "tree";
         String sanitizedyyyymm = MetricsUtil.sanitizeYearMonthUserInput(yyyymm);
 
-        JsonObject jsonObj = MetricsUtil.stringToJsonObject(metricsSvc.returnUnexpiredCacheMonthly(metricName, sanitizedyyyymm, null, d));
-        if (null == jsonObj) { // run query and save
-            jsonObj = metricsSvc.getDataverseTree(d, sanitizedyyyymm, DatasetVersion.VersionState.RELEASED);
-            metricsSvc.save(new Metric(metricName, sanitizedyyyymm, null, d, jsonObj.toString()));
-        }
+        JsonObject jsonObj = MetricsUtil.stringToJsonObject(metricsRollups.get(metricName, sanitizedyyyymm, null, d, Expiry.MONTHLY,
+                () -> metricsSvc.getDataverseTree(d, sanitizedyyyymm, DatasetVersion.VersionState.RELEASED)));
         return ok(jsonObj);
     }
 
@@ -27,13 +27,17 @@ import jakarta.inject.Inject;
 import jakarta.json.Json;
 import jakarta.json.JsonArrayBuilder;
 import jakarta.json.JsonObjectBuilder;
+import jakarta.json.stream.JsonGenerator;
 import jakarta.servlet.http.HttpServletResponse;
 import jakarta.ws.rs.GET;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.WebApplicationException;
 import jakarta.ws.rs.container.ContainerRequestContext;
 import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
 import org.apache.commons.lang3.StringUtils;
 
 /**
@@ -45,6 +49,19 @@ public class Search extends AbstractApiBean {
 
     private static final Logger logger = Logger.getLogger(Search.class.getCanonicalName());
 
+    /**
+     * The cursor mark of the first page of results.
+     */
+    private static final String CURSOR_MARK_START = "*";
+
+    /**
+     * Runs the search of the request, for the page at the cursor mark.
+     */
+    @FunctionalInterface
+    private interface SearchPage {
+        SolrQueryResponse search(String cursorMark, boolean addFacets) throws SearchException;
+    }
+
     @EJB
     SearchServiceBean searchService;
     @EJB
@@ -74,6 +91,8 @@ public class Search extends AbstractApiBean {
             @QueryParam("geo_point") String geoPointRequested,
             @QueryParam("geo_radius") String geoRadiusRequested,
             @QueryParam("show_type_counts") boolean showTypeCounts,
+            @QueryParam("cursor_mark") String cursorMarkRequested,
+            @QueryParam("stream") boolean stream,
             @Context HttpServletResponse response
     ) {
 
@@ -134,6 +153,10 @@ public class Search extends AbstractApiBean {
                     return error(Response.Status.BAD_REQUEST, "If you supply geo_radius you must also supply geo_point.");
                 }
 
+                if ((cursorMarkRequested != null || stream) && paginationStart != 0) {
+                    return error(Response.Status.BAD_REQUEST, "start cannot be used with cursor_mark or stream.");
+                }
+
             } catch (Exception ex) {
                 return error(Response.Status.BAD_REQUEST, ex.getLocalizedMessage());
             }
@@ -141,37 +164,51 @@ public class Search extends AbstractApiBean {
             // users can't change these (yet anyway)
             boolean dataRelatedToMe = showMyData; //getDataRelatedToMe();
             
+            // Streaming walks the whole result set with a cursor, starting at
+            // cursor_mark if one is given.
+            String cursorMark = stream && cursorMarkRequested == null ? CURSOR_MARK_START : cursorMarkRequested;
+            SearchPage searchPage = (pageCursorMark, addFacets) -> searchService.search(createDataverseRequest(user),
+                    dataverseSubtrees,
+                    query,
+                    filterQueries,
+                    sortBy.getField(),
+                    sortBy.getOrder(),
+                    paginationStart,
+                    dataRelatedToMe,
+                    numResultsPerPage,
+                    true, //SEK get query entities always for search API additional Dataset Information 6300  12/6/2019
+                    geoPoint,
+                    geoRadius,
+                    addFacets, // facets are expensive, no need to ask for them if not requested
+                    showRelevance, // no need for highlights unless requested either
+                    pageCursorMark
+            );
+
             SolrQueryResponse solrQueryResponse;
             try {
-                solrQueryResponse = searchService.search(createDataverseRequest(user),
-                        dataverseSubtrees,
-                        query,
-                        filterQueries,
-                        sortBy.getField(),
-                        sortBy.getOrder(),
-                        paginationStart,
-                        dataRelatedToMe,
-                        numResultsPerPage,
-                        true, //SEK get query entities always for search API additional Dataset Information 6300  12/6/2019
-                        geoPoint,
-                        geoRadius,
-                        showFacets, // facets are expensive, no need to ask for them if not requested
-                        showRelevance // no need for highlights unless requested either
-                );
+                solrQueryResponse = searchPage.search(cursorMark, showFacets);
             } catch (SearchException ex) {
-                Throwable cause = ex;
-                StringBuilder sb = new StringBuilder();
-                sb.append(cause + " ");
-                while (cause.getCause() != null) {
-                    cause = cause.getCause();
-                    sb.append(cause.getClass().getCanonicalName() + " ");
-                    sb.append(cause + " ");
-                    // if you search for a colon you see RemoteSolrException: org.apache.solr.search.SyntaxError: Cannot parse ':'
-                }
-                String message = "Exception running search for [" + query + "] with filterQueries " + filterQueries + " and paginationStart [" + paginationStart + "]: " + sb.toString();
+                String message = "Exception running search for [" + query + "] with filterQueries " + filterQueries + " and paginationStart [" + paginationStart + "]: " + describe(ex);
                 logger.info(message);
                 return error(Response.Status.INTERNAL_SERVER_ERROR, message);
             }
+            /**
+             * @todo Returning the fq might be useful as a troubleshooting aid
+             * but we don't want to expose the raw dataverse database ids in
+             * "subtree_ss" path like "/2/3".
+             */
+//            value.add("fq_provided", filterQueries.toString());
+            if (solrQueryResponse.getError() != null) {
+                /**
+                 * @todo You get here if you pass only ":" as a query, for
+                 * example. Should we return more or better information?
+                 */
+                return error(Response.Status.BAD_REQUEST, solrQueryResponse.getError());
+            }
+
+            if (stream) {
+                return streamResults(searchPage, solrQueryResponse, cursorMark, query, showRelevance, showEntityIds, showApiUrls, metadataFields, showFacets, showTypeCounts);
+            }
 
             JsonArrayBuilder itemsArrayBuilder = Json.createArrayBuilder();
             List<SolrSearchResult> solrSearchResults = solrQueryResponse.getSolrSearchResults();
@@ -179,101 +216,173 @@ public class Search extends AbstractApiBean {
                 itemsArrayBuilder.add(solrSearchResult.json(showRelevance, showEntityIds, showApiUrls, metadataFields));
             }
 
-            JsonObjectBuilder spelling_alternatives = Json.createObjectBuilder();
-            for (Map.Entry<String, List<String>> entry : solrQueryResponse.getSpellingSuggestionsByToken().entrySet()) {
-                spelling_alternatives.add(entry.getKey(), entry.getValue().toString());
-            }
-
             JsonObjectBuilder value = Json.createObjectBuilder()
                     .add("q", query)
                     .add("total_count", solrQueryResponse.getNumResultsFound())
                     .add("start", solrQueryResponse.getResultsStart())
-                    .add("spelling_alternatives", spelling_alternatives)
+                    .add("spelling_alternatives", getSpellingAlternatives(solrQueryResponse))
                     .add("items", itemsArrayBuilder.build());
 
             if (showFacets) {
-                JsonArrayBuilder facets = Json.createArrayBuilder();
-                JsonObjectBuilder facetCategoryBuilder = Json.createObjectBuilder();
-                for (FacetCategory facetCategory : solrQueryResponse.getFacetCategoryList()) {
-                    JsonObjectBuilder facetCategoryBuilderFriendlyPlusData = Json.createObjectBuilder();
-                    JsonArrayBuilder facetLabelBuilderData = Json.createArrayBuilder();
-                    for (FacetLabel facetLabel : facetCategory.getFacetLabel()) {
-                        JsonObjectBuilder countBuilder = Json.createObjectBuilder();
-                        countBuilder.add(facetLabel.getName(), facetLabel.getCount());
-                        facetLabelBuilderData.add(countBuilder);
-                    }
-                    facetCategoryBuilderFriendlyPlusData.add("friendly", facetCategory.getFriendlyName());
-                    facetCategoryBuilderFriendlyPlusData.add("labels", facetLabelBuilderData);
-                    facetCategoryBuilder.add(facetCategory.getName(), facetCategoryBuilderFriendlyPlusData);
-                }
-                facets.add(facetCategoryBuilder);
-                value.add("facets", facets);
+                value.add("facets", getFacets(solrQueryResponse));
             }
 
             value.add("count_in_response", solrSearchResults.size());
-            
-            // we want to show the missing dvobject types with count = 0
-            // per https://github.com/IQSS/dataverse/issues/11127
 
             if (showTypeCounts) {
-                JsonObjectBuilder objectTypeCounts = Json.createObjectBuilder();
-                if (!solrQueryResponse.getTypeFacetCategories().isEmpty()) {
-                    boolean filesMissing = true;
-                    boolean datasetsMissing = true;
-                    boolean dataversesMissing = true;
-                    for (FacetCategory facetCategory : solrQueryResponse.getTypeFacetCategories()) {
-                        for (FacetLabel facetLabel : facetCategory.getFacetLabel()) {
-                            objectTypeCounts.add(facetLabel.getName(), facetLabel.getCount());
-                            if (facetLabel.getName().equals((SearchConstants.UI_DATAVERSES))) {
-                                dataversesMissing = false;
-                            }
-                            if (facetLabel.getName().equals((SearchConstants.UI_DATASETS))) {
-                                datasetsMissing = false;
-                            }
-                            if (facetLabel.getName().equals((SearchConstants.UI_FILES))) {
-                                filesMissing = false;
-                            }
-                        }
-                    }
+                value.add("total_count_per_object_type", getTypeCounts(solrQueryResponse));
+            }
+            if (cursorMark != null) {
+                value.add("next_cursor_mark", solrQueryResponse.getNextCursorMark());
+            }
+            return ok(value);
+        } else {
+            return error(Response.Status.BAD_REQUEST, "q parameter is missing");
+        }
+    }
 
-                    if (solrQueryResponse.getTypeFacetCategories().size() < 3) {
-                        if (dataversesMissing) {
-                            objectTypeCounts.add(SearchConstants.UI_DATAVERSES, 0);
-                        }
-                        if (datasetsMissing) {
-                            objectTypeCounts.add(SearchConstants.UI_DATASETS, 0);
-                        }
-                        if (filesMissing) {
-                            objectTypeCounts.add(SearchConstants.UI_FILES, 0);
-                        }
+    /**
+     * Writes all the results of the search, from {@code cursorMark} on, to
+     * the response as they are read from Solr, a page at a time, instead of
+     * building the whole response in memory. The facets and counts are those
+     * of the first page, which cover the whole result set.
+     */
+    private Response streamResults(SearchPage searchPage, SolrQueryResponse firstPage, String cursorMark, String query,
+            boolean showRelevance, boolean showEntityIds, boolean showApiUrls, List<String> metadataFields,
+            boolean showFacets, boolean showTypeCounts) {
+        StreamingOutput output = os -> {
+            try (JsonGenerator generator = Json.createGenerator(os)) {
+                generator.writeStartObject()
+                        .write("status", ApiConstants.STATUS_OK)
+                        .writeStartObject("data")
+                        .write("q", query)
+                        .write("total_count", firstPage.getNumResultsFound())
+                        .write("start", 0)
+                        .write("spelling_alternatives", getSpellingAlternatives(firstPage).build());
+                if (showFacets) {
+                    generator.write("facets", getFacets(firstPage).build());
+                }
+                if (showTypeCounts) {
+                    generator.write("total_count_per_object_type", getTypeCounts(firstPage).build());
+                }
+                generator.writeStartArray("items");
+                long count = 0;
+                SolrQueryResponse page = firstPage;
+                String pageCursorMark = cursorMark;
+                while (true) {
+                    for (SolrSearchResult solrSearchResult : page.getSolrSearchResults()) {
+                        generator.write(solrSearchResult.json(showRelevance, showEntityIds, showApiUrls, metadataFields).build());
+                        count++;
                     }
+                    if (page.getNextCursorMark() == null || page.getNextCursorMark().equals(pageCursorMark)) {
+                        break;
+                    }
+                    generator.flush();
+                    pageCursorMark = page.getNextCursorMark();
+                    try {
+                        page = searchPage.search(pageCursorMark, false);
+                    } catch (SearchException ex) {
+                        // The response has already been started, so there is 
+                        // not much more that can be done than cutting it short.
+                        logger.warning("Exception streaming search results for [" + query + "] at cursor mark [" + pageCursorMark + "]: " + describe(ex));
+                        throw new WebApplicationException(ex);
+                    }
+                    if (page.getError() != null) {
+                        logger.warning("Error streaming search results for [" + query + "] at cursor mark [" + pageCursorMark + "]: " + page.getError());
+                        throw new WebApplicationException(page.getError());
+                    }
+                }
+                generator.writeEnd()
+                        .write("count_in_response", count)
+                        .write("next_cursor_mark", page.getNextCursorMark())
+                        .writeEnd()
+                        .writeEnd();
+            }
+        };
+        return Response.ok(output, MediaType.APPLICATION_JSON_TYPE).build();
+    }
+
+    private static String describe(SearchException ex) {
+        Throwable cause = ex;
+        StringBuilder sb = new StringBuilder();
+        sb.append(cause + " ");
+        while (cause.getCause() != null) {
+            cause = cause.getCause();
+            sb.append(cause.getClass().getCanonicalName() + " ");
+            sb.append(cause + " ");
+            // if you search for a colon you see RemoteSolrException: org.apache.solr.search.SyntaxError: Cannot parse ':'
+        }
+        return sb.toString();
+    }
+
+    private static JsonObjectBuilder getSpellingAlternatives(SolrQueryResponse solrQueryResponse) {
+        JsonObjectBuilder spelling_alternatives = Json.createObjectBuilder();
+        for (Map.Entry<String, List<String>> entry : solrQueryResponse.getSpellingSuggestionsByToken().entrySet()) {
+            spelling_alternatives.add(entry.getKey(), entry.getValue().toString());
+        }
+        return spelling_alternatives;
+    }
+
+    private static JsonArrayBuilder getFacets(SolrQueryResponse solrQueryResponse) {
+        JsonArrayBuilder facets = Json.createArrayBuilder();
+        JsonObjectBuilder facetCategoryBuilder = Json.createObjectBuilder();
+        for (FacetCategory facetCategory : solrQueryResponse.getFacetCategoryList()) {
+            JsonObjectBuilder facetCategoryBuilderFriendlyPlusData = Json.createObjectBuilder();
+            JsonArrayBuilder facetLabelBuilderData = Json.createArrayBuilder();
+            for (FacetLabel facetLabel : facetCategory.getFacetLabel()) {
+                JsonObjectBuilder countBuilder = Json.createObjectBuilder();
+                countBuilder.add(facetLabel.getName(), facetLabel.getCount());
+                facetLabelBuilderData.add(countBuilder);
+            }
+            facetCategoryBuilderFriendlyPlusData.add("friendly", facetCategory.getFriendlyName());
+            facetCategoryBuilderFriendlyPlusData.add("labels", facetLabelBuilderData);
+            facetCategoryBuilder.add(facetCategory.getName(), facetCategoryBuilderFriendlyPlusData);
+        }
+        facets.add(facetCategoryBuilder);
+        return facets;
+    }
 
+    // we want to show the missing dvobject types with count = 0
+    // per https://github.com/IQSS/dataverse/issues/11127
+    private static JsonObjectBuilder getTypeCounts(SolrQueryResponse solrQueryResponse) {
+        JsonObjectBuilder objectTypeCounts = Json.createObjectBuilder();
+        if (!solrQueryResponse.getTypeFacetCategories().isEmpty()) {
+            boolean filesMissing = true;
+            boolean datasetsMissing = true;
+            boolean dataversesMissing = true;
+            for (FacetCategory facetCategory : solrQueryResponse.getTypeFacetCategories()) {
+                for (FacetLabel facetLabel : facetCategory.getFacetLabel()) {
+                    objectTypeCounts.add(facetLabel.getName(), facetLabel.getCount());
+                    if (facetLabel.getName().equals((SearchConstants.UI_DATAVERSES))) {
+                        dataversesMissing = false;
+                    }
+                    if (facetLabel.getName().equals((SearchConstants.UI_DATASETS))) {
+                        datasetsMissing = false;
+                    }
+                    if (facetLabel.getName().equals((SearchConstants.UI_FILES))) {
+                        filesMissing = false;
+                    }
                 }
-                if (showTypeCounts && solrQueryResponse.getTypeFacetCategories().isEmpty()) {
+            }
+
+            if (solrQueryResponse.getTypeFacetCategories().size() < 3) {
+                if (dataversesMissing) {
                     objectTypeCounts.add(SearchConstants.UI_DATAVERSES, 0);
+                }
+                if (datasetsMissing) {
                     objectTypeCounts.add(SearchConstants.UI_DATASETS, 0);
+                }
+                if (filesMissing) {
                     objectTypeCounts.add(SearchConstants.UI_FILES, 0);
                 }
-
-                value.add("total_count_per_object_type", objectTypeCounts);
-            }
-            /**
-             * @todo Returning the fq might be useful as a troubleshooting aid
-             * but we don't want to expose the raw dataverse database ids in
-             * "subtree_ss" path like "/2/3".
-             */
-//            value.add("fq_provided", filterQueries.toString());
-            if (solrQueryResponse.getError() != null) {
-                /**
-                 * @todo You get here if you pass only ":" as a query, for
-                 * example. Should we return more or better information?
-                 */
-                return error(Response.Status.BAD_REQUEST, solrQueryResponse.getError());
             }
-            return ok(value);
+
         } else {
-            return error(Response.Status.BAD_REQUEST, "q parameter is missing");
+            objectTypeCounts.add(SearchConstants.UI_DATAVERSES, 0);
+            objectTypeCounts.add(SearchConstants.UI_DATASETS, 0);
+            objectTypeCounts.add(SearchConstants.UI_FILES, 0);
         }
+        return objectTypeCounts;
     }
 
     private User getUser(ContainerRequestContext crc) throws WrappedResponse {
@@ -8,6 +8,7 @@ import static edu.harvard.iq.dataverse.util.json.JsonPrinter.json;
 import static edu.harvard.iq.dataverse.util.json.JsonPrinter.toJsonArray;
 import edu.harvard.iq.dataverse.workflow.Workflow;
 import edu.harvard.iq.dataverse.workflow.WorkflowContext.TriggerType;
+import edu.harvard.iq.dataverse.workflow.WorkflowExecutor;
 import edu.harvard.iq.dataverse.workflow.WorkflowServiceBean;
 import java.util.Arrays;
 import java.util.Optional;
@@ -36,6 +37,9 @@ public class WorkflowsAdmin extends AbstractApiBean {
     @EJB
     WorkflowServiceBean workflows;
     
+    @EJB
+    WorkflowExecutor workflowExecutor;
+    
     @POST
     public Response addWorkflow(JsonObject jsonWorkflow) {
         JsonParser jp = new JsonParser();
@@ -111,6 +115,12 @@ public class WorkflowsAdmin extends AbstractApiBean {
         }
     }
     
+    @Path("executor")
+    @GET
+    public Response getExecutorMetrics() {
+        return ok(workflowExecutor.getMetrics());
+    }
+    
     @Path("/{id}")
     @GET
     public Response getWorkflow(@PathParam("id") String identifier ) {
@@ -0,0 +1,148 @@
+package edu.harvard.iq.dataverse.api.imports;
+
+import java.io.Serializable;
+import java.sql.Timestamp;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.ManyToOne;
+import jakarta.persistence.NamedQueries;
+import jakarta.persistence.NamedQuery;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+
+/**
+ * Checkpoint of one file of a {@link BatchImportJob}. The file is marked
+ * IMPORTED in the same transaction that imports it (see
+ * ImportServiceBean.importFile()), so it is never imported twice, even if the
+ * job is interrupted and resumed.
+ */
+@NamedQueries({
+    @NamedQuery(name = "BatchImportFile.findPathsByJob",
+            query = "SELECT f.path FROM BatchImportFile f WHERE f.job.id = :jobId"),
+    @NamedQuery(name = "BatchImportFile.findIdsToImport",
+            query = "SELECT f.id FROM BatchImportFile f WHERE f.job.id = :jobId AND f.status <> :imported AND f.id > :afterId ORDER BY f.id"),
+    @NamedQuery(name = "BatchImportFile.countByStatus",
+            query = "SELECT f.status, COUNT(f) FROM BatchImportFile f WHERE f.job.id = :jobId GROUP BY f.status"),
+    @NamedQuery(name = "BatchImportFile.findByJobAndStatus",
+            query = "SELECT f FROM BatchImportFile f WHERE f.job.id = :jobId AND f.status = :status ORDER BY f.id")
+})
+@Entity
+@Table(indexes = {@Index(columnList = "job_id, status")},
+        uniqueConstraints = {@UniqueConstraint(columnNames = {"job_id", "path"})})
+public class BatchImportFile implements Serializable {
+
+    public enum Status {
+        PENDING, IMPORTED, FAILED
+    }
+
+    private static final long serialVersionUID = 1L;
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @ManyToOne
+    @JoinColumn(nullable = false)
+    private BatchImportJob job;
+
+    /**
+     * The path of the file, relative to the path of the job.
+     */
+    @Column(nullable = false, columnDefinition = "TEXT")
+    private String path;
+
+    /**
+     * The collection the file is imported into.
+     */
+    @Column(nullable = false)
+    private Long ownerId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private Status status;
+
+    private int attempts;
+
+    private Timestamp updateTime;
+
+    /**
+     * The outcome of the last attempt to import the file: the status returned
+     * by the import, or the error.
+     */
+    @Column(columnDefinition = "TEXT")
+    private String message;
+
+    public BatchImportFile() {
+    }
+
+    public BatchImportFile(BatchImportJob job, String path, Long ownerId) {
+        this.job = job;
+        this.path = path;
+        this.ownerId = ownerId;
+        this.status = Status.PENDING;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public BatchImportJob getJob() {
+        return job;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public Long getOwnerId() {
+        return ownerId;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public Timestamp getUpdateTime() {
+        return updateTime;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void recordOutcome(Status status, String message, Timestamp time) {
+        this.status = status;
+        this.message = message;
+        this.updateTime = time;
+        attempts++;
+    }
+
+    @Override
+    public int hashCode() {
+        return id != null ? id.hashCode() : 0;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (!(object instanceof BatchImportFile other)) {
+            return false;
+        }
+        return id != null && id.equals(other.id);
+    }
+
+    @Override
+    public String toString() {
+        return "edu.harvard.iq.dataverse.api.imports.BatchImportFile[ id=" + id + ", path=" + path + " ]";
+    }
+}
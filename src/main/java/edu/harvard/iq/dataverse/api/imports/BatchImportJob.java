@@ -0,0 +1,288 @@
+package edu.harvard.iq.dataverse.api.imports;
+
+import edu.harvard.iq.dataverse.api.imports.ImportUtil.ImportType;
+import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
+import edu.harvard.iq.dataverse.util.json.NullSafeJsonBuilder;
+import jakarta.json.JsonObjectBuilder;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.ManyToOne;
+import jakarta.persistence.NamedQueries;
+import jakarta.persistence.NamedQuery;
+import jakarta.persistence.Table;
+import java.io.Serializable;
+import java.sql.Timestamp;
+import java.util.Map;
+
+import static edu.harvard.iq.dataverse.util.json.NullSafeJsonBuilder.jsonObjectBuilder;
+
+/**
+ * Persistent state of a batch import of the metadata files in a directory of
+ * the local filesystem (see the batch API). Every file of the job has its own
+ * {@link BatchImportFile} checkpoint, so an interrupted job can be resumed
+ * without importing any file twice.
+ *
+ * @see edu.harvard.iq.dataverse.api.BatchServiceBean
+ */
+@NamedQueries({
+    @NamedQuery(name = "BatchImportJob.findAll",
+            query = "SELECT j FROM BatchImportJob j ORDER BY j.id DESC")
+})
+@Entity
+@Table(indexes = {@Index(columnList = "status")})
+public class BatchImportJob implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public enum Status {
+        RUNNING,
+        /**
+         * The job was running when the application was shut down, and can be
+         * resumed; the files already imported are skipped.
+         */
+        INTERRUPTED,
+        CANCELLED,
+        COMPLETED
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    /**
+     * The file or directory to import, as given to the API.
+     */
+    @Column(nullable = false, columnDefinition = "TEXT")
+    private String path;
+
+    /**
+     * The collection the files at the top of the directory are imported into;
+     * the files in a subdirectory go into the collection with the alias of the
+     * subdirectory.
+     */
+    @Column(nullable = false)
+    private Long ownerId;
+
+    @Column(nullable = false)
+    @Enumerated(EnumType.STRING)
+    private ImportType importType;
+
+    /**
+     * Whether to create the collections of the subdirectories that don't
+     * exist yet.
+     */
+    private boolean createDataverses;
+
+    @Column(nullable = false)
+    @Enumerated(EnumType.STRING)
+    private Status status;
+
+    /**
+     * The user who started the job; the datasets are created on their
+     * behalf, including after a resume.
+     */
+    @ManyToOne
+    @JoinColumn(nullable = false)
+    private AuthenticatedUser user;
+
+    /**
+     * The maximum number of files being imported at any given time.
+     */
+    @Column(nullable = false)
+    private int concurrency;
+
+    /**
+     * Time spent actually running up to {@link #lastUpdateTime}, accumulated
+     * over all the runs of the job; used to calculate the throughput.
+     */
+    private long elapsedMillis;
+
+    @Column(nullable = false)
+    private Timestamp startTime;
+
+    private Timestamp lastUpdateTime;
+
+    private Timestamp endTime;
+
+    public BatchImportJob() {
+    }
+
+    public BatchImportJob(String path, Long ownerId, ImportType importType, boolean createDataverses, AuthenticatedUser user, int concurrency) {
+        this.path = path;
+        this.ownerId = ownerId;
+        this.importType = importType;
+        this.createDataverses = createDataverses;
+        this.user = user;
+        this.concurrency = concurrency;
+        this.status = Status.RUNNING;
+        this.startTime = new Timestamp(System.currentTimeMillis());
+        this.lastUpdateTime = this.startTime;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public Long getOwnerId() {
+        return ownerId;
+    }
+
+    public void setOwnerId(Long ownerId) {
+        this.ownerId = ownerId;
+    }
+
+    public ImportType getImportType() {
+        return importType;
+    }
+
+    public void setImportType(ImportType importType) {
+        this.importType = importType;
+    }
+
+    public boolean isCreateDataverses() {
+        return createDataverses;
+    }
+
+    public void setCreateDataverses(boolean createDataverses) {
+        this.createDataverses = createDataverses;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    public AuthenticatedUser getUser() {
+        return user;
+    }
+
+    public void setUser(AuthenticatedUser user) {
+        this.user = user;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public void setConcurrency(int concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public void setElapsedMillis(long elapsedMillis) {
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public Timestamp getStartTime() {
+        return startTime;
+    }
+
+    public void setStartTime(Timestamp startTime) {
+        this.startTime = startTime;
+    }
+
+    public Timestamp getLastUpdateTime() {
+        return lastUpdateTime;
+    }
+
+    public void setLastUpdateTime(Timestamp lastUpdateTime) {
+        this.lastUpdateTime = lastUpdateTime;
+    }
+
+    public Timestamp getEndTime() {
+        return endTime;
+    }
+
+    public void setEndTime(Timestamp endTime) {
+        this.endTime = endTime;
+    }
+
+    /**
+     * @return the running time of the job, including the time since the last
+     * update if it is still running.
+     */
+    public long getElapsedMillis(long now) {
+        if (status == Status.RUNNING && lastUpdateTime != null) {
+            return elapsedMillis + Math.max(0, now - lastUpdateTime.getTime());
+        }
+        return elapsedMillis;
+    }
+
+    /**
+     * @param fileCounts the number of files of the job in each state, as
+     * counted by BatchImportJobServiceBean.countFilesByStatus()
+     */
+    public JsonObjectBuilder toJson(Map<BatchImportFile.Status, Long> fileCounts, long now) {
+        long pending = fileCounts.getOrDefault(BatchImportFile.Status.PENDING, 0L);
+        long imported = fileCounts.getOrDefault(BatchImportFile.Status.IMPORTED, 0L);
+        long failed = fileCounts.getOrDefault(BatchImportFile.Status.FAILED, 0L);
+        long elapsed = getElapsedMillis(now);
+        double filesPerSecond = elapsed > 0 ? (imported + failed) * 1000.0 / elapsed : 0.0;
+        NullSafeJsonBuilder job = jsonObjectBuilder()
+                .add("id", getId())
+                .add("path", getPath())
+                .add("ownerId", getOwnerId())
+                .add("importType", getImportType().name())
+                .add("createDataverses", isCreateDataverses())
+                .add("status", getStatus().name())
+                .add("user", getUser() == null ? null : getUser().getUserIdentifier())
+                .add("concurrency", getConcurrency())
+                .add("files", pending + imported + failed)
+                .add("pending", pending)
+                .add("imported", imported)
+                .add("failed", failed)
+                .add("elapsedSeconds", elapsed / 1000)
+                .add("filesPerSecond", Math.round(filesPerSecond * 100.0) / 100.0)
+                .add("startTime", getStartTime())
+                .add("lastUpdateTime", getLastUpdateTime())
+                .add("endTime", getEndTime());
+        return job;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 0;
+        hash += (id != null ? id.hashCode() : 0);
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (!(object instanceof BatchImportJob)) {
+            return false;
+        }
+        BatchImportJob other = (BatchImportJob) object;
+        return (this.id != null || other.id == null) && (this.id == null || this.id.equals(other.id));
+    }
+
+    @Override
+    public String toString() {
+        return "edu.harvard.iq.dataverse.api.imports.BatchImportJob[ id=" + id + " ]";
+    }
+
+}
@@ -0,0 +1,170 @@
+package edu.harvard.iq.dataverse.api.imports;
+
+import edu.harvard.iq.dataverse.api.imports.BatchImportJob.Status;
+import edu.harvard.iq.dataverse.api.imports.ImportUtil.ImportType;
+import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
+import jakarta.ejb.Stateless;
+import jakarta.ejb.TransactionAttribute;
+import jakarta.ejb.TransactionAttributeType;
+import jakarta.inject.Named;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.PersistenceContext;
+import java.sql.Timestamp;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persistence of the {@link BatchImportJob} records and of the checkpoints of
+ * their files. Except for the checkpoint of a successful import, which is
+ * part of the transaction of the import itself, the updates are made in
+ * their own transactions, so that they are visible to the status API right
+ * away.
+ */
+@Stateless
+@Named
+public class BatchImportJobServiceBean {
+
+    @PersistenceContext(unitName = "VDCNet-ejbPU")
+    private EntityManager em;
+
+    public BatchImportJob find(Long id) {
+        return em.find(BatchImportJob.class, id);
+    }
+
+    public List<BatchImportJob> findAll() {
+        return em.createNamedQuery("BatchImportJob.findAll", BatchImportJob.class).getResultList();
+    }
+
+    public BatchImportFile findFile(Long id) {
+        return em.find(BatchImportFile.class, id);
+    }
+
+    public Set<String> findFilePaths(Long jobId) {
+        return new HashSet<>(em.createNamedQuery("BatchImportFile.findPathsByJob", String.class)
+                .setParameter("jobId", jobId)
+                .getResultList());
+    }
+
+    /**
+     * @return the ids of the files of the job that have not been imported
+     * (yet), after the given id, in id order
+     */
+    public List<Long> findFileIdsToImport(Long jobId, Long afterId, int limit) {
+        return em.createNamedQuery("BatchImportFile.findIdsToImport", Long.class)
+                .setParameter("jobId", jobId)
+                .setParameter("imported", BatchImportFile.Status.IMPORTED)
+                .setParameter("afterId", afterId == null ? 0L : afterId)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    public List<BatchImportFile> findFiles(Long jobId, BatchImportFile.Status status) {
+        return em.createNamedQuery("BatchImportFile.findByJobAndStatus", BatchImportFile.class)
+                .setParameter("jobId", jobId)
+                .setParameter("status", status)
+                .getResultList();
+    }
+
+    public Map<BatchImportFile.Status, Long> countFilesByStatus(Long jobId) {
+        Map<BatchImportFile.Status, Long> counts = new EnumMap<>(BatchImportFile.Status.class);
+        List<Object[]> rows = em.createNamedQuery("BatchImportFile.countByStatus", Object[].class)
+                .setParameter("jobId", jobId)
+                .getResultList();
+        for (Object[] row : rows) {
+            counts.put((BatchImportFile.Status) row[0], ((Number) row[1]).longValue());
+        }
+        return counts;
+    }
+
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public BatchImportJob create(String path, Long ownerId, ImportType importType, boolean createDataverses, AuthenticatedUser user, int concurrency) {
+        BatchImportJob job = new BatchImportJob(path, ownerId, importType, createDataverses, user, concurrency);
+        em.persist(job);
+        em.flush();
+        return job;
+    }
+
+    /**
+     * Adds files to the job, as PENDING.
+     *
+     * @param files the paths of the files, relative to the path of the job,
+     * and the ids of the collections to import them into
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void addFiles(Long jobId, Map<String, Long> files) {
+        BatchImportJob job = em.getReference(BatchImportJob.class, jobId);
+        files.forEach((path, ownerId) -> em.persist(new BatchImportFile(job, path, ownerId)));
+    }
+
+    /**
+     * Locks the checkpoint of a file for the import of the file, in the
+     * current transaction, so that no other transaction can import it at the
+     * same time.
+     *
+     * @return the checkpoint, or null if the file has been imported already
+     */
+    @TransactionAttribute(TransactionAttributeType.MANDATORY)
+    public BatchImportFile lockForImport(Long fileId) {
+        BatchImportFile file = em.find(BatchImportFile.class, fileId, LockModeType.PESSIMISTIC_WRITE);
+        if (file == null || file.getStatus() == BatchImportFile.Status.IMPORTED) {
+            return null;
+        }
+        return file;
+    }
+
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void markFailed(Long fileId, String message) {
+        BatchImportFile file = em.find(BatchImportFile.class, fileId);
+        if (file != null && file.getStatus() != BatchImportFile.Status.IMPORTED) {
+            file.recordOutcome(BatchImportFile.Status.FAILED, message, new Timestamp(System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Adds the time spent running since the last update to the job.
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public BatchImportJob saveProgress(Long jobId) {
+        BatchImportJob job = em.find(BatchImportJob.class, jobId);
+        if (job == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        job.setElapsedMillis(job.getElapsedMillis(now));
+        job.setLastUpdateTime(new Timestamp(now));
+        return job;
+    }
+
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public BatchImportJob setStatus(Long jobId, Status status) {
+        BatchImportJob job = em.find(BatchImportJob.class, jobId);
+        if (job == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        // account for the time spent running before the change
+        job.setElapsedMillis(job.getElapsedMillis(now));
+        job.setStatus(status);
+        job.setLastUpdateTime(new Timestamp(now));
+        job.setEndTime(status == Status.COMPLETED || status == Status.CANCELLED ? new Timestamp(now) : null);
+        return job;
+    }
+
+    /**
+     * Marks the jobs left in the RUNNING state by a previous run of the
+     * application as INTERRUPTED, so that they can be resumed.
+     *
+     * @return the number of jobs marked
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public int markRunningAsInterrupted() {
+        return em.createQuery("UPDATE BatchImportJob j SET j.status=:interrupted WHERE j.status=:running")
+                .setParameter("interrupted", Status.INTERRUPTED)
+                .setParameter("running", Status.RUNNING)
+                .executeUpdate();
+    }
+}
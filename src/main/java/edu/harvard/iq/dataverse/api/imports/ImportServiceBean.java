@@ -48,6 +48,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.file.Files;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
@@ -56,7 +57,9 @@ import java.util.logging.Formatter;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
+import jakarta.annotation.Resource;
 import jakarta.ejb.EJB;
+import jakarta.ejb.EJBContext;
 import jakarta.ejb.EJBException;
 import jakarta.ejb.Stateless;
 import jakarta.ejb.TransactionAttribute;
@@ -114,6 +117,12 @@ public class ImportServiceBean {
     @EJB
     DatasetTypeServiceBean datasetTypeService;
 
+    @EJB
+    BatchImportJobServiceBean batchImportJobService;
+
+    @Resource
+    EJBContext ejbContext;
+
     /**
      * This is just a convenience method, for testing migration.  It creates 
      * a dummy dataverse with the directory name as dataverse name & alias.
@@ -207,6 +216,38 @@ public class ImportServiceBean {
         }
     }
 
+    /**
+     * Imports a file of a batch import job, and marks its checkpoint as
+     * IMPORTED in the same transaction: either both the import and the
+     * checkpoint are committed, or neither is.
+     *
+     * @return the status of the import, or null if the file had been imported
+     * already (e.g. by an earlier run of the job)
+     * @throws ImportException if the file could not be imported; the
+     * transaction is rolled back
+     */
+    @TransactionAttribute(REQUIRES_NEW)
+    public JsonObjectBuilder importFile(DataverseRequest dataverseRequest, Dataverse owner, File file, ImportType importType, PrintWriter cleanupLog, Long checkpointId) throws ImportException, IOException {
+        BatchImportFile checkpoint = batchImportJobService.lockForImport(checkpointId);
+        if (checkpoint == null) {
+            return null;
+        }
+        try {
+            String ddiXMLToParse = new String(Files.readAllBytes(file.toPath()));
+            JsonObjectBuilder status = doImport(dataverseRequest, owner, ddiXMLToParse, file.getParentFile().getName() + "/" + file.getName(), importType, cleanupLog);
+            status.add("file", file.getName());
+            JsonObject result = status.build();
+            checkpoint.recordOutcome(BatchImportFile.Status.IMPORTED, result.toString(), new Timestamp(System.currentTimeMillis()));
+            logger.log(Level.FINE, "completed doImport {0}/{1}", new Object[]{file.getParentFile().getName(), file.getName()});
+            return Json.createObjectBuilder(result);
+        } catch (ImportException | IOException | RuntimeException e) {
+            // Whatever may have been written before the failure must not be
+            // committed, or the file would be half imported.
+            ejbContext.setRollbackOnly();
+            throw e;
+        }
+    }
+
     @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
     public Dataset doImportHarvestedDataset(DataverseRequest dataverseRequest, 
             HarvestingClient harvestingClient, 
@@ -0,0 +1,97 @@
+package edu.harvard.iq.dataverse.api.util;
+
+import edu.harvard.iq.dataverse.settings.JvmSettings;
+
+import jakarta.ws.rs.core.EntityTag;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.Request;
+import jakarta.ws.rs.core.Response;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.HexFormat;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Validators (ETag, Last-Modified) and Cache-Control headers for API responses
+ * whose content only changes when some known state changes, such as the cached
+ * metadata exports of a dataset or the thumbnails and auxiliary files of a
+ * datafile. Clients and fronting caches can then revalidate with
+ * If-None-Match/If-Modified-Since and get a 304 Not Modified, without the
+ * content being read from storage again.
+ */
+public class HttpCaching {
+
+    private HttpCaching() {}
+
+    /**
+     * @param parts the values that, together, identify one exact version of
+     * the content (e.g. a database id and a checksum or a timestamp).
+     * @return a strong entity tag derived from the parts.
+     */
+    public static EntityTag entityTag(Object... parts) {
+        String key = Stream.of(parts).map(String::valueOf).collect(Collectors.joining(":"));
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            // Half of the digest is plenty to tell the versions of one resource apart.
+            return new EntityTag(HexFormat.of().formatHex(digest, 0, 16));
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM has to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Evaluates the conditional headers of the request against the validators
+     * of the current content.
+     *
+     * @param lastModified may be null, if only the entity tag is known.
+     * @return a 304 Not Modified response, with the validators and the
+     * Cache-Control header, if the client already has the current content;
+     * null if the content has to be sent.
+     */
+    public static Response notModified(Request request, EntityTag tag, Date lastModified, boolean publicContent) {
+        Response.ResponseBuilder notModified = lastModified == null
+                ? request.evaluatePreconditions(tag)
+                : request.evaluatePreconditions(truncateToSeconds(lastModified), tag);
+        if (notModified == null) {
+            return null;
+        }
+        return withValidators(notModified, tag, lastModified, publicContent).build();
+    }
+
+    /**
+     * Adds the validators and the Cache-Control header to a response.
+     */
+    public static Response.ResponseBuilder withValidators(Response.ResponseBuilder response, EntityTag tag, Date lastModified, boolean publicContent) {
+        response.tag(tag).header(HttpHeaders.CACHE_CONTROL, cacheControl(publicContent));
+        if (lastModified != null) {
+            response.lastModified(truncateToSeconds(lastModified));
+        }
+        return response;
+    }
+
+    /**
+     * Public content (e.g. the exports of a published dataset) may be stored
+     * by shared caches, for up to dataverse.api.cache-max-age seconds before
+     * they have to revalidate it. Content that required authorization may only
+     * be stored by the client itself, which has to revalidate it every time.
+     */
+    static String cacheControl(boolean publicContent) {
+        if (!publicContent) {
+            return "private, no-cache";
+        }
+        int maxAge = Math.max(0, JvmSettings.API_CACHE_MAX_AGE.lookupOptional(Integer.class).orElse(0));
+        return "public, max-age=" + maxAge + ", must-revalidate";
+    }
+
+    // HTTP dates only have a resolution of one second.
+    private static Date truncateToSeconds(Date date) {
+        Objects.requireNonNull(date);
+        return new Date(date.getTime() / 1000 * 1000);
+    }
+}
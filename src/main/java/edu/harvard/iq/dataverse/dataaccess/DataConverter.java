@@ -29,16 +29,10 @@ import java.util.logging.Logger;
 
 import org.apache.commons.io.IOUtils;
 
-import java.util.List; 
-import java.util.Map;
-import java.util.HashMap;
 import java.util.Arrays;
 import java.util.ArrayList;
-import java.util.LinkedHashMap; 
 
 import edu.harvard.iq.dataverse.DataFile;
-import edu.harvard.iq.dataverse.datavariable.DataVariable;
-import edu.harvard.iq.dataverse.datavariable.VariableCategory;
 import edu.harvard.iq.dataverse.util.FileUtil;
 import edu.harvard.iq.dataverse.rserve.*;
 import java.io.FileNotFoundException;
@@ -204,10 +198,8 @@ public class DataConverter {
     // TAB-delimited format.
     // Meaning, if this is a remote subsettable file, it needs to be downloaded
     // and stored locally as a temporary file (See performFormatConversion() method)
-    // The method below takes the tab file and sends it to the R server
-    // (possibly running on a remote host) and gets back the transformed copy,
-    // providing error-checking and diagnostics in the process.
-    // This is mostly Akio Sone's code from DVN3.
+    // The method below takes the tab file and converts it into an RData
+    // file (or, for "prep", runs the R preprocessing on the R server).
     private static File runFormatConversion (DataFile file, File tabFile, String formatRequested) {
 
         if ( formatRequested.equals (FILE_TYPE_TAB) ) {
@@ -225,64 +217,19 @@ public class DataConverter {
         }
 
         File formatConvertedFile;
-        // create the service instance
-        RemoteDataFrameService dfs = new RemoteDataFrameService();
-        
-        if ("RData".equals(formatRequested)) {
-            String origFormat = file.getOriginalFileFormat();
-            Map<String, String> resultInfo;
-            if (origFormat.contains("stata") || origFormat.contains("spss")){
-                if (origFormat.contains("stata")){
-                    origFormat = "dta";
-                } else if (origFormat.contains("sav")){
-                    origFormat = "sav";
-                } else if (origFormat.contains("por")){
-                    origFormat = "por";
-                }
-                    
-                try {
-                    StorageIO<DataFile> storageIO = file.getStorageIO();
-                    long size = storageIO.getAuxObjectSize("orig");
-                    try (ReadableByteChannel origChannel = (ReadableByteChannel) storageIO.openAuxChannel("orig")) {
-                      File origFile = downloadFromByteChannel(origChannel, size);
-                      resultInfo = dfs.directConvert(origFile, origFormat);
-                    }
-                } catch (IOException ex) {
-                    ex.printStackTrace();
-                    return null;
-                }
-                
-            } else{
-                List<DataVariable> dataVariables = file.getDataTable().getDataVariables();
-                Map<String, Map<String, String>> vls = getValueTableForRequestedVariables(dataVariables);
-                logger.fine("format conversion: variables(getDataVariableForRequest())=" + dataVariables + "\n");
-                logger.fine("format conversion: variables(dataVariables)=" + dataVariables + "\n");
-                logger.fine("format conversion: value table(vls)=" + vls + "\n");
-                RJobRequest sro = new RJobRequest(dataVariables, vls);
-
-                sro.setTabularDataFileName(tabFile.getAbsolutePath());
-                sro.setRequestType(SERVICE_REQUEST_CONVERT);
-                sro.setFormatRequested(FILE_TYPE_RDATA);
-
-                // execute the service
-                resultInfo = dfs.execute(sro);
-            }
-
-            //resultInfo.put("offlineCitation", citation);
-            logger.fine("resultInfo="+resultInfo+"\n");
 
-            // check whether a requested file is actually created
-
-            if ("true".equals(resultInfo.get("RexecError"))){
-                logger.fine("R-runtime error trying to convert a file.");
-                return  null;
+        if ("RData".equals(formatRequested)) {
+            // The data frame is built and saved in Java (see
+            // TabularRDataWriter); R is no longer needed for this.
+            try {
+                formatConvertedFile = File.createTempFile("Data." + file.getId() + ".", ".RData");
+                new TabularRDataWriter(file.getDataTable()).write(tabFile.toPath(), formatConvertedFile.toPath());
+            } catch (IOException | RuntimeException ex) {
+                logger.log(Level.WARNING, "Failed to convert tabular file " + file.getId() + " to RData", ex);
+                return null;
             }
-            String dataFrameFileName = resultInfo.get("dataFrameFileName");
-            logger.fine("data frame file name: "+dataFrameFileName);
-
-            formatConvertedFile = new File(dataFrameFileName);
         } else if ("prep".equals(formatRequested)) {
-            formatConvertedFile = dfs.runDataPreprocessing(file);
+            formatConvertedFile = new RemoteDataFrameService().runDataPreprocessing(file);
         } else {
             logger.warning("Unsupported file format requested: "+formatRequested);
             return null; 
@@ -297,22 +244,6 @@ public class DataConverter {
         return formatConvertedFile;
     }
 
-    private static Map<String, Map<String, String>> getValueTableForRequestedVariables(List<DataVariable> dataVariables){
-        Map<String, Map<String, String>> allVarLabels = new LinkedHashMap<>();
-        for (DataVariable dataVar : dataVariables){
-            Map<String, String> varLabels = new HashMap<>();
-            for (VariableCategory varCatagory : dataVar.getCategories()){
-                if (varCatagory.getLabel() != null){
-                    varLabels.put(varCatagory.getValue(), varCatagory.getLabel());
-                }
-            }
-            if (!varLabels.isEmpty()){
-                allVarLabels.put("v"+dataVar.getId(), varLabels);
-            }
-        }
-        return allVarLabels;
-    }
-        
     private static String generateAltFileName(String formatRequested, String xfileId) {
         String altFileName = xfileId;
 
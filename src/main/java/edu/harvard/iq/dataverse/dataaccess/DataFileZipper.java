@@ -24,25 +24,93 @@ import java.io.IOException;
 
 
 import edu.harvard.iq.dataverse.DataFile;
+import edu.harvard.iq.dataverse.settings.JvmSettings;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
+import org.apache.commons.io.IOUtils;
 
 
 /**
+ * Writes datafiles into a zip stream. 
+ * 
+ * The files are written in the order they are added, but up to 
+ * dataverse.files.zip-download-prefetch of them are fetched ahead of time, 
+ * in parallel: their input streams are opened and the first 
+ * PREFETCH_BUFFER_SIZE bytes read into memory, while the previous files are 
+ * being written. With remote storage (S3, etc.) this hides the latency of 
+ * getting the first byte of every file, which otherwise dominates the time
+ * it takes to zip a dataset made of many files. The files are fetched on
+ * the executor given by the caller (in the application, the managed executor
+ * PREFETCH_EXECUTOR); the caller should call discardPendingFiles() once it
+ * is done with the zipper, whether it got to finalizeZipStream() or not.
+ * The buffers of the files fetched ahead are taken from a budget shared by
+ * all the zippers (dataverse.files.zip-download-prefetch-memory bytes): 
+ * when it is used up, the next files are only fetched when written.
  *
+ * Files whose content type is already compressed (images, archives, video...) 
+ * are not compressed again. 
+ * 
  * @author Leonid Andreev
  */
 public class DataFileZipper {
     
     private static final Logger logger = Logger.getLogger(DataFileZipper.class.getCanonicalName());
     private static final String MANIFEST_FILE_NAME = "MANIFEST.TXT";
-    
+
+    static final int DEFAULT_PREFETCH_FILES = 4;
+    static final int PREFETCH_BUFFER_SIZE = 4 * 1024 * 1024;
+    static final long DEFAULT_PREFETCH_MEMORY = 256L * 1024 * 1024;
+    /**
+     * The managed executor running the prefetches of all the zip downloads in
+     * progress (defined on DataFileServiceBean).
+     */
+    public static final String PREFETCH_EXECUTOR = "java:app/concurrent/zipPrefetch";
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The bytes of the prefetch buffers of all the zip downloads in
+     * progress: one permit per byte.
+     */
+    private static final Semaphore prefetchBudget = new Semaphore((int) Math.min(Integer.MAX_VALUE,
+            Math.max(0, JvmSettings.ZIP_DOWNLOAD_PREFETCH_MEMORY.lookupOptional(Long.class).orElse(DEFAULT_PREFETCH_MEMORY))));
+
+    private static final Set<String> COMPRESSED_CONTENT_TYPES = Set.of(
+            "application/zip",
+            "application/gzip",
+            "application/x-gzip",
+            "application/x-bzip2",
+            "application/x-xz",
+            "application/x-7z-compressed",
+            "application/x-rar-compressed",
+            "application/vnd.rar",
+            "application/zstd",
+            "application/java-archive",
+            "image/jpeg",
+            "image/png",
+            "image/gif",
+            "image/webp",
+            "audio/mpeg",
+            "audio/mp4",
+            "audio/ogg",
+            "audio/aac",
+            "audio/flac");
+
     private OutputStream outputStream = null; 
     private ZipOutputStream zipOutputStream = null;
     
@@ -53,14 +121,43 @@ public class DataFileZipper {
     
     private Set<String> zippedFolders = null; 
 
+    private final int prefetchFiles;
+    private final Executor prefetchExecutor;
+    private final Semaphore budget;
+    // files added, but not yet written to the zip stream, in order:
+    private final Deque<ZipItem> pendingFiles = new ArrayDeque<>();
+
     public DataFileZipper() {
-        fileNameList = new ArrayList<>();
-        zippedFilesList = new ArrayList<>(); 
-        zippedFolders = new HashSet<>();
+        this(null);
     }
     
     public DataFileZipper(OutputStream outputStream) {
+        this(outputStream, 0, null);
+    }
+
+    /**
+     * @param prefetchExecutor runs the prefetches, up to 
+     * dataverse.files.zip-download-prefetch files ahead.
+     */
+    public DataFileZipper(OutputStream outputStream, Executor prefetchExecutor) {
+        this(outputStream, JvmSettings.ZIP_DOWNLOAD_PREFETCH.lookupOptional(Integer.class).orElse(DEFAULT_PREFETCH_FILES),
+                prefetchExecutor);
+    }
+
+    /**
+     * @param prefetchFiles how many files may be fetched ahead of the one
+     * being written; 0 to fetch each file only when it is written.
+     * @param prefetchExecutor runs the prefetches; if null, there are none.
+     */
+    public DataFileZipper(OutputStream outputStream, int prefetchFiles, Executor prefetchExecutor) {
+        this(outputStream, prefetchFiles, prefetchExecutor, prefetchBudget);
+    }
+
+    DataFileZipper(OutputStream outputStream, int prefetchFiles, Executor prefetchExecutor, Semaphore budget) {
         this.outputStream = outputStream;
+        this.budget = budget;
+        this.prefetchFiles = prefetchExecutor == null ? 0 : Math.max(0, prefetchFiles);
+        this.prefetchExecutor = prefetchExecutor;
         fileNameList = new ArrayList<>();
         zippedFilesList = new ArrayList<>();
         zippedFolders = new HashSet<>();
@@ -93,13 +190,14 @@ public class DataFileZipper {
         return addFileToZipStream(dataFile, false);
     }
     
+    /**
+     * Adds the file to the zip stream. The file may only be fetched, and 
+     * written out by a later call of this method or by finalizeZipStream().
+     * 
+     * @return the number of bytes of content written to the zip stream
+     * during this call (i.e. of this file and/or of files added earlier).
+     */
     public long addFileToZipStream(DataFile dataFile, boolean getOriginal) throws IOException {
-        if (zipOutputStream == null) {
-            openZipStream();
-        }
-
-        boolean createManifest = fileManifest != null;
-        
         DataAccessRequest daReq = new DataAccessRequest();
         StorageIO<DataFile> accessObject = DataAccess.getStorageIO(dataFile, daReq);
 
@@ -116,31 +214,90 @@ public class DataFileZipper {
             if(!gotOriginal) { //if we didn't get this from sof.retreive we have to open it
                 accessObject.open();
             }
+            return addToZipStream(dataFile, accessObject);
+        }
+        return 0L;
+    }
 
-            long byteSize = 0;
+    /**
+     * Queues a file whose storage has already been opened, starts fetching
+     * it, and writes out the files that are no longer within the prefetch
+     * window. 
+     * 
+     * Everything that needs the DataFile entity (names, folders, the variable
+     * header) is looked up here, on the calling thread; the prefetch threads 
+     * only read from the storage.
+     */
+    long addToZipStream(DataFile dataFile, StorageIO<DataFile> accessObject) throws IOException {
+        if (zipOutputStream == null) {
+            openZipStream();
+        }
 
-            String fileName = accessObject.getFileName();
-            String mimeType = accessObject.getMimeType();
-            if (mimeType == null || mimeType.equals("")) {
-                mimeType = "application/octet-stream";
+        ZipItem item = new ZipItem(dataFile, accessObject, budget);
+        pendingFiles.add(item);
+        // (otherwise it will be fetched when written)
+        if (prefetchFiles > 0 && budget.tryAcquire(item.bufferSize)) {
+            item.permits = item.bufferSize;
+            try {
+                prefetchExecutor.execute(item::fetch);
+            } catch (RejectedExecutionException ree) {
+                item.releaseHead();
             }
+        }
 
-            //if (sizeTotal + fileSize < sizeLimit) {
-            Boolean Success = true;
+        long byteSize = 0;
+        try {
+            while (pendingFiles.size() > prefetchFiles) {
+                byteSize += writeNextPendingFile();
+            }
+        } catch (IOException | RuntimeException ex) {
+            discardPendingFiles();
+            throw ex;
+        }
+        return byteSize;
+    }
 
-            InputStream instream = accessObject.getInputStream();
-            if (instream == null) {
-                if (createManifest) {
-                    addToManifest(fileName
-                            + " (" + mimeType
-                            + ") COULD NOT be downloaded because an I/O error has occured. \r\n");
-                }
+    /**
+     * Writes out the oldest pending file; its prefetch buffer goes back to
+     * the budget whether that works or not.
+     */
+    private long writeNextPendingFile() throws IOException {
+        ZipItem item = pendingFiles.poll();
+        try {
+            return writeZipEntry(item);
+        } finally {
+            item.releaseHeadWhenFetched();
+        }
+    }
 
-                Success = false;
-            } else {
+    private long writeZipEntry(ZipItem item) throws IOException {
+        boolean createManifest = fileManifest != null;
+        long byteSize = 0;
+
+        String fileName = item.fileName;
+        String mimeType = item.mimeType;
+
+        //if (sizeTotal + fileSize < sizeLimit) {
+        Boolean Success = true;
+
+        // Fetches the file now, unless a prefetch thread already started to
+        item.fetch();
+        item.awaitFetched();
+
+        InputStream instream = item.instream;
+        if (instream == null) {
+            if (createManifest) {
+                addToManifest(fileName
+                        + " (" + mimeType
+                        + ") COULD NOT be downloaded because an I/O error has occured. \r\n");
+            }
+
+            Success = false;
+        } else {
+            try (instream) {
                 // If any of the files have non-empty DirectoryLabels we'll 
                 // use them to re-create the folders in the Zipped bundle:
-                String folderName = dataFile.getFileMetadata().getDirectoryLabel(); 
+                String folderName = item.folderName;
                 if (folderName != null) {
                     // If any of the saved folder names start with with slashes,
                     // we want to remove them: 
@@ -158,10 +315,26 @@ public class DataFileZipper {
                         fileName = folderName + "/" + fileName;
                     }
                 }
-                
+
                 String zipEntryName = checkZipEntryName(fileName);
-                
+
                 ZipEntry e = new ZipEntry(zipEntryName);
+                boolean compressed = isCompressedContentType(mimeType);
+                if (compressed && item.isComplete() && item.varHeader == null) {
+                    // We have the whole file, so we can store it as is; 
+                    // STORED entries need the size and checksum up front.
+                    CRC32 crc = new CRC32();
+                    crc.update(item.head, 0, item.headLength);
+                    e.setMethod(ZipEntry.STORED);
+                    e.setSize(item.headLength);
+                    e.setCompressedSize(item.headLength);
+                    e.setCrc(crc.getValue());
+                } else {
+                    // Otherwise it can't be STORED, as the size and checksum
+                    // of a streamed entry can only be written after it; 
+                    // deflating without compression costs nearly as little. 
+                    zipOutputStream.setLevel(compressed ? Deflater.NO_COMPRESSION : Deflater.DEFAULT_COMPRESSION);
+                }
                 logger.fine("created new zip entry for " + zipEntryName);
 
                 zipOutputStream.putNextEntry(e);
@@ -169,40 +342,43 @@ public class DataFileZipper {
                 // before writing out any bytes from the input stream, flush
                 // any extra content, such as the variable header for the 
                 // subsettable files:
-                String varHeaderLine = accessObject.getVarHeader();
-                if (varHeaderLine != null) {
-                    zipOutputStream.write(varHeaderLine.getBytes());
-                    byteSize += (varHeaderLine.getBytes().length);
+                if (item.varHeader != null) {
+                    zipOutputStream.write(item.varHeader);
+                    byteSize += item.varHeader.length;
                 }
 
-                byte[] data = new byte[8192];
-
-                int i = 0;
-                while ((i = instream.read(data)) > 0) {
-                    zipOutputStream.write(data, 0, i);
-                    logger.fine("wrote " + i + " bytes;");
+                zipOutputStream.write(item.head, 0, item.headLength);
+                byteSize += item.headLength;
+                // let the buffer go while the rest of the file is copied
+                item.releaseHead();
 
-                    byteSize += i;
-                    zipOutputStream.flush();
+                if (!item.isComplete()) {
+                    byte[] data = new byte[COPY_BUFFER_SIZE];
+                    int i = 0;
+                    while ((i = instream.read(data)) > 0) {
+                        zipOutputStream.write(data, 0, i);
+                        byteSize += i;
+                    }
                 }
-                instream.close();
                 zipOutputStream.closeEntry();
-                logger.fine("closed zip entry for " + zipEntryName);
+                // Flushing only at the end of an entry (rather than after every
+                // buffer) lets the stream write out large chunks. 
+                zipOutputStream.flush();
+                logger.fine("closed zip entry for " + zipEntryName + "; wrote " + byteSize + " bytes");
 
                 if (createManifest) {
                     addToManifest(zipEntryName + " (" + mimeType + ") " + byteSize + " bytes.\r\n");
                 }
 
                 if (byteSize > 0) {
-                    zippedFilesList.add(dataFile.getId());
+                    zippedFilesList.add(item.dataFileId);
                 }
             }
-            //} else if (createManifest) {
-            //    addToManifest(fileName + " (" + mimeType + ") " + " skipped because the total size of the download bundle exceeded the limit of " + sizeLimit + " bytes.\r\n");
-            //}
-            return byteSize;
         }
-        return 0L;
+        //} else if (createManifest) {
+        //    addToManifest(fileName + " (" + mimeType + ") " + " skipped because the total size of the download bundle exceeded the limit of " + sizeLimit + " bytes.\r\n");
+        //}
+        return byteSize;
     }
     
     public void finalizeZipStream() throws IOException {
@@ -211,6 +387,15 @@ public class DataFileZipper {
         if (zipOutputStream == null) {
             openZipStream();
         }
+
+        try {
+            while (!pendingFiles.isEmpty()) {
+                writeNextPendingFile();
+            }
+        } catch (IOException | RuntimeException ex) {
+            discardPendingFiles();
+            throw ex;
+        }
         
         if (createManifest) {
             String manifestEntry = MANIFEST_FILE_NAME; 
@@ -220,6 +405,7 @@ public class DataFileZipper {
             
             ZipEntry e = new ZipEntry(manifestEntry);
 
+            zipOutputStream.setLevel(Deflater.DEFAULT_COMPRESSION);
             zipOutputStream.putNextEntry(e);
             zipOutputStream.write(fileManifest.getBytes());
             zipOutputStream.closeEntry();
@@ -232,6 +418,29 @@ public class DataFileZipper {
     public void addToManifest(String manifestEntry) {
         this.fileManifest = this.fileManifest + manifestEntry; 
     }
+
+    static boolean isCompressedContentType(String mimeType) {
+        if (mimeType == null) {
+            return false;
+        }
+        // e.g. "image/png; charset=..." 
+        String baseType = mimeType.split(";")[0].trim().toLowerCase();
+        return COMPRESSED_CONTENT_TYPES.contains(baseType) || baseType.startsWith("video/");
+    }
+
+    /**
+     * Once the download has failed (e.g. the client went away, or a file 
+     * can't be served), the files fetched ahead will never be written: their
+     * streams are closed as soon as their fetch is over, and the ones not 
+     * started yet are never fetched. Does nothing if all the files added were
+     * written, so it can be called in a finally block.
+     */
+    public void discardPendingFiles() {
+        ZipItem item;
+        while ((item = pendingFiles.poll()) != null) {
+            item.discard();
+        }
+    }
     
     // check for and process duplicates:
     private String checkZipEntryName(String originalName) {
@@ -249,4 +458,129 @@ public class DataFileZipper {
         fileNameList.add(name);
         return name;
     }
+
+    /**
+     * A file on its way into the zip stream. It is fetched either by a 
+     * prefetch thread or, if none got to it in time, by the thread writing
+     * the zip stream: whichever claims it first. 
+     */
+    private static class ZipItem {
+
+        final Long dataFileId;
+        final StorageIO<DataFile> accessObject;
+        final String fileName;
+        final String mimeType;
+        final String folderName;
+        final byte[] varHeader;
+        final long expectedSize;
+        /** The size of the head buffer */
+        final int bufferSize;
+        private final Semaphore budget;
+        /** Permits taken from the budget for the head buffer (guarded by this) */
+        int permits;
+
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private final CompletableFuture<Void> fetched = new CompletableFuture<>();
+
+        // set by fetch():
+        InputStream instream;
+        byte[] head = new byte[0];
+        int headLength = 0;
+        private boolean complete = false;
+
+        ZipItem(DataFile dataFile, StorageIO<DataFile> accessObject, Semaphore budget) {
+            this.dataFileId = dataFile.getId();
+            this.accessObject = accessObject;
+            this.fileName = accessObject.getFileName();
+            String mimeType = accessObject.getMimeType();
+            if (mimeType == null || mimeType.equals("")) {
+                mimeType = "application/octet-stream";
+            }
+            this.mimeType = mimeType;
+            this.folderName = dataFile.getFileMetadata().getDirectoryLabel();
+            String varHeaderLine = accessObject.getVarHeader();
+            this.varHeader = varHeaderLine == null ? null : varHeaderLine.getBytes();
+            // Only a hint, used to size the prefetch buffer. Not every 
+            // driver knows the size of the file once it is opened.
+            this.expectedSize = accessObject.getSize() > 0 ? accessObject.getSize() : dataFile.getFilesize();
+            // One more byte than expected, to see the end of the file.
+            // (If the size is not known, only a small buffer.)
+            this.bufferSize = expectedSize <= 0 ? COPY_BUFFER_SIZE
+                    : (int) Math.min(expectedSize + 1, PREFETCH_BUFFER_SIZE);
+            this.budget = budget;
+        }
+
+        /**
+         * Opens the input stream and reads the beginning of the file (the 
+         * whole file, if it is small enough). Does nothing if the item was
+         * already claimed by another thread.
+         */
+        void fetch() {
+            if (!claimed.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                instream = accessObject.getInputStream();
+                if (instream != null) {
+                    head = new byte[bufferSize];
+                    headLength = IOUtils.read(instream, head);
+                    complete = headLength < bufferSize;
+                }
+                fetched.complete(null);
+            } catch (IOException | RuntimeException ex) {
+                fetched.completeExceptionally(ex);
+            }
+        }
+
+        void awaitFetched() throws IOException {
+            try {
+                fetched.get();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while fetching " + fileName, ie);
+            } catch (ExecutionException ee) {
+                if (ee.getCause() instanceof IOException ioe) {
+                    throw ioe;
+                }
+                throw new IOException("Failed to fetch " + fileName, ee.getCause());
+            }
+        }
+
+        /**
+         * @return true if the whole file has been read into the head buffer.
+         */
+        boolean isComplete() {
+            return complete;
+        }
+
+        void discard() {
+            if (claimed.compareAndSet(false, true)) {
+                close();
+            } else {
+                fetched.whenComplete((result, ex) -> close());
+            }
+        }
+
+        /**
+         * Drops the head buffer, and gives its permits back to the budget.
+         */
+        synchronized void releaseHead() {
+            head = null;
+            budget.release(permits);
+            permits = 0;
+        }
+
+        /**
+         * Same as {@link #releaseHead()}, once the fetch is over (the buffer
+         * is being filled until then).
+         */
+        void releaseHeadWhenFetched() {
+            fetched.whenComplete((result, ex) -> releaseHead());
+        }
+
+        private void close() {
+            releaseHead();
+            accessObject.closeInputStream();
+        }
+    }
 }
@@ -0,0 +1,208 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes R objects in R's own serialization format, version 2 (the XDR
+ * format used by {@code save()} and {@code saveRDS()}, which every version of
+ * R since 2.3.0 can read), so that RData files can be produced without an R
+ * server.
+ *
+ * Only what is needed for data frames is supported: atomic vectors, lists and
+ * attributes; see RObject.
+ */
+public class RDataSerializer {
+
+    // SEXP types, see src/main/serialize.c in the R sources
+    static final int SYMSXP = 1;
+    static final int LISTSXP = 2;
+    static final int CHARSXP = 9;
+    static final int LGLSXP = 10;
+    static final int INTSXP = 13;
+    static final int REALSXP = 14;
+    static final int STRSXP = 16;
+    static final int VECSXP = 19;
+    static final int REFSXP = 255;
+    static final int NILVALUE_SXP = 254;
+
+    static final int IS_OBJECT_BIT = 1 << 8;
+    static final int HAS_ATTR_BIT = 1 << 9;
+    static final int HAS_TAG_BIT = 1 << 10;
+    // CHARSXP encoding flags, stored in the "levels" of the header
+    static final int UTF8_MASK = 1 << 3;
+    static final int ASCII_MASK = 1 << 6;
+
+    static final int FORMAT_VERSION = 2;
+    /**
+     * The R version recorded as the writer (3.5.0, the last one that wrote
+     * version 2 by default).
+     */
+    static final int WRITER_VERSION = (3 << 16) | (5 << 8);
+    static final int MIN_READER_VERSION = (2 << 16) | (3 << 8);
+
+    static final byte[] RDATA_MAGIC = "RDX2\n".getBytes(StandardCharsets.US_ASCII);
+    static final byte[] XDR_FORMAT = "X\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final DataOutputStream out;
+    /**
+     * Symbols are written in full once, and then referred to by their index.
+     */
+    private final Map<String, Integer> symbolRefs = new HashMap<>();
+
+    public RDataSerializer(OutputStream out) {
+        this.out = new DataOutputStream(out);
+    }
+
+    /**
+     * Writes the objects as an R workspace (as saved by {@code save()}),
+     * gzip compressed.
+     *
+     * @param objects the objects, by the names they are to be loaded as
+     */
+    public static void writeRData(Map<String, RObject> objects, OutputStream out) throws IOException {
+        GZIPOutputStream gzip = new GZIPOutputStream(new BufferedOutputStream(out, 64 * 1024), 64 * 1024);
+        RDataSerializer serializer = new RDataSerializer(gzip);
+        serializer.writeWorkspace(objects);
+        gzip.finish();
+        gzip.flush();
+    }
+
+    /**
+     * Writes a single object as read by {@code readRDS()}, gzip compressed.
+     */
+    public static void writeRds(RObject object, OutputStream out) throws IOException {
+        GZIPOutputStream gzip = new GZIPOutputStream(new BufferedOutputStream(out, 64 * 1024), 64 * 1024);
+        RDataSerializer serializer = new RDataSerializer(gzip);
+        serializer.writeHeader();
+        serializer.writeItem(object);
+        serializer.out.flush();
+        gzip.finish();
+        gzip.flush();
+    }
+
+    /**
+     * Writes the uncompressed workspace: the RData magic number, then the
+     * objects as a pairlist tagged with their names.
+     */
+    public void writeWorkspace(Map<String, RObject> objects) throws IOException {
+        out.write(RDATA_MAGIC);
+        writeHeader();
+        for (Map.Entry<String, RObject> object : objects.entrySet()) {
+            out.writeInt(LISTSXP | HAS_TAG_BIT);
+            writeSymbol(object.getKey());
+            writeItem(object.getValue());
+        }
+        out.writeInt(NILVALUE_SXP);
+        out.flush();
+    }
+
+    public void writeHeader() throws IOException {
+        out.write(XDR_FORMAT);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(WRITER_VERSION);
+        out.writeInt(MIN_READER_VERSION);
+    }
+
+    public void writeItem(RObject object) throws IOException {
+        if (object == null) {
+            out.writeInt(NILVALUE_SXP);
+            return;
+        }
+        int flags = switch (object.getType()) {
+            case LOGICAL -> LGLSXP;
+            case INTEGER -> INTSXP;
+            case DOUBLE -> REALSXP;
+            case CHARACTER -> STRSXP;
+            case LIST -> VECSXP;
+        };
+        if (object.isObject()) {
+            flags |= IS_OBJECT_BIT;
+        }
+        if (!object.getAttributes().isEmpty()) {
+            flags |= HAS_ATTR_BIT;
+        }
+        out.writeInt(flags);
+        int length = object.length();
+        out.writeInt(length);
+        switch (object.getType()) {
+            case LOGICAL, INTEGER -> {
+                int[] values = object.getInts();
+                for (int i = 0; i < length; i++) {
+                    out.writeInt(values[i]);
+                }
+            }
+            case DOUBLE -> {
+                double[] values = object.getDoubles();
+                for (int i = 0; i < length; i++) {
+                    // not writeDouble(), which would turn NA into a plain NaN
+                    out.writeLong(Double.doubleToRawLongBits(values[i]));
+                }
+            }
+            case CHARACTER -> {
+                String[] values = object.getStrings();
+                for (int i = 0; i < length; i++) {
+                    writeCharsxp(values[i]);
+                }
+            }
+            case LIST -> {
+                for (RObject element : object.getElements()) {
+                    writeItem(element);
+                }
+            }
+        }
+        if (!object.getAttributes().isEmpty()) {
+            writeAttributes(object.getAttributes());
+        }
+    }
+
+    private void writeAttributes(Map<String, RObject> attributes) throws IOException {
+        for (Map.Entry<String, RObject> attribute : attributes.entrySet()) {
+            out.writeInt(LISTSXP | HAS_TAG_BIT);
+            writeSymbol(attribute.getKey());
+            writeItem(attribute.getValue());
+        }
+        out.writeInt(NILVALUE_SXP);
+    }
+
+    private void writeSymbol(String name) throws IOException {
+        Integer ref = symbolRefs.get(name);
+        if (ref != null) {
+            // the reference index is packed into the flags
+            out.writeInt((ref << 8) | REFSXP);
+            return;
+        }
+        out.writeInt(SYMSXP);
+        writeCharsxp(name);
+        symbolRefs.put(name, symbolRefs.size() + 1);
+    }
+
+    private void writeCharsxp(String value) throws IOException {
+        if (value == null) {
+            // NA_character_
+            out.writeInt(CHARSXP);
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int encoding = bytes.length == value.length() && isAscii(bytes) ? ASCII_MASK : UTF8_MASK;
+        out.writeInt(CHARSXP | (encoding << 12));
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static boolean isAscii(byte[] bytes) {
+        for (byte b : bytes) {
+            if (b < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,146 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A minimal in-memory model of the R objects that make up a data frame: the
+ * atomic vectors (logical, integer, double, character) and generic vectors
+ * (lists), each with its attributes. Used to write R data files without R
+ * (see RDataSerializer).
+ *
+ * Missing values are represented the way R does: {@link #NA_INTEGER} in
+ * integer and logical vectors, {@link #NA_REAL} in double vectors and null in
+ * character vectors.
+ */
+public final class RObject {
+
+    public enum Type {
+        LOGICAL, INTEGER, DOUBLE, CHARACTER, LIST
+    }
+
+    public static final int NA_INTEGER = Integer.MIN_VALUE;
+    /**
+     * R's NA_real_: a NaN with the payload 1954 (as opposed to the NaN that
+     * results from, say, 0/0).
+     */
+    public static final double NA_REAL = Double.longBitsToDouble(0x7FF00000000007A2L);
+
+    private final Type type;
+    private final Object values;
+    private final int length;
+    private final Map<String, RObject> attributes = new LinkedHashMap<>();
+
+    private RObject(Type type, Object values, int length) {
+        this.type = type;
+        this.values = values;
+        this.length = length;
+    }
+
+    public static RObject logicals(int[] values, int length) {
+        return new RObject(Type.LOGICAL, values, length);
+    }
+
+    public static RObject integers(int... values) {
+        return integers(values, values.length);
+    }
+
+    public static RObject integers(int[] values, int length) {
+        return new RObject(Type.INTEGER, values, length);
+    }
+
+    public static RObject doubles(double... values) {
+        return doubles(values, values.length);
+    }
+
+    public static RObject doubles(double[] values, int length) {
+        return new RObject(Type.DOUBLE, values, length);
+    }
+
+    public static RObject strings(String... values) {
+        return strings(values, values.length);
+    }
+
+    public static RObject strings(String[] values, int length) {
+        return new RObject(Type.CHARACTER, values, length);
+    }
+
+    public static RObject list(List<RObject> elements) {
+        return new RObject(Type.LIST, elements.toArray(new RObject[0]), elements.size());
+    }
+
+    /**
+     * @return a named list, as in {@code list(a = ..., b = ...)}
+     */
+    public static RObject namedList(Map<String, RObject> elements) {
+        RObject list = list(List.copyOf(elements.values()));
+        list.setAttribute("names", strings(elements.keySet().toArray(new String[0])));
+        return list;
+    }
+
+    public static boolean isNA(double value) {
+        return Double.doubleToRawLongBits(value) == Double.doubleToRawLongBits(NA_REAL);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @return the values of a logical or integer vector (only the first
+     * {@link #length()} are in use)
+     */
+    public int[] getInts() {
+        return (int[]) values;
+    }
+
+    public double[] getDoubles() {
+        return (double[]) values;
+    }
+
+    public String[] getStrings() {
+        return (String[]) values;
+    }
+
+    public RObject[] getElements() {
+        return (RObject[]) values;
+    }
+
+    public RObject setAttribute(String name, RObject value) {
+        attributes.put(name, value);
+        return this;
+    }
+
+    public RObject getAttribute(String name) {
+        return attributes.get(name);
+    }
+
+    public Map<String, RObject> getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * @return whether R considers this an object of an S3 class, i.e. it has
+     * a class attribute
+     */
+    public boolean isObject() {
+        return attributes.containsKey("class");
+    }
+
+    @Override
+    public String toString() {
+        String content = switch (type) {
+            case LOGICAL, INTEGER -> Arrays.toString(Arrays.copyOf(getInts(), Math.min(length, 10)));
+            case DOUBLE -> Arrays.toString(Arrays.copyOf(getDoubles(), Math.min(length, 10)));
+            case CHARACTER -> Arrays.toString(Arrays.copyOf(getStrings(), Math.min(length, 10)));
+            case LIST -> length + " elements";
+        };
+        return "RObject[" + type + ", length=" + length + ", " + content + ", attributes=" + attributes.keySet() + "]";
+    }
+}
@@ -1,18 +1,9 @@
 package edu.harvard.iq.dataverse.dataaccess;
 
 import com.amazonaws.AmazonClientException;
-import com.amazonaws.ClientConfiguration;
 import com.amazonaws.HttpMethod;
 import com.amazonaws.SdkClientException;
-import com.amazonaws.auth.AWSCredentialsProvider;
-import com.amazonaws.auth.AWSCredentialsProviderChain;
-import com.amazonaws.auth.AWSStaticCredentialsProvider;
-import com.amazonaws.auth.BasicAWSCredentials;
-import com.amazonaws.auth.InstanceProfileCredentialsProvider;
-import com.amazonaws.auth.profile.ProfileCredentialsProvider;
-import com.amazonaws.client.builder.AwsClientBuilder;
 import com.amazonaws.services.s3.AmazonS3;
-import com.amazonaws.services.s3.AmazonS3ClientBuilder;
 import com.amazonaws.services.s3.Headers;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.PartETag;
@@ -34,7 +25,6 @@ import com.amazonaws.services.s3.model.ResponseHeaderOverrides;
 import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
 import com.amazonaws.services.s3.transfer.TransferManager;
-import com.amazonaws.services.s3.transfer.TransferManagerBuilder;
 import edu.harvard.iq.dataverse.DataFile;
 import edu.harvard.iq.dataverse.Dataset;
 import edu.harvard.iq.dataverse.Dataverse;
@@ -59,19 +49,14 @@ import java.nio.channels.WritableByteChannel;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Optional;
 import java.util.Random;
 import java.util.function.Predicate;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
 import org.apache.commons.io.IOUtils;
-import org.eclipse.microprofile.config.Config;
-import org.eclipse.microprofile.config.ConfigProvider;
 
 import jakarta.json.Json;
 import jakarta.json.JsonObjectBuilder;
@@ -90,7 +75,6 @@ import jakarta.validation.constraints.NotNull;
  */
 public class S3AccessIO<T extends DvObject> extends StorageIO<T> {
 
-    private static final Config config = ConfigProvider.getConfig();
     private static final Logger logger = Logger.getLogger("edu.harvard.iq.dataverse.dataaccess.S3AccessIO");
     static final String URL_EXPIRATION_MINUTES = "url-expiration-minutes";
     static final String CUSTOM_ENDPOINT_URL = "custom-endpoint-url";
@@ -105,9 +89,6 @@ public class S3AccessIO<T extends DvObject> extends StorageIO<T> {
     
     private boolean mainDriver = true;
 
-    private static HashMap<String, AmazonS3> driverClientMap = new HashMap<String,AmazonS3>();
-    private static HashMap<String, TransferManager> driverTMMap = new HashMap<String,TransferManager>();
-
     public S3AccessIO(T dvObject, DataAccessRequest req, String driverId) {
         super(dvObject, req, driverId);
         this.setIsLocalFile(false);
@@ -263,7 +244,7 @@ public class S3AccessIO<T extends DvObject> extends StorageIO<T> {
                     int retries = 20;
                     while (retries > 0) {
                         try {
-                            objectMetadata = s3.getObjectMetadata(bucketName, key);
+                            objectMetadata = getObjectMetadata(key);
                             if (retries != 20) {
                                 logger.warning(
                                         "Success for key: " + key + " after " + ((20 - retries) * 3) + " seconds");
@@ -295,7 +276,7 @@ public class S3AccessIO<T extends DvObject> extends StorageIO<T> {
     public InputStream getInputStream() throws IOException {
         if(super.getInputStream()==null) {
             try {
-                setInputStream(s3.getObject(new GetObjectRequest(bucketName, key)).getObjectContent());
+                setInputStream(S3ClientRegistry.getObjectContent(driverId, s3, bucketName, key, getSize()));
             } catch (SdkClientException sce) {
                 throw new IOException("Cannot get S3 object " + key + " ("+sce.getMessage()+")");
             }
@@ -310,6 +291,19 @@ public class S3AccessIO<T extends DvObject> extends StorageIO<T> {
         return super.getInputStream();
     }
     
+    /**
+     * Each range is read with its own ranged GET, rather than by skipping 
+     * through (i.e. downloading) the whole object.
+     */
+    @Override
+    public InputStream getRangeInputStream(long start, long length) throws IOException {
+        try {
+            return s3.getObject(new GetObjectRequest(bucketName, key).withRange(start, start + length - 1)).getObjectContent();
+        } catch (SdkClientException sce) {
+            throw new IOException("Cannot get S3 object " + key + " (" + sce.getMessage() + ")");
+        }
+    }
+
     @Override
     public Channel getChannel() throws IOException {
         if(super.getChannel()==null) {
@@ -337,6 +331,7 @@ public class S3AccessIO<T extends DvObject> extends StorageIO<T> {
         try {
             File inputFile = fileSystemPath.toFile();
             if (dvObject instanceof DataFile) {
+                forgetObjectMetadata(key);
                 tm.upload(new PutObjectRequest(bucketName, key, inputFile)).waitForCompletion();
                 newFileSize = inputFile.length();
             } else {
@@ -389,6 +384,7 @@ public class S3AccessIO<T extends DvObject> extends StorageIO<T> {
             ObjectMetadata metadata = new ObjectMetadata();
             metadata.setContentLength(filesize);
             try {
+                forgetObjectMetadata(key);
                 s3.putObject(bucketName, key, inputStream, metadata);
             } catch (SdkClientException ioex) {
                 String failureMsg = ioex.getMessage();
@@ -414,6 +410,7 @@ public class S3AccessIO<T extends DvObject> extends StorageIO<T> {
         File tempFile = createTempFile(tempPath, inputStream);
         
         try {
+            forgetObjectMetadata(key);
             s3.putObject(bucketName, key, tempFile);
         } catch (SdkClientException ioex) {
             String failureMsg = ioex.getMessage();
@@ -423,11 +420,9 @@ public class S3AccessIO<T extends DvObject> extends StorageIO<T> {
             tempFile.delete();
             throw new IOException(failureMsg);
         }
+        // (the size of what was just saved; no need to ask S3 for it)
+        setSize(tempFile.length());
         tempFile.delete();
-        ObjectMetadata objectMetadata = s3.getObjectMetadata(bucketName, key);
-        if (objectMetadata != null) {
-            setSize(objectMetadata.getContentLength());
-        }
     }
     
     @Override
@@ -442,6 +437,7 @@ public class S3AccessIO<T extends DvObject> extends StorageIO<T> {
         // (probably unnecessary - attempting to delete it will fail if it doesn't exist - ?)
         try {
             DeleteObjectRequest deleteObjRequest = new DeleteObjectRequest(bucketName, key);
+            forgetObjectMetadata(key);
             s3.deleteObject(deleteObjRequest);
         } catch (AmazonClientException ase) {
             logger.warning("Caught an AmazonClientException in S3AccessIO.delete(): " + ase.getMessage());
@@ -475,7 +471,7 @@ public class S3AccessIO<T extends DvObject> extends StorageIO<T> {
         logger.fine("Inside isAuxObjectCached");
         String destinationKey = getDestinationKey(auxItemTag);
         try {
-            return s3.doesObjectExist(bucketName, destinationKey);
+            return S3ClientRegistry.doesObjectExist(driverId, s3, bucketName, destinationKey);
         } catch (AmazonClientException ase) {
             logger.warning("Caught an AmazonClientException in S3AccessIO.isAuxObjectCached:    " + ase.getMessage());
             throw new IOException("S3AccessIO: Failed to cache auxilary object : " + auxItemTag);
@@ -487,7 +483,7 @@ public class S3AccessIO<T extends DvObject> extends StorageIO<T> {
         open();
         String destinationKey = getDestinationKey(auxItemTag);
         try {
-            return s3.getObjectMetadata(bucketName, destinationKey).getContentLength();
+            return getObjectMetadata(destinationKey).getContentLength();
         } catch (AmazonClientException ase) {
             logger.warning("Caught an AmazonClientException in S3AccessIO.getAuxObjectSize:    " + ase.getMessage());
         }
@@ -503,6 +499,7 @@ public class S3AccessIO<T extends DvObject> extends StorageIO<T> {
     public void backupAsAux(String auxItemTag) throws IOException {
         String destinationKey = getDestinationKey(auxItemTag);
         try {
+            forgetObjectMetadata(destinationKey);
             s3.copyObject(new CopyObjectRequest(bucketName, key, bucketName, destinationKey));
         } catch (AmazonClientException ase) {
             logger.warning("Caught an AmazonClientException in S3AccessIO.backupAsAux:    " + ase.getMessage());
@@ -515,6 +512,7 @@ public class S3AccessIO<T extends DvObject> extends StorageIO<T> {
     public void revertBackupAsAux(String auxItemTag) throws IOException {
         String destinationKey = getDestinationKey(auxItemTag);
         try {
+            forgetObjectMetadata(key);
             s3.copyObject(new CopyObjectRequest(bucketName, destinationKey,  bucketName, key));
             deleteAuxObject(auxItemTag);
         } catch (AmazonClientException ase) {
@@ -532,6 +530,7 @@ public class S3AccessIO<T extends DvObject> extends StorageIO<T> {
         String destinationKey = getDestinationKey(auxItemTag);
         try {
             File inputFile = fileSystemPath.toFile();
+            forgetObjectMetadata(destinationKey);
             s3.putObject(new PutObjectRequest(bucketName, destinationKey, inputFile));            
         } catch (AmazonClientException ase) {
             logger.warning("Caught an AmazonClientException in S3AccessIO.savePathAsAux():    " + ase.getMessage());
@@ -551,6 +550,7 @@ public class S3AccessIO<T extends DvObject> extends StorageIO<T> {
             ObjectMetadata metadata = new ObjectMetadata();
             metadata.setContentLength(filesize);
             try {
+                forgetObjectMetadata(destinationKey);
                 s3.putObject(bucketName, destinationKey, inputStream, metadata);
             } catch (SdkClientException ioex) {
                 String failureMsg = ioex.getMessage();
@@ -598,6 +598,7 @@ public class S3AccessIO<T extends DvObject> extends StorageIO<T> {
         String destinationKey = getDestinationKey(auxItemTag);
         
         try {
+            forgetObjectMetadata(destinationKey);
             s3.putObject(bucketName, destinationKey, tempFile);
         } catch (SdkClientException ioex) {
             String failureMsg = ioex.getMessage();
@@ -679,6 +680,7 @@ public class S3AccessIO<T extends DvObject> extends StorageIO<T> {
         String destinationKey = getDestinationKey(auxItemTag);
         try {
             DeleteObjectRequest dor = new DeleteObjectRequest(bucketName, destinationKey);
+            forgetObjectMetadata(destinationKey);
             s3.deleteObject(dor);
         } catch (AmazonClientException ase) {
             logger.warning("S3AccessIO: Unable to delete object    " + ase.getMessage());
@@ -718,6 +720,7 @@ public class S3AccessIO<T extends DvObject> extends StorageIO<T> {
         for (S3ObjectSummary item : storedAuxFilesSummary) {
             String destinationKey = item.getKey();
             keys.add(new KeyVersion(destinationKey));
+            forgetObjectMetadata(destinationKey);
         }
         //Check if the list of auxiliary files for a data file is empty
         if (keys.isEmpty()) {
@@ -769,7 +772,7 @@ public class S3AccessIO<T extends DvObject> extends StorageIO<T> {
             logger.warning("Trying to check if a path exists is only supported for a data file.");
         }
         try {
-            return s3.doesObjectExist(bucketName, destinationKey);
+            return S3ClientRegistry.doesObjectExist(driverId, s3, bucketName, destinationKey);
         } catch (AmazonClientException ase) {
             logger.warning("Caught an AmazonClientException in S3AccessIO.exists():    " + ase.getMessage());
             return false;
@@ -1136,127 +1139,19 @@ public class S3AccessIO<T extends DvObject> extends StorageIO<T> {
 
 
     private static TransferManager getTransferManager(String driverId) {
-        if(driverTMMap.containsKey(driverId)) {
-            return driverTMMap.get(driverId);
-        } else {
-            // building a TransferManager instance to support multipart uploading for files over 4gb.
-            TransferManager manager = TransferManagerBuilder.standard()
-                    .withS3Client(getClient(driverId))
-                    .build();
-            driverTMMap.put(driverId,  manager);
-            return manager;
-        }
+        return S3ClientRegistry.getTransferManager(driverId);
     }
 
-
     private static AmazonS3 getClient(String driverId) {
-        if(driverClientMap.containsKey(driverId)) {
-            return driverClientMap.get(driverId);
-        } else {
-            // get a standard client, using the standard way of configuration the credentials, etc.
-            AmazonS3ClientBuilder s3CB = AmazonS3ClientBuilder.standard();
-
-            ClientConfiguration cc = new ClientConfiguration();
-            Integer poolSize = Integer.getInteger("dataverse.files." + driverId + ".connection-pool-size", 256);
-            cc.setMaxConnections(poolSize);
-            s3CB.setClientConfiguration(cc);
-            
-            /**
-             * Pass in a URL pointing to your S3 compatible storage.
-             * For possible values see https://docs.aws.amazon.com/AWSJavaSDK/latest/javadoc/com/amazonaws/client/builder/AwsClientBuilder.EndpointConfiguration.html
-             */
-            String s3CEUrl = getConfigParamForDriver(driverId, CUSTOM_ENDPOINT_URL, "");
-            /**
-             * Pass in a region to use for SigV4 signing of requests.
-             * Defaults to "dataverse" as it is not relevant for custom S3 implementations.
-             */
-            String s3CERegion = getConfigParamForDriver(driverId, CUSTOM_ENDPOINT_REGION, "dataverse");
-
-            // if the admin has set a system property (see below) we use this endpoint URL instead of the standard ones.
-            if (!s3CEUrl.isEmpty()) {
-                s3CB.setEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(s3CEUrl, s3CERegion));
-            }
-            /**
-             * Pass in a boolean value if path style access should be used within the S3 client.
-             * Anything but case-insensitive "true" will lead to value of false, which is default value, too.
-             */
-            Boolean s3pathStyleAccess = Boolean.parseBoolean(getConfigParamForDriver(driverId, PATH_STYLE_ACCESS, "false"));
-            // some custom S3 implementations require "PathStyleAccess" as they us a path, not a subdomain. default = false
-            s3CB.withPathStyleAccessEnabled(s3pathStyleAccess);
-
-            /**
-             * Pass in a boolean value if payload signing should be used within the S3 client.
-             * Anything but case-insensitive "true" will lead to value of false, which is default value, too.
-             */
-            Boolean s3payloadSigning = Boolean.parseBoolean(getConfigParamForDriver(driverId, PAYLOAD_SIGNING,"false"));
-            /**
-             * Pass in a boolean value if chunked encoding should not be used within the S3 client.
-             * Anything but case-insensitive "false" will lead to value of true, which is default value, too.
-             */
-            Boolean s3chunkedEncoding = Boolean.parseBoolean(getConfigParamForDriver(driverId, CHUNKED_ENCODING,"true"));
-            // Openstack SWIFT S3 implementations require "PayloadSigning" set to true. default = false
-            s3CB.setPayloadSigningEnabled(s3payloadSigning);
-            // Openstack SWIFT S3 implementations require "ChunkedEncoding" set to false. default = true
-            // Boolean is inverted, otherwise setting dataverse.files.<id>.chunked-encoding=false would result in leaving Chunked Encoding enabled
-            s3CB.setChunkedEncodingDisabled(!s3chunkedEncoding);
-
-            /** Configure credentials for the S3 client. There are multiple mechanisms available. 
-             * Role-based/instance credentials are globally defined while the other mechanisms (profile, static)
-             * are defined per store. The logic below assures that 
-             * * if a store specific profile or static credentials are explicitly set, they will be used in preference to the global role-based credentials. 
-             * * if a store specific role-based credentials are explicitly set, they will be used in preference to the global instance credentials,
-             * * if a profile and static credentials are both explicitly set, the profile will be used preferentially, and 
-             * * if no store-specific credentials are set, the global credentials will be preferred over using any "default" profile credentials that are found.
-             */
-
-            ArrayList<AWSCredentialsProvider> providers = new ArrayList<>();
-
-            String s3profile = getConfigParamForDriver(driverId, PROFILE);
-            boolean allowInstanceCredentials = true;
-            // Assume that instance credentials should not be used if the profile is
-            // actually set for this store or if static creds are provided (below).
-            if (s3profile != null) {
-                allowInstanceCredentials = false;
-            }
-            // Try to retrieve credentials via Microprofile Config API, too. For production
-            // use, you should not use env vars or system properties to provide these, but 
-            // use the secrets config source provided by Payara.
-            Optional<String> accessKey = config.getOptionalValue("dataverse.files." + driverId + ".access-key", String.class);
-            Optional<String> secretKey = config.getOptionalValue("dataverse.files." + driverId + ".secret-key", String.class);
-            if (accessKey.isPresent() && secretKey.isPresent()) {
-                allowInstanceCredentials = false;
-                AWSStaticCredentialsProvider staticCredentials = new AWSStaticCredentialsProvider(
-                        new BasicAWSCredentials(
-                                accessKey.get(),
-                                secretKey.get()));
-                providers.add(staticCredentials);
-            } else if (s3profile == null) {
-                //Only use the default profile when it isn't explicitly set for this store when there are no static creds (otherwise it will be preferred).
-                s3profile = "default";
-            }
-            if (s3profile != null) {
-                providers.add(new ProfileCredentialsProvider(s3profile));
-            }
-
-            if (allowInstanceCredentials) {
-                // Add role-based provider as in the default provider chain
-                providers.add(InstanceProfileCredentialsProvider.getInstance());
-            }
-            // Add all providers to chain - the first working provider will be used
-            // (role-based is first in the default cred provider chain (if no profile or
-            // static creds are explicitly set for the store), so we're just
-            // reproducing that, then profile, then static credentials as the fallback)
+        return S3ClientRegistry.getClient(driverId);
+    }
 
-            // As the order is the reverse of how we added providers, we reverse the list here
-            Collections.reverse(providers);
-            AWSCredentialsProviderChain providerChain = new AWSCredentialsProviderChain(providers);
-            s3CB.setCredentials(providerChain);
+    private ObjectMetadata getObjectMetadata(String objectKey) {
+        return S3ClientRegistry.getObjectMetadata(driverId, s3, bucketName, objectKey);
+    }
 
-            // let's build the client :-)
-            AmazonS3 client =  s3CB.build();
-            driverClientMap.put(driverId,  client);
-            return client;
-        }
+    private void forgetObjectMetadata(String objectKey) {
+        S3ClientRegistry.forgetObjectMetadata(driverId, bucketName, objectKey);
     }
 
     public void removeTempTag() throws IOException {
@@ -1320,6 +1215,7 @@ public class S3AccessIO<T extends DvObject> extends StorageIO<T> {
         String bucketName = getBucketName(driverId);
         String key = getMainFileKey(baseKey, storageIdentifier, driverId);
         CompleteMultipartUploadRequest req = new CompleteMultipartUploadRequest(bucketName, key, uploadId, etags);
+        S3ClientRegistry.forgetObjectMetadata(driverId, bucketName, key);
         s3Client.completeMultipartUpload(req);
     }
 
@@ -1416,6 +1312,7 @@ public class S3AccessIO<T extends DvObject> extends StorageIO<T> {
 
         try {
             DeleteObjectRequest dor = new DeleteObjectRequest(bucketName, prefix + fileName);
+            forgetObjectMetadata(prefix + fileName);
             s3.deleteObject(dor);
         } catch (AmazonClientException ase) {
             logger.warning("S3AccessIO: Unable to delete object    " + ase.getMessage());
@@ -1439,7 +1336,7 @@ public class S3AccessIO<T extends DvObject> extends StorageIO<T> {
         key = getMainFileKey();
         ObjectMetadata objectMetadata = null;
         try {
-            objectMetadata = s3.getObjectMetadata(bucketName, key);
+            objectMetadata = getObjectMetadata(key);
         } catch (SdkClientException sce) {
             throw new IOException("Cannot get S3 object " + key + " (" + sce.getMessage() + ")");
         }
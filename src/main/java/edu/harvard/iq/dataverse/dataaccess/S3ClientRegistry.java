@@ -0,0 +1,464 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.AWSCredentialsProviderChain;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.auth.InstanceProfileCredentialsProvider;
+import com.amazonaws.auth.profile.ProfileCredentialsProvider;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.handlers.HandlerBeforeAttemptContext;
+import com.amazonaws.handlers.HandlerContextKey;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.transfer.TransferManager;
+import com.amazonaws.services.s3.transfer.TransferManagerBuilder;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import edu.harvard.iq.dataverse.settings.JvmSettings;
+import jakarta.json.Json;
+import jakarta.json.JsonObjectBuilder;
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.config.ConfigProvider;
+
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * The S3 clients of the S3 stores: one client (with its connection pool) and
+ * one TransferManager per store, shared by all the threads using the store.
+ * Each store also counts the requests made with its client, and keeps the
+ * metadata of the objects it has just looked up for a few seconds, so that
+ * the HEAD requests made for the size or existence of an object are not
+ * repeated while a request to Dataverse is being answered. Large objects
+ * are read with ranged GETs sent in parallel, on a managed executor shared
+ * by all the stores (see {@link S3ClientRegistryHelper}), within a memory
+ * budget shared by all the stores too.
+ */
+public class S3ClientRegistry {
+
+    private static final Logger logger = Logger.getLogger(S3ClientRegistry.class.getCanonicalName());
+    private static final Config config = ConfigProvider.getConfig();
+
+    static final String CONNECTION_POOL_SIZE = "connection-pool-size";
+    static final String CONNECTION_TIMEOUT = "connection-timeout";
+    static final String SOCKET_TIMEOUT = "socket-timeout";
+    static final String REQUEST_TIMEOUT = "request-timeout";
+    static final String MAX_RETRIES = "max-retries";
+    static final String TCP_KEEPALIVE = "tcp-keepalive";
+    static final String CONNECTION_MAX_IDLE = "connection-max-idle";
+    static final String METADATA_CACHE_SECONDS = "metadata-cache-seconds";
+    static final String PARALLEL_DOWNLOAD_THRESHOLD = "parallel-download-threshold";
+    static final String PARALLEL_DOWNLOAD_PART_SIZE = "parallel-download-part-size";
+    static final String PARALLEL_DOWNLOAD_PARTS = "parallel-download-parts";
+
+    static final int DEFAULT_METADATA_CACHE_SECONDS = 5;
+    private static final int METADATA_CACHE_SIZE = 10_000;
+    static final long DEFAULT_PARALLEL_DOWNLOAD_THRESHOLD = 64L * 1024 * 1024;
+    static final int DEFAULT_PARALLEL_DOWNLOAD_PART_SIZE = 8 * 1024 * 1024;
+    static final int DEFAULT_PARALLEL_DOWNLOAD_PARTS = 4;
+    static final long DEFAULT_PARALLEL_DOWNLOAD_MEMORY = 256L * 1024 * 1024;
+
+    /** The executor fetching the parts of the parallel downloads */
+    static final String DOWNLOAD_EXECUTOR = "java:app/concurrent/s3Download";
+
+    private static final Map<String, Store> stores = new ConcurrentHashMap<>();
+    private static volatile ExecutorService downloadExecutor;
+
+    /**
+     * The bytes of the parts of the parallel downloads of all the stores
+     * that are being fetched, or waiting to be read: one permit per byte.
+     */
+    private static final Semaphore downloadBudget = new Semaphore((int) Math.min(Integer.MAX_VALUE,
+            Math.max(0, JvmSettings.S3_PARALLEL_DOWNLOAD_MEMORY.lookupOptional(Long.class).orElse(DEFAULT_PARALLEL_DOWNLOAD_MEMORY))));
+
+    private S3ClientRegistry() {
+    }
+
+    static AmazonS3 getClient(String driverId) {
+        return store(driverId).getClient();
+    }
+
+    static TransferManager getTransferManager(String driverId) {
+        return store(driverId).getTransferManager();
+    }
+
+    /**
+     * Opens the content of an object for reading: with a single GET, or by
+     * parts with ranged GETs sent in parallel (see
+     * {@link S3ParallelInputStream}) if the object is at least
+     * parallel-download-threshold bytes long (and the download executor
+     * has been injected).
+     *
+     * @param size the size of the object if known (e.g. from
+     * {@link StorageIO#getSize()}), 0 otherwise.
+     */
+    static InputStream getObjectContent(String driverId, AmazonS3 s3, String bucketName, String key, long size) {
+        long threshold = getLongParam(driverId, PARALLEL_DOWNLOAD_THRESHOLD, DEFAULT_PARALLEL_DOWNLOAD_THRESHOLD);
+        ExecutorService executor = downloadExecutor;
+        if (threshold > 0 && size >= threshold && executor != null) {
+            int partSize = getIntParam(driverId, PARALLEL_DOWNLOAD_PART_SIZE, DEFAULT_PARALLEL_DOWNLOAD_PART_SIZE);
+            int parts = getIntParam(driverId, PARALLEL_DOWNLOAD_PARTS, DEFAULT_PARALLEL_DOWNLOAD_PARTS);
+            if (partSize > 0 && parts > 0) {
+                // (usually remembered from the lookup of the size)
+                ObjectMetadata metadata = getObjectMetadata(driverId, s3, bucketName, key);
+                return new S3ParallelInputStream(s3, bucketName, key, metadata.getContentLength(), metadata.getETag(),
+                        partSize, parts, executor, downloadBudget);
+            }
+            logger.warning("Invalid parallel download part size or number of parts for store " + driverId + ", using a single GET");
+        }
+        return s3.getObject(new GetObjectRequest(bucketName, key)).getObjectContent();
+    }
+
+    /**
+     * Looks up the metadata of an object with a HEAD request, unless it was
+     * looked up (by this server) in the last few seconds.
+     *
+     * @throws com.amazonaws.SdkClientException if the request fails, or the
+     * object doesn't exist.
+     */
+    static ObjectMetadata getObjectMetadata(String driverId, AmazonS3 s3, String bucketName, String key) {
+        return store(driverId).getObjectMetadata(s3, bucketName, key);
+    }
+
+    /**
+     * Does what {@link AmazonS3#doesObjectExist(String, String)} does (a HEAD
+     * request), through the metadata of the store. Only objects that exist
+     * are remembered: one that doesn't may be uploaded directly at any time.
+     */
+    static boolean doesObjectExist(String driverId, AmazonS3 s3, String bucketName, String key) {
+        try {
+            getObjectMetadata(driverId, s3, bucketName, key);
+            return true;
+        } catch (AmazonServiceException ase) {
+            if (ase.getStatusCode() == 404) {
+                return false;
+            }
+            throw ase;
+        }
+    }
+
+    /**
+     * Forgets the metadata of an object, to be called when it is written,
+     * copied over or deleted.
+     */
+    static void forgetObjectMetadata(String driverId, String bucketName, String key) {
+        store(driverId).metadata.invalidate(bucketName + "/" + key);
+    }
+
+    /**
+     * @return the counters of the stores whose client has been used, since
+     * the server started.
+     */
+    public static JsonObjectBuilder getMetrics() {
+        JsonObjectBuilder metrics = Json.createObjectBuilder();
+        new TreeMap<>(stores).forEach((driverId, store) -> metrics.add(driverId, store.getMetrics()));
+        return metrics;
+    }
+
+    /**
+     * Sets the executor fetching the parts of the parallel downloads of all
+     * the stores; {@code null} to read all the objects with a single GET.
+     */
+    static void injectDownloadExecutor(ExecutorService executor) {
+        downloadExecutor = executor;
+    }
+
+    private static Store store(String driverId) {
+        return stores.computeIfAbsent(driverId, Store::new);
+    }
+
+    /**
+     * Builds the ClientConfiguration of the store, with the SDK defaults for
+     * what is not configured.
+     */
+    static ClientConfiguration getClientConfiguration(String driverId) {
+        ClientConfiguration cc = new ClientConfiguration();
+        cc.setMaxConnections(getIntParam(driverId, CONNECTION_POOL_SIZE, 256));
+        cc.setConnectionTimeout(getIntParam(driverId, CONNECTION_TIMEOUT, ClientConfiguration.DEFAULT_CONNECTION_TIMEOUT));
+        cc.setSocketTimeout(getIntParam(driverId, SOCKET_TIMEOUT, ClientConfiguration.DEFAULT_SOCKET_TIMEOUT));
+        cc.setRequestTimeout(getIntParam(driverId, REQUEST_TIMEOUT, ClientConfiguration.DEFAULT_REQUEST_TIMEOUT));
+        // (otherwise the retry policy of the SDK decides: 3 retries for S3)
+        int maxRetries = getIntParam(driverId, MAX_RETRIES, -1);
+        if (maxRetries >= 0) {
+            cc.setMaxErrorRetry(maxRetries);
+        }
+        cc.setUseTcpKeepAlive(Boolean.parseBoolean(StorageIO.getConfigParamForDriver(driverId, TCP_KEEPALIVE,
+                String.valueOf(ClientConfiguration.DEFAULT_TCP_KEEP_ALIVE))));
+        cc.setConnectionMaxIdleMillis(getIntParam(driverId, CONNECTION_MAX_IDLE, (int) ClientConfiguration.DEFAULT_CONNECTION_MAX_IDLE_MILLIS));
+        return cc;
+    }
+
+    private static int getIntParam(String driverId, String parameterName, int defaultValue) {
+        String value = StorageIO.getConfigParamForDriver(driverId, parameterName);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException nfe) {
+                logger.warning("Unable to parse dataverse.files." + driverId + "." + parameterName + " as an integer: " + value);
+            }
+        }
+        return defaultValue;
+    }
+
+    private static long getLongParam(String driverId, String parameterName, long defaultValue) {
+        String value = StorageIO.getConfigParamForDriver(driverId, parameterName);
+        if (value != null) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException nfe) {
+                logger.warning("Unable to parse dataverse.files." + driverId + "." + parameterName + " as a long: " + value);
+            }
+        }
+        return defaultValue;
+    }
+
+    private static AmazonS3 buildClient(String driverId, RequestHandler2 metricsHandler) {
+        // get a standard client, using the standard way of configuration the credentials, etc.
+        AmazonS3ClientBuilder s3CB = AmazonS3ClientBuilder.standard();
+        s3CB.setClientConfiguration(getClientConfiguration(driverId));
+        s3CB.withRequestHandlers(metricsHandler);
+
+        /**
+         * Pass in a URL pointing to your S3 compatible storage.
+         * For possible values see https://docs.aws.amazon.com/AWSJavaSDK/latest/javadoc/com/amazonaws/client/builder/AwsClientBuilder.EndpointConfiguration.html
+         */
+        String s3CEUrl = StorageIO.getConfigParamForDriver(driverId, S3AccessIO.CUSTOM_ENDPOINT_URL, "");
+        /**
+         * Pass in a region to use for SigV4 signing of requests.
+         * Defaults to "dataverse" as it is not relevant for custom S3 implementations.
+         */
+        String s3CERegion = StorageIO.getConfigParamForDriver(driverId, S3AccessIO.CUSTOM_ENDPOINT_REGION, "dataverse");
+
+        // if the admin has set a system property (see below) we use this endpoint URL instead of the standard ones.
+        if (!s3CEUrl.isEmpty()) {
+            s3CB.setEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(s3CEUrl, s3CERegion));
+        }
+        /**
+         * Pass in a boolean value if path style access should be used within the S3 client.
+         * Anything but case-insensitive "true" will lead to value of false, which is default value, too.
+         */
+        Boolean s3pathStyleAccess = Boolean.parseBoolean(StorageIO.getConfigParamForDriver(driverId, S3AccessIO.PATH_STYLE_ACCESS, "false"));
+        // some custom S3 implementations require "PathStyleAccess" as they us a path, not a subdomain. default = false
+        s3CB.withPathStyleAccessEnabled(s3pathStyleAccess);
+
+        /**
+         * Pass in a boolean value if payload signing should be used within the S3 client.
+         * Anything but case-insensitive "true" will lead to value of false, which is default value, too.
+         */
+        Boolean s3payloadSigning = Boolean.parseBoolean(StorageIO.getConfigParamForDriver(driverId, S3AccessIO.PAYLOAD_SIGNING, "false"));
+        /**
+         * Pass in a boolean value if chunked encoding should not be used within the S3 client.
+         * Anything but case-insensitive "false" will lead to value of true, which is default value, too.
+         */
+        Boolean s3chunkedEncoding = Boolean.parseBoolean(StorageIO.getConfigParamForDriver(driverId, S3AccessIO.CHUNKED_ENCODING, "true"));
+        // Openstack SWIFT S3 implementations require "PayloadSigning" set to true. default = false
+        s3CB.setPayloadSigningEnabled(s3payloadSigning);
+        // Openstack SWIFT S3 implementations require "ChunkedEncoding" set to false. default = true
+        // Boolean is inverted, otherwise setting dataverse.files.<id>.chunked-encoding=false would result in leaving Chunked Encoding enabled
+        s3CB.setChunkedEncodingDisabled(!s3chunkedEncoding);
+
+        /** Configure credentials for the S3 client. There are multiple mechanisms available.
+         * Role-based/instance credentials are globally defined while the other mechanisms (profile, static)
+         * are defined per store. The logic below assures that
+         * * if a store specific profile or static credentials are explicitly set, they will be used in preference to the global role-based credentials.
+         * * if a store specific role-based credentials are explicitly set, they will be used in preference to the global instance credentials,
+         * * if a profile and static credentials are both explicitly set, the profile will be used preferentially, and
+         * * if no store-specific credentials are set, the global credentials will be preferred over using any "default" profile credentials that are found.
+         */
+
+        ArrayList<AWSCredentialsProvider> providers = new ArrayList<>();
+
+        String s3profile = StorageIO.getConfigParamForDriver(driverId, S3AccessIO.PROFILE);
+        boolean allowInstanceCredentials = true;
+        // Assume that instance credentials should not be used if the profile is
+        // actually set for this store or if static creds are provided (below).
+        if (s3profile != null) {
+            allowInstanceCredentials = false;
+        }
+        // Try to retrieve credentials via Microprofile Config API, too. For production
+        // use, you should not use env vars or system properties to provide these, but
+        // use the secrets config source provided by Payara.
+        Optional<String> accessKey = config.getOptionalValue("dataverse.files." + driverId + ".access-key", String.class);
+        Optional<String> secretKey = config.getOptionalValue("dataverse.files." + driverId + ".secret-key", String.class);
+        if (accessKey.isPresent() && secretKey.isPresent()) {
+            allowInstanceCredentials = false;
+            AWSStaticCredentialsProvider staticCredentials = new AWSStaticCredentialsProvider(
+                    new BasicAWSCredentials(
+                            accessKey.get(),
+                            secretKey.get()));
+            providers.add(staticCredentials);
+        } else if (s3profile == null) {
+            //Only use the default profile when it isn't explicitly set for this store when there are no static creds (otherwise it will be preferred).
+            s3profile = "default";
+        }
+        if (s3profile != null) {
+            providers.add(new ProfileCredentialsProvider(s3profile));
+        }
+
+        if (allowInstanceCredentials) {
+            // Add role-based provider as in the default provider chain
+            providers.add(InstanceProfileCredentialsProvider.getInstance());
+        }
+        // Add all providers to chain - the first working provider will be used
+        // (role-based is first in the default cred provider chain (if no profile or
+        // static creds are explicitly set for the store), so we're just
+        // reproducing that, then profile, then static credentials as the fallback)
+
+        // As the order is the reverse of how we added providers, we reverse the list here
+        Collections.reverse(providers);
+        AWSCredentialsProviderChain providerChain = new AWSCredentialsProviderChain(providers);
+        s3CB.setCredentials(providerChain);
+
+        // let's build the client :-)
+        return s3CB.build();
+    }
+
+    /**
+     * The client of a store, built the first time it is needed, with the
+     * counters of its requests and the metadata it has looked up.
+     */
+    private static class Store {
+
+        private static final HandlerContextKey<Long> START = new HandlerContextKey<>("S3ClientRegistry.start");
+
+        private final String driverId;
+        private volatile AmazonS3 client;
+        private volatile TransferManager transferManager;
+        private final boolean cacheMetadata;
+        private final Cache<String, ObjectMetadata> metadata;
+
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder attempts = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder totalMillis = new LongAdder();
+        private final AtomicLong maxMillis = new AtomicLong();
+        private final Map<String, LongAdder> requestsByType = new ConcurrentHashMap<>();
+        private final LongAdder metadataHits = new LongAdder();
+        private final LongAdder metadataMisses = new LongAdder();
+
+        Store(String driverId) {
+            this.driverId = driverId;
+            int cacheSeconds = getIntParam(driverId, METADATA_CACHE_SECONDS, DEFAULT_METADATA_CACHE_SECONDS);
+            this.cacheMetadata = cacheSeconds > 0;
+            this.metadata = Caffeine.newBuilder()
+                    .expireAfterWrite(Duration.ofSeconds(Math.max(cacheSeconds, 1)))
+                    .maximumSize(METADATA_CACHE_SIZE)
+                    .build();
+        }
+
+        AmazonS3 getClient() {
+            if (client == null) {
+                synchronized (this) {
+                    if (client == null) {
+                        client = buildClient(driverId, new MetricsHandler());
+                    }
+                }
+            }
+            return client;
+        }
+
+        TransferManager getTransferManager() {
+            if (transferManager == null) {
+                synchronized (this) {
+                    if (transferManager == null) {
+                        // building a TransferManager instance to support multipart uploading for files over 4gb.
+                        transferManager = TransferManagerBuilder.standard()
+                                .withS3Client(getClient())
+                                .build();
+                    }
+                }
+            }
+            return transferManager;
+        }
+
+        ObjectMetadata getObjectMetadata(AmazonS3 s3, String bucketName, String key) {
+            String cacheKey = bucketName + "/" + key;
+            ObjectMetadata objectMetadata = metadata.getIfPresent(cacheKey);
+            if (objectMetadata != null) {
+                metadataHits.increment();
+                return objectMetadata;
+            }
+            metadataMisses.increment();
+            objectMetadata = s3.getObjectMetadata(bucketName, key);
+            if (cacheMetadata) {
+                metadata.put(cacheKey, objectMetadata);
+            }
+            return objectMetadata;
+        }
+
+        JsonObjectBuilder getMetrics() {
+            long count = requests.sum();
+            JsonObjectBuilder byType = Json.createObjectBuilder();
+            new TreeMap<>(requestsByType).forEach((type, n) -> byType.add(type, n.sum()));
+            return Json.createObjectBuilder()
+                    .add("requests", count)
+                    .add("retries", Math.max(attempts.sum() - count, 0))
+                    .add("errors", errors.sum())
+                    .add("averageMillis", count == 0 ? 0 : totalMillis.sum() / count)
+                    .add("maxMillis", maxMillis.get())
+                    .add("requestsByType", byType)
+                    .add("metadataCache", Json.createObjectBuilder()
+                            .add("hits", metadataHits.sum())
+                            .add("misses", metadataMisses.sum()));
+        }
+
+        /**
+         * Counts the requests of the client. A request is counted once,
+         * however many times it is retried; its time includes the retries.
+         */
+        private class MetricsHandler extends RequestHandler2 {
+
+            @Override
+            public void beforeRequest(Request<?> request) {
+                request.addHandlerContext(START, System.nanoTime());
+                requests.increment();
+                requestsByType.computeIfAbsent(request.getOriginalRequest().getClass().getSimpleName().replaceFirst("Request$", ""),
+                        type -> new LongAdder()).increment();
+            }
+
+            @Override
+            public void beforeAttempt(HandlerBeforeAttemptContext context) {
+                attempts.increment();
+            }
+
+            @Override
+            public void afterResponse(Request<?> request, Response<?> response) {
+                recordTime(request);
+            }
+
+            @Override
+            public void afterError(Request<?> request, Response<?> response, Exception e) {
+                errors.increment();
+                recordTime(request);
+            }
+
+            private void recordTime(Request<?> request) {
+                Long start = request.getHandlerContext(START);
+                if (start != null) {
+                    long millis = (System.nanoTime() - start) / 1_000_000;
+                    totalMillis.add(millis);
+                    maxMillis.accumulateAndGet(millis, Math::max);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import jakarta.ejb.Singleton;
+import jakarta.ejb.Startup;
+import jakarta.enterprise.concurrent.ManagedExecutorDefinition;
+import jakarta.enterprise.concurrent.ManagedExecutorService;
+
+/**
+ * This is a small helper bean
+ * As it is a singleton and built at application start (=deployment), it will inject the
+ * (container-managed) executor of the parallel S3 downloads into the S3ClientRegistry once
+ * it's ready, and take it back when the application is stopped.
+ */
+@ManagedExecutorDefinition(
+        name = S3ClientRegistry.DOWNLOAD_EXECUTOR,
+        maxAsync = 16)
+@Singleton
+@Startup
+public class S3ClientRegistryHelper {
+
+    @Resource(lookup = S3ClientRegistry.DOWNLOAD_EXECUTOR)
+    ManagedExecutorService downloadExecutor;
+
+    @PostConstruct
+    public void injectExecutor() {
+        S3ClientRegistry.injectDownloadExecutor(downloadExecutor);
+    }
+
+    @PreDestroy
+    public void removeExecutor() {
+        S3ClientRegistry.injectDownloadExecutor(null);
+    }
+}
@@ -0,0 +1,292 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Reads an S3 object by parts, each fetched with its own ranged GET, so that
+ * a large file is downloaded over several connections at once rather than
+ * one. The parts are read in order; at most {@code parts} of them are
+ * fetched or waiting to be read at any time, which bounds the memory used
+ * by a stream to {@code (parts + 1) * partSize} bytes.
+ * <p>
+ * The bytes of the parts being fetched, waiting or being read are also taken
+ * from a budget shared by all the streams (one permit per byte), which
+ * bounds the memory used by all the parallel downloads in progress. When
+ * the budget is used up, a stream fetches its next part itself, once it is
+ * needed, as a single GET would.
+ * <p>
+ * Each GET must match the ETag the object had when the stream was opened:
+ * if the object is overwritten while it is being read, the stream fails
+ * rather than returning a mix of the two versions.
+ */
+final class S3ParallelInputStream extends InputStream {
+
+    private final AmazonS3 s3;
+    private final String bucketName;
+    private final String key;
+    private final String eTag;
+    private final long size;
+    private final int partSize;
+    private final int parts;
+    private final ExecutorService executor;
+    private final Semaphore budget;
+
+    private final ArrayDeque<Part> pending = new ArrayDeque<>();
+    /** Offset of the first byte of the next part to fetch */
+    private long nextPart;
+    private byte[] part;
+    /** Permits taken from the budget for the current part */
+    private int partPermits;
+    private int position;
+    private boolean closed;
+
+    S3ParallelInputStream(AmazonS3 s3, String bucketName, String key, long size, String eTag,
+            int partSize, int parts, ExecutorService executor, Semaphore budget) {
+        if (partSize <= 0 || parts <= 0) {
+            throw new IllegalArgumentException("The part size and the number of parts must be positive");
+        }
+        this.s3 = s3;
+        this.bucketName = bucketName;
+        this.key = key;
+        this.size = size;
+        this.eTag = eTag;
+        this.partSize = partSize;
+        this.parts = parts;
+        this.executor = executor;
+        this.budget = budget;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextPart()) {
+            return -1;
+        }
+        return part[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0) {
+            return 0;
+        }
+        if (!nextPart()) {
+            return -1;
+        }
+        int n = Math.min(len, part.length - position);
+        System.arraycopy(part, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        ensureOpen();
+        return part == null ? 0 : part.length - position;
+    }
+
+    /**
+     * Stops fetching the parts that have not been read. (The GETs already
+     * sent are finished by the threads of the executor, and their parts
+     * dropped.)
+     */
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            for (Part p : pending) {
+                p.future.cancel(false);
+                p.abandon();
+            }
+            pending.clear();
+            releasePart();
+        }
+    }
+
+    /**
+     * Makes sure there is something left to read in the current part,
+     * waiting for the next one if needed.
+     *
+     * @return false at the end of the object.
+     */
+    private boolean nextPart() throws IOException {
+        ensureOpen();
+        while (part == null || position == part.length) {
+            releasePart();
+            fetchParts();
+            Part next = pending.poll();
+            if (next != null) {
+                try {
+                    part = await(next.future);
+                } catch (IOException e) {
+                    // (no longer pending, so not dropped by close())
+                    next.abandon();
+                    throw e;
+                }
+                partPermits = next.length;
+            } else if (nextPart < size) {
+                // The budget is used up by the other downloads
+                long start = nextPart;
+                int length = nextLength();
+                nextPart += length;
+                part = fetchHere(start, length);
+            } else {
+                return false;
+            }
+            position = 0;
+        }
+        return true;
+    }
+
+    private void fetchParts() {
+        while (pending.size() < parts && nextPart < size) {
+            int length = nextLength();
+            if (!budget.tryAcquire(length)) {
+                return;
+            }
+            Part p = new Part(nextPart, length);
+            try {
+                p.future = executor.submit(p);
+            } catch (RejectedExecutionException e) {
+                budget.release(length);
+                throw e;
+            }
+            nextPart += length;
+            pending.add(p);
+        }
+    }
+
+    private int nextLength() {
+        return (int) Math.min(partSize, size - nextPart);
+    }
+
+    private void releasePart() {
+        part = null;
+        budget.release(partPermits);
+        partPermits = 0;
+    }
+
+    private byte[] fetch(long start, int length) throws IOException {
+        GetObjectRequest request = new GetObjectRequest(bucketName, key).withRange(start, start + length - 1);
+        if (eTag != null) {
+            request.withMatchingETagConstraint(eTag);
+        }
+        S3Object object = s3.getObject(request);
+        if (object == null) {
+            // (what the client returns when the constraint isn't met)
+            throw new IOException("S3 object " + key + " was modified while it was being read");
+        }
+        byte[] bytes = new byte[length];
+        try (S3ObjectInputStream in = object.getObjectContent()) {
+            if (in.readNBytes(bytes, 0, length) < length) {
+                throw new EOFException("S3 object " + key + " ended before byte " + (start + length));
+            }
+        }
+        return bytes;
+    }
+
+    private byte[] fetchHere(long start, int length) throws IOException {
+        try {
+            return fetch(start, length);
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw toIOException(e);
+        }
+    }
+
+    private byte[] await(Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new InterruptedIOException("Interrupted while reading S3 object " + key);
+        } catch (ExecutionException e) {
+            close();
+            throw toIOException(e.getCause());
+        }
+    }
+
+    private IOException toIOException(Throwable cause) {
+        if (cause instanceof IOException ioe) {
+            return ioe;
+        }
+        if (cause instanceof SdkClientException sce) {
+            return new IOException("Cannot get S3 object " + key + " (" + sce.getMessage() + ")", sce);
+        }
+        return new IOException("Cannot get S3 object " + key, cause);
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    /**
+     * A part fetched by a thread of the executor, holding {@code length}
+     * permits of the budget until it is read, or dropped.
+     */
+    private final class Part implements Callable<byte[]> {
+
+        private final long start;
+        private final int length;
+        private Future<byte[]> future;
+        // guarded by this
+        private boolean fetching;
+        private boolean abandoned;
+
+        Part(long start, int length) {
+            this.start = start;
+            this.length = length;
+        }
+
+        @Override
+        public byte[] call() throws IOException {
+            synchronized (this) {
+                if (abandoned) {
+                    return null;
+                }
+                fetching = true;
+            }
+            try {
+                return fetch(start, length);
+            } finally {
+                synchronized (this) {
+                    fetching = false;
+                    if (abandoned) {
+                        budget.release(length);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Drops the part without reading it: its permits are released now,
+         * or, if its GET is in progress, once it is done.
+         */
+        synchronized void abandon() {
+            abandoned = true;
+            if (!fetching) {
+                budget.release(length);
+            }
+        }
+    }
+}
@@ -43,6 +43,9 @@ import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+
 /**
  *
  * @author Leonid Andreev
@@ -214,6 +217,12 @@ public abstract class StorageIO<T extends DvObject> {
      */
     private long offset;
 
+    /**
+     * How far into the main input stream {@link #getRangeInputStream(long, long)}
+     * has read so far.
+     */
+    private long rangePosition = 0;
+
     private String mimeType;
     private String fileName;
     private String varHeader;
@@ -427,6 +436,35 @@ public abstract class StorageIO<T extends DvObject> {
         }
     }
 
+    /**
+     * Opens a stream over a range of bytes of the main file (used to serve
+     * HTTP range requests). The stream must be closed by the caller.
+     * <p>
+     * The default implementation reads the range from the main input stream:
+     * it skips to the start of the range, so several ranges can only be read
+     * in increasing order, without overlapping. Drivers that can read an
+     * arbitrary range directly (by seeking, or with a ranged request to the
+     * storage service) override this, so that the bytes in between are not read.
+     *
+     * @param start the offset of the first byte of the range in the file
+     * @param length the number of bytes in the range
+     */
+    public InputStream getRangeInputStream(long start, long length) throws IOException {
+        InputStream inputStream = getInputStream();
+        if (inputStream == null) {
+            throw new IOException("Could not read a range of the InputStream because it is null");
+        }
+        if (start < rangePosition) {
+            throw new IOException("Ranges of the InputStream can only be read in increasing order");
+        }
+        IOUtils.skipFully(inputStream, start - rangePosition);
+        rangePosition = start + length;
+        BoundedInputStream range = new BoundedInputStream(inputStream, length);
+        // Closing the range leaves the main input stream open for the next one.
+        range.setPropagateClose(false);
+        return range;
+    }
+
     public void setInputStream(InputStream is) {
         in = is;
     }
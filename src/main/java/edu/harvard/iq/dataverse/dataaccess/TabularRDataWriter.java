@@ -0,0 +1,526 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import edu.harvard.iq.dataverse.DataTable;
+import edu.harvard.iq.dataverse.datavariable.DataVariable;
+import edu.harvard.iq.dataverse.datavariable.VariableCategory;
+import edu.harvard.iq.dataverse.rserve.RJobRequest;
+
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoField;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+/**
+ * Converts a tabular data file, as stored by Dataverse (tab-delimited, with
+ * the character values quoted and escaped), into an R data frame, and saves
+ * it as an RData file, without the help of R.
+ *
+ * The columns are typed after the variable metadata, the same way the R code
+ * in dataverse_r_functions.R (read.dataverseTabData() and
+ * createDataverseDataFrame()) used to do it on Rserve:
+ * <ul>
+ * <li>character variables become character vectors; those with a date format
+ * become Date vectors, and those with a time format POSIXct vectors (in
+ * UTC);</li>
+ * <li>Boolean variables become logical vectors;</li>
+ * <li>numeric variables become integer vectors if all their values are
+ * integers, double vectors otherwise;</li>
+ * <li>character and discrete numeric variables with value labels become
+ * factors, with the labels as the levels (ordered if the variable is numeric
+ * and has more than 2 categories); the ordered categorical variables of files
+ * ingested from R become ordered factors with their original levels;</li>
+ * <li>the variable labels are saved as the comments of the columns, and in
+ * the var.labels attribute of the data frame.</li>
+ * </ul>
+ * The variable names are made syntactically valid in R; the original names of
+ * the variables that had to be renamed are saved in the Rsafe2raw attribute.
+ *
+ * The data frame is saved under the name "x", as before.
+ */
+public class TabularRDataWriter {
+
+    private static final Logger logger = Logger.getLogger(TabularRDataWriter.class.getCanonicalName());
+
+    public static final String DATA_FRAME_NAME = "x";
+
+    // Variable types, as in RJobRequest.getVariableTypes()
+    static final int TYPE_CHARACTER = 0;
+    static final int TYPE_DISCRETE = 1;
+    static final int TYPE_CONTINUOUS = 2;
+    static final int TYPE_BOOLEAN = 3;
+
+    private static final DateTimeFormatter TIME_FORMAT = new DateTimeFormatterBuilder()
+            .appendPattern("HH:mm:ss")
+            .optionalStart().appendFraction(ChronoField.NANO_OF_SECOND, 0, 9, true).optionalEnd()
+            .toFormatter();
+    private static final DateTimeFormatter DATE_TIME_FORMAT = new DateTimeFormatterBuilder()
+            .appendPattern("yyyy-MM-dd ")
+            .append(TIME_FORMAT)
+            .toFormatter();
+
+    private final DataTable dataTable;
+    private final List<DataVariable> variables;
+
+    public TabularRDataWriter(DataTable dataTable) {
+        this.dataTable = dataTable;
+        this.variables = dataTable.getDataVariables();
+    }
+
+    /**
+     * Converts the tab file and saves the data frame as an RData file.
+     */
+    public void write(Path tabFile, Path rDataFile) throws IOException {
+        RObject dataFrame;
+        try (InputStream in = Files.newInputStream(tabFile)) {
+            dataFrame = readDataFrame(in);
+        }
+        try (OutputStream out = new FileOutputStream(rDataFile.toFile())) {
+            RDataSerializer.writeRData(Map.of(DATA_FRAME_NAME, dataFrame), out);
+        }
+    }
+
+    /**
+     * Reads the tab file into a data frame.
+     */
+    public RObject readDataFrame(InputStream tabFile) throws IOException {
+        RJobRequest mapping = new RJobRequest(variables, new HashMap<>());
+        int[] types = mapping.getVariableTypes();
+        Map<String, String> formats = mapping.getVariableFormats();
+        // the keys of the formats
+        String[] safeNames = mapping.getUpdatedVariableNames();
+        String[] rawNames = variables.stream().map(DataVariable::getName).toArray(String[]::new);
+        String[] names = makeNames(rawNames);
+
+        int expectedRows = dataTable.getCaseQuantity() != null ? (int) Math.min(dataTable.getCaseQuantity(), Integer.MAX_VALUE - 8) : 1024;
+        Column[] columns = new Column[variables.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = types[i] == TYPE_CHARACTER ? new StringColumn(expectedRows)
+                    : types[i] == TYPE_BOOLEAN ? new LogicalColumn(expectedRows)
+                    : new NumericColumn(expectedRows);
+        }
+
+        int rows = 0;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(tabFile, StandardCharsets.UTF_8), 64 * 1024);
+        if (dataTable.isStoredWithVariableHeader()) {
+            reader.readLine();
+        }
+        String line;
+        String[] empty = new String[0];
+        while ((line = reader.readLine()) != null) {
+            String[] values = line.isEmpty() && columns.length > 1 ? empty : line.split("\t", -1);
+            for (int i = 0; i < columns.length; i++) {
+                columns[i].add(i < values.length ? values[i] : "");
+            }
+            rows++;
+        }
+
+        List<RObject> vectors = new ArrayList<>(columns.length);
+        String[] labels = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            DataVariable variable = variables.get(i);
+            RObject vector = columns[i].toVector(rows);
+            String format = formats.get(safeNames[i]);
+            if (types[i] == TYPE_CHARACTER && format != null) {
+                vector = toDateTime(vector, format);
+            } else if (types[i] < TYPE_CONTINUOUS) {
+                vector = toFactor(vector, variable, types[i]);
+            }
+            labels[i] = variable.getLabel() == null ? "" : variable.getLabel();
+            if (!labels[i].isEmpty()) {
+                vector.setAttribute("comment", RObject.strings(labels[i]));
+            }
+            vectors.add(vector);
+        }
+
+        RObject dataFrame = RObject.list(vectors);
+        dataFrame.setAttribute("names", RObject.strings(names));
+        dataFrame.setAttribute("class", RObject.strings("data.frame"));
+        // the compact form of the automatic row names 1..n
+        dataFrame.setAttribute("row.names", RObject.integers(RObject.NA_INTEGER, -rows));
+        dataFrame.setAttribute("var.labels", RObject.strings(labels));
+        Map<String, RObject> safe2raw = new LinkedHashMap<>();
+        for (int i = 0; i < names.length; i++) {
+            if (!names[i].equals(rawNames[i])) {
+                safe2raw.put(names[i], RObject.strings(rawNames[i]));
+            }
+        }
+        if (!safe2raw.isEmpty()) {
+            dataFrame.setAttribute("Rsafe2raw", RObject.namedList(safe2raw));
+        }
+        return dataFrame;
+    }
+
+    /**
+     * Turns a vector into a factor, if the variable has value labels, as
+     * createDataverseDataFrame() did: the levels are the values that have a
+     * label, sorted, and the labels of the factor are the value labels. The
+     * values without a label become NA.
+     */
+    RObject toFactor(RObject vector, DataVariable variable, int type) {
+        Collection<VariableCategory> categories = variable.getCategories();
+        if (categories == null || categories.isEmpty()) {
+            return vector;
+        }
+        if (variable.isOrderedCategorical()) {
+            // An ordered factor ingested from R: the values are the levels
+            // already, in the order of the categories.
+            List<String> levels = categories.stream()
+                    .sorted(Comparator.comparingInt(VariableCategory::getOrder))
+                    .map(VariableCategory::getValue)
+                    .distinct()
+                    .toList();
+            Map<String, Integer> codes = new HashMap<>();
+            for (String level : levels) {
+                codes.put(level, codes.size() + 1);
+            }
+            return factor(vector, value -> codes.getOrDefault(value, RObject.NA_INTEGER), levels, true);
+        }
+
+        boolean numeric = vector.getType() != RObject.Type.CHARACTER;
+        // value -> label, sorted by value (numerically for numeric variables)
+        TreeMap<Object, String> valueLabels = new TreeMap<>();
+        for (VariableCategory category : categories) {
+            if (category.getLabel() == null || category.getValue() == null) {
+                continue;
+            }
+            Object key = category.getValue();
+            if (numeric) {
+                double parsed = parseDouble(category.getValue().trim());
+                if (RObject.isNA(parsed)) {
+                    continue;
+                }
+                key = parsed;
+            }
+            valueLabels.putIfAbsent(key, category.getLabel());
+        }
+        if (valueLabels.isEmpty()) {
+            return vector;
+        }
+
+        // Values with the same label end up in the same level.
+        List<String> levels = new ArrayList<>();
+        Map<String, Integer> levelCodes = new HashMap<>();
+        Map<Object, Integer> codes = new HashMap<>();
+        for (Map.Entry<Object, String> valueLabel : valueLabels.entrySet()) {
+            Integer code = levelCodes.get(valueLabel.getValue());
+            if (code == null) {
+                levels.add(valueLabel.getValue());
+                code = levels.size();
+                levelCodes.put(valueLabel.getValue(), code);
+            }
+            codes.put(valueLabel.getKey(), code);
+        }
+        boolean ordered = type > TYPE_CHARACTER && valueLabels.size() > 2;
+        return factor(vector, value -> value == null ? RObject.NA_INTEGER : codes.getOrDefault(value, RObject.NA_INTEGER), levels, ordered);
+    }
+
+    private static RObject factor(RObject vector, java.util.function.Function<Object, Integer> code, List<String> levels, boolean ordered) {
+        int length = vector.length();
+        int[] codes = new int[length];
+        for (int i = 0; i < length; i++) {
+            Object value = switch (vector.getType()) {
+                case CHARACTER -> vector.getStrings()[i];
+                case INTEGER -> vector.getInts()[i] == RObject.NA_INTEGER ? null : (Object) (double) vector.getInts()[i];
+                case DOUBLE -> RObject.isNA(vector.getDoubles()[i]) ? null : (Object) vector.getDoubles()[i];
+                default -> null;
+            };
+            codes[i] = value == null ? RObject.NA_INTEGER : code.apply(value);
+        }
+        RObject factor = RObject.integers(codes, length);
+        factor.setAttribute("levels", RObject.strings(levels.toArray(new String[0])));
+        factor.setAttribute("class", ordered ? RObject.strings("ordered", "factor") : RObject.strings("factor"));
+        return factor;
+    }
+
+    /**
+     * Converts a character vector into a Date or POSIXct vector, according
+     * to the format assigned by RJobRequest.getVariableFormats(). Values that
+     * can't be parsed become NA.
+     */
+    static RObject toDateTime(RObject vector, String format) {
+        String[] values = vector.getStrings();
+        int length = vector.length();
+        double[] converted = new double[length];
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        for (int i = 0; i < length; i++) {
+            converted[i] = RObject.NA_REAL;
+            if (values[i] == null) {
+                continue;
+            }
+            String value = values[i].trim();
+            try {
+                converted[i] = switch (format) {
+                    case "D" -> LocalDate.parse(value).toEpochDay();
+                    case "T" -> epochSeconds(LocalDateTime.of(today, LocalTime.parse(value, TIME_FORMAT)));
+                    case "DT" -> epochSeconds(LocalDateTime.parse(value, DATE_TIME_FORMAT));
+                    case "JT" -> {
+                        // day of the year, then the time
+                        int space = value.indexOf(' ');
+                        LocalDate day = today.withDayOfYear(Integer.parseInt(value.substring(0, space)));
+                        yield epochSeconds(LocalDateTime.of(day, LocalTime.parse(value.substring(space + 1), TIME_FORMAT)));
+                    }
+                    default -> throw new IllegalArgumentException("Unknown date/time format " + format);
+                };
+            } catch (DateTimeParseException | NumberFormatException | StringIndexOutOfBoundsException e) {
+                logger.fine("Not a valid date/time (" + format + "): " + value);
+            }
+        }
+        RObject dates = RObject.doubles(converted, length);
+        if ("D".equals(format)) {
+            dates.setAttribute("class", RObject.strings("Date"));
+        } else {
+            dates.setAttribute("class", RObject.strings("POSIXct", "POSIXt"));
+            dates.setAttribute("tzone", RObject.strings("UTC"));
+        }
+        return dates;
+    }
+
+    private static double epochSeconds(LocalDateTime dateTime) {
+        return dateTime.toEpochSecond(ZoneOffset.UTC) + dateTime.getNano() / 1e9;
+    }
+
+    /**
+     * Makes the names syntactically valid and unique, as R's
+     * {@code make.names(names, unique = TRUE)} does (read.table() did that to
+     * the names in read.dataverseTabData()).
+     */
+    static String[] makeNames(String[] names) {
+        Set<String> reserved = Set.of("if", "else", "repeat", "while", "function", "for", "next", "break",
+                "TRUE", "FALSE", "NULL", "Inf", "NaN", "NA", "NA_integer_", "NA_real_", "NA_character_", "in");
+        String[] valid = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+            String name = names[i] == null ? "" : names[i];
+            StringBuilder sb = new StringBuilder(name.length() + 1);
+            name.codePoints().forEach(c -> sb.appendCodePoint(Character.isLetterOrDigit(c) || c == '.' || c == '_' ? c : '.'));
+            String candidate = sb.toString();
+            boolean startsValid = !candidate.isEmpty() && (Character.isLetter(candidate.codePointAt(0))
+                    || (candidate.charAt(0) == '.' && !(candidate.length() > 1 && Character.isDigit(candidate.charAt(1)))));
+            if (!startsValid) {
+                candidate = "X" + candidate;
+            }
+            if (reserved.contains(candidate)) {
+                candidate = candidate + ".";
+            }
+            valid[i] = candidate;
+        }
+        // make.unique(): the first occurrence is kept, the others get .1, .2...
+        Set<String> used = new HashSet<>(Arrays.asList(valid));
+        Map<String, Integer> counters = new HashMap<>();
+        Set<String> seen = new HashSet<>();
+        for (int i = 0; i < valid.length; i++) {
+            if (seen.add(valid[i])) {
+                continue;
+            }
+            String base = valid[i];
+            String candidate;
+            do {
+                int n = counters.merge(base, 1, Integer::sum);
+                candidate = base + "." + n;
+            } while (used.contains(candidate));
+            used.add(candidate);
+            seen.add(candidate);
+            valid[i] = candidate;
+        }
+        return valid;
+    }
+
+    /**
+     * Removes the quotes around a character value stored in a tab file, and
+     * undoes the escaping of TabularDataFileReader.escapeCharacterString().
+     * An empty (unquoted) value is a missing value.
+     *
+     * @return the value, or null for a missing value
+     */
+    static String unescapeCharacterValue(String value) {
+        if (value.isEmpty()) {
+            return null;
+        }
+        int start = value.charAt(0) == '"' ? 1 : 0;
+        int end = value.length() > start && value.charAt(value.length() - 1) == '"' ? value.length() - 1 : value.length();
+        if (value.indexOf('\\', start) < 0) {
+            return value.substring(start, end);
+        }
+        StringBuilder sb = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < end) {
+                char next = value.charAt(++i);
+                switch (next) {
+                    case 't' -> sb.append('\t');
+                    case 'n' -> sb.append('\n');
+                    case 'r' -> sb.append('\r');
+                    default -> sb.append(next);
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Parses a numeric value as R's type.convert() would.
+     *
+     * @return the value, or NA_REAL if it is missing or not a number
+     */
+    static double parseDouble(String value) {
+        switch (value) {
+            case "", "NA" -> {
+                return RObject.NA_REAL;
+            }
+            case "Inf", "+Inf" -> {
+                return Double.POSITIVE_INFINITY;
+            }
+            case "-Inf" -> {
+                return Double.NEGATIVE_INFINITY;
+            }
+            case "NaN" -> {
+                return Double.NaN;
+            }
+            default -> {
+                try {
+                    return Double.parseDouble(value);
+                } catch (NumberFormatException e) {
+                    return RObject.NA_REAL;
+                }
+            }
+        }
+    }
+
+    private interface Column {
+
+        void add(String value);
+
+        RObject toVector(int rows);
+    }
+
+    private static final class StringColumn implements Column {
+
+        private String[] values;
+        private int size;
+
+        StringColumn(int capacity) {
+            values = new String[Math.max(capacity, 16)];
+        }
+
+        @Override
+        public void add(String value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[size++] = unescapeCharacterValue(value);
+        }
+
+        @Override
+        public RObject toVector(int rows) {
+            return RObject.strings(values, rows);
+        }
+    }
+
+    private static final class LogicalColumn implements Column {
+
+        private int[] values;
+        private int size;
+
+        LogicalColumn(int capacity) {
+            values = new int[Math.max(capacity, 16)];
+        }
+
+        @Override
+        public void add(String value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            // as.logical(as.numeric(x))
+            double number = parseDouble(value.trim());
+            values[size++] = RObject.isNA(number) || Double.isNaN(number) ? RObject.NA_INTEGER : (number != 0 ? 1 : 0);
+        }
+
+        @Override
+        public RObject toVector(int rows) {
+            return RObject.logicals(values, rows);
+        }
+    }
+
+    /**
+     * Collects the values as doubles, keeping track of whether they are all
+     * integers, in which case the vector will be an integer one, as with
+     * type.convert().
+     */
+    private static final class NumericColumn implements Column {
+
+        private double[] values;
+        private int size;
+        private boolean integers = true;
+
+        NumericColumn(int capacity) {
+            values = new double[Math.max(capacity, 16)];
+        }
+
+        @Override
+        public void add(String value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            String trimmed = value.trim();
+            double number = parseDouble(trimmed);
+            if (integers && !RObject.isNA(number) && !isIntegerLiteral(trimmed)) {
+                integers = false;
+            }
+            values[size++] = number;
+        }
+
+        private static boolean isIntegerLiteral(String value) {
+            int start = value.startsWith("-") || value.startsWith("+") ? 1 : 0;
+            if (value.length() == start || value.length() - start > 10) {
+                return false;
+            }
+            for (int i = start; i < value.length(); i++) {
+                if (!Character.isDigit(value.charAt(i))) {
+                    return false;
+                }
+            }
+            long parsed = Long.parseLong(value);
+            // Integer.MIN_VALUE is NA_integer_
+            return parsed > Integer.MIN_VALUE && parsed <= Integer.MAX_VALUE;
+        }
+
+        @Override
+        public RObject toVector(int rows) {
+            if (!integers) {
+                return RObject.doubles(values, rows);
+            }
+            int[] ints = new int[rows];
+            for (int i = 0; i < rows; i++) {
+                ints[i] = RObject.isNA(values[i]) ? RObject.NA_INTEGER : (int) values[i];
+            }
+            values = null;
+            return RObject.integers(ints, rows);
+        }
+    }
+}
@@ -108,6 +108,8 @@ public interface CommandContext {
     public PrivateUrlServiceBean privateUrl();
 
     public DatasetVersionServiceBean datasetVersion();
+
+    public DatasetVersionDifferenceServiceBean versionDifferences();
     
     public WorkflowServiceBean workflows();
 
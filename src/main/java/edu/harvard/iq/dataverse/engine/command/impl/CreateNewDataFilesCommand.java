@@ -19,6 +19,7 @@ import edu.harvard.iq.dataverse.util.ShapefileHandler;
 import edu.harvard.iq.dataverse.util.StringUtil;
 import edu.harvard.iq.dataverse.util.file.BagItFileHandler;
 import edu.harvard.iq.dataverse.util.file.BagItFileHandlerFactory;
+import edu.harvard.iq.dataverse.util.file.ChecksummedTempFile;
 import edu.harvard.iq.dataverse.util.file.CreateDataFileResult;
 import edu.harvard.iq.dataverse.util.file.FileExceedsStorageQuotaException;
 import jakarta.enterprise.inject.spi.CDI;
@@ -33,7 +34,6 @@ import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -141,6 +141,9 @@ public class CreateNewDataFilesCommand extends AbstractCommand<CreateDataFileRes
         String finalType = null;
         File newFile = null;    // this File will be used for a single-file, local (non-direct) upload
         long fileSize = -1; 
+        // The checksum of the upload is computed as it is saved, rather than
+        // by reading the saved file once more:
+        ChecksummedTempFile savedUpload = null;
 
 
         if (newStorageIdentifier == null) {
@@ -153,7 +156,7 @@ public class CreateNewDataFilesCommand extends AbstractCommand<CreateDataFileRes
                     // temp files will always be stored on the local filesystem.
                     // -- L.A. Jul. 2014
                     logger.fine("Will attempt to save the file as: " + tempFile.toString());
-                    Files.copy(inputStream, tempFile, StandardCopyOption.REPLACE_EXISTING);
+                    savedUpload = ChecksummedTempFile.write(inputStream, tempFile, newCheckSumType);
                 } catch (IOException ioex) {
                     throw new CommandExecutionException("Failed to save the upload as a temp file (temp disk space?)", ioex, this);
                 }
@@ -162,7 +165,7 @@ public class CreateNewDataFilesCommand extends AbstractCommand<CreateDataFileRes
                 // (note that "no size limit set" = "unlimited")
                 // (also note, that if this is a zip file, we'll be checking
                 // the size limit for each of the individual unpacked files)
-                fileSize = tempFile.toFile().length();
+                fileSize = savedUpload.getSize();
                 if (fileSizeLimit != null && fileSize > fileSizeLimit) {
                     try {
                         tempFile.toFile().delete();
@@ -189,7 +192,7 @@ public class CreateNewDataFilesCommand extends AbstractCommand<CreateDataFileRes
             String recognizedType = null;
 
             try {
-                recognizedType = determineFileType(tempFile.toFile(), fileName);
+                recognizedType = determineFileType(tempFile.toFile(), fileName, savedUpload.getHeader());
                 logger.fine("File utility recognized the file as " + recognizedType);
                 if (recognizedType != null && !recognizedType.equals("")) {
                     if (useRecognizedType(suppliedContentType, recognizedType)) {
@@ -267,6 +270,7 @@ public class CreateNewDataFilesCommand extends AbstractCommand<CreateDataFileRes
 
                 int fileNumberLimit = ctxt.systemConfig().getZipUploadFilesLimit();
                 Long combinedUnzippedFileSize = 0L;
+                DataFile.ChecksumType checksumType = ctxt.systemConfig().getFileFixityChecksumAlgorithm();
 
                 try {
                     Charset charset = null;
@@ -372,12 +376,15 @@ public class CreateNewDataFilesCommand extends AbstractCommand<CreateDataFileRes
                             logger.fine("ZipEntry, file: " + fileEntryName);
                             String storageIdentifier = FileUtil.generateStorageIdentifier();
                             File unzippedFile = new File(getFilesTempDirectory() + "/" + storageIdentifier);
-                            Files.copy(zipFile.getInputStream(entry), unzippedFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                            ChecksummedTempFile unzipped;
+                            try (InputStream entryIn = zipFile.getInputStream(entry)) {
+                                unzipped = ChecksummedTempFile.write(entryIn, unzippedFile.toPath(), checksumType);
+                            }
                             // No need to check the size of this unpacked file against the size limit,
                             // since we've already checked for that in the first pass.
                             DataFile datafile = FileUtil.createSingleDataFile(version, null, storageIdentifier, shortName,
                                 MIME_TYPE_UNDETERMINED_DEFAULT,
-                                ctxt.systemConfig().getFileFixityChecksumAlgorithm(), null, false);
+                                checksumType, unzipped.getChecksum(), false);
 
                             if (!fileEntryName.equals(shortName)) {
                                 // If the filename looks like a hierarchical folder name (i.e., contains slashes and backslashes),
@@ -401,7 +408,7 @@ public class CreateNewDataFilesCommand extends AbstractCommand<CreateDataFileRes
                                 String tempFileName = getFilesTempDirectory() + "/" + datafile.getStorageIdentifier();
 
                                 try {
-                                    recognizedType = determineFileType(unzippedFile, shortName);
+                                    recognizedType = determineFileType(unzippedFile, shortName, unzipped.getHeader());
                                     // null the File explicitly, to release any open FDs:
                                     unzippedFile = null;
                                     logger.fine("File utility recognized unzipped file as " + recognizedType);
@@ -474,14 +481,14 @@ public class CreateNewDataFilesCommand extends AbstractCommand<CreateDataFileRes
                 try {
                     
                     for (File finalFile : shpIngestHelper.getFinalRezippedFiles()) {
-                        FileInputStream finalFileInputStream = new FileInputStream(finalFile);
                         finalType = FileUtil.determineContentType(finalFile);
                         if (finalType == null) {
                             logger.warning("Content type is null; but should default to 'MIME_TYPE_UNDETERMINED_DEFAULT'");
                             continue;
                         }
 
-                        File unZippedShapeTempFile = saveInputStreamInTempFile(finalFileInputStream, fileSizeLimit, storageQuotaLimit != null ? storageQuotaLimit - combinedRezippedFileSize : null);
+                        // The repackaged files are moved (not copied) to the temp directory:
+                        File unZippedShapeTempFile = FileUtil.moveToTempFile(finalFile, fileSizeLimit, storageQuotaLimit != null ? storageQuotaLimit - combinedRezippedFileSize : null);
                         DataFile new_datafile = FileUtil.createSingleDataFile(version, unZippedShapeTempFile, finalFile.getName(), finalType, ctxt.systemConfig().getFileFixityChecksumAlgorithm());
                         
                         String directoryName = null;
@@ -504,11 +511,6 @@ public class CreateNewDataFilesCommand extends AbstractCommand<CreateDataFileRes
                         } else {
                             logger.severe("Could not add part of rezipped shapefile. new_datafile was null: " + finalFile.getName());
                         }
-                        try {
-                            finalFileInputStream.close();
-                        } catch (IOException ioex) {
-                            // this one can be ignored
-                        }
                     }
                 } catch (FileExceedsMaxSizeException | FileExceedsStorageQuotaException femsx) {
                     logger.severe("One of the unzipped shape files exceeded the size limit, or the storage quota; giving up. " + femsx.getMessage());
@@ -622,7 +624,12 @@ public class CreateNewDataFilesCommand extends AbstractCommand<CreateDataFileRes
             throw new CommandExecutionException(MessageFormat.format(BundleUtil.getStringFromBundle("file.addreplace.error.quota_exceeded"), bytesToHumanReadable(fileSize), bytesToHumanReadable(storageQuotaLimit)), this);
         } 
         
-        DataFile datafile = FileUtil.createSingleDataFile(version, newFile, newStorageIdentifier, fileName, finalType, newCheckSumType, newCheckSum);
+        String checksum = newCheckSum;
+        if (StringUtils.isEmpty(checksum) && newFile != null) {
+            // (computed as the upload was saved)
+            checksum = savedUpload.getChecksum();
+        }
+        DataFile datafile = FileUtil.createSingleDataFile(version, newFile, newStorageIdentifier, fileName, finalType, newCheckSumType, checksum);
 
         if (datafile != null) {
             if (newStorageIdentifier != null) {
@@ -183,6 +183,9 @@ public class CuratePublishedDatasetVersionCommand extends AbstractDatasetCommand
         savedDataset = ctxt.em().merge(savedDataset);
         ctxt.em().flush();
 
+        // The differences with the curated version are out of date
+        ctxt.versionDifferences().deleteDifferences(updateVersion);
+
         RoleAssignment ra = ctxt.privateUrl().getPrivateUrlRoleAssignmentFromDataset(savedDataset);
         if (ra != null) {
             ctxt.roles().revoke(ra);
@@ -231,6 +234,12 @@ public class CuratePublishedDatasetVersionCommand extends AbstractDatasetCommand
             retVal = false;
             logger.log(Level.WARNING, "Curate Published DatasetVersion: exception while exporting metadata files:{0}", ex.getMessage());
         }
+
+        try {
+            ctxt.versionDifferences().storeDifferences(d.getReleasedVersion());
+        } catch (Exception ex) {
+            logger.log(Level.WARNING, "Curate Published DatasetVersion: exception while storing the version differences:{0}", ex.getMessage());
+        }
         return retVal;
     }
 }
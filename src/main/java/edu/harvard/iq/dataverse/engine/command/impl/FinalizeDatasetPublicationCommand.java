@@ -226,19 +226,13 @@ public class FinalizeDatasetPublicationCommand extends AbstractPublishDatasetCom
         //Remove any pre-pub workflow lock (not needed as WorkflowServiceBean.workflowComplete() should already have removed it after setting the finalizePublication lock?)
         ctxt.datasets().removeDatasetLocks(ds, DatasetLock.Reason.Workflow);
         
-        //Should this be in onSuccess()?
-        ctxt.workflows().getDefaultWorkflow(TriggerType.PostPublishDataset).ifPresent(wf -> {
-            try {
-                ctxt.workflows().start(wf, buildContext(ds, TriggerType.PostPublishDataset, datasetExternallyReleased), false);
-            } catch (CommandException ex) {
-                ctxt.datasets().removeDatasetLocks(ds, DatasetLock.Reason.Workflow);
-                logger.log(Level.SEVERE, "Error invoking post-publish workflow: " + ex.getMessage(), ex);
-            }
-        });
+        // Queued (and the dataset locked for it) now, run once this command's transaction has committed
+        ctxt.workflows().getDefaultWorkflow(TriggerType.PostPublishDataset).ifPresent(wf -> 
+                ctxt.workflows().start(wf, buildContext(ds, TriggerType.PostPublishDataset, datasetExternallyReleased)));
 
         Dataset readyDataset = ctxt.em().merge(ds);
         
-        // Finally, unlock the dataset (leaving any post-publish workflow lock in place)
+        // Finally, unlock the dataset (leaving the post-publish workflow lock, if any, in place)
         ctxt.datasets().removeDatasetLocks(readyDataset, DatasetLock.Reason.finalizePublication);
         if (readyDataset.isLockedFor(DatasetLock.Reason.InReview) ) {
             ctxt.datasets().removeDatasetLocks(readyDataset, DatasetLock.Reason.InReview);
@@ -296,6 +290,14 @@ public class FinalizeDatasetPublicationCommand extends AbstractPublishDatasetCom
             // ... but it is important to only update the export time stamp if the 
             // export was indeed successful.
         }
+        // The summary of the differences with the previous version, for the versions tab:
+        try {
+            ctxt.versionDifferences().storeDifferences(dataset.getReleasedVersion());
+        } catch (Exception e) {
+            // Not a fatal condition either: it will be stored when first displayed
+            logger.log(Level.WARNING, "Finalization: exception caught while storing the version differences: " + e.getMessage(), e);
+        }
+
         ctxt.index().asyncIndexDataset(dataset, true);
         
         return retVal;
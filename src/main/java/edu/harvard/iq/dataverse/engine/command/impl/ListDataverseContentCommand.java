@@ -7,6 +7,7 @@ import edu.harvard.iq.dataverse.engine.command.AbstractCommand;
 import edu.harvard.iq.dataverse.engine.command.CommandContext;
 import edu.harvard.iq.dataverse.engine.command.DataverseRequest;
 import edu.harvard.iq.dataverse.engine.command.exception.CommandException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
@@ -16,6 +17,12 @@ import java.util.logging.Logger;
 
 /**
  * Lists the content of a dataverse - both datasets and dataverses.
+ * <p>
+ * When constructed with a limit, only lists one page of the content (in the
+ * same order: dataverses first, then datasets, each by id), starting after
+ * the given {@link Cursor}. The children are read, and their permissions
+ * evaluated, in batches of that size, until the page is full. A page shorter
+ * than the limit is the last one.
  *
  * @author michael
  */
@@ -24,19 +31,61 @@ public class ListDataverseContentCommand extends AbstractCommand<List<DvObject>>
 
     private static final Logger logger = Logger.getLogger(ListDataverseContentCommand.class.getName());
     private final Dataverse dvToList;
+    private final Cursor after;
+    private final Integer limit;
 
     public ListDataverseContentCommand(DataverseRequest aRequest, Dataverse anAffectedDataverse) {
+        this(aRequest, anAffectedDataverse, null, null);
+    }
+
+    /**
+     * @param after the last child listed on the previous page, or null for
+     * the first page.
+     * @param limit the maximum number of children to list.
+     */
+    public ListDataverseContentCommand(DataverseRequest aRequest, Dataverse anAffectedDataverse, Cursor after, Integer limit) {
         super(aRequest, anAffectedDataverse);
         dvToList = anAffectedDataverse;
+        this.after = after;
+        this.limit = limit;
     }
 
     @Override
     public List<DvObject> execute(CommandContext ctxt) throws CommandException {
-        if (getRequest().getUser().isSuperuser()) {
-            return ctxt.dvObjects().findByOwnerId(dvToList.getId());
-        } else {
-            return ctxt.permissions().whichChildrenHasPermissionsForOrReleased(getRequest(), dvToList, EnumSet.of(Permission.ViewUnpublishedDataverse, Permission.ViewUnpublishedDataset));
+        if (limit == null) {
+            if (getRequest().getUser().isSuperuser()) {
+                return ctxt.dvObjects().findByOwnerId(dvToList.getId());
+            } else {
+                return ctxt.permissions().whichChildrenHasPermissionsForOrReleased(getRequest(), dvToList, EnumSet.of(Permission.ViewUnpublishedDataverse, Permission.ViewUnpublishedDataset));
+            }
+        }
+
+        List<DvObject> page = new ArrayList<>(limit);
+        Cursor cursor = after;
+        while (page.size() < limit) {
+            List<DvObject> children = ctxt.dvObjects().findByOwnerIdAfter(dvToList.getId(),
+                    cursor == null ? null : cursor.type(), cursor == null ? null : cursor.id(), limit);
+            if (children.isEmpty()) {
+                break;
+            }
+            List<DvObject> visible = getRequest().getUser().isSuperuser() ? children
+                    : ctxt.permissions().whichChildrenHasPermissionsFor(getRequest(), dvToList, children,
+                            EnumSet.of(Permission.ViewUnpublishedDataverse, Permission.ViewUnpublishedDataset), true);
+            for (DvObject child : visible) {
+                if (page.size() == limit) {
+                    // The next page starts after the last child listed on
+                    // this one, so the rest of this batch will be read again.
+                    break;
+                }
+                page.add(child);
+            }
+            if (children.size() < limit) {
+                break;
+            }
+            cursor = Cursor.after(children.get(children.size() - 1));
         }
+        logger.fine(() -> "Listed " + page.size() + " children of dataverse " + dvToList.getId() + " after " + after);
+        return page;
     }
 
     @Override
@@ -46,4 +95,46 @@ public class ListDataverseContentCommand extends AbstractCommand<List<DvObject>>
                 : Collections.singleton(Permission.ViewUnpublishedDataverse));
     }
 
+    /**
+     * Where a page of the content ends: the type and id of its last child.
+     * The type is part of the cursor, so that the next page can be found
+     * even if that child is deleted in the meantime. Its string form, such
+     * as {@code dataset:1234}, is what the API hands out to clients.
+     */
+    public record Cursor(DvObject.DType type, Long id) {
+
+        public static Cursor after(DvObject child) {
+            return new Cursor(child instanceof Dataverse ? DvObject.DType.Dataverse : DvObject.DType.Dataset, child.getId());
+        }
+
+        /**
+         * @return the cursor, or null if {@code value} is not one that
+         * {@link #toString()} could have produced.
+         */
+        public static Cursor parse(String value) {
+            int separator = value.indexOf(':');
+            if (separator < 0) {
+                return null;
+            }
+            DvObject.DType type;
+            switch (value.substring(0, separator)) {
+                case "dataverse" -> type = DvObject.DType.Dataverse;
+                case "dataset" -> type = DvObject.DType.Dataset;
+                default -> {
+                    return null;
+                }
+            }
+            try {
+                return new Cursor(type, Long.valueOf(value.substring(separator + 1)));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return (type == DvObject.DType.Dataverse ? "dataverse:" : "dataset:") + id;
+        }
+    }
+
 }
\ No newline at end of file
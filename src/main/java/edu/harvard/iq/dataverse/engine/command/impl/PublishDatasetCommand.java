@@ -114,7 +114,7 @@ public class PublishDatasetCommand extends AbstractPublishDatasetCommand<Publish
                 theDataset = ctxt.em().merge(theDataset);
                 ctxt.em().flush();
                 ctxt.workflows().start(prePubWf.get(),
-                        buildContext(theDataset, TriggerType.PrePublishDataset, datasetExternallyReleased), true);
+                        buildContext(theDataset, TriggerType.PrePublishDataset, datasetExternallyReleased));
                 return new PublishDatasetResult(theDataset, Status.Workflow);
             } catch (OptimisticLockException e) {
                 throw new CommandException(e.getMessage(), e, this);
@@ -0,0 +1,95 @@
+package edu.harvard.iq.dataverse.export;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The prerequisite relations between the available export formats (see
+ * {@link io.gdcc.spi.export.Exporter#getPrerequisiteFormatName()}), as a
+ * directed acyclic graph. Used by {@link ExportService} to run the exporters
+ * that don't depend on each other in parallel, while making sure that every
+ * exporter only runs once the output of its prerequisite is available.
+ * <p>
+ * Formats whose prerequisite is not available, or that are part of (or depend
+ * on) a prerequisite cycle, cannot be exported; they are reported by
+ * {@link #getUnresolvableFormats()} and left out of
+ * {@link #getExecutionOrder()}.
+ */
+public class ExportDependencyGraph {
+
+    private final Map<String, String> prerequisites;
+    private final List<String> executionOrder;
+    private final Set<String> unresolvable;
+    private final Map<String, Set<String>> dependents = new HashMap<>();
+
+    /**
+     * @param prerequisites maps each available format name to the name of its
+     * prerequisite format, or to null if it has none.
+     */
+    public ExportDependencyGraph(Map<String, String> prerequisites) {
+        this.prerequisites = new HashMap<>(prerequisites);
+        for (Map.Entry<String, String> entry : this.prerequisites.entrySet()) {
+            if (entry.getValue() != null) {
+                dependents.computeIfAbsent(entry.getValue(), k -> new TreeSet<>()).add(entry.getKey());
+            }
+        }
+
+        // Kahn's algorithm, starting from the formats without a prerequisite.
+        // Sorted, so that the order is deterministic.
+        executionOrder = new ArrayList<>();
+        Deque<String> ready = new ArrayDeque<>();
+        new TreeSet<>(this.prerequisites.keySet()).stream()
+                .filter(format -> this.prerequisites.get(format) == null)
+                .forEach(ready::add);
+        while (!ready.isEmpty()) {
+            String format = ready.poll();
+            executionOrder.add(format);
+            ready.addAll(dependents.getOrDefault(format, Collections.emptySet()));
+        }
+
+        // Whatever wasn't reached either has a missing prerequisite or is
+        // caught in (or downstream of) a cycle.
+        unresolvable = new TreeSet<>(this.prerequisites.keySet());
+        unresolvable.removeAll(executionOrder);
+    }
+
+    /**
+     * @return the exportable formats, each one listed after its prerequisite.
+     */
+    public List<String> getExecutionOrder() {
+        return Collections.unmodifiableList(executionOrder);
+    }
+
+    /**
+     * @return the prerequisite of the format, or null if it has none.
+     */
+    public String getPrerequisite(String formatName) {
+        return prerequisites.get(formatName);
+    }
+
+    /**
+     * @return true if at least one exportable format uses the output of this
+     * one as its prerequisite.
+     */
+    public boolean hasDependents(String formatName) {
+        Set<String> direct = dependents.get(formatName);
+        if (direct == null) {
+            return false;
+        }
+        Set<String> exportable = new HashSet<>(direct);
+        exportable.removeAll(unresolvable);
+        return !exportable.isEmpty();
+    }
+
+    public Set<String> getUnresolvableFormats() {
+        return Collections.unmodifiableSet(unresolvable);
+    }
+}
@@ -16,6 +16,8 @@ import edu.harvard.iq.dataverse.settings.JvmSettings;
 import edu.harvard.iq.dataverse.util.BundleUtil;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -44,11 +46,20 @@ import java.util.Optional;
 import java.util.ServiceConfigurationError;
 import java.util.ServiceLoader;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import jakarta.enterprise.concurrent.ManagedExecutorService;
 import jakarta.ws.rs.core.MediaType;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.TeeOutputStream;
 
 /**
  *
@@ -59,6 +70,28 @@ public class ExportService {
     private static ExportService service;
     private ServiceLoader<Exporter> loader;
     private Map<String, Exporter> exporterMap = new HashMap<>();
+    /**
+     * The managed executor running the exporters of the datasets in parallel
+     * (defined on DatasetServiceBean, since this class isn't a managed bean).
+     * It is only used by the exports: they wait for the exporters, which
+     * couldn't start if they were queued to the executor running the exports.
+     */
+    public static final String EXPORT_EXECUTOR = "java:app/concurrent/export";
+    /**
+     * Runs the exporters of a dataset in parallel; null when parallel exports
+     * are disabled (dataverse.export.parallel-formats set to 1).
+     */
+    private final ManagedExecutorService exportExecutor;
+    /**
+     * The number of exporters that may run at the same time, whichever the
+     * datasets (dataverse.export.parallel-formats).
+     */
+    private final Semaphore runningExporters;
+    /**
+     * Datasets with more files than this in their released version are
+     * exported with the file details streamed (see exportAllFormats).
+     */
+    private final int streamingFileThreshold;
 
     private static final Logger logger = Logger.getLogger(ExportService.class.getCanonicalName());
 
@@ -106,6 +139,26 @@ public class ExportService {
             logger.log(Level.FINE, "SL: " + exp.getFormatName() + " from " + exp.getClass().getCanonicalName()
                     + " and classloader: " + exp.getClass().getClassLoader().getClass().getCanonicalName());
         });
+
+        streamingFileThreshold = JvmSettings.EXPORT_STREAMING_FILE_THRESHOLD.lookupOptional(Integer.class).orElse(1000);
+
+        /*
+         * Step 4 - find the managed executor running the exporters. It is
+         * shared by all the datasets being exported at the same time.
+         */
+        int parallelFormats = JvmSettings.EXPORT_PARALLEL_FORMATS.lookupOptional(Integer.class)
+                .orElse(Math.min(4, Runtime.getRuntime().availableProcessors()));
+        ManagedExecutorService executor = null;
+        if (parallelFormats > 1) {
+            try {
+                executor = InitialContext.doLookup(EXPORT_EXECUTOR);
+            } catch (NamingException e) {
+                logger.warning("Could not find the export executor " + EXPORT_EXECUTOR
+                        + "; the exporters will run one after another: " + e.getMessage());
+            }
+        }
+        exportExecutor = executor;
+        runningExporters = new Semaphore(Math.max(1, parallelFormats));
     }
 
     public static synchronized ExportService getInstance() {
@@ -127,6 +180,52 @@ public class ExportService {
         return retList;
     }
 
+    /**
+     * Whether the cached export in this format, if there is one, is still
+     * up-to-date. The DDI export is limited for restricted and actively
+     * embargoed files (no data/file description sections), so when an embargo
+     * ends after the last export, the cached DDI export needs to be refreshed.
+     * (The other formats only change when the dataset is re-exported.)
+     */
+    public boolean isCachedExportCurrent(Dataset dataset, String formatName) {
+        if (!formatName.equals(DDIExporter.PROVIDER_NAME)) {
+            return true;
+        }
+        Date lastExportDate = dataset.getLastExportTime();
+        // if lastExportDate == null, assume it's not set because were exporting for the
+        // first time now (e.g. during publish) and therefore no changes are needed
+        if (lastExportDate == null) {
+            return true;
+        }
+        LocalDate exportLocalDate = lastExportDate.toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
+        logger.fine("Last export date: " + exportLocalDate.toString());
+        // Track which embargoes we've already checked
+        Set<Long> embargoIds = new HashSet<Long>();
+        // Check for all files in the latest released version
+        for (FileMetadata fm : dataset.getLatestVersionForCopy().getFileMetadatas()) {
+            // ToDo? This loop is necessary because we have not stored the date when the
+            // next embargo in this datasetversion will end. If we knew that (another
+            // dataset/datasetversion column), we could make
+            // one check that nextembargoEnd exists and is after the last export and before
+            // now versus scanning through files until we potentially find such an embargo.
+            Embargo e = fm.getDataFile().getEmbargo();
+            if (e != null) {
+                logger.fine("Datafile:  " + fm.getDataFile().getId());
+                logger.fine("Embargo end date: " + e.getFormattedDateAvailable());
+            }
+            if (e != null && !embargoIds.contains(e.getId()) && e.getDateAvailable().isAfter(exportLocalDate)
+                    && e.getDateAvailable().isBefore(LocalDate.now())) {
+                // The file has been embargoed and the embargo ended after the last export and
+                // before the current date, so the cached DDI export is outdated
+                return false;
+            } else if (e != null) {
+                logger.fine("adding embargo to checked list: " + e.getId());
+                embargoIds.add(e.getId());
+            }
+        }
+        return true;
+    }
+
     public InputStream getExport(Dataset dataset, String formatName) throws ExportException, IOException {
         // first we will try to locate an already existing, cached export
         // for this format:
@@ -136,54 +235,16 @@ public class ExportService {
         // The DDI export is limited for restricted and actively embargoed files (no
         // data/file description sections).and when an embargo ends, we need to refresh
         // this export.
-        boolean clearCachedExport = false;
-        if (formatName.equals(DDIExporter.PROVIDER_NAME) && (exportInputStream != null)) {
-            // We want ddi and there was a cached version
-            LocalDate exportLocalDate = null;
-            Date lastExportDate = dataset.getLastExportTime();
-            // if lastExportDate == null, assume it's not set because were exporting for the
-            // first time now (e.g. during publish) and therefore no changes are needed
-            if (lastExportDate != null) {
-                exportLocalDate = lastExportDate.toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
-                logger.fine("Last export date: " + exportLocalDate.toString());
-                // Track which embargoes we've already checked
-                Set<Long> embargoIds = new HashSet<Long>();
-                // Check for all files in the latest released version
-                for (FileMetadata fm : dataset.getLatestVersionForCopy().getFileMetadatas()) {
-                    // ToDo? This loop is necessary because we have not stored the date when the
-                    // next embargo in this datasetversion will end. If we knew that (another
-                    // dataset/datasetversion column), we could make
-                    // one check that nextembargoEnd exists and is after the last export and before
-                    // now versus scanning through files until we potentially find such an embargo.
-                    Embargo e = fm.getDataFile().getEmbargo();
-                    if (e != null) {
-                        logger.fine("Datafile:  " + fm.getDataFile().getId());
-                        logger.fine("Embargo end date: " + e.getFormattedDateAvailable());
-                    }
-                    if (e != null && !embargoIds.contains(e.getId()) && e.getDateAvailable().isAfter(exportLocalDate)
-                            && e.getDateAvailable().isBefore(LocalDate.now())) {
-                        logger.fine("Request that the ddi export be cleared.");
-                        // The file has been embargoed and the embargo ended after the last export and
-                        // before the current date, so we need to remove the cached DDI export and make
-                        // it refresh
-                        clearCachedExport = true;
-                        break;
-                    } else if (e != null) {
-                        logger.fine("adding embargo to checked list: " + e.getId());
-                        embargoIds.add(e.getId());
-                    }
-                }
-            }
-            if (clearCachedExport) {
-                try {
-                    exportInputStream.close();
-                    clearCachedExport(dataset, formatName);
-                } catch (Exception ex) {
-                    logger.warning("Failure deleting DDI export format for dataset id: " + dataset.getId()
-                            + " after embargo expiration: " + ex.getLocalizedMessage());
-                } finally {
-                    exportInputStream = null;
-                }
+        if (exportInputStream != null && !isCachedExportCurrent(dataset, formatName)) {
+            logger.fine("Request that the ddi export be cleared.");
+            try {
+                exportInputStream.close();
+                clearCachedExport(dataset, formatName);
+            } catch (Exception ex) {
+                logger.warning("Failure deleting DDI export format for dataset id: " + dataset.getId()
+                        + " after embargo expiration: " + ex.getLocalizedMessage());
+            } finally {
+                exportInputStream = null;
             }
         }
 
@@ -240,6 +301,10 @@ public class ExportService {
     // This method goes through all the Exporters and calls
     // the "chacheExport()" method that will save the produced output
     // in a file in the dataset directory, on each Exporter available.
+    // The exporters that don't depend on each other run in parallel; an
+    // exporter with a prerequisite format is run once the prerequisite is
+    // done, and is handed its output directly (rather than re-reading it
+    // from storage).
     public void exportAllFormats(Dataset dataset) throws ExportException {
         try {
             clearAllCachedFormats(dataset);
@@ -253,26 +318,36 @@ public class ExportService {
                 throw new ExportException("No released version for dataset " + dataset.getGlobalId().toString());
             }
             InternalExportDataProvider dataProvider = new InternalExportDataProvider(releasedVersion);
+            // The exporters may run on other threads; everything that needs
+            // the entities is done here, on the calling thread. With many
+            // files, though, the file details (including the variable-level
+            // metadata of tabular files) are too large to be built as a whole:
+            // the exporters then run one after another on this thread, and
+            // the file details are generated one file at a time as they go.
+            boolean streamFileDetails = releasedVersion.getFileMetadatas().size() > streamingFileThreshold;
+            dataProvider.materialize(!streamFileDetails);
+
+            Map<String, String> prerequisites = new HashMap<>();
+            exporterMap.values().forEach(e -> prerequisites.put(e.getFormatName(), e.getPrerequisiteFormatName().orElse(null)));
+            ExportDependencyGraph graph = new ExportDependencyGraph(prerequisites);
+            for (String formatName : graph.getUnresolvableFormats()) {
+                logger.warning("Skipping the " + formatName + " export for dataset " + dataset.getId()
+                        + ": its prerequisite format " + graph.getPrerequisite(formatName) + " cannot be exported");
+            }
 
-            for (Exporter e : exporterMap.values()) {
-                String formatName = e.getFormatName();
-                if(e.getPrerequisiteFormatName().isPresent()) {
-                    String prereqFormatName = e.getPrerequisiteFormatName().get();
-                    try (InputStream preReqStream = getExport(dataset, prereqFormatName)) {
-                        dataProvider.setPrerequisiteInputStream(preReqStream);
-                        cacheExport(dataset, dataProvider, formatName, e);
-                        dataProvider.setPrerequisiteInputStream(null);
-                    } catch (IOException ioe) {
-                        throw new ExportException ("Could not get prerequisite " + e.getPrerequisiteFormatName() + " to create " + formatName + "export for dataset " + dataset.getId(), ioe);
-                    }
-                } else {
-                    cacheExport(dataset, dataProvider, formatName, e);
-                }
+            if (streamFileDetails) {
+                exportSequentially(dataset, dataProvider, graph);
+            } else {
+                exportInParallel(dataset, dataProvider, graph);
             }
             // Finally, if we have been able to successfully export in all available
             // formats, we'll increment the "last exported" time stamp:
             dataset.setLastExportTime(new Timestamp(new Date().getTime()));
 
+        } catch (ExportException ee) {
+            throw ee;
+        } catch (IOException ioe) {
+            throw new ExportException("Could not open the storage to export metadata for dataset " + dataset.getId(), ioe);
         } catch (ServiceConfigurationError serviceError) {
             throw new ExportException("Service configuration error during export. " + serviceError.getMessage());
         } catch (RuntimeException e) {
@@ -283,6 +358,103 @@ public class ExportService {
 
     }
 
+    /**
+     * Runs the exporters that don't depend on each other in parallel; the
+     * exporters with a prerequisite are chained after it, and are handed its
+     * output from memory.
+     */
+    private void exportInParallel(Dataset dataset, InternalExportDataProvider dataProvider, ExportDependencyGraph graph)
+            throws ExportException, IOException {
+        Map<String, CompletableFuture<byte[]>> exports = new HashMap<>();
+        for (String formatName : graph.getExecutionOrder()) {
+            Exporter e = exporterMap.get(formatName);
+            StorageIO<Dataset> storageIO = getStorageIO(dataset);
+            boolean keepOutput = graph.hasDependents(formatName);
+            String prereqFormatName = graph.getPrerequisite(formatName);
+            CompletableFuture<byte[]> export;
+            if (prereqFormatName == null) {
+                export = submitExport(() -> cacheExport(storageIO, dataProvider, formatName, e, keepOutput));
+            } else {
+                export = exports.get(prereqFormatName).thenCompose(prereqOutput -> submitExport(() -> {
+                    if (prereqOutput == null) {
+                        logger.warning("Skipping the " + formatName + " export: its prerequisite " + prereqFormatName + " export failed");
+                        return null;
+                    }
+                    InternalExportDataProvider prereqDataProvider = new InternalExportDataProvider(dataProvider,
+                            new ByteArrayInputStream(prereqOutput));
+                    return cacheExport(storageIO, prereqDataProvider, formatName, e, keepOutput);
+                }));
+            }
+            exports.put(formatName, export);
+        }
+
+        ExportException failure = null;
+        for (CompletableFuture<byte[]> export : exports.values()) {
+            try {
+                export.join();
+            } catch (CompletionException | CancellationException ce) {
+                if (failure == null) {
+                    failure = ce.getCause() instanceof ExportException ee ? ee
+                            : new ExportException("Exception exporting metadata. " + ce.getMessage(), ce.getCause());
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Runs the exporters one after another on the calling thread (which is
+     * required when the file details are generated from the entities as the
+     * exporters go). An exporter with a prerequisite reads its output back from
+     * storage, since it may be too large to be kept in memory.
+     */
+    private void exportSequentially(Dataset dataset, InternalExportDataProvider dataProvider, ExportDependencyGraph graph)
+            throws ExportException, IOException {
+        for (String formatName : graph.getExecutionOrder()) {
+            Exporter e = exporterMap.get(formatName);
+            String prereqFormatName = graph.getPrerequisite(formatName);
+            if (prereqFormatName == null) {
+                cacheExport(getStorageIO(dataset), dataProvider, formatName, e, false);
+            } else {
+                try (InputStream prereqStream = getCachedExportFormat(dataset, prereqFormatName)) {
+                    if (prereqStream == null) {
+                        logger.warning("Skipping the " + formatName + " export: its prerequisite " + prereqFormatName + " export failed");
+                        continue;
+                    }
+                    cacheExport(getStorageIO(dataset), new InternalExportDataProvider(dataProvider, prereqStream), formatName, e, false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs an export on the export executor, or right away on the calling
+     * thread if parallel exports are disabled.
+     */
+    private CompletableFuture<byte[]> submitExport(Callable<byte[]> export) {
+        if (exportExecutor == null) {
+            try {
+                return CompletableFuture.completedFuture(export.call());
+            } catch (Exception ex) {
+                return CompletableFuture.failedFuture(ex);
+            }
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            // (the exporters that are running don't wait for anything, so
+            // they always give their permits back)
+            runningExporters.acquireUninterruptibly();
+            try {
+                return export.call();
+            } catch (Exception ex) {
+                throw new CompletionException(ex);
+            } finally {
+                runningExporters.release();
+            }
+        }, exportExecutor);
+    }
+
     public void clearAllCachedFormats(Dataset dataset) throws IOException {
         try {
 
@@ -315,13 +487,19 @@ public class ExportService {
                     String prereqFormatName = e.getPrerequisiteFormatName().get();
                     try (InputStream preReqStream = getExport(dataset, prereqFormatName)) {
                         InternalExportDataProvider dataProvider = new InternalExportDataProvider(releasedVersion, preReqStream);
-                        cacheExport(dataset, dataProvider, formatName, e);
+                        cacheExport(getStorageIO(dataset), dataProvider, formatName, e, false);
                     } catch (IOException ioe) {
                         throw new ExportException ("Could not get prerequisite " + e.getPrerequisiteFormatName() + " to create " + formatName + "export for dataset " + dataset.getId(), ioe);
                     }
                 } else {
                     InternalExportDataProvider dataProvider = new InternalExportDataProvider(releasedVersion);
-                    cacheExport(dataset, dataProvider, formatName, e);
+                    StorageIO<Dataset> storageIO;
+                    try {
+                        storageIO = getStorageIO(dataset);
+                    } catch (IOException ioe) {
+                        throw new ExportException("IO Exception thrown before exporting as " + "export_" + formatName + ".cached", ioe);
+                    }
+                    cacheExport(storageIO, dataProvider, formatName, e, false);
                 }
                 // As with exportAll, we should update the lastexporttime for the dataset
                 dataset.setLastExportTime(new Timestamp(new Date().getTime()));
@@ -352,15 +530,18 @@ public class ExportService {
     }
 
     // This method runs the selected metadata exporter, caching the output
-    // in a file in the dataset directory / container based on its DOI:
-    private void cacheExport(Dataset dataset, InternalExportDataProvider dataProvider, String format, Exporter exporter)
+    // in a file in the dataset directory / container based on its DOI.
+    // If keepOutput is true, the output is also returned, so that it can be
+    // passed on to exporters that use it as their prerequisite; otherwise (or
+    // if the exporter failed) null is returned.
+    private byte[] cacheExport(StorageIO<Dataset> storageIO, InternalExportDataProvider dataProvider, String format, Exporter exporter, boolean keepOutput)
             throws ExportException {
         
         OutputStream outputStream = null;
+        ByteArrayOutputStream keptOutput = keepOutput ? new ByteArrayOutputStream() : null;
         try {
             boolean tempFileUsed = false;
             File tempFile = null;
-            StorageIO<Dataset> storageIO = null;
 
             // With some storage drivers, we can open a WritableChannel, or OutputStream
             // to directly write the generated metadata export that we want to cache;
@@ -369,7 +550,6 @@ public class ExportService {
             // to save the output into a temp file, and then copy it over to the
             // permanent storage using the IO "save" command:
             try {
-                storageIO = DataAccess.getStorageIO(dataset);
                 Channel outputChannel = storageIO.openAuxChannel("export_" + format + ".cached",
                         DataAccessOption.WRITE_ACCESS);
                 outputStream = Channels.newOutputStream((WritableByteChannel) outputChannel);
@@ -380,6 +560,9 @@ public class ExportService {
                 tempFile = File.createTempFile("tempFileToExport", ".tmp");
                 outputStream = new FileOutputStream(tempFile);
             }
+            if (keepOutput) {
+                outputStream = new TeeOutputStream(outputStream, keptOutput);
+            }
 
             try {
                 // Write the metadata export file to the outputStream, which may be the final
@@ -394,6 +577,7 @@ public class ExportService {
                     boolean tempFileDeleted = tempFile.delete();
                     logger.fine("tempFileDeleted: " + tempFileDeleted);
                 }
+                return keepOutput ? keptOutput.toByteArray() : null;
             } catch (ExportException exex) {
                 /*
                  * This exception is from the particular exporter and may not affect other
@@ -404,6 +588,7 @@ public class ExportService {
                  * ignore beyond terminating any loop over exporters.
                  */
                 logger.warning("Exception thrown while creating export_" + format + ".cached : " + exex.getMessage());
+                return null;
             } catch (IOException ioex) {
                 throw new ExportException("IO Exception thrown exporting as " + "export_" + format + ".cached");
             }
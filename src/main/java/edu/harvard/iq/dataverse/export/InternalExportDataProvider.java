@@ -1,7 +1,11 @@
 package edu.harvard.iq.dataverse.export;
 
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import jakarta.json.Json;
 import jakarta.json.JsonArray;
@@ -24,10 +28,14 @@ import edu.harvard.iq.dataverse.util.json.JsonUtil;
  */
 public class InternalExportDataProvider implements ExportDataProvider {
 
+    private static final Logger logger = Logger.getLogger(InternalExportDataProvider.class.getCanonicalName());
+
     private DatasetVersion dv;
     private JsonObject jsonRepresentation = null;
     private JsonObject schemaDotOrgRepresentation = null;
     private JsonObject oreRepresentation = null;
+    private String dataCiteXml = null;
+    private JsonArray fileDetails = null;
     private InputStream is = null;
 
     InternalExportDataProvider(DatasetVersion dv) {
@@ -39,6 +47,49 @@ public class InternalExportDataProvider implements ExportDataProvider {
         this.is=is;
     }
 
+    /**
+     * A view of an already {@link #materialize() materialized} provider, with
+     * its own prerequisite input stream. The (immutable) representations are
+     * shared, so several exporters can each use their own view in parallel.
+     */
+    InternalExportDataProvider(InternalExportDataProvider source, InputStream is) {
+        this.dv = source.dv;
+        this.jsonRepresentation = source.jsonRepresentation;
+        this.schemaDotOrgRepresentation = source.schemaDotOrgRepresentation;
+        this.oreRepresentation = source.oreRepresentation;
+        this.dataCiteXml = source.dataCiteXml;
+        this.fileDetails = source.fileDetails;
+        this.is = is;
+    }
+
+    /**
+     * Builds all the representations of the version up front. The entity graph
+     * behind the DatasetVersion must not be navigated from several threads at
+     * once, so this needs to be called (on the thread that loaded the version)
+     * before handing the provider to exporters running in parallel.
+     * A representation that fails to build is left to be built (and to fail
+     * again) when, and only if, an exporter asks for it.
+     * 
+     * @param includeFileDetails whether to build the file details as well; if
+     * not, they will be generated one file at a time by
+     * {@link #getDatasetFileDetailsIterable()} (from the entities, so only on
+     * the calling thread).
+     */
+    void materialize(boolean includeFileDetails) {
+        List<Runnable> builders = new ArrayList<>(List.of(this::getDatasetJson, this::getDatasetSchemaDotOrg,
+                this::getDatasetORE, this::getDataCiteXml));
+        if (includeFileDetails) {
+            builders.add(this::getDatasetFileDetails);
+        }
+        for (Runnable builder : builders) {
+            try {
+                builder.run();
+            } catch (RuntimeException e) {
+                logger.log(Level.FINE, "Could not prepare a representation of the dataset version for export", e);
+            }
+        }
+    }
+
     @Override
     public JsonObject getDatasetJson() {
         if (jsonRepresentation == null) {
@@ -67,20 +118,41 @@ public class InternalExportDataProvider implements ExportDataProvider {
 
     @Override
     public String getDataCiteXml() {
-        return DOIDataCiteRegisterService.getMetadataFromDvObject(
-                dv.getDataset().getGlobalId().asString(), new DataCitation(dv).getDataCiteMetadata(), dv.getDataset());
+        if (dataCiteXml == null) {
+            dataCiteXml = DOIDataCiteRegisterService.getMetadataFromDvObject(
+                    dv.getDataset().getGlobalId().asString(), new DataCitation(dv).getDataCiteMetadata(), dv.getDataset());
+        }
+        return dataCiteXml;
     }
     
     @Override
     public JsonArray getDatasetFileDetails() {
-        JsonArrayBuilder jab = Json.createArrayBuilder();
-        for (FileMetadata fileMetadata : dv.getFileMetadatas()) {
-            DataFile dataFile = fileMetadata.getDataFile();
-            jab.add(JsonPrinter.json(dataFile, fileMetadata, true));
+        if (fileDetails == null) {
+            JsonArrayBuilder jab = Json.createArrayBuilder();
+            for (FileMetadata fileMetadata : dv.getFileMetadatas()) {
+                DataFile dataFile = fileMetadata.getDataFile();
+                jab.add(JsonPrinter.json(dataFile, fileMetadata, true));
+            }
+            fileDetails = jab.build();
         }
-        return jab.build();
+        return fileDetails;
     }
     
+    /**
+     * Unless the file details have already been built as a whole, the entries
+     * are generated from the file metadatas as the iteration goes, so that
+     * only one of them needs to be in memory at a time.
+     */
+    @Override
+    public Iterable<JsonObject> getDatasetFileDetailsIterable() {
+        if (fileDetails != null) {
+            return fileDetails.getValuesAs(JsonObject.class);
+        }
+        return () -> dv.getFileMetadatas().stream()
+                .map(fileMetadata -> JsonPrinter.json(fileMetadata.getDataFile(), fileMetadata, true).build())
+                .iterator();
+    }
+
     @Override
     public Optional<InputStream> getPrerequisiteInputStream() {
         return Optional.ofNullable(is);
@@ -31,7 +31,12 @@ import edu.harvard.iq.dataverse.util.json.JsonUtil;
 import edu.harvard.iq.dataverse.util.xml.XmlPrinter;
 import edu.harvard.iq.dataverse.util.xml.XmlWriterUtil;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.file.Files;
@@ -48,8 +53,11 @@ import jakarta.json.JsonArrayBuilder;
 import jakarta.json.JsonObject;
 import jakarta.json.JsonString;
 import jakarta.json.JsonValue;
+import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.stream.XMLStreamWriter;
 
 import javax.xml.parsers.DocumentBuilder;
@@ -135,6 +143,14 @@ public class DdiExportUtil {
     
     // "full" ddi, with the the "<fileDscr>"  and "<dataDscr>/<var>" sections: 
     public static void datasetJson2ddi(JsonObject datasetDtoAsJson, JsonArray fileDetails, OutputStream outputStream) throws XMLStreamException {
+        datasetJson2ddi(datasetDtoAsJson, fileDetails.getValuesAs(JsonObject.class), outputStream);
+    }
+
+    // Same as above, with the file details coming from an Iterable that may 
+    // generate them one at a time (see ExportDataProvider.getDatasetFileDetailsIterable()).
+    // Unless they are already in memory, they are iterated over only once 
+    // (see createFileSections()).
+    public static void datasetJson2ddi(JsonObject datasetDtoAsJson, Iterable<JsonObject> fileDetails, OutputStream outputStream) throws XMLStreamException {
         logger.fine(JsonUtil.prettyPrint(datasetDtoAsJson.toString()));
         Gson gson = new Gson();
         DatasetDTO datasetDto = gson.fromJson(datasetDtoAsJson.toString(), DatasetDTO.class);
@@ -149,9 +165,13 @@ public class DdiExportUtil {
             xmlw.writeAttribute("xml:lang", datasetDto.getMetadataLanguage());
         }
         createStdyDscr(xmlw, datasetDto);
-        createFileDscr(xmlw, fileDetails);
-        createDataDscr(xmlw, fileDetails);
-        createOtherMatsFromFileMetadatas(xmlw, fileDetails);
+        if (fileDetails instanceof Collection) {
+            createFileDscr(xmlw, fileDetails);
+            createDataDscr(xmlw, fileDetails);
+            createOtherMatsFromFileMetadatas(xmlw, fileDetails);
+        } else {
+            createFileSections(xmlw, fileDetails);
+        }
         xmlw.writeEndElement(); // codeBook
         xmlw.flush();
     }
@@ -1443,47 +1463,50 @@ public class DdiExportUtil {
     // otherMat, or a fileDscr section. 
     // -- L.A. 4.5 
     
-    private static void createOtherMatsFromFileMetadatas(XMLStreamWriter xmlw, JsonArray fileDetails) throws XMLStreamException {
+    private static void createOtherMatsFromFileMetadatas(XMLStreamWriter xmlw, Iterable<JsonObject> fileDetails) throws XMLStreamException {
         // The preferred URL for this dataverse, for cooking up the file access API links:
         String dataverseUrl = SystemConfig.getDataverseSiteUrlStatic();
         
-        for (int i=0;i<fileDetails.size();i++) {
-            JsonObject fileJson = fileDetails.getJsonObject(i);
-            // We'll continue using the scheme we've used before, in DVN2-3: non-tabular files are put into otherMat,
-            // tabular ones - in fileDscr sections. (fileDscr sections have special fields for numbers of variables
-            // and observations, etc.)
-            if (!fileJson.containsKey("dataTables")) {
-                xmlw.writeStartElement("otherMat");
-                xmlw.writeAttribute("ID", "f" + fileJson.getJsonNumber(("id").toString()));
-                if (fileJson.containsKey("pidUrl")){
-                    XmlWriterUtil.writeAttribute(xmlw, "URI",  fileJson.getString("pidUrl"));
-                }  else {
-                    xmlw.writeAttribute("URI", dataverseUrl + "/api/access/datafile/" + fileJson.getJsonNumber("id").toString());
-                }
+        for (JsonObject fileJson : fileDetails) {
+            createOtherMat(xmlw, fileJson, dataverseUrl);
+        }
+    }
 
-                xmlw.writeAttribute("level", "datafile");
-                xmlw.writeStartElement("labl");
-                xmlw.writeCharacters(fileJson.getString("filename"));
-                xmlw.writeEndElement(); // labl
-                
-                if (fileJson.containsKey("description")) {
-                    xmlw.writeStartElement("txt");
-                    xmlw.writeCharacters(fileJson.getString("description"));
-                    xmlw.writeEndElement(); // txt
-                }
-                // there's no readily available field in the othermat section 
-                // for the content type (aka mime type); so we'll store it in this
-                // specially formatted notes section:
-                if (fileJson.containsKey("contentType")) {
-                    xmlw.writeStartElement("notes");
-                    xmlw.writeAttribute("level", LEVEL_FILE);
-                    xmlw.writeAttribute("type", NOTE_TYPE_CONTENTTYPE);
-                    xmlw.writeAttribute("subject", NOTE_SUBJECT_CONTENTTYPE);
-                    xmlw.writeCharacters(fileJson.getString("contentType"));
-                    xmlw.writeEndElement(); // notes
-                }
-                xmlw.writeEndElement(); // otherMat
+    private static void createOtherMat(XMLStreamWriter xmlw, JsonObject fileJson, String dataverseUrl) throws XMLStreamException {
+        // We'll continue using the scheme we've used before, in DVN2-3: non-tabular files are put into otherMat,
+        // tabular ones - in fileDscr sections. (fileDscr sections have special fields for numbers of variables
+        // and observations, etc.)
+        if (!fileJson.containsKey("dataTables")) {
+            xmlw.writeStartElement("otherMat");
+            xmlw.writeAttribute("ID", "f" + fileJson.getJsonNumber(("id").toString()));
+            if (fileJson.containsKey("pidUrl")){
+                XmlWriterUtil.writeAttribute(xmlw, "URI",  fileJson.getString("pidUrl"));
+            }  else {
+                xmlw.writeAttribute("URI", dataverseUrl + "/api/access/datafile/" + fileJson.getJsonNumber("id").toString());
+            }
+
+            xmlw.writeAttribute("level", "datafile");
+            xmlw.writeStartElement("labl");
+            xmlw.writeCharacters(fileJson.getString("filename"));
+            xmlw.writeEndElement(); // labl
+            
+            if (fileJson.containsKey("description")) {
+                xmlw.writeStartElement("txt");
+                xmlw.writeCharacters(fileJson.getString("description"));
+                xmlw.writeEndElement(); // txt
             }
+            // there's no readily available field in the othermat section 
+            // for the content type (aka mime type); so we'll store it in this
+            // specially formatted notes section:
+            if (fileJson.containsKey("contentType")) {
+                xmlw.writeStartElement("notes");
+                xmlw.writeAttribute("level", LEVEL_FILE);
+                xmlw.writeAttribute("type", NOTE_TYPE_CONTENTTYPE);
+                xmlw.writeAttribute("subject", NOTE_SUBJECT_CONTENTTYPE);
+                xmlw.writeCharacters(fileJson.getString("contentType"));
+                xmlw.writeEndElement(); // notes
+            }
+            xmlw.writeEndElement(); // otherMat
         }
     }
     
@@ -1558,56 +1581,22 @@ public class DdiExportUtil {
     // so we probably should not invest any time into it right now). -- L.A. 4.5
     
     public static void createDataDscr(XMLStreamWriter xmlw, JsonArray fileDetails) throws XMLStreamException {
+        createDataDscr(xmlw, fileDetails.getValuesAs(JsonObject.class));
+    }
 
-        if (fileDetails.isEmpty()) {
-            return;
-        }
+    public static void createDataDscr(XMLStreamWriter xmlw, Iterable<JsonObject> fileDetails) throws XMLStreamException {
 
         boolean tabularData = false;
 
         // we're not writing the opening <dataDscr> tag until we find an actual 
         // tabular datafile.
-        for (int i=0;i<fileDetails.size();i++) {
-            JsonObject fileJson = fileDetails.getJsonObject(i);
-
-            /**
-             * Previously (in Dataverse 5.3 and below) the dataDscr section was
-             * included for restricted files but that meant that summary
-             * statistics were exposed. (To get at these statistics, API users
-             * should instead use the "Data Variable Metadata Access" endpoint.)
-             * These days we skip restricted files to avoid this exposure.
-             */
-            if (fileJson.containsKey("restricted") && fileJson.getBoolean("restricted")) {
-                continue;
-            }
-            if(fileJson.containsKey("embargo")) {
-             String dateString = fileJson.getJsonObject("embargo").getString("dateAvailable");
-             LocalDate endDate = LocalDate.parse(dateString);
-             if (endDate != null && endDate.isAfter(LocalDate.now())) {
-                 //Embargo is active so skip
-                 continue;
-             }
-            }
-        
-            if (fileJson.containsKey("dataTables")) {
+        for (JsonObject fileJson : fileDetails) {
+            if (isInDataDscr(fileJson)) {
                 if (!tabularData) {
                     xmlw.writeStartElement("dataDscr");
                     tabularData = true;
                 }
-                if(fileJson.containsKey("varGroups")) {
-                    JsonArray varGroups = fileJson.getJsonArray("varGroups");
-                    for (int j=0;j<varGroups.size();j++){
-                        createVarGroupDDI(xmlw, varGroups.getJsonObject(j));
-                    }
-                }
-                JsonObject dataTable = fileJson.getJsonArray("dataTables").getJsonObject(0);
-                JsonArray vars = dataTable.getJsonArray("dataVariables");
-                if (vars != null) {
-                    for (int j = 0; j < vars.size(); j++) {
-                        createVarDDI(xmlw, vars.getJsonObject(j), fileJson.getJsonNumber("id").toString(),
-                                fileJson.getJsonNumber("fileMetadataId").toString());
-                    }
-                }
+                createDataDscrEntries(xmlw, fileJson);
             }
         }
 
@@ -1615,6 +1604,46 @@ public class DdiExportUtil {
             xmlw.writeEndElement(); // dataDscr
         }
     }
+
+    private static boolean isInDataDscr(JsonObject fileJson) {
+        /**
+         * Previously (in Dataverse 5.3 and below) the dataDscr section was
+         * included for restricted files but that meant that summary
+         * statistics were exposed. (To get at these statistics, API users
+         * should instead use the "Data Variable Metadata Access" endpoint.)
+         * These days we skip restricted files to avoid this exposure.
+         */
+        if (fileJson.containsKey("restricted") && fileJson.getBoolean("restricted")) {
+            return false;
+        }
+        if(fileJson.containsKey("embargo")) {
+         String dateString = fileJson.getJsonObject("embargo").getString("dateAvailable");
+         LocalDate endDate = LocalDate.parse(dateString);
+         if (endDate != null && endDate.isAfter(LocalDate.now())) {
+             //Embargo is active so skip
+             return false;
+         }
+        }
+        return fileJson.containsKey("dataTables");
+    }
+
+    // The varGrp and var elements of a tabular file:
+    private static void createDataDscrEntries(XMLStreamWriter xmlw, JsonObject fileJson) throws XMLStreamException {
+        if(fileJson.containsKey("varGroups")) {
+            JsonArray varGroups = fileJson.getJsonArray("varGroups");
+            for (int j=0;j<varGroups.size();j++){
+                createVarGroupDDI(xmlw, varGroups.getJsonObject(j));
+            }
+        }
+        JsonObject dataTable = fileJson.getJsonArray("dataTables").getJsonObject(0);
+        JsonArray vars = dataTable.getJsonArray("dataVariables");
+        if (vars != null) {
+            for (int j = 0; j < vars.size(); j++) {
+                createVarDDI(xmlw, vars.getJsonObject(j), fileJson.getJsonNumber("id").toString(),
+                        fileJson.getJsonNumber("fileMetadataId").toString());
+            }
+        }
+    }
     private static void createVarGroupDDI(XMLStreamWriter xmlw, JsonObject varGrp) throws XMLStreamException {
         xmlw.writeStartElement("varGrp");
         xmlw.writeAttribute("ID", "VG" + varGrp.getJsonNumber("id").toString());
@@ -1878,96 +1907,180 @@ public class DdiExportUtil {
 
     }
     
-    private static void createFileDscr(XMLStreamWriter xmlw, JsonArray fileDetails) throws XMLStreamException {
+    private static void createFileDscr(XMLStreamWriter xmlw, Iterable<JsonObject> fileDetails) throws XMLStreamException {
         String dataverseUrl = SystemConfig.getDataverseSiteUrlStatic();
-        for (int i =0;i<fileDetails.size();i++) {
-            JsonObject fileJson = fileDetails.getJsonObject(i);
-            //originalFileFormat is one of several keys that only exist for tabular data
-            if (fileJson.containsKey("originalFileFormat")) {
-                JsonObject dt = null;
-                if (fileJson.containsKey("dataTables")) {
-                    dt = fileJson.getJsonArray("dataTables").getJsonObject(0);
-                }
-                xmlw.writeStartElement("fileDscr");
-                String fileId = fileJson.getJsonNumber("id").toString();
-                xmlw.writeAttribute("ID", "f" + fileId);
-                xmlw.writeAttribute("URI", dataverseUrl + "/api/access/datafile/" + fileId);
-
-                xmlw.writeStartElement("fileTxt");
-                xmlw.writeStartElement("fileName");
-                xmlw.writeCharacters(fileJson.getString("filename"));
-                xmlw.writeEndElement(); // fileName
-
-                if (dt != null && (dt.containsKey("caseQuantity") || dt.containsKey("varQuantity")
-                        || dt.containsKey("recordsPerCase"))) {
-                    xmlw.writeStartElement("dimensns");
-
-                    if (dt.containsKey("caseQuantity")) {
-                        xmlw.writeStartElement("caseQnty");
-                        xmlw.writeCharacters(dt.getJsonNumber("caseQuantity").toString());
-                        xmlw.writeEndElement(); // caseQnty
-                    }
+        for (JsonObject fileJson : fileDetails) {
+            createFileDscr(xmlw, fileJson, dataverseUrl);
+        }
+    }
 
-                    if (dt.containsKey("varQuantity")) {
-                        xmlw.writeStartElement("varQnty");
-                        xmlw.writeCharacters(dt.getJsonNumber("varQuantity").toString());
-                        xmlw.writeEndElement(); // varQnty
-                    }
+    private static void createFileDscr(XMLStreamWriter xmlw, JsonObject fileJson, String dataverseUrl) throws XMLStreamException {
+        //originalFileFormat is one of several keys that only exist for tabular data
+        if (fileJson.containsKey("originalFileFormat")) {
+            JsonObject dt = null;
+            if (fileJson.containsKey("dataTables")) {
+                dt = fileJson.getJsonArray("dataTables").getJsonObject(0);
+            }
+            xmlw.writeStartElement("fileDscr");
+            String fileId = fileJson.getJsonNumber("id").toString();
+            xmlw.writeAttribute("ID", "f" + fileId);
+            xmlw.writeAttribute("URI", dataverseUrl + "/api/access/datafile/" + fileId);
+
+            xmlw.writeStartElement("fileTxt");
+            xmlw.writeStartElement("fileName");
+            xmlw.writeCharacters(fileJson.getString("filename"));
+            xmlw.writeEndElement(); // fileName
+
+            if (dt != null && (dt.containsKey("caseQuantity") || dt.containsKey("varQuantity")
+                    || dt.containsKey("recordsPerCase"))) {
+                xmlw.writeStartElement("dimensns");
+
+                if (dt.containsKey("caseQuantity")) {
+                    xmlw.writeStartElement("caseQnty");
+                    xmlw.writeCharacters(dt.getJsonNumber("caseQuantity").toString());
+                    xmlw.writeEndElement(); // caseQnty
+                }
 
-                    if (dt.containsKey("recordsPerCase")) {
-                        xmlw.writeStartElement("recPrCas");
-                        xmlw.writeCharacters(dt.getJsonNumber("recordsPerCase").toString());
-                        xmlw.writeEndElement(); // recPrCas
-                    }
+                if (dt.containsKey("varQuantity")) {
+                    xmlw.writeStartElement("varQnty");
+                    xmlw.writeCharacters(dt.getJsonNumber("varQuantity").toString());
+                    xmlw.writeEndElement(); // varQnty
+                }
 
-                    xmlw.writeEndElement(); // dimensns
+                if (dt.containsKey("recordsPerCase")) {
+                    xmlw.writeStartElement("recPrCas");
+                    xmlw.writeCharacters(dt.getJsonNumber("recordsPerCase").toString());
+                    xmlw.writeEndElement(); // recPrCas
                 }
 
-                xmlw.writeStartElement("fileType");
-                xmlw.writeCharacters(fileJson.getString("contentType"));
-                xmlw.writeEndElement(); // fileType
+                xmlw.writeEndElement(); // dimensns
+            }
+
+            xmlw.writeStartElement("fileType");
+            xmlw.writeCharacters(fileJson.getString("contentType"));
+            xmlw.writeEndElement(); // fileType
 
-                xmlw.writeEndElement(); // fileTxt
+            xmlw.writeEndElement(); // fileTxt
 
-                // various notes:
-                // this specially formatted note section is used to store the UNF
-                // (Universal Numeric Fingerprint) signature:
-                if ((dt!=null) && (dt.containsKey("UNF") && !dt.getString("UNF").isBlank())) {
+            // various notes:
+            // this specially formatted note section is used to store the UNF
+            // (Universal Numeric Fingerprint) signature:
+            if ((dt!=null) && (dt.containsKey("UNF") && !dt.getString("UNF").isBlank())) {
+                xmlw.writeStartElement("notes");
+                xmlw.writeAttribute("level", LEVEL_FILE);
+                xmlw.writeAttribute("type", NOTE_TYPE_UNF);
+                xmlw.writeAttribute("subject", NOTE_SUBJECT_UNF);
+                xmlw.writeCharacters(dt.getString("UNF"));
+                xmlw.writeEndElement(); // notes
+            }
+
+            // If any tabular tags are present, each is formatted in a 
+            // dedicated note:
+            if (fileJson.containsKey("tabularTags")) {
+                JsonArray tags = fileJson.getJsonArray("tabularTags");
+                for (int j = 0; j < tags.size(); j++) {
                     xmlw.writeStartElement("notes");
                     xmlw.writeAttribute("level", LEVEL_FILE);
-                    xmlw.writeAttribute("type", NOTE_TYPE_UNF);
-                    xmlw.writeAttribute("subject", NOTE_SUBJECT_UNF);
-                    xmlw.writeCharacters(dt.getString("UNF"));
+                    xmlw.writeAttribute("type", NOTE_TYPE_TAG);
+                    xmlw.writeAttribute("subject", NOTE_SUBJECT_TAG);
+                    xmlw.writeCharacters(tags.getString(j));
                     xmlw.writeEndElement(); // notes
                 }
+            }
+            
+            // Adding a dedicated node for the description entry (for 
+            // non-tabular files we format it under the <txt> field)
+            if (fileJson.containsKey("description")) {
+                xmlw.writeStartElement("notes");
+                xmlw.writeAttribute("level", LEVEL_FILE);
+                xmlw.writeAttribute("type", NOTE_TYPE_FILEDESCRIPTION);
+                xmlw.writeAttribute("subject", NOTE_SUBJECT_FILEDESCRIPTION);
+                xmlw.writeCharacters(fileJson.getString("description"));
+                xmlw.writeEndElement(); // notes
+            }
 
-                // If any tabular tags are present, each is formatted in a 
-                // dedicated note:
-                if (fileJson.containsKey("tabularTags")) {
-                    JsonArray tags = fileJson.getJsonArray("tabularTags");
-                    for (int j = 0; j < tags.size(); j++) {
-                        xmlw.writeStartElement("notes");
-                        xmlw.writeAttribute("level", LEVEL_FILE);
-                        xmlw.writeAttribute("type", NOTE_TYPE_TAG);
-                        xmlw.writeAttribute("subject", NOTE_SUBJECT_TAG);
-                        xmlw.writeCharacters(tags.getString(j));
-                        xmlw.writeEndElement(); // notes
+            // TODO: add the remaining fileDscr elements!
+            xmlw.writeEndElement(); // fileDscr
+        }
+    }
+
+    // The fileDscr, dataDscr and otherMat sections, with a single pass over 
+    // file details that are generated as they are iterated over (generating 
+    // them again for each section would cost as much as the rest of the export).
+    // The fileDscr sections are written as the files come; the dataDscr 
+    // section, with the variables (the bulk of the file metadata), is written 
+    // to a temporary file, and copied over once all the fileDscr sections are 
+    // written; the entries of the non-tabular files (which are small) are 
+    // kept for their otherMat sections.
+    private static void createFileSections(XMLStreamWriter xmlw, Iterable<JsonObject> fileDetails) throws XMLStreamException {
+        String dataverseUrl = SystemConfig.getDataverseSiteUrlStatic();
+        List<JsonObject> otherMats = new ArrayList<>();
+        File dataDscrFile = null;
+        try {
+            dataDscrFile = File.createTempFile("ddi-dataDscr", ".xml");
+            boolean tabularData = false;
+            try (OutputStream dataDscrStream = new BufferedOutputStream(new FileOutputStream(dataDscrFile))) {
+                XMLStreamWriter dataDscrWriter = XMLOutputFactory.newInstance().createXMLStreamWriter(dataDscrStream, "UTF-8");
+                dataDscrWriter.writeStartElement("dataDscr");
+                for (JsonObject fileJson : fileDetails) {
+                    createFileDscr(xmlw, fileJson, dataverseUrl);
+                    if (isInDataDscr(fileJson)) {
+                        createDataDscrEntries(dataDscrWriter, fileJson);
+                        tabularData = true;
+                    }
+                    if (!fileJson.containsKey("dataTables")) {
+                        otherMats.add(fileJson);
                     }
                 }
-                
-                // Adding a dedicated node for the description entry (for 
-                // non-tabular files we format it under the <txt> field)
-                if (fileJson.containsKey("description")) {
-                    xmlw.writeStartElement("notes");
-                    xmlw.writeAttribute("level", LEVEL_FILE);
-                    xmlw.writeAttribute("type", NOTE_TYPE_FILEDESCRIPTION);
-                    xmlw.writeAttribute("subject", NOTE_SUBJECT_FILEDESCRIPTION);
-                    xmlw.writeCharacters(fileJson.getString("description"));
-                    xmlw.writeEndElement(); // notes
+                dataDscrWriter.writeEndElement(); // dataDscr
+                dataDscrWriter.close();
+            }
+            if (tabularData) {
+                try (InputStream dataDscrStream = new BufferedInputStream(new FileInputStream(dataDscrFile))) {
+                    XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+                    xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+                    XMLStreamReader xmlr = xmlInputFactory.createXMLStreamReader(dataDscrStream, "UTF-8");
+                    copyElements(xmlr, xmlw);
+                    xmlr.close();
                 }
+            }
+        } catch (IOException ex) {
+            throw new XMLStreamException("Failed to write the dataDscr section to a temporary file", ex);
+        } finally {
+            if (dataDscrFile != null && !dataDscrFile.delete()) {
+                logger.warning("Failed to delete temporary file " + dataDscrFile);
+            }
+        }
+        for (JsonObject fileJson : otherMats) {
+            createOtherMat(xmlw, fileJson, dataverseUrl);
+        }
+    }
 
-                // TODO: add the remaining fileDscr elements!
-                xmlw.writeEndElement(); // fileDscr
+    // Copies the elements read to the writer (they are the ones written by 
+    // the methods above: no namespaces, comments or processing instructions).
+    private static void copyElements(XMLStreamReader xmlr, XMLStreamWriter xmlw) throws XMLStreamException {
+        while (xmlr.hasNext()) {
+            switch (xmlr.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    xmlw.writeStartElement(xmlr.getLocalName());
+                    for (int i = 0; i < xmlr.getAttributeCount(); i++) {
+                        String prefix = xmlr.getAttributePrefix(i);
+                        String name = StringUtils.isEmpty(prefix) ? xmlr.getAttributeLocalName(i) : prefix + ":" + xmlr.getAttributeLocalName(i);
+                        xmlw.writeAttribute(name, xmlr.getAttributeValue(i));
+                    }
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                    xmlw.writeCharacters(xmlr.getText());
+                    break;
+                case XMLStreamConstants.CDATA:
+                    xmlw.writeCData(xmlr.getText());
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    xmlw.writeEndElement();
+                    break;
+                default:
+                    break;
             }
         }
     }
@@ -259,6 +259,24 @@ public class OAIRecordServiceBean implements java.io.Serializable {
     
     @TransactionAttribute(REQUIRES_NEW)
     public void exportAllFormatsInNewTransaction(Dataset dataset) throws ExportException {
+        exportAllFormats(dataset);
+    }
+
+    /**
+     * Same as above, but with the dataset loaded in the new transaction (for
+     * the exports run on other threads than the one that found the dataset:
+     * its entities can't be shared between threads).
+     */
+    @TransactionAttribute(REQUIRES_NEW)
+    public void exportAllFormatsInNewTransaction(Long datasetId) throws ExportException {
+        Dataset dataset = datasetService.find(datasetId);
+        if (dataset == null) {
+            throw new ExportException("Dataset " + datasetId + " not found");
+        }
+        exportAllFormats(dataset);
+    }
+
+    private void exportAllFormats(Dataset dataset) throws ExportException {
         try {
             ExportService exportServiceInstance = ExportService.getInstance();
             exportServiceInstance.exportAllFormats(dataset);
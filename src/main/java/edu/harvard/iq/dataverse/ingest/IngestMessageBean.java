@@ -23,12 +23,9 @@ package edu.harvard.iq.dataverse.ingest;
 import edu.harvard.iq.dataverse.*;
 import edu.harvard.iq.dataverse.authorization.AuthenticationServiceBean;
 import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
-import edu.harvard.iq.dataverse.search.IndexServiceBean;
-import edu.harvard.iq.dataverse.util.BundleUtil;
 
 import java.sql.Timestamp;
 import java.time.Instant;
-import java.util.Iterator;
 import java.util.logging.Logger;
 import jakarta.ejb.ActivationConfigProperty;
 import jakarta.ejb.EJB;
@@ -61,7 +58,7 @@ public class IngestMessageBean implements MessageListener {
     @EJB IngestServiceBean ingestService;
     @EJB UserNotificationServiceBean userNotificationService;
     @EJB AuthenticationServiceBean authenticationServiceBean;
-    @EJB IndexServiceBean indexService;
+    @EJB IngestScheduler ingestScheduler;
 
    
     public IngestMessageBean() {
@@ -90,78 +87,23 @@ public class IngestMessageBean implements MessageListener {
 
             authenticatedUser = authenticationServiceBean.findByID(ingestMessage.getAuthenticatedUserId());
 
-            Iterator<Long> iter = ingestMessage.getFileIds().iterator();
-            Long datafile_id = null;
+            // The files are ingested (and the dataset re-indexed) by the
+            // scheduler, in parallel with those of the other messages; we
+            // wait for them, so that the lock is only removed once they are
+            // all done.
+            IngestScheduler.Batch batch = ingestScheduler.submit(ingestMessage);
+            batch.awaitCompletion();
 
-            boolean ingestWithErrors = false;
+            boolean ingestWithErrors = batch.hasErrors();
 
+            // We used to list the successfully ingested files in the "success"
+            // and "mixed success and failure" emails. Now we never list successfully
+            // ingested files, only the failed ones.
             StringBuilder sbIngestedFiles = new StringBuilder();
             sbIngestedFiles.append("<ul>");
-            
-            while (iter.hasNext()) {
-                datafile_id = iter.next();
-
-                logger.fine("Start ingest job;");
-                try {
-
-                    DataFile datafile = datafileService.find(datafile_id);
-
-                    if (ingestService.ingestAsTabular(datafile_id)) {
-                        //Thread.sleep(10000);
-                        logger.fine("Finished ingest job;");
-                        // We used to list the successfully ingested files in the "success"
-                        // and "mixed success and failure" emails. Now we never list successfully
-                        // ingested files so this line is commented out.
-                        // sbIngestedFiles.append(String.format("<li>%s</li>", datafile.getCurrentName()));
-                        indexService.asyncIndexDataset(datafile.getOwner(), true);
-                    } else {
-                        logger.warning("Error occurred during ingest job for file id " + datafile_id + "!");
-                        sbIngestedFiles.append(String.format("<li>%s</li>", datafile.getCurrentName()));
-                        ingestWithErrors = true;
-                    }
-
-                } catch (Exception ex) {
-                    //ex.printStackTrace();
-                    // TODO: 
-                    // this solution is working - but it would be cleaner to instead
-                    // make sure that all the exceptions are interrupted and appropriate
-                    // action taken still on the ingest service side. 
-                    // -- L.A. Aug. 13 2014; 
-                    logger.info("Unknown exception occurred  during ingest (supressed stack trace); re-setting ingest status.");
-                    if (datafile_id != null) {
-                        logger.fine("looking up datafile for id " + datafile_id);
-                        DataFile datafile = datafileService.find(datafile_id);
-                        if (datafile != null) {
-
-                            ingestWithErrors = true;
-
-                            sbIngestedFiles.append(String.format("<li>%s</li>", datafile.getCurrentName()));
-
-                            datafile.SetIngestProblem();
-                            IngestReport errorReport = new IngestReport();
-                            errorReport.setFailure();
-                            if (ex.getMessage() != null) {
-                                errorReport.setReport(BundleUtil.getStringFromBundle("file.ingest.saveFailed.detail.message") + ex.getMessage());
-                            } else {
-                                errorReport.setReport(BundleUtil.getStringFromBundle("file.ingest.saveFailed.message"));
-                            }
-                            errorReport.setDataFile(datafile);
-                            datafile.setIngestReport(errorReport);
-                            datafile.setDataTables(null);
-
-                            logger.info("trying to save datafile and the failed ingest report, id=" + datafile_id);
-                            datafile = datafileService.save(datafile);
-
-                            if (ingestMessage.getDatasetId() != null) {
-                                //logger.info("attempting to remove dataset lock for dataset " + dataset.getId());
-                                //datasetService.removeDatasetLock(dataset.getId());
-                                ingestService.sendFailNotification(ingestMessage.getDatasetId());
-                            }
-                        }
-                    }
-                }
+            for (String failedFileName : batch.getFailedFileNames()) {
+                sbIngestedFiles.append(String.format("<li>%s</li>", failedFileName));
             }
-
             sbIngestedFiles.append("</ul>");
 
             userNotificationService.sendNotification(
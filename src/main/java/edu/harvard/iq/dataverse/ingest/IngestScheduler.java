@@ -0,0 +1,426 @@
+package edu.harvard.iq.dataverse.ingest;
+
+import edu.harvard.iq.dataverse.DataFile;
+import edu.harvard.iq.dataverse.DataFileServiceBean;
+import edu.harvard.iq.dataverse.Dataset;
+import edu.harvard.iq.dataverse.DatasetServiceBean;
+import edu.harvard.iq.dataverse.FileMetadata;
+import edu.harvard.iq.dataverse.search.IndexServiceBean;
+import edu.harvard.iq.dataverse.settings.JvmSettings;
+import edu.harvard.iq.dataverse.util.BundleUtil;
+import edu.harvard.iq.dataverse.util.FileUtil;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import jakarta.ejb.ConcurrencyManagement;
+import jakarta.ejb.ConcurrencyManagementType;
+import jakarta.ejb.EJB;
+import jakarta.ejb.Singleton;
+import jakarta.enterprise.concurrent.ManagedExecutorService;
+import jakarta.json.Json;
+import jakarta.json.JsonArrayBuilder;
+import jakarta.json.JsonObjectBuilder;
+
+/**
+ * Runs the tabular ingest of the files of the {@link IngestMessage}s received
+ * by the {@link IngestMessageBean}.
+ *
+ * At most dataverse.ingest.workers files are ingested at the same time on
+ * each server. When a worker is free, it takes the next file of the next
+ * user with files waiting, and of that user's next dataset: so one user's
+ * large upload does not hold up everybody else's, and the files of one
+ * dataset are ingested in parallel when nobody else is waiting. Each dataset
+ * is re-indexed once, when all the files of its batch have been ingested.
+ *
+ * Files that end up with the same name once ingested (data.csv and data.sav
+ * both become data.tab, and one of them is then renamed) are ingested one
+ * after the other, so that the renaming sees the other one.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class IngestScheduler {
+
+    private static final Logger logger = Logger.getLogger(IngestScheduler.class.getCanonicalName());
+
+    static final int DEFAULT_WORKERS = 2;
+
+    public enum FileStatus {
+        QUEUED, RUNNING, INGESTED, FAILED
+    }
+
+    @Resource
+    ManagedExecutorService executor;
+
+    @EJB
+    IngestServiceBean ingestService;
+
+    @EJB
+    DataFileServiceBean fileService;
+
+    @EJB
+    DatasetServiceBean datasetService;
+
+    @EJB
+    IndexServiceBean indexService;
+
+    private int workers;
+
+    // Guarded by this: the users with files waiting, in the order they get
+    // their next turn, each with their batches in the same order.
+    private final Map<Long, ArrayDeque<Batch>> waiting = new LinkedHashMap<>();
+    private final Set<Batch> batches = new LinkedHashSet<>();
+    private int running;
+
+    private final AtomicInteger maxRunning = new AtomicInteger();
+    private final LongAdder started = new LongAdder();
+    private final LongAdder ingested = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder ingestMillis = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        workers = Math.max(1, JvmSettings.INGEST_WORKERS.lookupOptional(Integer.class).orElse(DEFAULT_WORKERS));
+    }
+
+    /**
+     * Queues the files of the message for ingest.
+     *
+     * @return the batch of the files, to wait for and to get the results from.
+     */
+    public Batch submit(IngestMessage ingestMessage) {
+        return submit(ingestMessage.getDatasetId(), ingestMessage.getAuthenticatedUserId(), groupByTabularName(ingestMessage.getFileIds()));
+    }
+
+    /**
+     * @param units groups of files, each ingested one after the other.
+     */
+    Batch submit(Long datasetId, Long userId, List<List<Long>> units) {
+        Batch batch = new Batch(datasetId, userId, units);
+        if (batch.unitsLeft.get() == 0) {
+            batch.finished.countDown();
+            return batch;
+        }
+        synchronized (this) {
+            batches.add(batch);
+            waiting.computeIfAbsent(userId, u -> new ArrayDeque<>()).add(batch);
+        }
+        dispatch();
+        return batch;
+    }
+
+    /**
+     * Splits the files so that those that will have the same name once
+     * ingested are in the same group.
+     */
+    List<List<Long>> groupByTabularName(List<Long> fileIds) {
+        Map<String, List<Long>> units = new LinkedHashMap<>();
+        for (Long fileId : fileIds) {
+            DataFile dataFile = fileService.find(fileId);
+            FileMetadata fileMetadata = dataFile == null ? null : dataFile.getFileMetadata();
+            String key = fileMetadata == null || fileMetadata.getLabel() == null
+                    ? "#" + fileId
+                    : IngestUtil.makePathName(fileMetadata.getDirectoryLabel(), FileUtil.replaceExtension(fileMetadata.getLabel(), "tab"));
+            units.computeIfAbsent(key, k -> new ArrayList<>()).add(fileId);
+        }
+        return new ArrayList<>(units.values());
+    }
+
+    /**
+     * Hands as many groups of files to the executor as there are free
+     * workers.
+     */
+    private void dispatch() {
+        List<Unit> toRun = new ArrayList<>();
+        synchronized (this) {
+            Unit unit;
+            while (running < workers && (unit = nextUnit()) != null) {
+                running++;
+                toRun.add(unit);
+            }
+            maxRunning.accumulateAndGet(running, Math::max);
+        }
+        for (Unit unit : toRun) {
+            try {
+                executor.execute(() -> run(unit));
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Could not hand the ingest of files " + unit.fileIds + " to the executor; ingesting them now", e);
+                run(unit);
+            }
+        }
+    }
+
+    /**
+     * @return the next group of files of the next dataset of the user whose
+     * turn it is, or null if no files are waiting.
+     */
+    private Unit nextUnit() {
+        Iterator<Map.Entry<Long, ArrayDeque<Batch>>> users = waiting.entrySet().iterator();
+        if (!users.hasNext()) {
+            return null;
+        }
+        Map.Entry<Long, ArrayDeque<Batch>> user = users.next();
+        users.remove();
+        ArrayDeque<Batch> userBatches = user.getValue();
+        Batch batch = userBatches.poll();
+        Unit unit = batch.pending.poll();
+        if (!batch.pending.isEmpty()) {
+            userBatches.add(batch);
+        }
+        if (!userBatches.isEmpty()) {
+            // Back of the line
+            waiting.put(user.getKey(), userBatches);
+        }
+        return unit;
+    }
+
+    private void run(Unit unit) {
+        Batch batch = unit.batch;
+        try {
+            for (Long fileId : unit.fileIds) {
+                batch.statuses.put(fileId, FileStatus.RUNNING);
+                started.increment();
+                long startMillis = System.currentTimeMillis();
+                boolean success = ingest(batch, fileId);
+                ingestMillis.add(System.currentTimeMillis() - startMillis);
+                batch.statuses.put(fileId, success ? FileStatus.INGESTED : FileStatus.FAILED);
+                if (success) {
+                    ingested.increment();
+                    batch.ingested.incrementAndGet();
+                } else {
+                    failed.increment();
+                }
+            }
+        } finally {
+            synchronized (this) {
+                running--;
+            }
+            if (batch.unitsLeft.decrementAndGet() == 0) {
+                finish(batch);
+            }
+            dispatch();
+        }
+    }
+
+    /**
+     * @return whether the file was ingested; if not, its name is added to
+     * the failed files of the batch.
+     */
+    private boolean ingest(Batch batch, Long fileId) {
+        logger.fine("Start ingest job;");
+        try {
+            if (ingestService.ingestAsTabular(fileId)) {
+                logger.fine("Finished ingest job;");
+                return true;
+            }
+            logger.warning("Error occurred during ingest job for file id " + fileId + "!");
+            DataFile dataFile = fileService.find(fileId);
+            batch.failedFileNames.add(dataFile.getCurrentName());
+        } catch (Exception ex) {
+            // TODO:
+            // this solution is working - but it would be cleaner to instead
+            // make sure that all the exceptions are interrupted and appropriate
+            // action taken still on the ingest service side.
+            // -- L.A. Aug. 13 2014;
+            logger.info("Unknown exception occurred  during ingest (supressed stack trace); re-setting ingest status.");
+            try {
+                recordFailure(batch, fileId, ex);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Failed to save the failed ingest report of file " + fileId, e);
+            }
+        }
+        return false;
+    }
+
+    private void recordFailure(Batch batch, Long fileId, Exception ex) {
+        logger.fine("looking up datafile for id " + fileId);
+        DataFile datafile = fileService.find(fileId);
+        if (datafile == null) {
+            return;
+        }
+        batch.failedFileNames.add(datafile.getCurrentName());
+
+        datafile.SetIngestProblem();
+        IngestReport errorReport = new IngestReport();
+        errorReport.setFailure();
+        if (ex.getMessage() != null) {
+            errorReport.setReport(BundleUtil.getStringFromBundle("file.ingest.saveFailed.detail.message") + ex.getMessage());
+        } else {
+            errorReport.setReport(BundleUtil.getStringFromBundle("file.ingest.saveFailed.message"));
+        }
+        errorReport.setDataFile(datafile);
+        datafile.setIngestReport(errorReport);
+        datafile.setDataTables(null);
+
+        logger.info("trying to save datafile and the failed ingest report, id=" + fileId);
+        fileService.save(datafile);
+
+        if (batch.datasetId != null) {
+            ingestService.sendFailNotification(batch.datasetId);
+        }
+    }
+
+    /**
+     * Re-indexes the dataset of a batch once all its files are done.
+     */
+    private void finish(Batch batch) {
+        try {
+            if (batch.ingested.get() > 0 && batch.datasetId != null) {
+                Dataset dataset = datasetService.find(batch.datasetId);
+                if (dataset != null) {
+                    indexService.asyncIndexDataset(dataset, true);
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Failed to re-index dataset " + batch.datasetId + " after ingest", e);
+        } finally {
+            synchronized (this) {
+                batches.remove(batch);
+            }
+            batch.finished.countDown();
+        }
+    }
+
+    /**
+     * @return the counters of this server's ingest since it started, and the
+     * progress of each batch being ingested.
+     */
+    public JsonObjectBuilder getMetrics() {
+        List<Batch> current;
+        int nowRunning;
+        synchronized (this) {
+            current = new ArrayList<>(batches);
+            nowRunning = running;
+        }
+        int queuedFiles = 0;
+        JsonArrayBuilder batchesJson = Json.createArrayBuilder();
+        for (Batch batch : current) {
+            Map<FileStatus, Integer> counts = new LinkedHashMap<>();
+            for (FileStatus status : FileStatus.values()) {
+                counts.put(status, 0);
+            }
+            JsonObjectBuilder files = Json.createObjectBuilder();
+            for (Map.Entry<Long, FileStatus> file : batch.getFileStatuses().entrySet()) {
+                counts.merge(file.getValue(), 1, Integer::sum);
+                files.add(file.getKey().toString(), file.getValue().name().toLowerCase());
+            }
+            queuedFiles += counts.get(FileStatus.QUEUED);
+            JsonObjectBuilder batchJson = Json.createObjectBuilder();
+            if (batch.datasetId != null) {
+                batchJson.add("datasetId", batch.datasetId);
+            }
+            if (batch.userId != null) {
+                batchJson.add("userId", batch.userId);
+            }
+            batchJson.add("submitted", batch.submitTime.toString());
+            counts.forEach((status, count) -> batchJson.add(status.name().toLowerCase(), count));
+            batchesJson.add(batchJson.add("files", files));
+        }
+        long finished = ingested.sum() + failed.sum();
+        return Json.createObjectBuilder()
+                .add("workers", workers)
+                .add("running", nowRunning)
+                .add("maxRunning", maxRunning.get())
+                .add("queued", queuedFiles)
+                .add("started", started.sum())
+                .add("ingested", ingested.sum())
+                .add("failed", failed.sum())
+                .add("averageIngestMillis", finished == 0 ? 0 : ingestMillis.sum() / finished)
+                .add("batches", batchesJson);
+    }
+
+    /**
+     * The files of an {@link IngestMessage}.
+     */
+    public static class Batch {
+
+        private final Long datasetId;
+        private final Long userId;
+        private final Instant submitTime = Instant.now();
+        // Guarded by the scheduler
+        private final ArrayDeque<Unit> pending = new ArrayDeque<>();
+        private final Map<Long, FileStatus> statuses = Collections.synchronizedMap(new LinkedHashMap<>());
+        private final List<String> failedFileNames = Collections.synchronizedList(new ArrayList<>());
+        private final AtomicInteger unitsLeft = new AtomicInteger();
+        private final AtomicInteger ingested = new AtomicInteger();
+        private final CountDownLatch finished = new CountDownLatch(1);
+
+        private Batch(Long datasetId, Long userId, List<List<Long>> units) {
+            this.datasetId = datasetId;
+            this.userId = userId;
+            for (List<Long> fileIds : units) {
+                if (!fileIds.isEmpty()) {
+                    pending.add(new Unit(this, fileIds));
+                    fileIds.forEach(fileId -> statuses.put(fileId, FileStatus.QUEUED));
+                }
+            }
+            unitsLeft.set(pending.size());
+        }
+
+        /**
+         * Waits until all the files are done and the dataset was re-indexed.
+         * The ingest lock must not be removed before.
+         */
+        public void awaitCompletion() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    finished.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        public boolean isFinished() {
+            return finished.getCount() == 0;
+        }
+
+        /**
+         * @return whether some of the files could not be ingested.
+         */
+        public boolean hasErrors() {
+            return ingested.get() < statuses.size();
+        }
+
+        public List<String> getFailedFileNames() {
+            synchronized (failedFileNames) {
+                return new ArrayList<>(failedFileNames);
+            }
+        }
+
+        public Map<Long, FileStatus> getFileStatuses() {
+            synchronized (statuses) {
+                return new LinkedHashMap<>(statuses);
+            }
+        }
+    }
+
+    private static class Unit {
+        private final Batch batch;
+        private final List<Long> fileIds;
+
+        private Unit(Batch batch, List<Long> fileIds) {
+            this.batch = batch;
+            this.fileIds = fileIds;
+        }
+    }
+}
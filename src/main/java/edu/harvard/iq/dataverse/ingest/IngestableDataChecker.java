@@ -650,6 +650,15 @@ public class IngestableDataChecker implements java.io.Serializable {
         return null;
     }
 
+    /**
+     * Same as detectTabularDataFormat(File), on the first bytes of the file,
+     * kept when it was written: no more than the first DEFAULT_BUFFER_SIZE
+     * bytes of the file are checked either way.
+     */
+    public String detectTabularDataFormat(byte[] header) {
+        return detectTabularDataFormat(ByteBuffer.wrap(Arrays.copyOf(header, Math.min(header.length, DEFAULT_BUFFER_SIZE))));
+    }
+
     public String detectTabularDataFormat(ByteBuffer buff) {
         boolean DEBUG = false;
         String readableFormatType = null;
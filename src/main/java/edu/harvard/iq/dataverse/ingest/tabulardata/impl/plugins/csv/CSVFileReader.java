@@ -32,9 +32,10 @@ import edu.harvard.iq.dataverse.util.BundleUtil;
 import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.math.BigDecimal;
 import java.math.MathContext;
 import java.math.RoundingMode;
@@ -44,6 +45,7 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -52,7 +54,6 @@ import java.util.logging.Logger;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.csv.CSVParser;
-import org.apache.commons.csv.CSVPrinter;
 import org.apache.commons.csv.CSVRecord;
 
 /**
@@ -71,17 +72,22 @@ public class CSVFileReader extends TabularDataFileReader {
     private static final String FORMAT_IEEE754 = "%+#." + DIGITS_OF_PRECISION_DOUBLE + "e";
     private MathContext doubleMathContext;
     private CSVFormat inFormat;
+    // Rows read before any is written, so that the types of most columns are settled
+    static final int DEFAULT_TYPING_ROWS = 1000;
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+    private int typingRows = DEFAULT_TYPING_ROWS;
     //private final Set<Character> firstNumCharSet = new HashSet<>();
 
     // DATE FORMATS
-    private static SimpleDateFormat[] DATE_FORMATS = new SimpleDateFormat[]{
+    // (not static: SimpleDateFormat is not thread safe, and files are ingested in parallel)
+    private final SimpleDateFormat[] DATE_FORMATS = new SimpleDateFormat[]{
         new SimpleDateFormat("yyyy-MM-dd"), //new SimpleDateFormat("yyyy/MM/dd"),
     //new SimpleDateFormat("MM/dd/yyyy"),
     //new SimpleDateFormat("MM-dd-yyyy"),
     };
 
     // TIME FORMATS
-    private static SimpleDateFormat[] TIME_FORMATS = new SimpleDateFormat[]{
+    private final SimpleDateFormat[] TIME_FORMATS = new SimpleDateFormat[]{
         // Date-time up to seconds with timezone, e.g. 2013-04-08 13:14:23 -0500
         new SimpleDateFormat("yyyy-MM-dd HH:mm:ss z"),
         // Date-time up to seconds and no timezone, e.g. 2013-04-08 13:14:23
@@ -97,6 +103,10 @@ public class CSVFileReader extends TabularDataFileReader {
         }
     }
 
+    void setTypingRows(int typingRows) {
+        this.typingRows = typingRows;
+    }
+
     private void init() throws IOException {
         doubleMathContext = new MathContext(DIGITS_OF_PRECISION_DOUBLE, RoundingMode.HALF_EVEN);
         //firstNumCharSet.addAll(Arrays.asList(new Character[]{'+', '-', '0', '1', '2', '3', '4', '5', '6', '7', '8', '9'}));
@@ -122,9 +132,8 @@ public class CSVFileReader extends TabularDataFileReader {
         BufferedReader localBufferedReader = new BufferedReader(new InputStreamReader(stream));
 
         File tabFileDestination = File.createTempFile("data-", ".tab");
-        PrintWriter tabFileWriter = new PrintWriter(tabFileDestination.getAbsolutePath());
 
-        int lineCount = readFile(localBufferedReader, dataTable, saveWithVariableHeader, tabFileWriter);
+        int lineCount = readFile(localBufferedReader, dataTable, saveWithVariableHeader, tabFileDestination);
 
         logger.fine("Tab file produced: " + tabFileDestination.getAbsolutePath());
 
@@ -136,7 +145,18 @@ public class CSVFileReader extends TabularDataFileReader {
 
     }
 
-    public int readFile(BufferedReader csvReader, DataTable dataTable, boolean saveWithVariableHeader, PrintWriter finalOut) throws IOException {
+    /**
+     * Reads the CSV file and writes the tab-delimited file, in one pass.
+     *
+     * The type of each column is inferred as the values are read: it starts
+     * as an integer, and is promoted to a floating point number, a date or
+     * time, or a string the first time a value doesn't fit. The first rows
+     * are held in memory until the types of most columns are settled; the
+     * rest are written as they are read. If a column is promoted after some
+     * of its values have been written, only that column is re-encoded in
+     * those rows, at the end.
+     */
+    public int readFile(BufferedReader csvReader, DataTable dataTable, boolean saveWithVariableHeader, File tabFile) throws IOException {
 
         List<DataVariable> variableList = new ArrayList<>();
         CSVParser parser = new CSVParser(csvReader, inFormat.withHeader());
@@ -174,35 +194,22 @@ public class CSVFileReader extends TabularDataFileReader {
         dataTable.setVarQuantity((long) variableList.size());
         dataTable.setDataVariables(variableList);
 
-        boolean[] isNumericVariable = new boolean[headers.size()];
-        boolean[] isIntegerVariable = new boolean[headers.size()];
-        boolean[] isTimeVariable = new boolean[headers.size()];
-        boolean[] isDateVariable = new boolean[headers.size()];
-
-        for (i = 0; i < headers.size(); i++) {
-            // OK, let's assume that every variable is numeric;
-            // but we'll go through the file and examine every value; the
-            // moment we find a value that's not a legit numeric one, we'll
-            // assume that it is in fact a String.
-            isNumericVariable[i] = true;
-            isIntegerVariable[i] = true;
-            isDateVariable[i] = true;
-            isTimeVariable[i] = true;
-        }
+        ColumnTypes columnTypes = new ColumnTypes(headers.size());
+        CaseWriter caseWriter;
 
-        // First, "learning" pass.
-        // (we'll save the incoming stream in another temp file:)
-        SimpleDateFormat[] selectedDateTimeFormat = new SimpleDateFormat[headers.size()];
-        SimpleDateFormat[] selectedDateFormat = new SimpleDateFormat[headers.size()];
+        try (PrintWriter finalOut = new PrintWriter(tabFile.getAbsolutePath())) {
+            // Save the variable name header, if requested
+            if (saveWithVariableHeader) {
+                if (variableNameHeader == null) {
+                    throw new IOException("failed to generate the Variable Names header");
+                }
+                finalOut.println(variableNameHeader);
+            }
 
-        File firstPassTempFile = File.createTempFile("firstpass-", ".csv");
+            caseWriter = new CaseWriter(finalOut, columnTypes);
+            List<String[]> typingCases = new ArrayList<>();
 
-        try (CSVPrinter csvFilePrinter = new CSVPrinter(
-                // TODO allow other parsers of tabular data to use this parser by changin inFormat
-                new FileWriter(firstPassTempFile.getAbsolutePath()), inFormat)) {
-            //Write  headers
-            csvFilePrinter.printRecord(headers.keySet());
-            for (CSVRecord record : parser.getRecords()) {
+            for (CSVRecord record : parser) {
                 // Checks if #records = #columns in header
                 if (!record.isConsistent()) {
                     List<String> args = Arrays.asList(new String[]{"" + (parser.getCurrentLineNumber() - 1),
@@ -211,276 +218,499 @@ public class CSVFileReader extends TabularDataFileReader {
                     throw new IOException(BundleUtil.getStringFromBundle("ingest.csv.recordMismatch", args));
                 }
 
+                String[] values = new String[headers.size()];
                 for (i = 0; i < headers.size(); i++) {
-                    String varString = record.get(i);
-                    isIntegerVariable[i] = isIntegerVariable[i]
-                                           && varString != null
-                                           && (varString.isEmpty()
-                                               || varString.equals("null")
-                                               || (StringUtils.isNumeric(varString)
-                                                    || (varString.substring(0,1).matches("[+-]") 
-                                                        && StringUtils.isNumeric(varString.substring(1)))));
-                    if (isNumericVariable[i]) {
-                        // If variable might be "numeric" test to see if this value is a parsable number:
-                        if (varString != null && !varString.isEmpty()) {
-
-                            boolean isNumeric = false;
-                            boolean isInteger = false;
-
-                            if (varString.equalsIgnoreCase("NaN")
-                                || varString.equalsIgnoreCase("NA")
-                                || varString.equalsIgnoreCase("Inf")
-                                || varString.equalsIgnoreCase("+Inf")
-                                || varString.equalsIgnoreCase("-Inf")
-                                || varString.equalsIgnoreCase("null")) {
-                                continue;
-                            } else {
-                                try {
-                                    Double testDoubleValue = new Double(varString);
-                                    continue;
-                                } catch (NumberFormatException ex) {
-                                    // the token failed to parse as a double
-                                    // so the column is a string variable.
-                                }
-                            }
-                            isNumericVariable[i] = false;
+                    values[i] = record.get(i);
+                    columnTypes.observe(i, values[i]);
+                }
+
+                if (typingCases != null) {
+                    typingCases.add(values);
+                    if (typingCases.size() < typingRows) {
+                        continue;
+                    }
+                    for (String[] typingCase : typingCases) {
+                        caseWriter.write(typingCase);
+                    }
+                    typingCases = null;
+                } else {
+                    caseWriter.write(values);
+                }
+            }
+            if (typingCases != null) {
+                for (String[] typingCase : typingCases) {
+                    caseWriter.write(typingCase);
+                }
+            }
+        }
+        dataTable.setCaseQuantity(parser.getRecordNumber());
+        parser.close();
+        csvReader.close();
+
+        columnTypes.setVariableTypes(dataTable);
+
+        if (caseWriter.needsReencoding()) {
+            caseWriter.reencode(tabFile, variableNameHeader);
+        }
+        return caseWriter.getCases();
+    }
+
+    private enum CellEncoding {
+        INTEGER, NUMERIC, DATE_TIME, STRING
+    }
+
+    /**
+     * The types of the columns, as inferred from the values seen so far.
+     * A column only ever moves up from an integer to a string, so a value
+     * encoded for an earlier type can always be encoded again for the final
+     * one.
+     */
+    private class ColumnTypes {
+
+        private final boolean[] isNumericVariable;
+        private final boolean[] isIntegerVariable;
+        private final boolean[] isTimeVariable;
+        private final boolean[] isDateVariable;
+
+        private final SimpleDateFormat[] selectedDateTimeFormat;
+        private final SimpleDateFormat[] selectedDateFormat;
+
+        ColumnTypes(int size) {
+            isNumericVariable = new boolean[size];
+            isIntegerVariable = new boolean[size];
+            isTimeVariable = new boolean[size];
+            isDateVariable = new boolean[size];
+            selectedDateTimeFormat = new SimpleDateFormat[size];
+            selectedDateFormat = new SimpleDateFormat[size];
+
+            for (int i = 0; i < size; i++) {
+                // OK, let's assume that every variable is numeric;
+                // but we'll go through the file and examine every value; the
+                // moment we find a value that's not a legit numeric one, we'll
+                // assume that it is in fact a String.
+                isNumericVariable[i] = true;
+                isIntegerVariable[i] = true;
+                isDateVariable[i] = true;
+                isTimeVariable[i] = true;
+            }
+        }
+
+        void observe(int i, String varString) {
+            isIntegerVariable[i] = isIntegerVariable[i]
+                                   && varString != null
+                                   && (varString.isEmpty()
+                                       || varString.equals("null")
+                                       || (StringUtils.isNumeric(varString)
+                                            || (varString.substring(0,1).matches("[+-]") 
+                                                && StringUtils.isNumeric(varString.substring(1)))));
+            if (isNumericVariable[i]) {
+                // If variable might be "numeric" test to see if this value is a parsable number:
+                if (varString != null && !varString.isEmpty()) {
+
+                    if (varString.equalsIgnoreCase("NaN")
+                        || varString.equalsIgnoreCase("NA")
+                        || varString.equalsIgnoreCase("Inf")
+                        || varString.equalsIgnoreCase("+Inf")
+                        || varString.equalsIgnoreCase("-Inf")
+                        || varString.equalsIgnoreCase("null")) {
+                        return;
+                    } else {
+                        try {
+                            Double testDoubleValue = new Double(varString);
+                            return;
+                        } catch (NumberFormatException ex) {
+                            // the token failed to parse as a double
+                            // so the column is a string variable.
                         }
                     }
+                    isNumericVariable[i] = false;
+                }
+            }
 
-                    // If this is not a numeric column, see if it is a date collumn
-                    // by parsing the cell as a date or date-time value:
-                    if (!isNumericVariable[i]) {
-
-                        Date dateResult = null;
-
-                        if (isTimeVariable[i]) {
-                            if (varString != null && !varString.isEmpty()) {
-                                boolean isTime = false;
-
-                                if (selectedDateTimeFormat[i] != null) {
-                                    ParsePosition pos = new ParsePosition(0);
-                                    dateResult = selectedDateTimeFormat[i].parse(varString, pos);
-
-                                    if (dateResult != null && pos.getIndex() == varString.length()) {
-                                        // OK, successfully parsed a value!
-                                        isTime = true;
-                                    }
-                                } else {
-                                    for (SimpleDateFormat format : TIME_FORMATS) {
-                                        ParsePosition pos = new ParsePosition(0);
-                                        dateResult = format.parse(varString, pos);
-                                        if (dateResult != null && pos.getIndex() == varString.length()) {
-                                            // OK, successfully parsed a value!
-                                            isTime = true;
-                                            selectedDateTimeFormat[i] = format;
-                                            break;
-                                        }
-                                    }
-                                }
-                                if (!isTime) {
-                                    isTimeVariable[i] = false;
-                                    // if the token didn't parse as a time value,
-                                    // we will still try to parse it as a date, below.
-                                    // unless this column is NOT a date.
-                                } else {
-                                    // And if it is a time value, we are going to assume it's
-                                    // NOT a date.
-                                    isDateVariable[i] = false;
+            // If this is not a numeric column, see if it is a date collumn
+            // by parsing the cell as a date or date-time value:
+            if (!isNumericVariable[i]) {
+
+                Date dateResult = null;
+
+                if (isTimeVariable[i]) {
+                    if (varString != null && !varString.isEmpty()) {
+                        boolean isTime = false;
+
+                        if (selectedDateTimeFormat[i] != null) {
+                            ParsePosition pos = new ParsePosition(0);
+                            dateResult = selectedDateTimeFormat[i].parse(varString, pos);
+
+                            if (dateResult != null && pos.getIndex() == varString.length()) {
+                                // OK, successfully parsed a value!
+                                isTime = true;
+                            }
+                        } else {
+                            for (SimpleDateFormat format : TIME_FORMATS) {
+                                ParsePosition pos = new ParsePosition(0);
+                                dateResult = format.parse(varString, pos);
+                                if (dateResult != null && pos.getIndex() == varString.length()) {
+                                    // OK, successfully parsed a value!
+                                    isTime = true;
+                                    selectedDateTimeFormat[i] = format;
+                                    break;
                                 }
                             }
                         }
+                        if (!isTime) {
+                            isTimeVariable[i] = false;
+                            // if the token didn't parse as a time value,
+                            // we will still try to parse it as a date, below.
+                            // unless this column is NOT a date.
+                        } else {
+                            // And if it is a time value, we are going to assume it's
+                            // NOT a date.
+                            isDateVariable[i] = false;
+                        }
+                    }
+                }
 
-                        if (isDateVariable[i]) {
-                            if (varString != null && !varString.isEmpty()) {
-                                boolean isDate = false;
-
-                                // TODO:
-                                // Strictly speaking, we should be doing the same thing
-                                // here as with the time formats above; select the
-                                // first one that works, then insist that all the
-                                // other values in this column match it... but we
-                                // only have one, as of now, so it should be ok.
-                                // -- L.A. 4.0 beta
-                                for (SimpleDateFormat format : DATE_FORMATS) {
-                                    // Strict parsing - it will throw an
-                                    // exception if it doesn't parse!
-                                    format.setLenient(false);
-                                    try {
-                                        format.parse(varString);
-                                        isDate = true;
-                                        selectedDateFormat[i] = format;
-                                        break;
-                                    } catch (ParseException ex) {
-                                        //Do nothing
-                                    }
-                                }
-                                isDateVariable[i] = isDate;
+                if (isDateVariable[i]) {
+                    if (varString != null && !varString.isEmpty()) {
+                        boolean isDate = false;
+
+                        // TODO:
+                        // Strictly speaking, we should be doing the same thing
+                        // here as with the time formats above; select the
+                        // first one that works, then insist that all the
+                        // other values in this column match it... but we
+                        // only have one, as of now, so it should be ok.
+                        // -- L.A. 4.0 beta
+                        for (SimpleDateFormat format : DATE_FORMATS) {
+                            // Strict parsing - it will throw an
+                            // exception if it doesn't parse!
+                            format.setLenient(false);
+                            try {
+                                format.parse(varString);
+                                isDate = true;
+                                selectedDateFormat[i] = format;
+                                break;
+                            } catch (ParseException ex) {
+                                //Do nothing
                             }
                         }
+                        isDateVariable[i] = isDate;
                     }
                 }
-
-                csvFilePrinter.printRecord(record);
             }
         }
-        dataTable.setCaseQuantity(parser.getRecordNumber());
-        parser.close();
-        csvReader.close();
 
-        // Re-type the variables that we've determined are numerics:
-        for (i = 0; i < headers.size(); i++) {
+        CellEncoding encodingOf(int i) {
             if (isNumericVariable[i]) {
-                dataTable.getDataVariables().get(i).setTypeNumeric();
+                return isIntegerVariable[i] ? CellEncoding.INTEGER : CellEncoding.NUMERIC;
+            } else if (isTimeVariable[i] || isDateVariable[i]) {
+                return CellEncoding.DATE_TIME;
+            }
+            return CellEncoding.STRING;
+        }
 
-                if (isIntegerVariable[i]) {
-                    dataTable.getDataVariables().get(i).setIntervalDiscrete();
-                } else {
-                    dataTable.getDataVariables().get(i).setIntervalContinuous();
+        void setVariableTypes(DataTable dataTable) {
+            // Re-type the variables that we've determined are numerics:
+            for (int i = 0; i < isNumericVariable.length; i++) {
+                if (isNumericVariable[i]) {
+                    dataTable.getDataVariables().get(i).setTypeNumeric();
+
+                    if (isIntegerVariable[i]) {
+                        dataTable.getDataVariables().get(i).setIntervalDiscrete();
+                    } else {
+                        dataTable.getDataVariables().get(i).setIntervalContinuous();
+                    }
+                } else if (isDateVariable[i] && selectedDateFormat[i] != null) {
+                    // Dates are still Strings, i.e., they are "character" and "discrete";
+                    // But we add special format values for them:
+                    dataTable.getDataVariables().get(i).setFormat(DATE_FORMATS[0].toPattern());
+                    dataTable.getDataVariables().get(i).setFormatCategory("date");
+                } else if (isTimeVariable[i] && selectedDateTimeFormat[i] != null) {
+                    // Same for time values:
+                    dataTable.getDataVariables().get(i).setFormat(selectedDateTimeFormat[i].toPattern());
+                    dataTable.getDataVariables().get(i).setFormatCategory("time");
                 }
-            } else if (isDateVariable[i] && selectedDateFormat[i] != null) {
-                // Dates are still Strings, i.e., they are "character" and "discrete";
-                // But we add special format values for them:
-                dataTable.getDataVariables().get(i).setFormat(DATE_FORMATS[0].toPattern());
-                dataTable.getDataVariables().get(i).setFormatCategory("date");
-            } else if (isTimeVariable[i] && selectedDateTimeFormat[i] != null) {
-                // Same for time values:
-                dataTable.getDataVariables().get(i).setFormat(selectedDateTimeFormat[i].toPattern());
-                dataTable.getDataVariables().get(i).setFormatCategory("time");
             }
         }
-        // Second, final pass.
-        try (BufferedReader secondPassReader = new BufferedReader(new FileReader(firstPassTempFile))) {
-            parser = new CSVParser(secondPassReader, inFormat.withHeader());
-            String[] caseRow = new String[headers.size()];
-            
-            // Save the variable name header, if requested
-            if (saveWithVariableHeader) {
-                if (variableNameHeader == null) {
-                    throw new IOException("failed to generate the Variable Names header");
+    }
+
+    /**
+     * Writes the cases to the tab file with the types of the columns at the
+     * time, remembering what it takes to write them again if a column is
+     * promoted later on: the number of cases written with an earlier type,
+     * and the original values that did not survive the encoding (a numeric
+     * "NA" is written as an empty cell, for example).
+     */
+    private static class CaseWriter {
+
+        private final PrintWriter out;
+        private final ColumnTypes columnTypes;
+        private final String[] caseRow;
+
+        private final CellEncoding[] encodings;
+        // Cases before this one have values that must be written again
+        private final int[] reencodeUntil;
+        private final OriginalValues originalValues;
+        private int cases = 0;
+
+        CaseWriter(PrintWriter out, ColumnTypes columnTypes) {
+            this.out = out;
+            this.columnTypes = columnTypes;
+            int size = columnTypes.isNumericVariable.length;
+            caseRow = new String[size];
+            encodings = new CellEncoding[size];
+            reencodeUntil = new int[size];
+            originalValues = new OriginalValues(size);
+        }
+
+        void write(String[] values) {
+            for (int i = 0; i < values.length; i++) {
+                CellEncoding encoding = columnTypes.encodingOf(i);
+                if (encoding != encodings[i]) {
+                    if (encodings[i] != null) {
+                        // promoted: the cases so far were written for the old type
+                        reencodeUntil[i] = cases;
+                    }
+                    encodings[i] = encoding;
                 }
-                finalOut.println(variableNameHeader);
+                String cell = encode(encoding, values[i]);
+                if (encoding != CellEncoding.STRING && values[i] != null) {
+                    // Numbers, dates and times are written as they are, tabs
+                    // and new lines included; these would get in the way of
+                    // splitting the case again, so they wait for the end.
+                    if (cell.indexOf('\t') > -1 || cell.indexOf('\n') > -1) {
+                        cell = "";
+                        reencodeUntil[i] = cases + 1;
+                    }
+                    if (!cell.equals(values[i])) {
+                        originalValues.add(i, cases, values[i]);
+                    }
+                }
+                caseRow[i] = cell;
             }
+            out.println(StringUtils.join(caseRow, "\t"));
+            cases++;
+        }
 
-            for (CSVRecord record : parser) {
-                if (!record.isConsistent()) {
-                    List<String> args = Arrays.asList(new String[]{"" + (parser.getCurrentLineNumber() - 1),
-                                                                   "" + headers.size(),
-                                                                   "" + record.size()});
-                    throw new IOException(BundleUtil.getStringFromBundle("ingest.csv.recordMismatch", args));
+        int getCases() {
+            return cases;
+        }
+
+        boolean needsReencoding() {
+            for (int until : reencodeUntil) {
+                if (until > 0) {
+                    return true;
                 }
+            }
+            return false;
+        }
 
-                for (i = 0; i < headers.size(); i++) {
-                    String varString = record.get(i);
-                    if (isNumericVariable[i]) {
-                        if (varString == null || varString.isEmpty() || varString.equalsIgnoreCase("NA")) {
-                            // Missing value - represented as an empty string in
-                            // the final tab file
-                            caseRow[i] = "";
-                        } else if (varString.equalsIgnoreCase("NaN")) {
-                            // "Not a Number" special value:
-                            caseRow[i] = "NaN";
-                        } else if (varString.equalsIgnoreCase("Inf")
-                                || varString.equalsIgnoreCase("+Inf")) {
-                            // Positive infinity:
-                            caseRow[i] = "Inf";
-                        } else if (varString.equalsIgnoreCase("-Inf")) {
-                            // Negative infinity:
-                            caseRow[i] = "-Inf";
-                        } else if (varString.equalsIgnoreCase("null")) {
-                            // By request from Gus - "NULL" is recognized as a
-                            // numeric zero:
-                            caseRow[i] = isIntegerVariable[i] ? "0" : "0.0";
-                        } else {
-                            /* No re-formatting is done on any other numeric values.
-                             * We'll save them as they were, for archival purposes.
-                             * The alternative solution - formatting in sci. notation
-                             * is commented-out below.
-                             */
-                            caseRow[i] = varString;
-                            /*
-                             if (isIntegerVariable[i]) {
-                                try {
-                                    Integer testIntegerValue = new Integer(varString);
-                                    caseRow[i] = testIntegerValue.toString();
-                                } catch (NumberFormatException ex) {
-                                    throw new IOException("Failed to parse a value recognized as an integer in the first pass! (?)");
-                                }
-                            } else {
-                                try {
-                                    Double testDoubleValue = new Double(varString);
-                                    if (testDoubleValue.equals(0.0)) {
-                                        caseRow[i] = "0.0";
-                                    } else {
-                                                                            // One possible implementation:
-                                        //
-                                        // Round our fractional values to 15 digits
-                                        // (minimum number of digits of precision guaranteed by
-                                        // type Double) and format the resulting representations
-                                        // in a IEEE 754-like "scientific notation" - for ex.,
-                                        // 753.24 will be encoded as 7.5324e2
-                                        BigDecimal testBigDecimal = new BigDecimal(varString, doubleMathContext);
-                                        caseRow[i] = String.format(FORMAT_IEEE754, testBigDecimal);
-
-                                        // Strip meaningless zeros and extra + signs:
-                                        caseRow[i] = caseRow[i].replaceFirst("00*e", "e");
-                                        caseRow[i] = caseRow[i].replaceFirst("\\.e", ".0e");
-                                        caseRow[i] = caseRow[i].replaceFirst("e\\+00", "");
-                                        caseRow[i] = caseRow[i].replaceFirst("^\\+", "");
-                                    }
-                                } catch (NumberFormatException ex) {
-                                    throw new IOException("Failed to parse a value recognized as numeric in the first pass! (?)");
-                                }
-                            }
-                             */
-                        }
-                    } else if (isTimeVariable[i] || isDateVariable[i]) {
-                        // Time and Dates are stored NOT quoted (don't ask).
-                        if (varString != null) {
-                            // Dealing with quotes:
-                            // remove the leading and trailing quotes, if present:
-                            varString = varString.replaceFirst("^\"*", "");
-                            varString = varString.replaceFirst("\"*$", "");
-                            caseRow[i] = varString;
-                        } else {
-                            caseRow[i] = "";
+        /**
+         * Writes the tab file again, with the values of the promoted columns
+         * in the cases written before the promotion encoded for their final
+         * type. The other values, and the cases after the last promotion,
+         * are copied as they are.
+         */
+        void reencode(File tabFile, String variableNameHeader) throws IOException {
+            int lastCase = 0;
+            for (int until : reencodeUntil) {
+                lastCase = Math.max(lastCase, until);
+            }
+            File reencodedFile = File.createTempFile("data-", ".tab");
+            try (BufferedReader in = new BufferedReader(new FileReader(tabFile));
+                 PrintWriter reencoded = new PrintWriter(reencodedFile.getAbsolutePath())) {
+                if (variableNameHeader != null) {
+                    // (the names may have new lines of their own)
+                    in.skip(variableNameHeader.length() + LINE_SEPARATOR.length());
+                    reencoded.println(variableNameHeader);
+                }
+                StringBuilder line = new StringBuilder();
+                for (int c = 0; c < cases; c++) {
+                    readCase(in, line);
+                    if (c >= lastCase) {
+                        reencoded.println(line);
+                        continue;
+                    }
+                    String[] cells = line.toString().split("\t", -1);
+                    for (int i = 0; i < cells.length; i++) {
+                        if (c < reencodeUntil[i]) {
+                            cells[i] = encode(columnTypes.encodingOf(i), originalValues.get(i, c, cells[i]));
                         }
-                    } else {
-                        // Treat as a String:
-                        // Strings are stored in tab files quoted;
-                        // Missing values are stored as an empty string
-                        // between two tabs (or one tab and the new line);
-                        // Empty strings stored as "" (quoted empty string).
-                        // For the purposes  of this CSV ingest reader, we are going
-                        // to assume that all the empty strings in the file are
-                        // indeed empty strings, and NOT missing values:
-                        if (varString != null) {
-                            // escape the quotes, newlines, and tabs:
-                            varString = varString.replace("\"", "\\\"");
-                            varString = varString.replace("\n", "\\n");
-                            varString = varString.replace("\t", "\\t");
-                            // final pair of quotes:
-                            varString = "\"" + varString + "\"";
-                            caseRow[i] = varString;
+                    }
+                    reencoded.println(StringUtils.join(cells, "\t"));
+                }
+            }
+            Files.move(reencodedFile.toPath(), tabFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            logger.fine("Re-encoded " + lastCase + " cases of " + tabFile.getAbsolutePath());
+        }
+
+        private static void readCase(BufferedReader in, StringBuilder line) throws IOException {
+            line.setLength(0);
+            int c;
+            while ((c = in.read()) != -1 && c != '\n') {
+                line.append((char) c);
+            }
+            // Strings may have a carriage return of their own; only that of
+            // the line separator is taken off.
+            line.setLength(line.length() - (LINE_SEPARATOR.length() - 1));
+        }
+    }
+
+    /**
+     * The values written to the tab file other than as they were in the CSV
+     * file, by column and case. The values themselves are mostly the same
+     * few ("NA", "null"...), so they are kept once.
+     */
+    private static class OriginalValues {
+
+        private final List<String> values = new ArrayList<>();
+        private final Map<String, Integer> codes = new HashMap<>();
+        private final int[][] cases;
+        private final int[][] valueCodes;
+        private final int[] sizes;
+        private final int[] cursors;
+
+        OriginalValues(int columns) {
+            cases = new int[columns][];
+            valueCodes = new int[columns][];
+            sizes = new int[columns];
+            cursors = new int[columns];
+            for (int i = 0; i < columns; i++) {
+                cases[i] = new int[8];
+                valueCodes[i] = new int[8];
+            }
+        }
+
+        void add(int column, int caseNumber, String value) {
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = values.size();
+                codes.put(value, code);
+                values.add(value);
+            }
+            int size = sizes[column];
+            if (size == cases[column].length) {
+                cases[column] = Arrays.copyOf(cases[column], size * 2);
+                valueCodes[column] = Arrays.copyOf(valueCodes[column], size * 2);
+            }
+            cases[column][size] = caseNumber;
+            valueCodes[column][size] = code;
+            sizes[column]++;
+        }
+
+        /**
+         * @return the original value in the case, or the cell if it was
+         * written as it was. The cases of a column must be asked for in
+         * order.
+         */
+        String get(int column, int caseNumber, String cell) {
+            int k = cursors[column];
+            while (k < sizes[column] && cases[column][k] < caseNumber) {
+                k++;
+            }
+            cursors[column] = k;
+            if (k < sizes[column] && cases[column][k] == caseNumber) {
+                return values.get(valueCodes[column][k]);
+            }
+            return cell;
+        }
+    }
+
+    private static String encode(CellEncoding encoding, String varString) {
+        if (encoding == CellEncoding.INTEGER || encoding == CellEncoding.NUMERIC) {
+            if (varString == null || varString.isEmpty() || varString.equalsIgnoreCase("NA")) {
+                // Missing value - represented as an empty string in
+                // the final tab file
+                return "";
+            } else if (varString.equalsIgnoreCase("NaN")) {
+                // "Not a Number" special value:
+                return "NaN";
+            } else if (varString.equalsIgnoreCase("Inf")
+                    || varString.equalsIgnoreCase("+Inf")) {
+                // Positive infinity:
+                return "Inf";
+            } else if (varString.equalsIgnoreCase("-Inf")) {
+                // Negative infinity:
+                return "-Inf";
+            } else if (varString.equalsIgnoreCase("null")) {
+                // By request from Gus - "NULL" is recognized as a
+                // numeric zero:
+                return encoding == CellEncoding.INTEGER ? "0" : "0.0";
+            } else {
+                /* No re-formatting is done on any other numeric values.
+                 * We'll save them as they were, for archival purposes.
+                 * The alternative solution - formatting in sci. notation
+                 * is commented-out below.
+                 */
+                return varString;
+                /*
+                 if (isIntegerVariable[i]) {
+                    try {
+                        Integer testIntegerValue = new Integer(varString);
+                        caseRow[i] = testIntegerValue.toString();
+                    } catch (NumberFormatException ex) {
+                        throw new IOException("Failed to parse a value recognized as an integer in the first pass! (?)");
+                    }
+                } else {
+                    try {
+                        Double testDoubleValue = new Double(varString);
+                        if (testDoubleValue.equals(0.0)) {
+                            caseRow[i] = "0.0";
                         } else {
-                            caseRow[i] = "\"\"";
+                                                                // One possible implementation:
+                            //
+                            // Round our fractional values to 15 digits
+                            // (minimum number of digits of precision guaranteed by
+                            // type Double) and format the resulting representations
+                            // in a IEEE 754-like "scientific notation" - for ex.,
+                            // 753.24 will be encoded as 7.5324e2
+                            BigDecimal testBigDecimal = new BigDecimal(varString, doubleMathContext);
+                            caseRow[i] = String.format(FORMAT_IEEE754, testBigDecimal);
+
+                            // Strip meaningless zeros and extra + signs:
+                            caseRow[i] = caseRow[i].replaceFirst("00*e", "e");
+                            caseRow[i] = caseRow[i].replaceFirst("\\.e", ".0e");
+                            caseRow[i] = caseRow[i].replaceFirst("e\\+00", "");
+                            caseRow[i] = caseRow[i].replaceFirst("^\\+", "");
                         }
+                    } catch (NumberFormatException ex) {
+                        throw new IOException("Failed to parse a value recognized as numeric in the first pass! (?)");
                     }
                 }
-                finalOut.println(StringUtils.join(caseRow, "\t"));
+                 */
+            }
+        } else if (encoding == CellEncoding.DATE_TIME) {
+            // Time and Dates are stored NOT quoted (don't ask).
+            if (varString != null) {
+                // Dealing with quotes:
+                // remove the leading and trailing quotes, if present:
+                varString = varString.replaceFirst("^\"*", "");
+                varString = varString.replaceFirst("\"*$", "");
+                return varString;
+            } else {
+                return "";
+            }
+        } else {
+            // Treat as a String:
+            // Strings are stored in tab files quoted;
+            // Missing values are stored as an empty string
+            // between two tabs (or one tab and the new line);
+            // Empty strings stored as "" (quoted empty string).
+            // For the purposes  of this CSV ingest reader, we are going
+            // to assume that all the empty strings in the file are
+            // indeed empty strings, and NOT missing values:
+            if (varString != null) {
+                // escape the quotes, newlines, and tabs:
+                varString = varString.replace("\"", "\\\"");
+                varString = varString.replace("\n", "\\n");
+                varString = varString.replace("\t", "\\t");
+                // final pair of quotes:
+                varString = "\"" + varString + "\"";
+                return varString;
+            } else {
+                return "\"\"";
             }
         }
-        long linecount = parser.getRecordNumber();
-        finalOut.close();
-        parser.close();
-        logger.fine("Tmp File: " + firstPassTempFile);
-        // Firstpass file is deleted to prevent tmp from filling up.
-        firstPassTempFile.delete();
-        if (dataTable.getCaseQuantity().intValue() != linecount) {
-            List<String> args = Arrays.asList(new String[]{"" + dataTable.getCaseQuantity().intValue(),
-                                                           "" + linecount});
-            throw new IOException(BundleUtil.getStringFromBundle("ingest.csv.line_mismatch", args));
-        }
-        return (int) linecount;
     }
 
 }
@@ -0,0 +1,242 @@
+package edu.harvard.iq.dataverse.mail;
+
+import edu.harvard.iq.dataverse.MailServiceBean;
+import edu.harvard.iq.dataverse.settings.JvmSettings;
+import edu.harvard.iq.dataverse.util.SystemConfig;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import jakarta.ejb.ConcurrencyManagement;
+import jakarta.ejb.ConcurrencyManagementType;
+import jakarta.ejb.EJB;
+import jakarta.ejb.Singleton;
+import jakarta.ejb.Startup;
+import jakarta.enterprise.concurrent.ManagedScheduledExecutorService;
+import jakarta.enterprise.event.Observes;
+import jakarta.enterprise.event.TransactionPhase;
+import jakarta.inject.Inject;
+import jakarta.inject.Named;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.Session;
+import jakarta.mail.Transport;
+import jakarta.mail.internet.AddressException;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeMessage;
+
+/**
+ * Sends the emails in the outbox.
+ *
+ * The outbox is drained as soon as a transaction that added emails to it has
+ * committed, and then periodically on the timer server, to retry the emails
+ * that could not be sent. Emails are sent in batches, each over a single
+ * connection to the mail server. Failed emails are retried with an
+ * exponential backoff (see OutboxEmail.recordFailure()), and given up on
+ * after dataverse.mail.outbox.max-attempts attempts.
+ *
+ * Delivery is "at least once": if the server goes down after sending a batch,
+ * but before recording it was sent, the batch will be sent again.
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class MailOutboxSender {
+
+    private static final Logger logger = Logger.getLogger(MailOutboxSender.class.getCanonicalName());
+
+    static final int DEFAULT_MAX_ATTEMPTS = 10;
+    static final int DEFAULT_BATCH_SIZE = 50;
+    private static final long POLLING_INTERVAL_SECONDS = 60;
+    private static final Duration SENT_RETENTION = Duration.ofDays(30);
+    private static final String charset = "UTF-8";
+
+    @Resource
+    ManagedScheduledExecutorService scheduler;
+
+    @EJB
+    MailOutboxServiceBean outbox;
+    @EJB
+    MailServiceBean mailService;
+    @EJB
+    SystemConfig systemConfig;
+
+    @Inject
+    @Named("mail/systemSession")
+    Session session;
+
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final AtomicBoolean drainRequested = new AtomicBoolean();
+
+    @PostConstruct
+    public void init() {
+        if (systemConfig.isTimerServer()) {
+            scheduler.scheduleWithFixedDelay(this::poll, POLLING_INTERVAL_SECONDS, POLLING_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Sends the emails of a transaction once it has committed. (If the
+     * transaction rolls back, so does the addition of the emails to the
+     * outbox, and this is not called.)
+     */
+    public void onEmailQueued(@Observes(during = TransactionPhase.AFTER_SUCCESS) MailOutboxServiceBean.EmailQueued event) {
+        requestDrain();
+    }
+
+    private void poll() {
+        try {
+            int deleted = outbox.deleteSentBefore(Instant.now().minus(SENT_RETENTION));
+            if (deleted > 0) {
+                logger.fine("Deleted the records of " + deleted + " emails sent more than " + SENT_RETENTION.toDays() + " days ago");
+            }
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Failed to delete the records of sent emails", e);
+        }
+        requestDrain();
+    }
+
+    /**
+     * Starts draining the outbox in the background, unless it is being
+     * drained already: then the drain will go on for another round, to pick
+     * up the emails that were just added.
+     */
+    void requestDrain() {
+        drainRequested.set(true);
+        if (draining.compareAndSet(false, true)) {
+            scheduler.execute(this::drainWhileRequested);
+        }
+    }
+
+    private void drainWhileRequested() {
+        do {
+            try {
+                while (drainRequested.getAndSet(false)) {
+                    drain();
+                }
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Failed to send the emails in the outbox", e);
+            } finally {
+                draining.set(false);
+            }
+            // A request may have come in after the last round, but before
+            // draining was reset: if nobody else picked it up, we do.
+        } while (drainRequested.get() && draining.compareAndSet(false, true));
+    }
+
+    private void drain() {
+        int batchSize = JvmSettings.MAIL_OUTBOX_BATCH_SIZE.lookupOptional(Integer.class).orElse(DEFAULT_BATCH_SIZE);
+        List<OutboxEmail> batch;
+        do {
+            batch = outbox.claimDue(batchSize);
+            if (!batch.isEmpty()) {
+                sendBatch(batch);
+                outbox.saveDeliveryState(batch);
+            }
+        } while (batch.size() == batchSize);
+    }
+
+    /**
+     * Sends the emails over a single connection to the mail server, and
+     * records the outcome in each of them (they are not saved here).
+     */
+    void sendBatch(List<OutboxEmail> batch) {
+        int maxAttempts = JvmSettings.MAIL_OUTBOX_MAX_ATTEMPTS.lookupOptional(Integer.class).orElse(DEFAULT_MAX_ATTEMPTS);
+        Optional<InternetAddress> systemAddress = mailService.getSystemAddress();
+        if (systemAddress.isEmpty()) {
+            batch.forEach(email -> email.recordFailure("No system email address has been set", maxAttempts, Instant.now()));
+            return;
+        }
+
+        Transport transport = null;
+        try {
+            transport = session.getTransport();
+            for (OutboxEmail email : batch) {
+                MimeMessage message;
+                try {
+                    message = createMessage(email, systemAddress.get());
+                } catch (AddressException e) {
+                    email.markUndeliverable("Invalid recipients: " + e.getMessage());
+                    continue;
+                }
+                if (!transport.isConnected()) {
+                    try {
+                        transport.connect();
+                    } catch (MessagingException e) {
+                        logger.log(Level.WARNING, "Failed to connect to the mail server: " + e.getMessage());
+                        recordFailureOfUnsent(batch, e.getMessage(), maxAttempts);
+                        return;
+                    }
+                }
+                try {
+                    transport.sendMessage(message, message.getAllRecipients());
+                    email.markSent(Instant.now());
+                } catch (SendFailedException e) {
+                    // The server refused (some of) the recipients; the
+                    // connection is still usable for the other emails.
+                    logger.log(Level.FINE, "Failed to send email " + email.getId(), e);
+                    email.recordFailure(e.getMessage(), maxAttempts, Instant.now());
+                } catch (MessagingException e) {
+                    logger.log(Level.WARNING, "Failed to send email %s to %s: %s".formatted(email.getId(), email.getRecipients(), e.getMessage()));
+                    email.recordFailure(e.getMessage(), maxAttempts, Instant.now());
+                    // start over with a new connection for the next email
+                    closeQuietly(transport);
+                }
+            }
+        } catch (MessagingException e) {
+            // no transport for the protocol
+            logger.log(Level.WARNING, "Failed to get a mail transport", e);
+            recordFailureOfUnsent(batch, e.getMessage(), maxAttempts);
+        } finally {
+            closeQuietly(transport);
+        }
+    }
+
+    private static void recordFailureOfUnsent(List<OutboxEmail> batch, String error, int maxAttempts) {
+        batch.stream().filter(email -> email.getStatus() == OutboxEmail.Status.SENDING)
+                .forEach(email -> email.recordFailure(error, maxAttempts, Instant.now()));
+    }
+
+    private MimeMessage createMessage(OutboxEmail email, InternetAddress from) throws AddressException {
+        // Since JavaMail 1.6, we have support for UTF-8 mail addresses and do not need to handle these ourselves.
+        InternetAddress[] recipients = InternetAddress.parse(email.getRecipients());
+        MimeMessage message = new MimeMessage(session);
+        try {
+            message.setFrom(from);
+            message.setSentDate(new Date());
+            message.setRecipients(Message.RecipientType.TO, recipients);
+            message.setSubject(email.getSubject(), charset);
+            if (email.isHtmlContent()) {
+                message.setText(email.getBody(), charset, "html");
+            } else {
+                message.setText(email.getBody(), charset);
+            }
+        } catch (AddressException e) {
+            throw e;
+        } catch (MessagingException e) {
+            // Setting the headers and content of a message that isn't read
+            // from a folder can only fail on addresses.
+            throw new AddressException(e.getMessage());
+        }
+        return message;
+    }
+
+    private static void closeQuietly(Transport transport) {
+        if (transport != null && transport.isConnected()) {
+            try {
+                transport.close();
+            } catch (MessagingException e) {
+                logger.log(Level.FINE, "Failed to close the mail transport", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package edu.harvard.iq.dataverse.mail;
+
+import edu.harvard.iq.dataverse.mail.OutboxEmail.Status;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+import jakarta.ejb.Stateless;
+import jakarta.ejb.TransactionAttribute;
+import jakarta.ejb.TransactionAttributeType;
+import jakarta.enterprise.event.Event;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+/**
+ * The outbox of emails to be sent by the MailOutboxSender.
+ */
+@Stateless
+public class MailOutboxServiceBean {
+
+    private static final Logger logger = Logger.getLogger(MailOutboxServiceBean.class.getCanonicalName());
+
+    /**
+     * A server that claimed emails for sending, but didn't record the outcome
+     * within this time, is assumed to have died while sending them.
+     */
+    static final Duration CLAIM_TIMEOUT = Duration.ofMinutes(10);
+
+    /**
+     * Fired when an email is added to the outbox. Observed once the
+     * transaction has committed, to send it right away.
+     */
+    public record EmailQueued() {}
+
+    @PersistenceContext(unitName = "VDCNet-ejbPU")
+    private EntityManager em;
+
+    @Inject
+    Event<EmailQueued> emailQueued;
+
+    /**
+     * Adds an email to the outbox, in the current transaction: it will only
+     * be sent if the transaction commits.
+     */
+    public OutboxEmail enqueue(String recipients, String subject, String body, boolean isHtmlContent) {
+        OutboxEmail email = new OutboxEmail(recipients, subject, body, isHtmlContent);
+        em.persist(email);
+        logger.fine(() -> "Queued email to " + recipients + ". Subject: <<<" + subject + ">>>");
+        emailQueued.fire(new EmailQueued());
+        return email;
+    }
+
+    public OutboxEmail find(Long id) {
+        return em.find(OutboxEmail.class, id);
+    }
+
+    /**
+     * Claims up to limit emails that are due to be sent, so that no other
+     * server sends them too. Emails that stayed claimed for longer than
+     * CLAIM_TIMEOUT are released first.
+     *
+     * @return the claimed emails, detached.
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public List<OutboxEmail> claimDue(int limit) {
+        Timestamp now = Timestamp.from(Instant.now());
+        int released = em.createNamedQuery("OutboxEmail.releaseStaleClaims")
+                .setParameter("pending", Status.PENDING)
+                .setParameter("claimed", Status.SENDING)
+                .setParameter("before", Timestamp.from(now.toInstant().minus(CLAIM_TIMEOUT)))
+                .executeUpdate();
+        if (released > 0) {
+            logger.warning("Released " + released + " emails that were claimed for sending, but never sent");
+        }
+
+        List<Long> dueIds = em.createNamedQuery("OutboxEmail.findDueIds", Long.class)
+                .setParameter("status", Status.PENDING)
+                .setParameter("now", now)
+                .setMaxResults(limit)
+                .getResultList();
+        List<OutboxEmail> claimed = new ArrayList<>(dueIds.size());
+        for (Long id : dueIds) {
+            // Only one server can make the update; the others skip the email.
+            int updated = em.createNamedQuery("OutboxEmail.claim")
+                    .setParameter("claimed", Status.SENDING)
+                    .setParameter("pending", Status.PENDING)
+                    .setParameter("now", now)
+                    .setParameter("id", id)
+                    .executeUpdate();
+            if (updated == 1) {
+                claimed.add(em.find(OutboxEmail.class, id));
+            }
+        }
+        em.flush();
+        claimed.forEach(em::detach);
+        return claimed;
+    }
+
+    /**
+     * Saves the outcome of sending the emails (see OutboxEmail.markSent(),
+     * recordFailure()...).
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void saveDeliveryState(List<OutboxEmail> emails) {
+        emails.forEach(em::merge);
+    }
+
+    /**
+     * Removes the records of the emails sent before the given time.
+     *
+     * @return the number of records removed.
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public int deleteSentBefore(Instant before) {
+        return em.createNamedQuery("OutboxEmail.deleteSentBefore")
+                .setParameter("sent", Status.SENT)
+                .setParameter("before", Timestamp.from(before))
+                .executeUpdate();
+    }
+}
@@ -0,0 +1,222 @@
+package edu.harvard.iq.dataverse.mail;
+
+import java.io.Serializable;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.NamedQueries;
+import jakarta.persistence.NamedQuery;
+import jakarta.persistence.Table;
+
+/**
+ * A fully rendered email, waiting in the outbox to be sent (or kept for a
+ * while after it was, as a record of the delivery).
+ *
+ * Emails are added to the outbox in the transaction of whatever caused them
+ * (publishing a dataset, submitting it for review...), so they are only sent
+ * if that transaction commits; the MailOutboxSender sends them afterwards.
+ */
+@NamedQueries({
+    @NamedQuery(name = "OutboxEmail.findDueIds",
+            query = "SELECT o.id FROM OutboxEmail o WHERE o.status = :status AND o.nextAttemptTime <= :now ORDER BY o.id"),
+    @NamedQuery(name = "OutboxEmail.claim",
+            query = "UPDATE OutboxEmail o SET o.status = :claimed, o.claimTime = :now WHERE o.id = :id AND o.status = :pending"),
+    @NamedQuery(name = "OutboxEmail.releaseStaleClaims",
+            query = "UPDATE OutboxEmail o SET o.status = :pending WHERE o.status = :claimed AND o.claimTime < :before"),
+    @NamedQuery(name = "OutboxEmail.deleteSentBefore",
+            query = "DELETE FROM OutboxEmail o WHERE o.status = :sent AND o.sentTime < :before")
+})
+@Entity
+@Table(indexes = {@Index(columnList = "status, nextAttemptTime")})
+public class OutboxEmail implements Serializable {
+
+    public enum Status {
+        /** waiting to be sent, possibly again after a failed attempt */
+        PENDING,
+        /** being sent by one of the servers */
+        SENDING,
+        SENT,
+        /** given up on: either it can't be sent at all, or it failed too many times */
+        FAILED
+    }
+
+    static final Duration FIRST_RETRY_DELAY = Duration.ofMinutes(1);
+    static final Duration MAX_RETRY_DELAY = Duration.ofHours(1);
+
+    private static final long serialVersionUID = 1L;
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    /**
+     * A comma separated list of addresses, as accepted by InternetAddress.parse()
+     */
+    @Column(nullable = false, columnDefinition = "TEXT")
+    private String recipients;
+
+    @Column(nullable = false, columnDefinition = "TEXT")
+    private String subject;
+
+    @Column(nullable = false, columnDefinition = "TEXT")
+    private String body;
+
+    private boolean htmlContent;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private Status status;
+
+    private int attempts;
+
+    @Column(nullable = false)
+    private Timestamp createTime;
+
+    private Timestamp nextAttemptTime;
+
+    private Timestamp claimTime;
+
+    private Timestamp sentTime;
+
+    @Column(columnDefinition = "TEXT")
+    private String lastError;
+
+    public OutboxEmail() {
+    }
+
+    public OutboxEmail(String recipients, String subject, String body, boolean htmlContent) {
+        this.recipients = recipients;
+        this.subject = subject;
+        this.body = body;
+        this.htmlContent = htmlContent;
+        this.status = Status.PENDING;
+        this.createTime = Timestamp.from(Instant.now());
+        this.nextAttemptTime = this.createTime;
+    }
+
+    public void markSent(Instant now) {
+        status = Status.SENT;
+        attempts++;
+        sentTime = Timestamp.from(now);
+        claimTime = null;
+        lastError = null;
+    }
+
+    /**
+     * Records a failed attempt: the email will be tried again later, waiting
+     * twice as long after every failure, unless it has failed maxAttempts
+     * times already.
+     */
+    public void recordFailure(String error, int maxAttempts, Instant now) {
+        attempts++;
+        lastError = error;
+        claimTime = null;
+        if (attempts >= maxAttempts) {
+            status = Status.FAILED;
+            nextAttemptTime = null;
+        } else {
+            status = Status.PENDING;
+            nextAttemptTime = Timestamp.from(now.plus(getRetryDelay(attempts)));
+        }
+    }
+
+    /**
+     * Records that the email can never be sent (e.g. an invalid address).
+     */
+    public void markUndeliverable(String error) {
+        attempts++;
+        lastError = error;
+        claimTime = null;
+        status = Status.FAILED;
+        nextAttemptTime = null;
+    }
+
+    static Duration getRetryDelay(int failedAttempts) {
+        // 1, 2, 4, 8... minutes, up to an hour
+        int doublings = Math.min(Math.max(failedAttempts - 1, 0), 20);
+        Duration delay = FIRST_RETRY_DELAY.multipliedBy(1L << doublings);
+        return delay.compareTo(MAX_RETRY_DELAY) > 0 ? MAX_RETRY_DELAY : delay;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getRecipients() {
+        return recipients;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public boolean isHtmlContent() {
+        return htmlContent;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public Timestamp getCreateTime() {
+        return createTime;
+    }
+
+    public Timestamp getNextAttemptTime() {
+        return nextAttemptTime;
+    }
+
+    public Timestamp getClaimTime() {
+        return claimTime;
+    }
+
+    public Timestamp getSentTime() {
+        return sentTime;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    @Override
+    public int hashCode() {
+        return id != null ? id.hashCode() : 0;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (!(object instanceof OutboxEmail other)) {
+            return false;
+        }
+        return id != null && id.equals(other.id);
+    }
+
+    @Override
+    public String toString() {
+        return "edu.harvard.iq.dataverse.mail.OutboxEmail[ id=" + id + ", status=" + status + " ]";
+    }
+}
@@ -0,0 +1,222 @@
+package edu.harvard.iq.dataverse.metrics;
+
+import edu.harvard.iq.dataverse.Dataverse;
+import edu.harvard.iq.dataverse.Metric;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import jakarta.ejb.ConcurrencyManagement;
+import jakarta.ejb.ConcurrencyManagementType;
+import jakarta.ejb.EJB;
+import jakarta.ejb.Singleton;
+import jakarta.ejb.TransactionAttribute;
+import jakarta.ejb.TransactionAttributeType;
+import jakarta.enterprise.concurrent.ManagedScheduledExecutorService;
+import jakarta.json.JsonValue;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Answers the metrics API from the rollups stored in the Metric table (one
+ * row per metric, month or number of days, data location and collection
+ * subtree), and keeps them up to date so that the aggregate queries behind
+ * them are not run by the requests.
+ * <p>
+ * A rollup is computed by one thread at a time: the requests that miss it
+ * while it is being computed wait for that computation rather than running
+ * the same query. Once a rollup has been asked for, it is refreshed in the
+ * background when it expires, every {@value #REFRESH_INTERVAL_MINUTES}
+ * minutes, until it has not been asked for in a day; a request for an
+ * expired rollup that is being kept up to date gets the stored value while it
+ * is refreshed.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+@TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+public class MetricsRollupServiceBean {
+
+    private static final Logger logger = Logger.getLogger(MetricsRollupServiceBean.class.getCanonicalName());
+
+    static final long REFRESH_INTERVAL_MINUTES = 10;
+    static final Duration IDLE_RETENTION = Duration.ofDays(1);
+
+    /**
+     * How a rollup expires, as decided by the doWeQueryAgain methods of
+     * {@link MetricsServiceBean}.
+     */
+    public enum Expiry {
+        /** Recomputed every day: the metrics for the past days. */
+        DAY_BASED,
+        /** Recomputed after the cache timeout for this month, once for past months. */
+        MONTHLY,
+        /** Recomputed after the cache timeout: time series and breakdowns. */
+        ALL_TIME
+    }
+
+    @Resource
+    ManagedScheduledExecutorService scheduler;
+
+    @EJB
+    MetricsServiceBean metricsSvc;
+
+    private final ConcurrentMap<Key, Rollup> rollups = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        scheduler.scheduleWithFixedDelay(this::refreshExpired, REFRESH_INTERVAL_MINUTES, REFRESH_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * @param name the name of the metric.
+     * @param dateString the month (YYYY-MM) or number of days of the
+     * metric, or null.
+     * @param dataLocation the data location of the metric, or null.
+     * @param d the collection whose subtree is counted, or null for all.
+     * @param expiry how the rollup expires.
+     * @param query computes the metric (it may be run on another thread,
+     * later on, to refresh it).
+     * @return the JSON of the metric.
+     * @throws RuntimeException what the query threw, if the metric had to be
+     * computed and couldn't be.
+     */
+    public String get(String name, String dateString, String dataLocation, Dataverse d, Expiry expiry, Supplier<? extends JsonValue> query) {
+        Key key = new Key(name, dateString, dataLocation, d == null ? null : d.getId());
+        Rollup rollup = rollups.get(key);
+        boolean keptUpToDate = rollup != null;
+        if (!keptUpToDate) {
+            rollup = rollups.computeIfAbsent(key, k -> new Rollup(k, expiry));
+        }
+        rollup.requested(d, query);
+
+        Metric metric = metricsSvc.getMetric(name, dataLocation, dateString, d);
+        if (metric != null && !isExpired(metric, expiry)) {
+            return metric.getValueJson();
+        }
+        if (metric != null && keptUpToDate) {
+            rollup.refresh(true);
+            return metric.getValueJson();
+        }
+        try {
+            return rollup.refresh(false).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Refreshes the expired rollups that have been asked for lately, and
+     * forgets the others.
+     */
+    void refreshExpired() {
+        long idleSince = System.currentTimeMillis() - IDLE_RETENTION.toMillis();
+        for (Rollup rollup : rollups.values()) {
+            if (rollup.lastRequested < idleSince) {
+                rollups.remove(rollup.key, rollup);
+                continue;
+            }
+            try {
+                Metric metric = metricsSvc.getMetric(rollup.key.name, rollup.key.dataLocation, rollup.key.dateString, rollup.dataverse);
+                if (metric == null || isExpired(metric, rollup.expiry)) {
+                    rollup.refresh(false).join();
+                }
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Failed to refresh the metric " + rollup.key, e);
+            }
+        }
+    }
+
+    private boolean isExpired(Metric metric, Expiry expiry) {
+        return switch (expiry) {
+            case DAY_BASED -> metricsSvc.doWeQueryAgainDayBased(metric);
+            case MONTHLY -> metricsSvc.doWeQueryAgainMonthly(metric);
+            case ALL_TIME -> metricsSvc.doWeQueryAgainAllTime(metric);
+        };
+    }
+
+    private record Key(String name, String dateString, String dataLocation, Long dataverseId) {
+    }
+
+    private final class Rollup {
+
+        private final Key key;
+        private final Expiry expiry;
+        // From the latest request
+        private volatile Dataverse dataverse;
+        private volatile Supplier<? extends JsonValue> query;
+        private volatile long lastRequested;
+        /** The computation under way, if any (guarded by this) */
+        private CompletableFuture<String> computation;
+
+        Rollup(Key key, Expiry expiry) {
+            this.key = key;
+            this.expiry = expiry;
+        }
+
+        void requested(Dataverse d, Supplier<? extends JsonValue> query) {
+            this.dataverse = d;
+            this.query = query;
+            this.lastRequested = System.currentTimeMillis();
+        }
+
+        /**
+         * Computes and saves the rollup, unless that is being done already.
+         *
+         * @param inBackground whether to compute it on the scheduler rather
+         * than in this thread.
+         * @return the computation under way.
+         */
+        CompletableFuture<String> refresh(boolean inBackground) {
+            CompletableFuture<String> result;
+            synchronized (this) {
+                if (computation != null) {
+                    return computation;
+                }
+                computation = result = new CompletableFuture<>();
+            }
+            Runnable compute = () -> {
+                try {
+                    result.complete(compute());
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                } finally {
+                    synchronized (this) {
+                        computation = null;
+                    }
+                }
+            };
+            if (inBackground) {
+                try {
+                    scheduler.execute(compute);
+                } catch (RejectedExecutionException e) {
+                    result.completeExceptionally(e);
+                    synchronized (this) {
+                        computation = null;
+                    }
+                }
+            } else {
+                compute.run();
+            }
+            return result;
+        }
+
+        private String compute() {
+            long start = System.currentTimeMillis();
+            String value = Objects.requireNonNull(query.get()).toString();
+            metricsSvc.save(new Metric(key.name, key.dateString, key.dataLocation, dataverse, value));
+            logger.fine(() -> "Computed the metric " + key + " in " + (System.currentTimeMillis() - start) + " ms");
+            return value;
+        }
+    }
+}
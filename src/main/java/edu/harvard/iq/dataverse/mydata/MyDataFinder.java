@@ -294,6 +294,7 @@ public class MyDataFinder {
         //  If we have the parent of a distinctEntityId in distinctParentIds,
         //  then we query it via the parent
         //
+        Set<Long> distinctDataverseIds = new HashSet<>(this.directDataverseIds);
         List<Long> finalDirectEntityIds = new ArrayList<>();
         for (Long idToCheck : distinctEntityIds){
             if (this.childToParentIds.containsKey(idToCheck)){  // Do we have the parent in our map?
@@ -301,7 +302,7 @@ public class MyDataFinder {
                 // we are not checking the parent of dataverses, so add this explicitly
                 // Similar to SEK 7/015 - all direct dataverse ids are used because child dataverses with direct assignments are being lost.
                 //
-                if (this.directDataverseIds.contains(idToCheck)){
+                if (distinctDataverseIds.contains(idToCheck)){
                     // Add all dataverse ids explicitly
                     finalDirectEntityIds.add(idToCheck);
 
@@ -321,15 +322,16 @@ public class MyDataFinder {
         //
         SolrQueryFormatter sqf = new SolrQueryFormatter();
 
-        // Build clauses
+        // Build clauses: one {!terms} query per field, however many ids
+        // (a user with a role on a large collection may have tens of thousands)
         String entityIdClause = null;
         if (distinctEntityIds.size() > 0){
-            entityIdClause = sqf.buildIdQuery(distinctEntityIds, SearchFields.ENTITY_ID, null);
+            entityIdClause = sqf.buildTermsQuery(distinctEntityIds, SearchFields.ENTITY_ID, null);
         }
 
         String parentIdClause = null;
         if (distinctParentIds.size() > 0){
-            parentIdClause = sqf.buildIdQuery(distinctParentIds, SearchFields.PARENT_ID, "datasets OR files");
+            parentIdClause = sqf.buildTermsQuery(distinctParentIds, SearchFields.PARENT_ID, "datasets OR files");
         }
 
         if ((entityIdClause != null) && (parentIdClause != null)){
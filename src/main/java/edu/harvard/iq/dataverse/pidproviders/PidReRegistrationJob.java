@@ -0,0 +1,287 @@
+package edu.harvard.iq.dataverse.pidproviders;
+
+import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
+import edu.harvard.iq.dataverse.util.json.NullSafeJsonBuilder;
+import jakarta.json.JsonObjectBuilder;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.ManyToOne;
+import jakarta.persistence.NamedQueries;
+import jakarta.persistence.NamedQuery;
+import jakarta.persistence.Table;
+import java.io.Serializable;
+import java.sql.Timestamp;
+
+import static edu.harvard.iq.dataverse.util.json.NullSafeJsonBuilder.jsonObjectBuilder;
+
+/**
+ * Persistent state of a bulk re-registration of dataset PIDs at their
+ * providers (either of the PID metadata, or of the target URLs). The job walks
+ * the local datasets in id order; {@link #lastProcessedId} is the cursor that
+ * allows an interrupted job to be resumed where it left off.
+ *
+ * @see PidReRegistrationServiceBean
+ */
+@NamedQueries({
+    @NamedQuery(name = "PidReRegistrationJob.findAll",
+            query = "SELECT j FROM PidReRegistrationJob j ORDER BY j.id DESC"),
+    @NamedQuery(name = "PidReRegistrationJob.findByStatus",
+            query = "SELECT j FROM PidReRegistrationJob j WHERE j.status=:status ORDER BY j.id")
+})
+@Entity
+@Table(indexes = {@Index(columnList = "status")})
+public class PidReRegistrationJob implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public enum JobType {
+        /**
+         * Update the metadata registered at the provider, as done by
+         * UpdateDvObjectPIDMetadataCommand.
+         */
+        PID_METADATA,
+        /**
+         * Update the target URL registered at the provider, as done by
+         * UpdateDatasetTargetURLCommand.
+         */
+        TARGET_URL
+    }
+
+    public enum Status {
+        RUNNING,
+        /**
+         * The job was running when the application was shut down, and can be
+         * resumed from its last checkpoint.
+         */
+        INTERRUPTED,
+        CANCELLED,
+        COMPLETED
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    @Enumerated(EnumType.STRING)
+    private JobType jobType;
+
+    @Column(nullable = false)
+    @Enumerated(EnumType.STRING)
+    private Status status;
+
+    /**
+     * The superuser who started the job; the registration commands are
+     * executed on their behalf, including after a resume.
+     */
+    @ManyToOne
+    @JoinColumn(nullable = false)
+    private AuthenticatedUser user;
+
+    /**
+     * The maximum number of registrations in flight against the providers at
+     * any given time.
+     */
+    @Column(nullable = false)
+    private int concurrency;
+
+    /**
+     * Id of the last dataset in the last fully processed page. All the
+     * datasets with ids up to and including this one have been processed.
+     */
+    private Long lastProcessedId;
+
+    private long processedCount;
+
+    private long skippedCount;
+
+    private long failedCount;
+
+    /**
+     * Time spent actually running, accumulated over all the runs of the job;
+     * used to calculate the throughput.
+     */
+    private long elapsedMillis;
+
+    @Column(nullable = false)
+    private Timestamp startTime;
+
+    private Timestamp lastUpdateTime;
+
+    private Timestamp endTime;
+
+    public PidReRegistrationJob() {
+    }
+
+    public PidReRegistrationJob(JobType jobType, AuthenticatedUser user, int concurrency) {
+        this.jobType = jobType;
+        this.user = user;
+        this.concurrency = concurrency;
+        this.status = Status.RUNNING;
+        this.startTime = new Timestamp(System.currentTimeMillis());
+        this.lastUpdateTime = this.startTime;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public JobType getJobType() {
+        return jobType;
+    }
+
+    public void setJobType(JobType jobType) {
+        this.jobType = jobType;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    public AuthenticatedUser getUser() {
+        return user;
+    }
+
+    public void setUser(AuthenticatedUser user) {
+        this.user = user;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public void setConcurrency(int concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    public Long getLastProcessedId() {
+        return lastProcessedId;
+    }
+
+    public void setLastProcessedId(Long lastProcessedId) {
+        this.lastProcessedId = lastProcessedId;
+    }
+
+    public long getProcessedCount() {
+        return processedCount;
+    }
+
+    public void setProcessedCount(long processedCount) {
+        this.processedCount = processedCount;
+    }
+
+    public long getSkippedCount() {
+        return skippedCount;
+    }
+
+    public void setSkippedCount(long skippedCount) {
+        this.skippedCount = skippedCount;
+    }
+
+    public long getFailedCount() {
+        return failedCount;
+    }
+
+    public void setFailedCount(long failedCount) {
+        this.failedCount = failedCount;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public void setElapsedMillis(long elapsedMillis) {
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public Timestamp getStartTime() {
+        return startTime;
+    }
+
+    public void setStartTime(Timestamp startTime) {
+        this.startTime = startTime;
+    }
+
+    public Timestamp getLastUpdateTime() {
+        return lastUpdateTime;
+    }
+
+    public void setLastUpdateTime(Timestamp lastUpdateTime) {
+        this.lastUpdateTime = lastUpdateTime;
+    }
+
+    public Timestamp getEndTime() {
+        return endTime;
+    }
+
+    public void setEndTime(Timestamp endTime) {
+        this.endTime = endTime;
+    }
+
+    /**
+     * @return datasets handled per second of running time (processed, skipped
+     * and failed alike), or 0 if the job hasn't made any progress yet.
+     */
+    public double getThroughput() {
+        if (elapsedMillis <= 0) {
+            return 0.0;
+        }
+        return (processedCount + skippedCount + failedCount) * 1000.0 / elapsedMillis;
+    }
+
+    public JsonObjectBuilder toJson() {
+        NullSafeJsonBuilder job = jsonObjectBuilder()
+                .add("id", getId())
+                .add("type", getJobType().name())
+                .add("status", getStatus().name())
+                .add("user", getUser() == null ? null : getUser().getUserIdentifier())
+                .add("concurrency", getConcurrency())
+                .add("lastProcessedId", getLastProcessedId())
+                .add("processed", getProcessedCount())
+                .add("skipped", getSkippedCount())
+                .add("failed", getFailedCount())
+                .add("elapsedSeconds", getElapsedMillis() / 1000)
+                .add("datasetsPerSecond", Math.round(getThroughput() * 100.0) / 100.0)
+                .add("startTime", getStartTime())
+                .add("lastUpdateTime", getLastUpdateTime())
+                .add("endTime", getEndTime());
+        return job;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 0;
+        hash += (id != null ? id.hashCode() : 0);
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (!(object instanceof PidReRegistrationJob)) {
+            return false;
+        }
+        PidReRegistrationJob other = (PidReRegistrationJob) object;
+        return (this.id != null || other.id == null) && (this.id == null || this.id.equals(other.id));
+    }
+
+    @Override
+    public String toString() {
+        return "edu.harvard.iq.dataverse.pidproviders.PidReRegistrationJob[ id=" + id + " ]";
+    }
+
+}
@@ -0,0 +1,94 @@
+package edu.harvard.iq.dataverse.pidproviders;
+
+import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
+import edu.harvard.iq.dataverse.pidproviders.PidReRegistrationJob.JobType;
+import edu.harvard.iq.dataverse.pidproviders.PidReRegistrationJob.Status;
+import jakarta.ejb.Stateless;
+import jakarta.ejb.TransactionAttribute;
+import jakarta.ejb.TransactionAttributeType;
+import jakarta.inject.Named;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * Persistence of the {@link PidReRegistrationJob} records. The progress
+ * updates are made in their own transactions, so that they are committed (and
+ * visible to the status API) as soon as a page of datasets has been processed.
+ */
+@Stateless
+@Named
+public class PidReRegistrationJobServiceBean {
+
+    @PersistenceContext(unitName = "VDCNet-ejbPU")
+    private EntityManager em;
+
+    public PidReRegistrationJob find(Long id) {
+        return em.find(PidReRegistrationJob.class, id);
+    }
+
+    public List<PidReRegistrationJob> findAll() {
+        return em.createNamedQuery("PidReRegistrationJob.findAll", PidReRegistrationJob.class).getResultList();
+    }
+
+    public List<PidReRegistrationJob> findByStatus(Status status) {
+        return em.createNamedQuery("PidReRegistrationJob.findByStatus", PidReRegistrationJob.class)
+                .setParameter("status", status)
+                .getResultList();
+    }
+
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public PidReRegistrationJob create(JobType jobType, AuthenticatedUser user, int concurrency) {
+        PidReRegistrationJob job = new PidReRegistrationJob(jobType, user, concurrency);
+        em.persist(job);
+        em.flush();
+        return job;
+    }
+
+    /**
+     * Records a checkpoint: all the datasets with ids up to and including
+     * {@code lastProcessedId} have been handled.
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public PidReRegistrationJob saveProgress(Long jobId, Long lastProcessedId, long processed, long skipped, long failed, long elapsedMillis) {
+        PidReRegistrationJob job = em.find(PidReRegistrationJob.class, jobId);
+        if (job == null) {
+            return null;
+        }
+        job.setLastProcessedId(lastProcessedId);
+        job.setProcessedCount(job.getProcessedCount() + processed);
+        job.setSkippedCount(job.getSkippedCount() + skipped);
+        job.setFailedCount(job.getFailedCount() + failed);
+        job.setElapsedMillis(job.getElapsedMillis() + elapsedMillis);
+        job.setLastUpdateTime(new Timestamp(System.currentTimeMillis()));
+        return job;
+    }
+
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public PidReRegistrationJob setStatus(Long jobId, Status status) {
+        PidReRegistrationJob job = em.find(PidReRegistrationJob.class, jobId);
+        if (job == null) {
+            return null;
+        }
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        job.setStatus(status);
+        job.setLastUpdateTime(now);
+        job.setEndTime(status == Status.COMPLETED || status == Status.CANCELLED ? now : null);
+        return job;
+    }
+
+    /**
+     * Marks the jobs left in the RUNNING state by a previous run of the
+     * application as INTERRUPTED, so that they can be resumed.
+     *
+     * @return the number of jobs marked
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public int markRunningAsInterrupted() {
+        return em.createQuery("UPDATE PidReRegistrationJob j SET j.status=:interrupted WHERE j.status=:running")
+                .setParameter("interrupted", Status.INTERRUPTED)
+                .setParameter("running", Status.RUNNING)
+                .executeUpdate();
+    }
+}
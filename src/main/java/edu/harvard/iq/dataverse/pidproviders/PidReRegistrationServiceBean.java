@@ -0,0 +1,256 @@
+package edu.harvard.iq.dataverse.pidproviders;
+
+import edu.harvard.iq.dataverse.Dataset;
+import edu.harvard.iq.dataverse.DatasetServiceBean;
+import edu.harvard.iq.dataverse.EjbDataverseEngine;
+import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
+import edu.harvard.iq.dataverse.engine.command.DataverseRequest;
+import edu.harvard.iq.dataverse.engine.command.exception.CommandException;
+import edu.harvard.iq.dataverse.engine.command.impl.UpdateDatasetTargetURLCommand;
+import edu.harvard.iq.dataverse.engine.command.impl.UpdateDvObjectPIDMetadataCommand;
+import edu.harvard.iq.dataverse.pidproviders.PidReRegistrationJob.JobType;
+import edu.harvard.iq.dataverse.pidproviders.PidReRegistrationJob.Status;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import jakarta.ejb.ConcurrencyManagement;
+import jakarta.ejb.ConcurrencyManagementType;
+import jakarta.ejb.EJB;
+import jakarta.ejb.Singleton;
+import jakarta.ejb.Startup;
+import jakarta.enterprise.concurrent.ManagedExecutorDefinition;
+import jakarta.enterprise.concurrent.ManagedExecutorService;
+import jakarta.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the bulk re-registration of dataset PIDs (metadata or target URLs) at
+ * their providers in the background.
+ * <p>
+ * Instead of loading all the datasets in one request, a job walks the local
+ * dataset ids with a keyset cursor, one page at a time. The datasets in a page
+ * are handed to a managed executor of their own, with at most
+ * {@link PidReRegistrationJob#getConcurrency()} registrations in flight against
+ * the providers. (The job itself runs on the default managed executor, and
+ * waits for the registrations: they can't be queued to the same executor, or
+ * a few jobs could take all its threads, waiting for registrations that would
+ * never start.) Once the whole page is done the cursor and the counters are
+ * saved, so a job interrupted by a restart can be resumed from that point via
+ * the admin API.
+ *
+ * @see PidReRegistrationJob
+ */
+@ManagedExecutorDefinition(
+    name = "java:app/concurrent/pidReRegistration",
+    maxAsync = PidReRegistrationServiceBean.MAX_CONCURRENCY
+)
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class PidReRegistrationServiceBean {
+
+    private static final Logger logger = Logger.getLogger(PidReRegistrationServiceBean.class.getCanonicalName());
+
+    public static final int DEFAULT_CONCURRENCY = 4;
+    public static final int MAX_CONCURRENCY = 32;
+    static final int PAGE_SIZE = 100;
+
+    @Resource
+    ManagedExecutorService executor;
+
+    /**
+     * Runs the registrations of the jobs (never the jobs themselves).
+     */
+    @Resource(lookup = "java:app/concurrent/pidReRegistration")
+    ManagedExecutorService registrationExecutor;
+
+    @EJB
+    PidReRegistrationJobServiceBean jobService;
+    @EJB
+    DatasetServiceBean datasetService;
+    @EJB
+    EjbDataverseEngine commandEngine;
+
+    /**
+     * Ids of the jobs currently running on this instance.
+     */
+    private final Set<Long> runningJobs = ConcurrentHashMap.newKeySet();
+    /**
+     * Ids of the running jobs that have been asked to stop after their current page.
+     */
+    private final Set<Long> cancelRequests = ConcurrentHashMap.newKeySet();
+
+    private enum Outcome {
+        PROCESSED, SKIPPED, FAILED
+    }
+
+    @PostConstruct
+    public void init() {
+        int interrupted = jobService.markRunningAsInterrupted();
+        if (interrupted > 0) {
+            logger.info(interrupted + " PID re-registration job(s) were interrupted by a shutdown and can be resumed via the admin API");
+        }
+    }
+
+    /**
+     * Creates a new job and starts it in the background.
+     *
+     * @param concurrency the maximum number of concurrent registrations; null
+     * for the default
+     */
+    public PidReRegistrationJob start(JobType jobType, AuthenticatedUser user, Integer concurrency) {
+        PidReRegistrationJob job = jobService.create(jobType, user, sanitizeConcurrency(concurrency));
+        launch(job);
+        return job;
+    }
+
+    /**
+     * Resumes an interrupted job from its last checkpoint.
+     *
+     * @return the resumed job, or null if no job with this id exists
+     * @throws IllegalStateException if the job is not in the INTERRUPTED state
+     */
+    public PidReRegistrationJob resume(Long jobId) {
+        PidReRegistrationJob job = jobService.find(jobId);
+        if (job == null) {
+            return null;
+        }
+        if (job.getStatus() != Status.INTERRUPTED || runningJobs.contains(jobId)) {
+            throw new IllegalStateException("Only interrupted jobs can be resumed; job " + jobId + " is " + job.getStatus());
+        }
+        job = jobService.setStatus(jobId, Status.RUNNING);
+        launch(job);
+        return job;
+    }
+
+    /**
+     * Asks a running job to stop once its current page has been processed.
+     *
+     * @return true if the job was running on this instance
+     */
+    public boolean cancel(Long jobId) {
+        if (runningJobs.contains(jobId)) {
+            cancelRequests.add(jobId);
+            return true;
+        }
+        PidReRegistrationJob job = jobService.find(jobId);
+        if (job != null && job.getStatus() == Status.INTERRUPTED) {
+            jobService.setStatus(jobId, Status.CANCELLED);
+            return true;
+        }
+        return false;
+    }
+
+    static int sanitizeConcurrency(Integer concurrency) {
+        if (concurrency == null || concurrency < 1) {
+            return DEFAULT_CONCURRENCY;
+        }
+        return Math.min(concurrency, MAX_CONCURRENCY);
+    }
+
+    private void launch(PidReRegistrationJob job) {
+        runningJobs.add(job.getId());
+        // The commands are executed on behalf of the user who started the
+        // job; the http request of the API call is long gone by then.
+        DataverseRequest request = new DataverseRequest(job.getUser(), (HttpServletRequest) null);
+        executor.submit(() -> run(job.getId(), job.getJobType(), job.getConcurrency(), job.getLastProcessedId(), request));
+    }
+
+    private void run(Long jobId, JobType jobType, int concurrency, Long lastProcessedId, DataverseRequest request) {
+        logger.info("Starting PID re-registration job " + jobId + " (" + jobType + ") after dataset id " + lastProcessedId);
+        Semaphore inFlight = new Semaphore(concurrency);
+        Long cursor = lastProcessedId;
+        try {
+            while (true) {
+                if (cancelRequests.remove(jobId)) {
+                    jobService.setStatus(jobId, Status.CANCELLED);
+                    logger.info("PID re-registration job " + jobId + " cancelled after dataset id " + cursor);
+                    return;
+                }
+                List<Long> ids = datasetService.findLocalDatasetIdsAfter(cursor, PAGE_SIZE);
+                if (ids.isEmpty()) {
+                    jobService.setStatus(jobId, Status.COMPLETED);
+                    logger.info("PID re-registration job " + jobId + " completed");
+                    return;
+                }
+                long pageStart = System.currentTimeMillis();
+                List<Future<Outcome>> outcomes = new ArrayList<>(ids.size());
+                for (Long id : ids) {
+                    inFlight.acquire();
+                    try {
+                        outcomes.add(registrationExecutor.submit(() -> {
+                            try {
+                                return reRegister(jobType, id, request);
+                            } finally {
+                                inFlight.release();
+                            }
+                        }));
+                    } catch (RuntimeException e) {
+                        inFlight.release();
+                        throw e;
+                    }
+                }
+                long processed = 0, skipped = 0, failed = 0;
+                for (Future<Outcome> outcome : outcomes) {
+                    Outcome o;
+                    try {
+                        o = outcome.get();
+                    } catch (ExecutionException e) {
+                        logger.log(Level.WARNING, "PID re-registration job " + jobId + ": unexpected failure", e.getCause());
+                        o = Outcome.FAILED;
+                    }
+                    switch (o) {
+                        case PROCESSED -> processed++;
+                        case SKIPPED -> skipped++;
+                        default -> failed++;
+                    }
+                }
+                // Every dataset in the page is done; it is now safe to move the cursor past it.
+                cursor = ids.get(ids.size() - 1);
+                jobService.saveProgress(jobId, cursor, processed, skipped, failed, System.currentTimeMillis() - pageStart);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warning("PID re-registration job " + jobId + " interrupted after dataset id " + cursor);
+            jobService.setStatus(jobId, Status.INTERRUPTED);
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "PID re-registration job " + jobId + " stopped after dataset id " + cursor, e);
+            jobService.setStatus(jobId, Status.INTERRUPTED);
+        } finally {
+            runningJobs.remove(jobId);
+            cancelRequests.remove(jobId);
+        }
+    }
+
+    private Outcome reRegister(JobType jobType, Long datasetId, DataverseRequest request) {
+        Dataset dataset = datasetService.find(datasetId);
+        if (dataset == null || dataset.getIdentifier() == null) {
+            return Outcome.SKIPPED;
+        }
+        try {
+            if (jobType == JobType.PID_METADATA) {
+                if (!dataset.isReleased() || !dataset.isIdentifierRegistered()) {
+                    if (dataset.isReleased()) {
+                        logger.warning("Dataset id=" + datasetId + " is in an inconsistent state (publicationdate but no identifier/identifier not registered");
+                    }
+                    return Outcome.SKIPPED;
+                }
+                logger.fine("ReRegistering: " + datasetId + " : " + dataset.getIdentifier());
+                commandEngine.submit(new UpdateDvObjectPIDMetadataCommand(dataset, request));
+            } else {
+                commandEngine.submit(new UpdateDatasetTargetURLCommand(dataset, request));
+            }
+            return Outcome.PROCESSED;
+        } catch (CommandException ex) {
+            logger.log(Level.WARNING, "Failed to re-register the PID of dataset id=" + datasetId, ex);
+            return Outcome.FAILED;
+        }
+    }
+}
@@ -41,6 +41,7 @@ import jakarta.persistence.NoResultException;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrQuery.SortClause;
+import org.apache.solr.client.solrj.SolrRequest;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.impl.BaseHttpSolrClient.RemoteSolrException;
 import org.apache.solr.client.solrj.response.FacetField;
@@ -49,6 +50,7 @@ import org.apache.solr.client.solrj.response.RangeFacet;
 import org.apache.solr.client.solrj.response.SpellCheckResponse;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.CursorMarkParams;
 
 @Stateless
 @Named
@@ -58,6 +60,11 @@ public class SearchServiceBean {
 
     private static final String ALL_GROUPS = "*";
 
+    /**
+     * Longer queries are sent in the body of a POST request.
+     */
+    private static final int MAX_GET_QUERY_LENGTH = 4096;
+
     /**
      * We're trying to make the SearchServiceBean lean, mean, and fast, with as
      * few injections of EJBs as possible.
@@ -180,6 +187,38 @@ public class SearchServiceBean {
             boolean addFacets,
             boolean addHighlights
     ) throws SearchException {
+        return search(dataverseRequest, dataverses, query, filterQueries, sortField, sortOrder, paginationStart, onlyDatatRelatedToMe, numResultsPerPage, retrieveEntities, geoPoint, geoRadius, addFacets, addHighlights, null);
+    }
+
+    /**
+     * Same as above, with cursor-based paging: instead of skipping
+     * {@code paginationStart} results (which Solr does by collecting and
+     * sorting all of them, so deep pages get slower and slower), the page
+     * starts after the position marked by {@code cursorMark}. The mark of the
+     * next page is in {@link SolrQueryResponse#getNextCursorMark()}; when it
+     * is the same as {@code cursorMark}, there are no more results.
+     * See https://solr.apache.org/guide/solr/latest/query-guide/pagination-of-results.html
+     *
+     * @param cursorMark "*" for the first page, or the next cursor mark
+     * returned with the previous page. {@code null} for offset-based paging.
+     */
+    public SolrQueryResponse search(
+            DataverseRequest dataverseRequest,
+            List<Dataverse> dataverses,
+            String query,
+            List<String> filterQueries,
+            String sortField, 
+            String sortOrder,
+            int paginationStart,
+            boolean onlyDatatRelatedToMe,
+            int numResultsPerPage,
+            boolean retrieveEntities,
+            String geoPoint,
+            String geoRadius,
+            boolean addFacets,
+            boolean addHighlights,
+            String cursorMark
+    ) throws SearchException {
 
         if (paginationStart < 0) {
             throw new IllegalArgumentException("paginationStart must be 0 or greater");
@@ -187,6 +226,9 @@ public class SearchServiceBean {
         if (numResultsPerPage < 1) {
             throw new IllegalArgumentException("numResultsPerPage must be 1 or greater");
         }
+        if (cursorMark != null && paginationStart != 0) {
+            throw new IllegalArgumentException("paginationStart must be 0 when a cursorMark is used");
+        }
 
         SolrQuery solrQuery = new SolrQuery();
         query = SearchUtil.sanitizeQuery(query);
@@ -197,6 +239,16 @@ public class SearchServiceBean {
             // don't care, and it must cost some extra cycles -- L.A.
             solrQuery.setSort(new SortClause(sortField, sortOrder));
         }
+        if (cursorMark != null) {
+            // A cursor needs a total order: ties are broken on the unique key.
+            if (sortField == null) {
+                solrQuery.setSort(SortClause.desc("score"));
+            }
+            if (!SearchFields.ID.equals(sortField)) {
+                solrQuery.addSort(SortClause.asc(SearchFields.ID));
+            }
+            solrQuery.set(CursorMarkParams.CURSOR_MARK_PARAM, cursorMark);
+        }
         
         solrQuery.setParam("fl", "*,score");
         solrQuery.setParam("qt", "/select");
@@ -344,10 +396,9 @@ public class SearchServiceBean {
             }
         }
         
-        /**
-         * @todo: do sanity checking... throw error if negative
-         */
-        solrQuery.setStart(paginationStart);
+        if (cursorMark == null) {
+            solrQuery.setStart(paginationStart);
+        }
         /**
          * @todo: decide if year CITATION_YEAR is good enough or if we should
          * support CITATION_DATE
@@ -387,7 +438,10 @@ public class SearchServiceBean {
         QueryResponse queryResponse = null;
         
         try {
-            queryResponse = solrClientService.getSolrClient().query(solrQuery);
+            // Filter queries listing many ids (e.g. MyData, for users with
+            // roles on many objects) would not fit in a URL.
+            SolrRequest.METHOD method = solrQuery.toQueryString().length() > MAX_GET_QUERY_LENGTH ? SolrRequest.METHOD.POST : SolrRequest.METHOD.GET;
+            queryResponse = solrClientService.getSolrClient().query(solrQuery, method);
 
         } catch (RemoteSolrException ex) {
             String messageFromSolr = ex.getLocalizedMessage();
@@ -958,6 +1012,7 @@ public class SearchServiceBean {
         solrQueryResponse.setTypeFacetCategories(typeFacetCategories);
         solrQueryResponse.setNumResultsFound(queryResponse.getResults().getNumFound());
         solrQueryResponse.setResultsStart(queryResponse.getResults().getStart());
+        solrQueryResponse.setNextCursorMark(queryResponse.getNextCursorMark());
         solrQueryResponse.setDatasetfieldFriendlyNamesBySolrField(datasetfieldFriendlyNamesBySolrField);
         solrQueryResponse.setStaticSolrFieldFriendlyNamesBySolrField(staticSolrFieldFriendlyNamesBySolrField);
         String[] filterQueriesArray = solrQuery.getFilterQueries();
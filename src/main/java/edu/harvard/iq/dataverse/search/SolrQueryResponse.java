@@ -17,6 +17,7 @@ public class SolrQueryResponse {
     private List<SolrSearchResult> solrSearchResults;
     private Long numResultsFound;
     private Long resultsStart;
+    private String nextCursorMark;
     private Map<String, List<String>> spellingSuggestionsByToken;
     private List<FacetCategory> facetCategoryList;
     private List<FacetCategory> typeFacetCategories;
@@ -155,6 +156,18 @@ public class SolrQueryResponse {
         this.resultsStart = resultsStart;
     }
 
+    /**
+     * @return the cursor mark of the next page, when the search used a cursor
+     * mark; {@code null} otherwise.
+     */
+    public String getNextCursorMark() {
+        return nextCursorMark;
+    }
+
+    public void setNextCursorMark(String nextCursorMark) {
+        this.nextCursorMark = nextCursorMark;
+    }
+
     public void setSpellingSuggestionsByToken(Map<String, List<String>> spellingSuggestionsByToken) {
         this.spellingSuggestionsByToken = spellingSuggestionsByToken;
     }
@@ -55,6 +55,9 @@ public enum JvmSettings {
     SCOPE_FEATURED_ITEMS(SCOPE_FILES, "featured-items"),
     FEATURED_ITEMS_IMAGE_MAXSIZE(SCOPE_FEATURED_ITEMS, "image-maxsize"),
     FEATURED_ITEMS_IMAGE_UPLOADS_DIRECTORY(SCOPE_FEATURED_ITEMS, "image-uploads"),
+    ZIP_DOWNLOAD_PREFETCH(SCOPE_FILES, "zip-download-prefetch"),
+    ZIP_DOWNLOAD_PREFETCH_MEMORY(SCOPE_FILES, "zip-download-prefetch-memory"),
+    S3_PARALLEL_DOWNLOAD_MEMORY(SCOPE_FILES, "s3-parallel-download-memory"),
 
     //STORAGE DRIVER SETTINGS
     SCOPE_DRIVER(SCOPE_FILES),
@@ -84,6 +87,7 @@ public enum JvmSettings {
     SCOPE_API(PREFIX, "api"),
     API_SIGNING_SECRET(SCOPE_API, "signing-secret"),
     API_ALLOW_INCOMPLETE_METADATA(SCOPE_API, "allow-incomplete-metadata"),
+    API_CACHE_MAX_AGE(SCOPE_API, "cache-max-age"),
 
     // SIGNPOSTING SETTINGS
     SCOPE_SIGNPOSTING(PREFIX, "signposting"),
@@ -208,12 +212,21 @@ public enum JvmSettings {
     SCOPE_PIDPROVIDERS(SCOPE_SPI, "pidproviders"),
     PIDPROVIDERS_DIRECTORY(SCOPE_PIDPROVIDERS, "directory"),
     
+    // METADATA EXPORT SETTINGS
+    SCOPE_EXPORT(PREFIX, "export"),
+    EXPORT_PARALLEL_FORMATS(SCOPE_EXPORT, "parallel-formats"),
+    EXPORT_PARALLEL_DATASETS(SCOPE_EXPORT, "parallel-datasets"),
+    EXPORT_STREAMING_FILE_THRESHOLD(SCOPE_EXPORT, "streaming-file-threshold"),
+    
     // MAIL SETTINGS
     SCOPE_MAIL(PREFIX, "mail"),
     SYSTEM_EMAIL(SCOPE_MAIL, "system-email"),
     SUPPORT_EMAIL(SCOPE_MAIL, "support-email"),
     CC_SUPPORT_ON_CONTACT_EMAIL(SCOPE_MAIL, "cc-support-on-contact-email"),
     MAIL_DEBUG(SCOPE_MAIL, "debug"),
+    SCOPE_MAIL_OUTBOX(SCOPE_MAIL, "outbox"),
+    MAIL_OUTBOX_MAX_ATTEMPTS(SCOPE_MAIL_OUTBOX, "max-attempts"),
+    MAIL_OUTBOX_BATCH_SIZE(SCOPE_MAIL_OUTBOX, "batch-size"),
     // Mail Transfer Agent settings
     SCOPE_MAIL_MTA(SCOPE_MAIL, "mta"),
     MAIL_MTA_AUTH(SCOPE_MAIL_MTA, "auth"),
@@ -259,6 +272,14 @@ public enum JvmSettings {
     // STORAGE USE SETTINGS
     SCOPE_STORAGEUSE(PREFIX, "storageuse"),
     STORAGEUSE_DISABLE_UPDATES(SCOPE_STORAGEUSE, "disable-storageuse-increments"),
+
+    // WORKFLOW SETTINGS
+    SCOPE_WORKFLOWS(PREFIX, "workflows"),
+    WORKFLOWS_EXECUTOR_THREADS(SCOPE_WORKFLOWS, "executor-threads"),
+
+    // INGEST SETTINGS
+    SCOPE_INGEST(PREFIX, "ingest"),
+    INGEST_WORKERS(SCOPE_INGEST, "workers"),
     ;
 
     private static final String SCOPE_SEPARATOR = ".";
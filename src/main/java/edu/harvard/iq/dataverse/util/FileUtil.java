@@ -40,6 +40,7 @@ import edu.harvard.iq.dataverse.license.License;
 import edu.harvard.iq.dataverse.settings.ConfigCheckService;
 import edu.harvard.iq.dataverse.settings.JvmSettings;
 import edu.harvard.iq.dataverse.util.file.BagItFileHandler;
+import edu.harvard.iq.dataverse.util.file.ChecksummedTempFile;
 import edu.harvard.iq.dataverse.util.file.CreateDataFileResult;
 import edu.harvard.iq.dataverse.util.file.BagItFileHandlerFactory;
 import edu.harvard.iq.dataverse.util.xml.html.HtmlFormatUtil;
@@ -54,6 +55,7 @@ import static edu.harvard.iq.dataverse.util.xml.html.HtmlFormatUtil.formatTableC
 import static edu.harvard.iq.dataverse.util.xml.html.HtmlFormatUtil.formatTableRow;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -465,6 +467,19 @@ public class FileUtil implements java.io.Serializable  {
     }
 
     public static String determineFileType(File f, String fileName) throws IOException {
+        return determineFileType(f, fileName, null);
+    }
+
+    /**
+     * Same as determineFileType(File, String), with the first bytes of the
+     * file, kept when it was written (see {@link ChecksummedTempFile}): the
+     * checks that only look at the first bytes use them, instead of opening
+     * the file.
+     *
+     * @param header the first ChecksummedTempFile.HEADER_SIZE bytes of the
+     * file (or all of them), or null to read them from the file.
+     */
+    public static String determineFileType(File f, String fileName, byte[] header) throws IOException {
         String fileType = lookupFileTypeByFileName(fileName);
         if (fileType != null) {
             return fileType;
@@ -480,7 +495,7 @@ public class FileUtil implements java.io.Serializable  {
         logger.fine("Attempting to identify potential tabular data files;");
         IngestableDataChecker tabChk = new IngestableDataChecker(TABULAR_DATA_FORMAT_SET);
         
-        fileType = tabChk.detectTabularDataFormat(f);
+        fileType = header != null ? tabChk.detectTabularDataFormat(header) : tabChk.detectTabularDataFormat(f);
         
         logger.fine("determineFileType: tabular data checker found "+fileType);
                 
@@ -495,7 +510,7 @@ public class FileUtil implements java.io.Serializable  {
             // the ".fits" extension and the header check;
             // in 4.0, we'll accept either the extension, or the valid 
             // magic header:
-            if (isFITSFile(f) || (fileExtension != null
+            if ((header != null ? isFITSFile(new ByteArrayInputStream(header)) : isFITSFile(f)) || (fileExtension != null
                     && fileExtension.equalsIgnoreCase("fits"))) {
                 fileType = "application/fits";
             }
@@ -914,6 +929,27 @@ public class FileUtil implements java.io.Serializable  {
         throw new IOException("Failed to save uploaded file.");
     }
     
+    /**
+     * Like saveInputStreamInTempFile(), for a file that is already on disk
+     * (such as the files repackaged from an uploaded zip): the file is moved, 
+     * rather than copied, to the temp directory for uploads, so that its
+     * bytes are not written once more. 
+     */
+    public static File moveToTempFile(File file, Long fileSizeLimit, Long storageQuotaLimit)
+            throws IOException, FileExceedsMaxSizeException, FileExceedsStorageQuotaException {
+        long fileSize = file.length();
+        if (fileSizeLimit != null && fileSize > fileSizeLimit) {
+            throw new FileExceedsMaxSizeException(MessageFormat.format(BundleUtil.getStringFromBundle("file.addreplace.error.file_exceeds_limit"), bytesToHumanReadable(fileSize), bytesToHumanReadable(fileSizeLimit)));  
+        }
+        if (storageQuotaLimit != null && fileSize > storageQuotaLimit) {
+            throw new FileExceedsStorageQuotaException(MessageFormat.format(BundleUtil.getStringFromBundle("file.addreplace.error.quota_exceeded"), bytesToHumanReadable(fileSize), bytesToHumanReadable(storageQuotaLimit)));  
+        }
+        Path tempFile = Files.createTempFile(Paths.get(getFilesTempDirectory()), "tmp", "upload");
+        // (a rename, as long as the file is on the same file system)
+        Files.move(file.toPath(), tempFile, StandardCopyOption.REPLACE_EXISTING);
+        return tempFile.toFile();
+    }
+    
     /* 
      * This method creates a DataFile; 
      * The bytes from the suppplied InputStream have already been saved in the temporary location. 
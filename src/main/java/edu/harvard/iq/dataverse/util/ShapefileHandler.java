@@ -3,8 +3,7 @@ package edu.harvard.iq.dataverse.util;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.io.InputStream;
 import java.util.Date;
 import java.util.ArrayList;
 import java.util.List;
@@ -17,8 +16,10 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 
+import java.util.logging.Level;
 import java.util.logging.Logger;
-import org.apache.commons.io.FileUtils;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
 
 /**
  *  Used to identify, "repackage", and extract data from Shapefiles in .zip format
@@ -93,6 +94,9 @@ public class ShapefileHandler{
               }
     */
     private Map<String, List<String>> fileGroups = new HashMap<>();
+
+    // Hash of file paths (folder + name) and the names of their entries in the .zip
+    private Map<String, String> zipEntryNames = new HashMap<>();
     
     private List<File> finalRezippedFiles = new ArrayList<>();
 
@@ -162,16 +166,6 @@ public class ShapefileHandler{
     /*
         Create a directory, if one doesn"t exist
     */
-    private boolean createDirectory(String fname){
-        if (fname == null){
-            return false;
-        }
-      	File folder_obj = new File(fname);
-        msg("ShapefileHandler. Folder created: " + folder_obj.getAbsolutePath());
-      	return createDirectory(folder_obj);
-      	
-    } // createDirectory
-    
     private boolean createDirectory(File folder){
         if (folder == null){
             return false;
@@ -264,95 +258,18 @@ public class ShapefileHandler{
         }
         return new File(fileName).getParent(); 
     }
-    /*
-        We used to unzip the files to the directory, FLATTENING the directory structure
-        Any colliding names would result  in overwrites
-        HOWEVER, starting with v5.1, we are now preserving the folder structure
-        inside the uploaded zip file (issue #6873). To achieve this, we recreate 
-        all the folders as they appear in the original zip archive, and as we 
-        rezip any found shape file sets. The FileUtil then preserve any such
-        subfolders in the FileMetadata of the newly created DataFiles. 
-        (-- L.A. 09/2020) 
-    */
-    private boolean unzipFilesToDirectory(ZipFile zipfileInput, File target_directory){
-        logger.fine("unzipFilesToDirectory: " + target_directory.getAbsolutePath() );
-
-        if (!target_directory.isDirectory()){
-             this.addErrorMessage("This directory does not exist: " + target_directory.getAbsolutePath());
-            return false;
-        }
-
-       List<String> unzippedFileNames = new ArrayList<>();
-
-
-        try {
-            for(var origEntry : Collections.list(zipfileInput.entries())){
-                
-                String zentryFileName = origEntry.getName();
-                logger.fine("\nOriginal entry name: " + origEntry);
-                
-                 if (this.isFileToSkip(zentryFileName)){
-                    logger.fine("Skip file");
-                    continue;
-                 }
-                
-                // Create sub directory, if needed
-                if (origEntry.isDirectory()) {
-                    //logger.info("Subdirectory found!");
-                    logger.fine("Skip directory");
-                    String dirpath = target_directory.getAbsolutePath() + "/" + zentryFileName;
-                    createDirectory(dirpath);
-                    continue;           // Continue to next Entry
-                }
-                logger.fine("file found!");
-                
-                // Write the file
-                String unzipFileName = this.getFileBasename(zentryFileName);
-                String unzipFolderName = this.getFolderName(zentryFileName);
-                
-                String unzipFilePath = unzipFileName; 
-                if (unzipFolderName != null) {
-                    unzipFilePath = unzipFolderName + "/" + unzipFileName;
-                    
-                    // There's a chance we haven't created this folder yet 
-                    // in the destination directory (this happens if the folder 
-                    // is not explicitly listed in the Zip archive directory). 
-                    String dirpath = target_directory.getAbsolutePath() + "/" + unzipFolderName;
-                    // (and if it already exists, it'll be skipped)
-                    createDirectory(dirpath);
-                }
-                
-                if (unzipFileName==null){
-                    logger.warning("Zip Entry Basename is an empty string: " + zentryFileName);
-                    continue;
-                }
-                
-                //String outpath = target_directory.getAbsolutePath() + "/" + unzipFileName;
-                String outpath = target_directory.getAbsolutePath() + "/" + unzipFilePath;
-                if (unzippedFileNames.contains(outpath)){
-                   logger.info("Potential name collision.  Avoiding duplicate files in 'collapsed' zip directories. Skipping file: " + zentryFileName);
-                   continue;
-                }else{
-                    unzippedFileNames.add(outpath);
-                }
-                logger.fine("Write zip file: " + outpath);
-                try(var inputStream = zipfileInput.getInputStream(origEntry)) {
-                    Files.createDirectories(new File(outpath).getParentFile().toPath());
-                    Files.copy(inputStream, Path.of(outpath), StandardCopyOption.REPLACE_EXISTING);
-                }
-            } // end outer while
-        } catch (IOException ex) {
-            for (StackTraceElement el : ex.getStackTrace()){
-                logger.severe(el.toString());
-            }
-            this.addErrorMessage("Failed to open ZipInputStream entry" +  ex.getMessage());
-            return false;
-        }
-        return true;
-    }
     /*
         Rezip the shapefile(s) into a given directory
         Assumes that the zipfile_input_stream has already been checked!
+    
+        Each shapefile set is written straight into its own .zip, by copying
+        the compressed entries of the original archive as they are (they are
+        neither extracted to disk nor compressed again); the other files are 
+        extracted directly to their final location. 
+        As of v5.1, the folder structure inside the uploaded zip file is 
+        preserved (issue #6873): the folders are recreated in the rezippedFolder,
+        and FileUtil then preserves any such subfolders in the FileMetadata of 
+        the newly created DataFiles. (-- L.A. 09/2020) 
     */
     public boolean rezipShapefileSets(File rezippedFolder) throws IOException{
         logger.fine("rezipShapefileSets");
@@ -379,33 +296,12 @@ public class ShapefileHandler{
             return false;
         }
         
-        // Create target directory for unzipping files
-        String dirname_for_unzipping;
-        File dir_for_unzipping;
-        
-        dirname_for_unzipping = rezippedFolder.getAbsolutePath() + "/" + "scratch-for-unzip-12345";
-        dir_for_unzipping = new File(dirname_for_unzipping);
-        logger.fine("Try to create directory: " + dirname_for_unzipping );
-
-        if (!this.createDirectory(dir_for_unzipping)){
-            this.addErrorMessage("Failed to make directory: " + dirname_for_unzipping);
-            return false;
-        }
-        
-        
-        // Unzip files!
-        try(var zipfileObject = new ZipFile(zipFile)) {
-            if (!this.unzipFilesToDirectory(zipfileObject, dir_for_unzipping)) {
-                this.addErrorMessage("Failed to unzip files.");
-                return false;
-            }
-        }
         // Redistribute files!
         String target_dirname = rezippedFolder.getAbsolutePath();
-        boolean redistribute_success = this.redistributeFilesFromZip(dirname_for_unzipping, target_dirname);
-
-        // Delete unzipped files in scratch directory
-        FileUtils.deleteDirectory(dir_for_unzipping);
+        boolean redistribute_success;
+        try (var zipfileObject = new org.apache.commons.compress.archivers.zip.ZipFile(zipFile)) {
+            redistribute_success = this.redistributeFilesFromZip(zipfileObject, target_dirname);
+        }
         
         logger.fine("Post redistribute:)");
         for (File f : new File(target_dirname).listFiles()){
@@ -437,13 +333,11 @@ public class ShapefileHandler{
     }
     
     /*
-        Create new zipped shapefile
-    
-    
+        Create the new zipped shapefiles, and extract the other files
     */
-    private boolean redistributeFilesFromZip(String source_dirname, String target_dirname){
+    private boolean redistributeFilesFromZip(org.apache.commons.compress.archivers.zip.ZipFile zipfileInput, String target_dirname){
 
-        logger.fine("redistributeFilesFromZip. source: '" + source_dirname + "'  target: '" + target_dirname + "'");
+        logger.fine("redistributeFilesFromZip. target: '" + target_dirname + "'");
 
         int cnt =0;
        /* START: Redistribute files by iterating through the Map of basenames + extensions
@@ -468,9 +362,10 @@ public class ShapefileHandler{
                     if (!this.isShapefileExtension(ext_name)){
                         // Another file with similar basename as shapefile.  
                         // e.g. if shapefile basename is "census", this might be "census.xls", "census.pdf", or another non-shapefile extension
-                        String source_file_fullpath = this.getRedistributeFilePath(source_dirname, key, ext_name);
                         String targetFileFullpath = this.getRedistributeFilePath(target_dirname, key, ext_name);
-                        this.straightFileCopy(source_file_fullpath, targetFileFullpath);
+                        if (!this.extractFile(zipfileInput, this.getRedistributeFilePath(key, ext_name), targetFileFullpath)) {
+                            return false;
+                        }
                         this.addFinalRezippedFile(targetFileFullpath);
                     }else{
                         namesToZip.add(key + "." + ext_name);
@@ -479,23 +374,22 @@ public class ShapefileHandler{
                 }
             
                 String target_zipfile_name = target_dirname + "/" + key + ".zip";
-                //this.msg("target_zipfile_name: "+ target_zipfile_name);
-                //this.msg("source_dirname: "+ source_dirname);
                 
-                //msgt("create zipped shapefile");
                 // Make sure the parent folder(s) are there:
                 createDirectory(new File(target_zipfile_name).getParentFile());
-                ZipMaker zip_maker = new ZipMaker(namesToZip, source_dirname, target_zipfile_name);
-                this.addFinalRezippedFile(target_zipfile_name);
-
                 // rezip it
+                if (!this.copyEntriesToZip(zipfileInput, namesToZip, target_zipfile_name)) {
+                    return false;
+                }
+                this.addFinalRezippedFile(target_zipfile_name);
                                 
             }else{
                 // Non-shapefiles
                 for (String ext_name : ext_list) {
-                    String source_file_fullpath = this.getRedistributeFilePath(source_dirname, key, ext_name);
                     String targetFileFullpath = this.getRedistributeFilePath(target_dirname, key, ext_name);
-                    this.straightFileCopy(source_file_fullpath, targetFileFullpath);
+                    if (!this.extractFile(zipfileInput, this.getRedistributeFilePath(key, ext_name), targetFileFullpath)) {
+                        return false;
+                    }
                     this.addFinalRezippedFile(targetFileFullpath);
 
                 }
@@ -507,26 +401,69 @@ public class ShapefileHandler{
         return true;
     }  // end: redistributeFilesFromZip
     
+    /*
+        The path of a file inside the zip (folder + name), as found by examineZipfile
+    */
+    private String getRedistributeFilePath(String file_basename, String file_ext){
+        if (file_ext.equals(BLANK_EXTENSION)){
+            return file_basename;
+        }
+        return file_basename + "." + file_ext;
+    }
     
-    private boolean straightFileCopy(String sourceFileName, String targetFileName){
+    /*
+        Copy the entries, still compressed, into a new .zip 
+        (no decompression/recompression, and nothing written to disk but the new .zip)
+    */
+    private boolean copyEntriesToZip(org.apache.commons.compress.archivers.zip.ZipFile zipfileInput, List<String> namesToZip, String targetZipfileName){
+        try (ZipArchiveOutputStream zip_output_stream = new ZipArchiveOutputStream(new File(targetZipfileName))) {
+            for (String name : namesToZip) {
+                ZipArchiveEntry source_entry = zipfileInput.getEntry(this.zipEntryNames.get(name));
+                if (source_entry == null) {
+                    this.addErrorMessage("Entry not found in the zip file: " + name);
+                    return false;
+                }
+                ZipArchiveEntry target_entry = new ZipArchiveEntry(name);
+                target_entry.setMethod(source_entry.getMethod());
+                target_entry.setCompressedSize(source_entry.getCompressedSize());
+                target_entry.setSize(source_entry.getSize());
+                target_entry.setCrc(source_entry.getCrc());
+                target_entry.setTime(source_entry.getTime());
+                try (InputStream raw_input_stream = zipfileInput.getRawInputStream(source_entry)) {
+                    zip_output_stream.addRawArchiveEntry(target_entry, raw_input_stream);
+                }
+            }
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, "Failed to write " + targetZipfileName, ex);
+            this.addErrorMessage("Failed to rezip shapefile: " + ex.getMessage());
+            return false;
+        }
+        return true;
+    }
+    
+    private boolean extractFile(org.apache.commons.compress.archivers.zip.ZipFile zipfileInput, String name, String targetFileName){
         
-        //msg("Copy [" + sourceFileName + " to [" + targetFileName + "]");
-        if ((sourceFileName == null)||(targetFileName==null)){
-            this.addErrorMessage("The source or target file was null.\nSource: " + sourceFileName +"\nTarget: " + targetFileName);
+        //msg("Extract [" + name + "] to [" + targetFileName + "]");
+        if (targetFileName==null){
+            this.addErrorMessage("The target file was null.\nSource: " + name);
+            return false;
+        }
+        ZipArchiveEntry source_entry = zipfileInput.getEntry(this.zipEntryNames.get(name));
+        if (source_entry == null) {
+            this.addErrorMessage("Entry not found in the zip file: " + name);
             return false;
         }
         
-        File source_file = new File(sourceFileName);
         File target_file = new File(targetFileName);
         
         if (target_file.getParentFile() != null) {
             // Make sure the parent folder(s) are there:
             createDirectory(target_file.getParentFile());
         }
-        try {
-            Files.copy(source_file.toPath(), target_file.toPath(), REPLACE_EXISTING);    
+        try (InputStream input_stream = zipfileInput.getInputStream(source_entry)) {
+            Files.copy(input_stream, target_file.toPath(), REPLACE_EXISTING);    
         } catch (IOException ex) {
-            this.addErrorMessage("Failed to copy file. IOException\nSource: " +  sourceFileName +"\nTarget: " + targetFileName);
+            this.addErrorMessage("Failed to extract file. IOException\nSource: " +  name +"\nTarget: " + targetFileName);
             return false;
         }
        
@@ -655,6 +592,7 @@ public class ShapefileHandler{
        this.filesListInDir.clear();
        this.filesizeHash.clear();
        this.fileGroups.clear();
+       this.zipEntryNames.clear();
 
        try{
            List<String> hiddenDirectories = new ArrayList<>();
@@ -704,6 +642,8 @@ public class ShapefileHandler{
                     this.filesListInDir.add(s);
                     updateFileGroupHash(unzipFilePath);
                     this.filesizeHash.put(unzipFilePath, entry.getSize());
+                    // the first entry wins, in case of duplicate paths
+                    this.zipEntryNames.putIfAbsent(unzipFilePath, zentryFileName);
                 }
            } // end while
 
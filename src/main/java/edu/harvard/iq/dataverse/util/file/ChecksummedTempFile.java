@@ -0,0 +1,108 @@
+package edu.harvard.iq.dataverse.util.file;
+
+import edu.harvard.iq.dataverse.DataFile.ChecksumType;
+import edu.harvard.iq.dataverse.util.FileUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * An uploaded file saved in the temp directory, with the checksum of its
+ * bytes and the first of them, both taken while the file was written: so
+ * that neither the checksum nor the type of the file (which is mostly
+ * recognized from its first bytes) need another read of the whole file.
+ */
+public class ChecksummedTempFile {
+
+    /** How many of the first bytes are kept; the type checks that use them need at most 500. */
+    public static final int HEADER_SIZE = 8192;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path path;
+    private final long size;
+    private final ChecksumType checksumType;
+    private final String checksum;
+    private final byte[] header;
+
+    private ChecksummedTempFile(Path path, long size, ChecksumType checksumType, String checksum, byte[] header) {
+        this.path = path;
+        this.size = size;
+        this.checksumType = checksumType;
+        this.checksum = checksum;
+        this.header = header;
+    }
+
+    /**
+     * Writes the stream to the file (replacing it, if it exists), computing
+     * the checksum on the way. The stream is not closed.
+     *
+     * @param checksumType the algorithm of the checksum; if null, none is computed.
+     */
+    public static ChecksummedTempFile write(InputStream in, Path path, ChecksumType checksumType) throws IOException {
+        MessageDigest md = null;
+        if (checksumType != null) {
+            try {
+                // Use "SHA-1" (toString) rather than "SHA1", for example.
+                md = MessageDigest.getInstance(checksumType.toString());
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        byte[] header = new byte[HEADER_SIZE];
+        int headerLength = 0;
+        long size = 0;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (OutputStream out = Files.newOutputStream(path)) {
+            int nread;
+            while ((nread = in.read(buffer)) != -1) {
+                out.write(buffer, 0, nread);
+                if (md != null) {
+                    md.update(buffer, 0, nread);
+                }
+                if (headerLength < HEADER_SIZE) {
+                    int n = Math.min(nread, HEADER_SIZE - headerLength);
+                    System.arraycopy(buffer, 0, header, headerLength, n);
+                    headerLength += n;
+                }
+                size += nread;
+            }
+        }
+        return new ChecksummedTempFile(path, size, checksumType,
+                md == null ? null : FileUtil.checksumDigestToString(md.digest()),
+                Arrays.copyOf(header, headerLength));
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public ChecksumType getChecksumType() {
+        return checksumType;
+    }
+
+    /**
+     * @return the checksum of the bytes written, or null if no algorithm was given.
+     */
+    public String getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * @return the first {@link #HEADER_SIZE} bytes of the file (all of them,
+     * if it is shorter).
+     */
+    public byte[] getHeader() {
+        return header;
+    }
+}
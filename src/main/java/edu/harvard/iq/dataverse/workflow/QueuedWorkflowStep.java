@@ -0,0 +1,208 @@
+package edu.harvard.iq.dataverse.workflow;
+
+import edu.harvard.iq.dataverse.Dataset;
+import edu.harvard.iq.dataverse.RoleAssigneeServiceBean;
+import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IpAddress;
+import edu.harvard.iq.dataverse.authorization.users.User;
+import edu.harvard.iq.dataverse.engine.command.DataverseRequest;
+import java.io.Serializable;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
+import jakarta.persistence.Column;
+import jakarta.persistence.ElementCollection;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.FetchType;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.ManyToOne;
+import jakarta.persistence.NamedQueries;
+import jakarta.persistence.NamedQuery;
+import jakarta.persistence.Table;
+
+/**
+ * A workflow step waiting to be run by the {@link WorkflowExecutor}: either
+ * the first step of a workflow that was just started, or a paused step that
+ * was resumed by an external system. It is saved in the transaction that
+ * starts or resumes the workflow, so it only runs once that transaction has
+ * committed; the steps that follow it run in the same invocation of the
+ * executor.
+ *
+ * @author michael
+ */
+@NamedQueries({
+    @NamedQuery(name = "QueuedWorkflowStep.findIdsByStatus",
+            query = "SELECT q.id FROM QueuedWorkflowStep q WHERE q.status = :status ORDER BY q.id"),
+    @NamedQuery(name = "QueuedWorkflowStep.claim",
+            query = "UPDATE QueuedWorkflowStep q SET q.status = :running, q.claimTime = :now WHERE q.id = :id AND q.status = :queued"),
+    @NamedQuery(name = "QueuedWorkflowStep.countByStatus",
+            query = "SELECT q.status, COUNT(q) FROM QueuedWorkflowStep q GROUP BY q.status"),
+    @NamedQuery(name = "QueuedWorkflowStep.findStale",
+            query = "SELECT q FROM QueuedWorkflowStep q WHERE q.status = :running AND q.claimTime < :before")
+})
+@Entity
+@Table(indexes = {@Index(columnList = "status")})
+public class QueuedWorkflowStep implements Serializable {
+
+    public enum Kind {
+        /** Run the workflow from its first step, under the lock taken when it was queued. */
+        START,
+        /** Resume the paused step with the response of the external system, then run the next steps. */
+        RESUME
+    }
+
+    public enum Status {
+        QUEUED, RUNNING
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private Kind kind;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private Status status = Status.QUEUED;
+
+    private String invocationId;
+
+    @ManyToOne
+    private Workflow workflow;
+
+    @ManyToOne
+    private Dataset dataset;
+
+    private long nextVersionNumber;
+    private long nextMinorVersionNumber;
+    private String userId;
+    private String ipAddress;
+    private int typeOrdinal;
+    private boolean datasetExternallyReleased;
+    private Long lockId;
+
+    private int stepIdx;
+
+    @ElementCollection(fetch = FetchType.EAGER)
+    private Map<String, String> localData;
+
+    @Column(columnDefinition = "TEXT")
+    private String externalData;
+
+    @Column(nullable = false)
+    private Timestamp createTime;
+
+    private Timestamp claimTime;
+
+    /** Empty constructor for JPA */
+    public QueuedWorkflowStep() {
+    }
+
+    /**
+     * The first step of a workflow, to be started in the passed context.
+     */
+    public QueuedWorkflowStep(Workflow wf, WorkflowContext ctxt) {
+        kind = Kind.START;
+        invocationId = ctxt.getInvocationId();
+        workflow = wf;
+        dataset = ctxt.getDataset();
+        nextVersionNumber = ctxt.getNextVersionNumber();
+        nextMinorVersionNumber = ctxt.getNextMinorVersionNumber();
+        userId = ctxt.getRequest().getUser().getIdentifier();
+        ipAddress = ctxt.getRequest().getSourceAddress().toString();
+        typeOrdinal = ctxt.getType().ordinal();
+        datasetExternallyReleased = ctxt.getDatasetExternallyReleased();
+        lockId = ctxt.getLockId();
+        localData = new HashMap<>();
+        createTime = new Timestamp(System.currentTimeMillis());
+    }
+
+    /**
+     * The step a workflow was paused on, to be resumed with the response of
+     * the external system.
+     */
+    public QueuedWorkflowStep(PendingWorkflowInvocation pending, String externalData) {
+        kind = Kind.RESUME;
+        invocationId = pending.getInvocationId();
+        workflow = pending.getWorkflow();
+        dataset = pending.getDataset();
+        nextVersionNumber = pending.getNextVersionNumber();
+        nextMinorVersionNumber = pending.getNextMinorVersionNumber();
+        userId = pending.getUserId();
+        ipAddress = pending.getIpAddress();
+        typeOrdinal = pending.getTypeOrdinal();
+        datasetExternallyReleased = pending.datasetExternallyReleased;
+        lockId = pending.getLockId();
+        stepIdx = pending.getPendingStepIdx();
+        localData = new HashMap<>(pending.getLocalData());
+        this.externalData = externalData;
+        createTime = new Timestamp(System.currentTimeMillis());
+    }
+
+    /**
+     * @see PendingWorkflowInvocation#reCreateContext(RoleAssigneeServiceBean)
+     */
+    public WorkflowContext reCreateContext(RoleAssigneeServiceBean roleAssignees) {
+        DataverseRequest aRequest = new DataverseRequest((User) roleAssignees.getRoleAssignee(userId), IpAddress.valueOf(ipAddress));
+        return new WorkflowContext(aRequest, dataset, nextVersionNumber, nextMinorVersionNumber,
+                WorkflowContext.TriggerType.values()[typeOrdinal], null, null, datasetExternallyReleased, invocationId, lockId);
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public String getInvocationId() {
+        return invocationId;
+    }
+
+    public Workflow getWorkflow() {
+        return workflow;
+    }
+
+    public Dataset getDataset() {
+        return dataset;
+    }
+
+    /**
+     * @return the id of the workflow lock on the dataset, taken when the
+     * workflow was queued.
+     */
+    public Long getLockId() {
+        return lockId;
+    }
+
+    public int getStepIdx() {
+        return stepIdx;
+    }
+
+    public Map<String, String> getLocalData() {
+        return localData;
+    }
+
+    public String getExternalData() {
+        return externalData;
+    }
+
+    public Timestamp getCreateTime() {
+        return createTime;
+    }
+
+    public Timestamp getClaimTime() {
+        return claimTime;
+    }
+}
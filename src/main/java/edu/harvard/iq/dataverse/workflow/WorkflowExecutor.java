@@ -0,0 +1,242 @@
+package edu.harvard.iq.dataverse.workflow;
+
+import edu.harvard.iq.dataverse.settings.JvmSettings;
+import edu.harvard.iq.dataverse.util.SystemConfig;
+import edu.harvard.iq.dataverse.workflow.WorkflowServiceBean.RunOutcome;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import jakarta.ejb.ConcurrencyManagement;
+import jakarta.ejb.ConcurrencyManagementType;
+import jakarta.ejb.EJB;
+import jakarta.ejb.Singleton;
+import jakarta.ejb.Startup;
+import jakarta.enterprise.concurrent.ManagedExecutorDefinition;
+import jakarta.enterprise.concurrent.ManagedExecutorService;
+import jakarta.enterprise.concurrent.ManagedScheduledExecutorService;
+import jakarta.enterprise.event.Observes;
+import jakarta.enterprise.event.TransactionPhase;
+import jakarta.json.Json;
+import jakarta.json.JsonObjectBuilder;
+
+/**
+ * Runs the queued workflow steps (see {@link QueuedWorkflowStep}).
+ *
+ * The queue is drained as soon as a transaction that started or resumed a
+ * workflow has committed, and then periodically on the timer server, to pick
+ * up steps queued on servers that went down before running them. At most
+ * dataverse.workflows.executor-threads steps run at the same time on each
+ * server; the others wait in the queue. They run on an executor of their own
+ * (with a thread for the draining besides), so that they neither wait for,
+ * nor hold up, the ingests and other work on the default executor.
+ *
+ * Steps are claimed with a conditional update, so several servers can drain
+ * the same queue without running a step twice.
+ */
+@ManagedExecutorDefinition(
+    name = WorkflowExecutor.WORKFLOW_EXECUTOR,
+    maxAsync = WorkflowExecutor.MAX_THREADS + 1
+)
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class WorkflowExecutor {
+
+    private static final Logger logger = Logger.getLogger(WorkflowExecutor.class.getCanonicalName());
+
+    static final String WORKFLOW_EXECUTOR = "java:app/concurrent/workflows";
+    static final int DEFAULT_THREADS = 4;
+    static final int MAX_THREADS = 32;
+    private static final long POLLING_INTERVAL_SECONDS = 60;
+    private static final Duration STALE_AFTER = Duration.ofHours(24);
+
+    @Resource(lookup = WORKFLOW_EXECUTOR)
+    ManagedExecutorService executor;
+
+    @Resource
+    ManagedScheduledExecutorService scheduler;
+
+    @EJB
+    WorkflowServiceBean workflows;
+
+    @EJB
+    SystemConfig systemConfig;
+
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final AtomicBoolean drainRequested = new AtomicBoolean();
+
+    private Semaphore slots;
+    private int threads;
+
+    private final Instant startTime = Instant.now();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+    private final LongAdder started = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder paused = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder queueWaitMillis = new LongAdder();
+    private final LongAdder runMillis = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        threads = Math.max(1, JvmSettings.WORKFLOWS_EXECUTOR_THREADS.lookupOptional(Integer.class).orElse(DEFAULT_THREADS));
+        if (threads > MAX_THREADS) {
+            logger.warning("dataverse.workflows.executor-threads is " + threads + "; running at most " + MAX_THREADS + " workflows at a time");
+            threads = MAX_THREADS;
+        }
+        slots = new Semaphore(threads);
+        if (systemConfig.isTimerServer()) {
+            scheduler.scheduleWithFixedDelay(this::poll, POLLING_INTERVAL_SECONDS, POLLING_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Runs the steps queued by a transaction once it has committed. (If the
+     * transaction rolls back, so does the queueing of the steps, and this is
+     * not called.)
+     */
+    public void onStepQueued(@Observes(during = TransactionPhase.AFTER_SUCCESS) WorkflowServiceBean.WorkflowStepQueued event) {
+        requestDrain();
+    }
+
+    private void poll() {
+        try {
+            List<QueuedWorkflowStep> stale = workflows.deleteStaleQueuedSteps(Timestamp.from(Instant.now().minus(STALE_AFTER)));
+            if (!stale.isEmpty()) {
+                logger.warning("Removed " + stale.size() + " workflow steps that were claimed more than " + STALE_AFTER.toHours() + " hours ago");
+            }
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Failed to remove stale workflow steps", e);
+        }
+        requestDrain();
+    }
+
+    /**
+     * Starts draining the queue in the background, unless it is being
+     * drained already: then the drain will go on for another round, to pick
+     * up the steps that were just queued.
+     */
+    void requestDrain() {
+        drainRequested.set(true);
+        if (draining.compareAndSet(false, true)) {
+            executor.execute(this::drainWhileRequested);
+        }
+    }
+
+    private void drainWhileRequested() {
+        do {
+            try {
+                while (drainRequested.getAndSet(false)) {
+                    drain();
+                }
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Failed to claim queued workflow steps", e);
+            } finally {
+                draining.set(false);
+            }
+            // A request may have come in after the last round, but before
+            // draining was reset: if nobody else picked it up, we do.
+        } while (drainRequested.get() && draining.compareAndSet(false, true));
+    }
+
+    /**
+     * Claims as many steps as there are free slots, and hands them to the
+     * executor. When all the slots are taken, the rest of the queue is left
+     * for the drain requested by the next step to finish.
+     */
+    private void drain() {
+        int free;
+        while ((free = slots.availablePermits()) > 0) {
+            List<QueuedWorkflowStep> claimed = workflows.claimQueuedSteps(free);
+            for (QueuedWorkflowStep queuedStep : claimed) {
+                // Only this thread takes slots, so this does not block.
+                slots.acquireUninterruptibly();
+                try {
+                    executor.execute(() -> run(queuedStep));
+                } catch (RuntimeException e) {
+                    slots.release();
+                    throw e;
+                }
+            }
+            if (claimed.size() < free) {
+                return;
+            }
+        }
+    }
+
+    private void run(QueuedWorkflowStep queuedStep) {
+        int nowRunning = running.incrementAndGet();
+        maxRunning.accumulateAndGet(nowRunning, Math::max);
+        started.increment();
+        long startMillis = System.currentTimeMillis();
+        if (queuedStep.getCreateTime() != null) {
+            queueWaitMillis.add(Math.max(0, startMillis - queuedStep.getCreateTime().getTime()));
+        }
+        try {
+            RunOutcome outcome = workflows.runQueuedStep(queuedStep.getId());
+            if (outcome == RunOutcome.COMPLETED) {
+                completed.increment();
+            } else if (outcome == RunOutcome.PAUSED) {
+                paused.increment();
+            } else if (outcome == RunOutcome.FAILED) {
+                failed.increment();
+            }
+        } catch (Exception e) {
+            errors.increment();
+            logger.log(Level.WARNING, "Workflow " + queuedStep.getInvocationId() + " could not be run", e);
+            try {
+                workflows.releaseQueuedStepLock(queuedStep);
+            } catch (RuntimeException re) {
+                logger.log(Level.WARNING, "Failed to unlock the dataset of workflow " + queuedStep.getInvocationId(), re);
+            }
+        } finally {
+            runMillis.add(System.currentTimeMillis() - startMillis);
+            try {
+                workflows.deleteQueuedStep(queuedStep.getId());
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Failed to remove workflow step " + queuedStep.getId() + " from the queue", e);
+            }
+            running.decrementAndGet();
+            slots.release();
+            requestDrain();
+        }
+    }
+
+    /**
+     * @return the counters of this server's executor since it started, and
+     * the size of the (shared) queue.
+     */
+    public JsonObjectBuilder getMetrics() {
+        long uptimeMillis = Math.max(1, Duration.between(startTime, Instant.now()).toMillis());
+        long finished = started.sum() - running.get();
+        JsonObjectBuilder queue = Json.createObjectBuilder();
+        workflows.countQueuedSteps().forEach((status, count) -> queue.add(status.name().toLowerCase(), count));
+        return Json.createObjectBuilder()
+                .add("threads", threads)
+                .add("running", running.get())
+                .add("maxRunning", maxRunning.get())
+                .add("started", started.sum())
+                .add("completed", completed.sum())
+                .add("paused", paused.sum())
+                .add("failed", failed.sum())
+                .add("errors", errors.sum())
+                .add("averageQueueWaitMillis", started.sum() == 0 ? 0 : queueWaitMillis.sum() / started.sum())
+                .add("averageRunMillis", finished == 0 ? 0 : runMillis.sum() / finished)
+                .add("finishedPerMinute", finished * 60_000.0 / uptimeMillis)
+                .add("since", startTime.toString())
+                .add("queue", queue);
+    }
+}
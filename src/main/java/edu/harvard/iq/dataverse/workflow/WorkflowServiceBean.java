@@ -28,17 +28,19 @@ import edu.harvard.iq.dataverse.workflows.WorkflowComment;
 
 import java.sql.Timestamp;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import jakarta.ejb.Asynchronous;
 import jakarta.ejb.EJB;
 import jakarta.ejb.Stateless;
 import jakarta.ejb.TransactionAttribute;
 import jakarta.ejb.TransactionAttributeType;
+import jakarta.enterprise.event.Event;
 import jakarta.inject.Inject;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.PersistenceContext;
@@ -82,8 +84,29 @@ public class WorkflowServiceBean {
     @Inject
     DataverseRequestServiceBean dvRequestService;
     
+    @Inject
+    Event<WorkflowStepQueued> workflowStepQueued;
+    
     final Map<String, WorkflowStepSPI> providers = new HashMap<>();
 
+    /**
+     * How a run of the {@link WorkflowExecutor} ended.
+     */
+    public enum RunOutcome {
+        /** All the steps ran. */
+        COMPLETED,
+        /** A step is waiting for an external system. */
+        PAUSED,
+        /** A step failed, and the workflow was rolled back. */
+        FAILED
+    }
+
+    /**
+     * Fired when a step is queued; observed by the {@link WorkflowExecutor}
+     * once the transaction commits.
+     */
+    public record WorkflowStepQueued() {}
+
     public WorkflowServiceBean() {
         providers.put(":internal", new InternalWorkflowStepSP());
 
@@ -105,59 +128,75 @@ public class WorkflowServiceBean {
     
     /**
      * Starts executing workflow {@code wf} under the passed context.
+     * 
+     * The workflow is queued, in the caller's transaction, and run by the
+     * {@link WorkflowExecutor} once that transaction has committed: the
+     * workflow then sees the dataset as saved by the caller (e.g. with the
+     * final version number, for post-publication workflows), and can lock it
+     * without conflicting with the caller's changes. If the caller's
+     * transaction rolls back, the workflow does not run.
+     * 
+     * The dataset is locked in the caller's transaction too, so that it
+     * can't be edited or published again while the workflow waits in the
+     * queue; the executor takes the lock over when it runs the workflow.
      *
      * @param wf the workflow to execute.
      * @param ctxt the context in which the workflow is executed.
-     * @throws CommandException If the dataset could not be locked.
      */
-    //ToDo - should this be @Async? or just the forward() method?
-    @Asynchronous
-    public void start(Workflow wf, WorkflowContext ctxt, boolean findDataset) throws CommandException {
+    public void start(Workflow wf, WorkflowContext ctxt) {
         /*
-         * Workflows appear to start running prior to the caller's transaction
-         * completing which can result in exceptions in setting the lock below. To avoid
-         * this, there are two work-arounds - wait briefly for that transaction to end,
-         * or refresh the dataset from the db - so the lock is written based on the
-         * current db state. The latter works for pre-publication workflows (since the
-         * only changes to the Dataset in the Publish command are edits to the version
-         * number in the draft version (which aren't valid for the draft anyway)), while
-         * the former is required for post-publication workflows which may need to see
-         * the final version number, update times and other changes made in the Finalize
-         * Publication command. Not waiting saves significant time when many datasets
-         * are processed, so is prefereable when it makes sense.
-         * 
-         * This code should be reconsidered if/when the launching of pre/post
-         * publication workflows is moved to command onSuccess methods (and when
-         * onSuccess methods are guaranteed to be after the transaction completes (see
-         * #7568) or other changes are made that can guarantee the dataset in the
-         * WorkflowContext is up-to-date/usable in further transactions in the workflow.
-         * (e.g. if this method is not asynchronous)
-         * 
+         * The lock is added to the caller's copy of the dataset: the caller
+         * merges it afterwards, and a lock missing from it would be removed
+         * as an orphan.
          */
+        DatasetLock datasetLock = new DatasetLock(DatasetLock.Reason.Workflow, ctxt.getRequest().getAuthenticatedUser());
+        datasetLock.setDataset(ctxt.getDataset());
+        ctxt.getDataset().addLock(datasetLock);
+        em.persist(datasetLock);
+        //flush creates the id
+        em.flush();
+        ctxt.setLockId(datasetLock.getId());
+        enqueue(new QueuedWorkflowStep(wf, ctxt));
+    }
+    
+    private void enqueue(QueuedWorkflowStep queuedStep) {
+        em.persist(queuedStep);
+        logger.log(Level.FINE, "Workflow {0}: queued {1}", new Object[]{queuedStep.getInvocationId(), queuedStep.getKind()});
+        workflowStepQueued.fire(new WorkflowStepQueued());
+    }
 
-        if (!findDataset) {
-            /*
-             * Sleep here briefly to make sure the database update from the callers
-             * transaction completes which avoids any concurrency/optimistic lock issues.
-             * Note: 1 second appears long enough, but shorter delays may work.
-             * One example:
-             * the Dataverses.importDataset()/importDatasetDDI() calls with release=yes will
-             * trigger a prepublish workflow on a dataset that isn't committed to the
-             * database until the API call completes.
-             */
-            try {
-                Thread.sleep(1000);
-            } catch (Exception ex) {
-                logger.warning("Failed to sleep for a second.");
+    /**
+     * Runs a queued step, and the steps that follow it, until the workflow
+     * completes, fails, or is paused again. Called by the
+     * {@link WorkflowExecutor}, in a transaction of its own.
+     *
+     * @param queuedStepId the id of the {@link QueuedWorkflowStep}.
+     * @return how the run ended, or {@code null} if there is no such step.
+     * @throws CommandException If the dataset could not be locked.
+     */
+    public RunOutcome runQueuedStep(long queuedStepId) throws CommandException {
+        QueuedWorkflowStep queued = em.find(QueuedWorkflowStep.class, queuedStepId);
+        if (queued == null) {
+            logger.log(Level.WARNING, "Queued workflow step {0} not found", queuedStepId);
+            return null;
+        }
+        Workflow wf = queued.getWorkflow();
+        WorkflowContext newCtxt = queued.reCreateContext(roleAssignees);
+        // The transaction that queued the step has committed: the dataset can
+        // be read as it is in the database.
+        WorkflowContext ctxt = refresh(newCtxt, retrieveRequestedSettings(wf.getRequiredSettings()), getCurrentApiToken(newCtxt.getRequest().getAuthenticatedUser()), true);
+        if (queued.getKind() == QueuedWorkflowStep.Kind.START) {
+            // The dataset was locked when the workflow was queued; that lock
+            // is the workflow's from now on (and is removed when it ends).
+            if (ctxt.getLockId() == null || em.find(DatasetLock.class, ctxt.getLockId()) == null) {
+                logger.log(Level.WARNING, "Workflow {0}: the lock taken when it was queued is gone; locking the dataset again", ctxt.getInvocationId());
+                lockDataset(ctxt, new DatasetLock(DatasetLock.Reason.Workflow, ctxt.getRequest().getAuthenticatedUser()));
             }
+            return executeSteps(wf, ctxt, 0);
         }
-        //Refresh will only em.find the dataset if findDataset is true. (otherwise the dataset is em.merged)
-        ctxt = refresh(ctxt, retrieveRequestedSettings( wf.getRequiredSettings()), getCurrentApiToken(ctxt.getRequest().getAuthenticatedUser()), findDataset);
-        lockDataset(ctxt, new DatasetLock(DatasetLock.Reason.Workflow, ctxt.getRequest().getAuthenticatedUser()));
-        forward(wf, ctxt);
+        return doResume(wf, ctxt, queued.getStepIdx(), queued.getLocalData(), queued.getExternalData());
     }
     
-
     private ApiToken getCurrentApiToken(AuthenticatedUser au) {
         if (au != null) {
             CommandContext ctxt = engine.getContext();
@@ -195,45 +234,36 @@ public class WorkflowServiceBean {
     }
 
     /**
-     * Starting the resume process for a pending workflow. We first delete the
-     * pending workflow to minimize double invocation, and then asynchronously
-     * resume the work.
+     * Starting the resume process for a pending workflow. We delete the
+     * pending workflow to prevent double invocation, and queue the step
+     * for the {@link WorkflowExecutor} to resume the work once the caller's
+     * transaction has committed.
      *
      * @param pending The workflow to resume.
      * @param body the response from the remote system.
-     * @see
-     * #doResume(edu.harvard.iq.dataverse.workflow.PendingWorkflowInvocation,
-     * java.lang.String)
      */
-    @Asynchronous
     public void resume(PendingWorkflowInvocation pending, String body) {
+        QueuedWorkflowStep queuedStep = new QueuedWorkflowStep(pending, body);
         em.remove(em.merge(pending));
-        doResume(pending, body);
-    }
-    
-    
-    @Asynchronous
-    private void forward(Workflow wf, WorkflowContext ctxt) {
-        executeSteps(wf, ctxt, 0);
+        enqueue(queuedStep);
     }
     
-    private void doResume(PendingWorkflowInvocation pending, String body) {
-        Workflow wf = pending.getWorkflow();
-        List<WorkflowStepData> stepsLeft = wf.getSteps().subList(pending.getPendingStepIdx(), wf.getSteps().size());
+    private RunOutcome doResume(Workflow wf, WorkflowContext ctxt, int pendingStepIdx, Map<String, String> localData, String body) {
+        List<WorkflowStepData> stepsLeft = wf.getSteps().subList(pendingStepIdx, wf.getSteps().size());
         
         WorkflowStep pendingStep = createStep(stepsLeft.get(0));
-        WorkflowContext newCtxt = pending.reCreateContext(roleAssignees);
-        final WorkflowContext ctxt = refresh(newCtxt,retrieveRequestedSettings( wf.getRequiredSettings()), getCurrentApiToken(newCtxt.getRequest().getAuthenticatedUser()));
-        WorkflowStepResult res = pendingStep.resume(ctxt, pending.getLocalData(), body);
+        WorkflowStepResult res = pendingStep.resume(ctxt, localData, body);
         if (res instanceof Failure) {
             logger.warning(((Failure) res).getReason());
             userNotificationService.sendNotification(ctxt.getRequest().getAuthenticatedUser(), Timestamp.from(Instant.now()), UserNotification.Type.WORKFLOW_FAILURE, ctxt.getDataset().getLatestVersion().getId(), ((Failure) res).getMessage());
             //UserNotification isn't meant to be a long-term record and doesn't store the comment, so we'll also keep it as a workflow comment
             WorkflowComment wfc = new WorkflowComment(ctxt.getDataset().getLatestVersion(), WorkflowComment.Type.WORKFLOW_FAILURE, ((Failure) res).getMessage(), ctxt.getRequest().getAuthenticatedUser());
             datasets.addWorkflowComment(wfc);
-            rollback(wf, ctxt, (Failure) res, pending.getPendingStepIdx() - 1);
+            rollback(wf, ctxt, (Failure) res, pendingStepIdx - 1);
+            return RunOutcome.FAILED;
         } else if (res instanceof Pending) {
-            pauseAndAwait(wf, ctxt, (Pending) res, pending.getPendingStepIdx());
+            pauseAndAwait(wf, ctxt, (Pending) res, pendingStepIdx);
+            return RunOutcome.PAUSED;
         } else {
             if (res instanceof Success) {
                 logger.info(((Success) res).getReason());
@@ -242,11 +272,10 @@ public class WorkflowServiceBean {
                 WorkflowComment wfc = new WorkflowComment(ctxt.getDataset().getLatestVersion(), WorkflowComment.Type.WORKFLOW_SUCCESS, ((Success) res).getMessage(), ctxt.getRequest().getAuthenticatedUser());
                 datasets.addWorkflowComment(wfc);
         }
-            executeSteps(wf, ctxt, pending.getPendingStepIdx() + 1);
+            return executeSteps(wf, ctxt, pendingStepIdx + 1);
         }
     }
 
-    @Asynchronous
     private void rollback(Workflow wf, WorkflowContext ctxt, Failure failure, int lastCompletedStepIdx) {
         ctxt = refresh(ctxt);
         final List<WorkflowStepData> steps = wf.getSteps();
@@ -279,8 +308,9 @@ public class WorkflowServiceBean {
      * @param wf    The workflow to run.
      * @param ctxt  Execution context to run the workflow in.  
      * @param initialStepIdx 0-based index of the first step to run.
+     * @return how the run ended.
      */
-    private void executeSteps(Workflow wf, WorkflowContext ctxt, int initialStepIdx ) {
+    private RunOutcome executeSteps(Workflow wf, WorkflowContext ctxt, int initialStepIdx ) {
         final List<WorkflowStepData> steps = wf.getSteps();
         
         for ( int stepIdx = initialStepIdx; stepIdx < steps.size(); stepIdx++ ) {
@@ -296,22 +326,22 @@ public class WorkflowServiceBean {
                 } else if (res instanceof Failure) {
                     logger.log(Level.WARNING, "Workflow {0} failed: {1}", new Object[]{ctxt.getInvocationId(), ((Failure) res).getReason()});
                     rollback(wf, ctxt, (Failure) res, stepIdx-1 );
-                    return;
+                    return RunOutcome.FAILED;
 
                 } else if (res instanceof Pending) {
                     pauseAndAwait(wf, ctxt, (Pending) res, stepIdx);
-                    return;
+                    return RunOutcome.PAUSED;
                 }
                 
             } catch ( Exception e ) {
                 logger.log(Level.WARNING, "Workflow {0} step {1}: Uncought exception:", new Object[]{ctxt.getInvocationId(), e.getMessage()});
                 logger.log(Level.WARNING, "Trace:", e);
-                rollback(wf, ctxt, (Failure) res, stepIdx-1 );
-                return;
+                rollback(wf, ctxt, (res instanceof Failure) ? (Failure) res : new Failure(e.getMessage()), stepIdx-1 );
+                return RunOutcome.FAILED;
             }
         }
         
-        workflowCompleted(wf, ctxt);
+        return workflowCompleted(wf, ctxt) ? RunOutcome.COMPLETED : RunOutcome.FAILED;
         
     }
     
@@ -383,7 +413,7 @@ public class WorkflowServiceBean {
         em.persist(pending);
     }
 
-    private void workflowCompleted(Workflow wf, WorkflowContext ctxt) {
+    private boolean workflowCompleted(Workflow wf, WorkflowContext ctxt) {
         logger.log(Level.INFO, "Workflow {0} completed.", ctxt.getInvocationId());
         
             try {
@@ -419,8 +449,9 @@ public class WorkflowServiceBean {
             } catch (CommandException ex) {
                 logger.log(Level.SEVERE, "Exception finalizing workflow " + ctxt.getInvocationId() +": " + ex.getMessage(), ex);
                 rollback(wf, ctxt, new Failure("Exception while finalizing the publication: " + ex.getMessage()), wf.steps.size()-1);
+                return false;
             }
-        
+            return true;
     }
 
     public List<Workflow> listWorkflows() {
@@ -475,6 +506,117 @@ public class WorkflowServiceBean {
         return em.find(PendingWorkflowInvocation.class, invocationId);
     }
 
+    //////////////////////////////////////////////////////////////
+    // Queued steps, used by the WorkflowExecutor. Each call runs in
+    // its own transaction, so that claims are visible to other
+    // threads and servers right away.
+    //
+
+    /**
+     * Claims up to {@code max} queued steps, oldest first. A step is only
+     * claimed if it is still queued, so a step is never claimed twice, even
+     * by executors running on different servers.
+     *
+     * @param max maximum number of steps to claim.
+     * @return the claimed steps, detached.
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public List<QueuedWorkflowStep> claimQueuedSteps(int max) {
+        List<Long> queuedIds = em.createNamedQuery("QueuedWorkflowStep.findIdsByStatus", Long.class)
+                .setParameter("status", QueuedWorkflowStep.Status.QUEUED)
+                .setMaxResults(max)
+                .getResultList();
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        List<QueuedWorkflowStep> claimed = new ArrayList<>(queuedIds.size());
+        for (Long id : queuedIds) {
+            int updated = em.createNamedQuery("QueuedWorkflowStep.claim")
+                    .setParameter("running", QueuedWorkflowStep.Status.RUNNING)
+                    .setParameter("queued", QueuedWorkflowStep.Status.QUEUED)
+                    .setParameter("now", now)
+                    .setParameter("id", id)
+                    .executeUpdate();
+            if (updated == 1) {
+                QueuedWorkflowStep queuedStep = em.find(QueuedWorkflowStep.class, id);
+                em.detach(queuedStep);
+                claimed.add(queuedStep);
+            }
+        }
+        return claimed;
+    }
+
+    /**
+     * Removes the workflow lock held by a queued step that could not be run,
+     * so that the dataset is not left locked by a workflow that won't run.
+     *
+     * @param queuedStep the step, as claimed.
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void releaseQueuedStepLock(QueuedWorkflowStep queuedStep) {
+        removeLock(queuedStep);
+    }
+
+    private void removeLock(QueuedWorkflowStep queuedStep) {
+        if (queuedStep.getLockId() == null) {
+            return;
+        }
+        DatasetLock datasetLock = em.find(DatasetLock.class, queuedStep.getLockId());
+        if (datasetLock != null) {
+            datasetLock.getDataset().removeLock(datasetLock);
+            datasetLock.getUser().getDatasetLocks().remove(datasetLock);
+            em.remove(datasetLock);
+        }
+    }
+
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void deleteQueuedStep(long id) {
+        QueuedWorkflowStep queuedStep = em.find(QueuedWorkflowStep.class, id);
+        if (queuedStep != null) {
+            em.remove(queuedStep);
+        }
+    }
+
+    /**
+     * @return the number of queued steps, by status. Statuses without any
+     * step are not in the map.
+     */
+    public Map<QueuedWorkflowStep.Status, Long> countQueuedSteps() {
+        Map<QueuedWorkflowStep.Status, Long> counts = new EnumMap<>(QueuedWorkflowStep.Status.class);
+        List<Object[]> rows = em.createNamedQuery("QueuedWorkflowStep.countByStatus", Object[].class).getResultList();
+        for (Object[] row : rows) {
+            counts.put((QueuedWorkflowStep.Status) row[0], (Long) row[1]);
+        }
+        return counts;
+    }
+
+    /**
+     * Deletes the steps claimed before {@code before} that never finished,
+     * e.g. because the server running them was stopped. They are not run
+     * again, as their first steps may have had side effects already; their
+     * workflow locks are removed, so that the datasets can be edited (and
+     * published) again.
+     *
+     * @param before claim time before which a running step is stale.
+     * @return the deleted steps.
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public List<QueuedWorkflowStep> deleteStaleQueuedSteps(Timestamp before) {
+        List<QueuedWorkflowStep> stale = em.createNamedQuery("QueuedWorkflowStep.findStale", QueuedWorkflowStep.class)
+                .setParameter("running", QueuedWorkflowStep.Status.RUNNING)
+                .setParameter("before", before)
+                .getResultList();
+        for (QueuedWorkflowStep queuedStep : stale) {
+            logger.log(Level.WARNING, "Workflow {0} on dataset {1} was claimed at {2} and never finished; removing it from the queue.",
+                    new Object[]{queuedStep.getInvocationId(), queuedStep.getDataset().getId(), queuedStep.getClaimTime()});
+            removeLock(queuedStep);
+            em.remove(queuedStep);
+        }
+        return stale;
+    }
+
+    //
+    //
+    //////////////////////////////////////////////////////////////
+
     public Optional<Workflow> getDefaultWorkflow( WorkflowContext.TriggerType type ) {
         String defaultWorkflowId = settings.get(workflowSettingKey(type));
         if (defaultWorkflowId == null) {
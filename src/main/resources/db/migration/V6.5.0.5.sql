@@ -0,0 +1,42 @@
+-- Download counts per file and per dataset, so that the pages and the API
+-- don't have to count the rows of the (ever growing) guestbookresponse table.
+-- The responses are added to the counts shortly after they are saved, and
+-- marked as counted; the counts are rebuilt from the responses every day.
+
+CREATE TABLE IF NOT EXISTS datafiledownloadcount (
+    datafile_id BIGINT PRIMARY KEY REFERENCES dvobject (id) ON DELETE CASCADE,
+    downloadcount BIGINT NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS datasetdownloadcount (
+    dataset_id BIGINT PRIMARY KEY REFERENCES dvobject (id) ON DELETE CASCADE,
+    downloadcount BIGINT NOT NULL
+);
+
+-- The total, in its one row (displayed on the home page)
+CREATE TABLE IF NOT EXISTS totaldownloadcount (
+    id INTEGER PRIMARY KEY CHECK (id = 1),
+    downloadcount BIGINT NOT NULL
+);
+
+-- The existing responses are counted below; the new ones are not until
+-- they are added to the counts.
+ALTER TABLE guestbookresponse ADD COLUMN IF NOT EXISTS downloadcounted BOOLEAN NOT NULL DEFAULT TRUE;
+ALTER TABLE guestbookresponse ALTER COLUMN downloadcounted SET DEFAULT FALSE;
+CREATE INDEX IF NOT EXISTS index_guestbookresponse_notdownloadcounted ON guestbookresponse (id) WHERE NOT downloadcounted;
+
+INSERT INTO datafiledownloadcount (datafile_id, downloadcount)
+SELECT datafile_id, COUNT(id) FROM guestbookresponse
+WHERE datafile_id IS NOT NULL AND eventtype != 'AccessRequest'
+GROUP BY datafile_id
+ON CONFLICT (datafile_id) DO NOTHING;
+
+INSERT INTO datasetdownloadcount (dataset_id, downloadcount)
+SELECT dataset_id, COUNT(id) FROM guestbookresponse
+WHERE dataset_id IS NOT NULL AND eventtype != 'AccessRequest'
+GROUP BY dataset_id
+ON CONFLICT (dataset_id) DO NOTHING;
+
+INSERT INTO totaldownloadcount (id, downloadcount)
+SELECT 1, COALESCE(SUM(downloadcount), 0) FROM datasetdownloadcount
+ON CONFLICT (id) DO NOTHING;
@@ -0,0 +1,15 @@
+-- The differences between the released versions of the datasets, so that the
+-- versions tab and the API don't have to compare the versions each time: the
+-- summary displayed on the versions tab, and the differences returned by the
+-- API (once requested), as JSON. Stored when a version is published, or when
+-- first requested for the versions published before.
+
+CREATE TABLE IF NOT EXISTS datasetversiondifference (
+    newversion_id BIGINT NOT NULL REFERENCES datasetversion (id) ON DELETE CASCADE,
+    originalversion_id BIGINT NOT NULL REFERENCES datasetversion (id) ON DELETE CASCADE,
+    summary TEXT NOT NULL,
+    comparison TEXT,
+    PRIMARY KEY (newversion_id, originalversion_id)
+);
+
+CREATE INDEX IF NOT EXISTS index_datasetversiondifference_originalversion_id ON datasetversiondifference (originalversion_id);
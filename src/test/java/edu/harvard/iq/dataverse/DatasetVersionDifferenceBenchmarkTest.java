@@ -0,0 +1,117 @@
+package edu.harvard.iq.dataverse;
+
+import edu.harvard.iq.dataverse.branding.BrandingUtilTest;
+import edu.harvard.iq.dataverse.util.testing.Tags;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Computes the difference between 2 versions of a dataset with 5,000 authors
+ * and 100,000 files: one author changed (at the end, so that the values
+ * before it are compared too), 1,000 files relabeled, 1,000 replaced, 1,000
+ * removed and 1,000 added.
+ */
+@Tag(Tags.NOT_ESSENTIAL_UNITTESTS)
+class DatasetVersionDifferenceBenchmarkTest {
+
+    private static final int AUTHORS = 5_000;
+    private static final int FILES = 100_000;
+    private static final int CHANGES = 1_000;
+
+    @BeforeAll
+    static void setUp() {
+        BrandingUtilTest.setupMocks();
+    }
+
+    @AfterAll
+    static void tearDown() {
+        BrandingUtilTest.tearDownMocks();
+    }
+
+    @Test
+    void testLargeVersions() {
+        Dataset dataset = new Dataset();
+        MetadataBlock citation = new MetadataBlock();
+        citation.setId(1L);
+        DatasetFieldType authorType = DatasetVersionDifferenceTest.compoundFieldType(1L, citation, "author", "authorName", "authorAffiliation");
+
+        List<List<String>> authors = new ArrayList<>();
+        for (int i = 0; i < AUTHORS; i++) {
+            authors.add(List.of("Author " + i, "Institution " + i % 100));
+        }
+        List<List<String>> changedAuthors = new ArrayList<>(authors);
+        changedAuthors.set(AUTHORS - 1, List.of("Author " + (AUTHORS - 1), "Another Institution"));
+
+        DatasetVersion originalVersion = version(dataset, DatasetVersionDifferenceTest.compoundField(authorType, authors));
+        DatasetVersion newVersion = version(dataset, DatasetVersionDifferenceTest.compoundField(authorType, changedAuthors));
+        long fileMetadataId = 0;
+        for (long id = 1; id <= FILES; id++) {
+            DataFile dataFile = dataFile(dataset, id, null);
+            originalVersion.getFileMetadatas().add(fileMetadata(++fileMetadataId, originalVersion, dataFile, "file" + id + ".txt"));
+            if (id <= CHANGES) {
+                // relabeled
+                newVersion.getFileMetadatas().add(fileMetadata(++fileMetadataId, newVersion, dataFile, "renamed" + id + ".txt"));
+            } else if (id <= 2 * CHANGES) {
+                DataFile replacement = dataFile(dataset, FILES + id, id);
+                newVersion.getFileMetadatas().add(fileMetadata(++fileMetadataId, newVersion, replacement, "file" + id + ".txt"));
+            } else if (id > 3 * CHANGES) {
+                newVersion.getFileMetadatas().add(fileMetadata(++fileMetadataId, newVersion, dataFile, "file" + id + ".txt"));
+            }
+            // (and the rest removed)
+        }
+        for (long id = 3 * FILES; id < 3 * FILES + CHANGES; id++) {
+            newVersion.getFileMetadatas().add(fileMetadata(++fileMetadataId, newVersion, dataFile(dataset, id, null), "new" + id + ".txt"));
+        }
+
+        long start = System.nanoTime();
+        DatasetVersionDifference diff = new DatasetVersionDifference(newVersion, originalVersion);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals(1, diff.getBlockDataForNote().size());
+        assertEquals(1, (Integer) diff.getBlockDataForNote().get(0)[3]);
+        assertEquals(CHANGES, diff.getAddedFiles().size());
+        assertEquals(CHANGES, diff.getRemovedFiles().size());
+        assertEquals(CHANGES, diff.getReplacedFiles().size());
+        assertEquals(2 * CHANGES, diff.getChangedFileMetadata().size());
+        assertEquals(CHANGES, diff.getDatasetFilesReplacementList().size());
+        // relabeled, removed and added
+        assertEquals(3 * CHANGES, diff.getDatasetFilesDiffList().size());
+        System.out.println("Difference between versions with " + AUTHORS + " authors and " + FILES + " files computed in " + millis + " ms");
+    }
+
+    private static DatasetVersion version(Dataset dataset, DatasetField authorField) {
+        DatasetVersion version = new DatasetVersion();
+        version.setDataset(dataset);
+        version.setTermsOfUseAndAccess(new TermsOfUseAndAccess());
+        version.setDatasetFields(new ArrayList<>(List.of(authorField)));
+        return version;
+    }
+
+    private static DataFile dataFile(Dataset dataset, long id, Long previousId) {
+        DataFile dataFile = new DataFile();
+        dataFile.setId(id);
+        dataFile.setOwner(dataset);
+        dataFile.setFilesize(100 + id);
+        dataFile.setChecksumType(DataFile.ChecksumType.MD5);
+        dataFile.setChecksumValue("value" + id);
+        dataFile.setPreviousDataFileId(previousId);
+        return dataFile;
+    }
+
+    private static FileMetadata fileMetadata(long id, DatasetVersion version, DataFile dataFile, String label) {
+        FileMetadata fileMetadata = new FileMetadata();
+        fileMetadata.setId(id);
+        fileMetadata.setDatasetVersion(version);
+        fileMetadata.setDataFile(dataFile);
+        fileMetadata.setLabel(label);
+        fileMetadata.setCategories(new ArrayList<>());
+        return fileMetadata;
+    }
+}
@@ -0,0 +1,142 @@
+package edu.harvard.iq.dataverse;
+
+import edu.harvard.iq.dataverse.DatasetVersion.VersionState;
+import edu.harvard.iq.dataverse.branding.BrandingUtilTest;
+import jakarta.json.Json;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Query;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+
+class DatasetVersionDifferenceServiceBeanTest {
+
+    private DatasetVersionDifferenceServiceBean service;
+    private DatasetFieldType authorType;
+    private DatasetVersion originalVersion;
+    private DatasetVersion newVersion;
+    private Query query;
+
+    @BeforeAll
+    static void setUpAll() {
+        BrandingUtilTest.setupMocks();
+    }
+
+    @AfterAll
+    static void tearDownAll() {
+        BrandingUtilTest.tearDownMocks();
+    }
+
+    @BeforeEach
+    void setUp() {
+        service = new DatasetVersionDifferenceServiceBean();
+        service.em = Mockito.mock(EntityManager.class);
+        service.datasetFieldService = Mockito.mock(DatasetFieldServiceBean.class);
+        query = Mockito.mock(Query.class, Mockito.RETURNS_SELF);
+        Mockito.when(service.em.createNativeQuery(anyString())).thenReturn(query);
+
+        MetadataBlock citation = new MetadataBlock();
+        citation.setId(1L);
+        authorType = DatasetVersionDifferenceTest.compoundFieldType(1L, citation, "author", "authorName", "authorAffiliation");
+        authorType.setDisplayOnCreate(true);
+        Mockito.when(service.datasetFieldService.find(1L)).thenReturn(authorType);
+
+        // 2 authors in version 1.0, 3 in version 2.0 (one added, one changed)
+        Dataset dataset = new Dataset();
+        originalVersion = version(dataset, 1L, VersionState.RELEASED, List.of(
+                List.of("Author 1", "Institution 1"), List.of("Author 2", "Institution 2")));
+        newVersion = version(dataset, 2L, VersionState.RELEASED, List.of(
+                List.of("Author 1", "Institution 1"), List.of("Author 2", "Another Institution"), List.of("Author 3", "Institution 3")));
+        dataset.setVersions(new ArrayList<>(List.of(newVersion, originalVersion)));
+    }
+
+    @Test
+    void testSummaryIsStoredWhenMissing() {
+        Mockito.when(query.getResultList()).thenReturn(List.of());
+
+        DatasetVersionDifferenceSummary summary = service.getDefaultSummary(newVersion);
+
+        assertSummary(summary);
+        Mockito.verify(service.em).createNativeQuery(startsWith("INSERT INTO datasetversiondifference"));
+        Mockito.verify(query).setParameter(3, summary.toJson());
+    }
+
+    @Test
+    void testStoredSummaryIsRead() {
+        String json = DatasetVersionDifferenceSummary.of(new DatasetVersionDifference(newVersion, originalVersion)).toJson();
+        Mockito.when(query.getResultList()).thenReturn(List.of(json));
+        // (so that they would compare differently)
+        newVersion.getDatasetFields().clear();
+
+        DatasetVersionDifferenceSummary summary = service.getDefaultSummary(newVersion);
+
+        assertSummary(summary);
+        Mockito.verify(service.em, Mockito.never()).createNativeQuery(startsWith("INSERT"));
+    }
+
+    @Test
+    void testSummaryWithADraftIsNotStored() {
+        newVersion.setVersionState(VersionState.DRAFT);
+
+        assertSummary(service.getDefaultSummary(newVersion));
+        Mockito.verifyNoInteractions(service.em);
+    }
+
+    @Test
+    void testNoSummaryForTheFirstVersion() {
+        assertNull(service.getDefaultSummary(originalVersion));
+        Mockito.verifyNoInteractions(service.em);
+    }
+
+    @Test
+    void testStoredComparisonIsRead() {
+        Mockito.when(query.getResultList()).thenReturn(List.of("{\"oldVersion\":{\"versionNumber\":\"1.0\"}}"));
+        newVersion.getDatasetFields().clear();
+
+        assertEquals(Json.createObjectBuilder().add("oldVersion", Json.createObjectBuilder().add("versionNumber", "1.0")).build(),
+                service.compareVersions(originalVersion, newVersion).build());
+        Mockito.verify(query).setParameter(1, 2L);
+        Mockito.verify(query).setParameter(2, 1L);
+        Mockito.verify(service.em, Mockito.never()).createNativeQuery(startsWith("INSERT"));
+    }
+
+    @Test
+    void testCuratedVersionDifferencesAreDeleted() {
+        service.deleteDifferences(newVersion);
+
+        Mockito.verify(service.em).createNativeQuery(eq("DELETE FROM datasetversiondifference WHERE newversion_id = ?1 OR originalversion_id = ?1"));
+        Mockito.verify(query).setParameter(1, 2L);
+    }
+
+    private void assertSummary(DatasetVersionDifferenceSummary summary) {
+        assertEquals(1, summary.getFieldNotes().size());
+        DatasetVersionDifferenceSummary.Note note = summary.getFieldNotes().get(0);
+        assertSame(authorType, note.getFieldType());
+        assertEquals(1, note.getAdded());
+        assertEquals(0, note.getDeleted());
+        assertEquals(1, note.getChanged());
+        assertTrue(summary.getBlockNotes().isEmpty());
+        assertEquals("", summary.getFileNote());
+        assertFalse(summary.isTermsOfUseAndAccessChanged());
+    }
+
+    private DatasetVersion version(Dataset dataset, long id, VersionState state, List<List<String>> authors) {
+        DatasetVersion version = new DatasetVersion();
+        version.setId(id);
+        version.setDataset(dataset);
+        version.setVersionState(state);
+        version.setTermsOfUseAndAccess(new TermsOfUseAndAccess());
+        version.setDatasetFields(new ArrayList<>(List.of(DatasetVersionDifferenceTest.compoundField(authorType, authors))));
+        return version;
+    }
+}
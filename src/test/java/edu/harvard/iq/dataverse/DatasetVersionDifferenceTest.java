@@ -14,10 +14,14 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
 import java.util.logging.Logger;
 
 import static org.assertj.core.util.DateUtil.now;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -457,4 +461,196 @@ public class DatasetVersionDifferenceTest {
         dsv.getFileMetadatas().add(fm);
         return fm;
     }
+
+    @Test
+    public void testCompoundValuesAreComparedAsBefore() {
+        MetadataBlock block = new MetadataBlock();
+        block.setId(1L);
+        block.setDisplayName("Citation Metadata");
+        DatasetFieldType authorType = compoundFieldType(1L, block, "author", "authorName", "authorAffiliation");
+        // (blank values, values with leading and trailing spaces and with the
+        // separators in them, for the concatenated values to be compared trimmed)
+        String[] values = {"", " ", "Smith", "Smith, J.", " Jones", "Univ. ", "a, "};
+        Random random = new Random(49);
+
+        for (int i = 0; i < 2000; i++) {
+            List<List<String>> original = randomCompoundValues(random, values);
+            List<List<String>> changed = new ArrayList<>(original);
+            if (random.nextBoolean()) {
+                changed = randomCompoundValues(random, values);
+            } else if (!changed.isEmpty()) {
+                changed.set(random.nextInt(changed.size()), randomChildValues(random, values));
+            }
+            DatasetVersion originalVersion = versionWithField(compoundField(authorType, original));
+            DatasetVersion newVersion = versionWithField(compoundField(authorType, changed));
+            int[] expected = originalCompareCompoundValues(originalVersion.getDatasetFields().get(0), newVersion.getDatasetFields().get(0));
+            boolean expectedDifferent = originalFieldsAreDifferent(originalVersion.getDatasetFields().get(0), newVersion.getDatasetFields().get(0));
+
+            DatasetVersionDifference diff = new DatasetVersionDifference(newVersion, originalVersion);
+
+            String message = original + " -> " + changed;
+            if (expected[0] + expected[1] + expected[2] > 0) {
+                assertEquals(1, diff.getBlockDataForNote().size(), message);
+                Object[] counts = diff.getBlockDataForNote().get(0);
+                assertArrayEquals(expected, new int[]{(Integer) counts[1], (Integer) counts[2], (Integer) counts[3]}, message);
+                assertEquals(1, diff.getDetailDataByBlock().size(), message);
+            } else {
+                assertTrue(diff.getBlockDataForNote().isEmpty(), message);
+                assertTrue(diff.getDetailDataByBlock().isEmpty(), message);
+            }
+            assertEquals(expectedDifferent, DatasetVersionDifference.getBlocksWithChanges(newVersion, originalVersion).contains(block), message);
+        }
+    }
+
+    @Test
+    public void testFieldsAreMatchedByType() {
+        MetadataBlock citation = new MetadataBlock();
+        citation.setId(1L);
+        MetadataBlock geospatial = new MetadataBlock();
+        geospatial.setId(2L);
+        DatasetFieldType authorType = compoundFieldType(1L, citation, "author", "authorName", "authorAffiliation");
+        DatasetFieldType keywordType = compoundFieldType(4L, citation, "keyword", "keywordValue", "keywordVocabulary");
+        DatasetFieldType coverageType = compoundFieldType(7L, geospatial, "geographicCoverage", "country", "state");
+
+        DatasetVersion originalVersion = versionWithField(compoundField(authorType, List.of(List.of("Smith", "Harvard"))));
+        originalVersion.getDatasetFields().add(compoundField(keywordType, List.of(List.of("economics", ""))));
+        DatasetVersion newVersion = versionWithField(compoundField(coverageType, List.of(List.of("France", ""))));
+        newVersion.getDatasetFields().add(compoundField(keywordType, List.of(List.of("economics", ""), List.of("history", ""))));
+        newVersion.getDatasetFields().add(compoundField(authorType, List.of(List.of("Smith", "Harvard"))));
+
+        DatasetVersionDifference diff = new DatasetVersionDifference(newVersion, originalVersion);
+
+        // One keyword added in the citation block, one coverage in the geospatial block
+        assertEquals(2, diff.getBlockDataForNote().size());
+        assertEquals(List.of(1, 0, 0), List.of(diff.getBlockDataForNote().get(0)).subList(1, 4));
+        assertEquals(List.of(1, 0, 0), List.of(diff.getBlockDataForNote().get(1)).subList(1, 4));
+        assertEquals(keywordType, diff.getDetailDataByBlock().get(0).get(0)[0].getDatasetFieldType());
+        assertEquals(coverageType, diff.getDetailDataByBlock().get(1).get(0)[1].getDatasetFieldType());
+        assertEquals(Set.of(citation, geospatial), DatasetVersionDifference.getBlocksWithChanges(newVersion, originalVersion));
+    }
+
+    static DatasetFieldType compoundFieldType(long id, MetadataBlock block, String name, String... childNames) {
+        DatasetFieldType type = new DatasetFieldType(name, DatasetFieldType.FieldType.NONE, true);
+        type.setId(id);
+        type.setMetadataBlock(block);
+        for (int i = 0; i < childNames.length; i++) {
+            DatasetFieldType childType = new DatasetFieldType(childNames[i], DatasetFieldType.FieldType.TEXT, false);
+            childType.setId(id + i + 1);
+            childType.setMetadataBlock(block);
+            childType.setDisplayOrder(i);
+            childType.setParentDatasetFieldType(type);
+            type.getChildDatasetFieldTypes().add(childType);
+        }
+        return type;
+    }
+
+    static DatasetField compoundField(DatasetFieldType type, List<List<String>> compoundValues) {
+        DatasetField field = new DatasetField();
+        field.setDatasetFieldType(type);
+        List<DatasetFieldCompoundValue> fieldCompoundValues = new ArrayList<>();
+        for (List<String> childValues : compoundValues) {
+            DatasetFieldCompoundValue compoundValue = new DatasetFieldCompoundValue();
+            compoundValue.setParentDatasetField(field);
+            List<DatasetField> childFields = new ArrayList<>();
+            Iterator<DatasetFieldType> childTypes = type.getChildDatasetFieldTypes().iterator();
+            for (String value : childValues) {
+                DatasetField childField = new DatasetField();
+                childField.setDatasetFieldType(childTypes.next());
+                childField.setParentDatasetFieldCompoundValue(compoundValue);
+                childField.setDatasetFieldValues(new ArrayList<>(List.of(new DatasetFieldValue(childField, value))));
+                childFields.add(childField);
+            }
+            compoundValue.setChildDatasetFields(childFields);
+            fieldCompoundValues.add(compoundValue);
+        }
+        field.setDatasetFieldCompoundValues(fieldCompoundValues);
+        return field;
+    }
+
+    private static DatasetVersion versionWithField(DatasetField field) {
+        DatasetVersion version = new DatasetVersion();
+        version.setTermsOfUseAndAccess(new TermsOfUseAndAccess());
+        version.setDatasetFields(new ArrayList<>(List.of(field)));
+        return version;
+    }
+
+    private static List<List<String>> randomCompoundValues(Random random, String[] values) {
+        List<List<String>> compoundValues = new ArrayList<>();
+        for (int i = random.nextInt(5); i > 0; i--) {
+            compoundValues.add(randomChildValues(random, values));
+        }
+        return compoundValues;
+    }
+
+    private static List<String> randomChildValues(Random random, String[] values) {
+        return List.of(values[random.nextInt(values.length)], values[random.nextInt(values.length)]);
+    }
+
+    @Deprecated
+    // The "original" comparison of the compound values of a field, from
+    // DatasetVersionDifference.compareValues(): {added, deleted, changed}
+    private static int[] originalCompareCompoundValues(DatasetField originalField, DatasetField newField) {
+        String originalValue = "";
+        String newValue = "";
+        int totalAdded = 0;
+        int totalDeleted = 0;
+        int totalChanged = 0;
+        int loopIndex = 0;
+        for (DatasetFieldCompoundValue datasetFieldCompoundValueOriginal : originalField.getDatasetFieldCompoundValues()) {
+            if (newField.getDatasetFieldCompoundValues().size() >= loopIndex + 1) {
+                for (DatasetField dsfo : datasetFieldCompoundValueOriginal.getChildDatasetFields()) {
+                    if (!dsfo.getDisplayValue().isEmpty()) {
+                        originalValue += dsfo.getDisplayValue() + ", ";
+                    }
+                }
+                for (DatasetField dsfn : newField.getDatasetFieldCompoundValues().get(loopIndex).getChildDatasetFields()) {
+                    if (!dsfn.getDisplayValue().isEmpty()) {
+                        newValue += dsfn.getDisplayValue() + ", ";
+                    }
+                }
+                if (originalValue.isEmpty() && !newValue.isEmpty()) {
+                    totalAdded++;
+                } else if (!newValue.isEmpty() && !originalValue.trim().equals(newValue.trim())) {
+                    totalChanged++;
+                }
+            }
+            loopIndex++;
+        }
+        int countNew = newField.getDatasetFieldCompoundValues().size();
+        int countOriginal = originalField.getDatasetFieldCompoundValues().size();
+        if (countNew > countOriginal) {
+            totalAdded = countNew - countOriginal;
+        }
+        if (countOriginal > countNew) {
+            totalDeleted = countOriginal - countNew;
+        }
+        return new int[]{totalAdded, totalDeleted, totalChanged};
+    }
+
+    @Deprecated
+    // The "original" DatasetVersionDifference.fieldsAreDifferent(), for compound fields
+    private static boolean originalFieldsAreDifferent(DatasetField originalField, DatasetField newField) {
+        String originalValue = "";
+        String newValue = "";
+        for (DatasetFieldCompoundValue datasetFieldCompoundValueOriginal : originalField.getDatasetFieldCompoundValues()) {
+            int loopIndex = 0;
+            if (newField.getDatasetFieldCompoundValues().size() >= loopIndex + 1) {
+                for (DatasetField dsfo : datasetFieldCompoundValueOriginal.getChildDatasetFields()) {
+                    if (!dsfo.getDisplayValue().isEmpty()) {
+                        originalValue += dsfo.getDisplayValue() + ", ";
+                    }
+                }
+                for (DatasetField dsfn : newField.getDatasetFieldCompoundValues().get(loopIndex).getChildDatasetFields()) {
+                    if (!dsfn.getDisplayValue().isEmpty()) {
+                        newValue += dsfn.getDisplayValue() + ", ";
+                    }
+                }
+                if (!originalValue.trim().equals(newValue.trim())) {
+                    return true;
+                }
+            }
+            loopIndex++;
+        }
+        return false;
+    }
 }
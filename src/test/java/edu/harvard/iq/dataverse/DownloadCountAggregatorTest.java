@@ -0,0 +1,98 @@
+package edu.harvard.iq.dataverse;
+
+import jakarta.enterprise.concurrent.ManagedScheduledExecutorService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.AdditionalAnswers;
+import org.mockito.Mockito;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+
+class DownloadCountAggregatorTest {
+
+    private ExecutorService pool;
+    private DownloadCountAggregator aggregator;
+
+    @BeforeEach
+    void setUp() {
+        pool = Executors.newScheduledThreadPool(4);
+        aggregator = new DownloadCountAggregator();
+        aggregator.scheduler = Mockito.mock(ManagedScheduledExecutorService.class, AdditionalAnswers.delegatesTo(pool));
+        aggregator.downloadCounts = Mockito.mock(DownloadCountServiceBean.class);
+    }
+
+    @AfterEach
+    void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    void testAggregatesFullBatchesUntilNoneAreLeft() throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        Mockito.when(aggregator.downloadCounts.aggregate(anyInt()))
+                .thenReturn(DownloadCountAggregator.BATCH_SIZE, DownloadCountAggregator.BATCH_SIZE)
+                .thenAnswer(invocation -> {
+                    done.countDown();
+                    return 12;
+                });
+
+        aggregator.requestAggregation();
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+        Mockito.verify(aggregator.downloadCounts, Mockito.times(3)).aggregate(DownloadCountAggregator.BATCH_SIZE);
+    }
+
+    @Test
+    void testRequestsWhileAggregatingAreCoalesced() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger rounds = new AtomicInteger();
+        Mockito.when(aggregator.downloadCounts.aggregate(anyInt())).thenAnswer(invocation -> {
+            if (rounds.incrementAndGet() == 1) {
+                started.countDown();
+                release.await(10, TimeUnit.SECONDS);
+            }
+            return 0;
+        });
+
+        aggregator.requestAggregation();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        // (responses saved while the first round is under way)
+        for (int i = 0; i < 50; i++) {
+            aggregator.requestAggregation();
+        }
+        release.countDown();
+
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+        // One more round picks them all up
+        assertEquals(2, rounds.get());
+    }
+
+    @Test
+    void testFailureDoesNotStopTheNextAggregation() throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        Mockito.when(aggregator.downloadCounts.aggregate(anyInt()))
+                .thenThrow(new IllegalStateException("No database"))
+                .thenAnswer(invocation -> {
+                    done.countDown();
+                    return 0;
+                });
+
+        aggregator.requestAggregation();
+        // (whether the first aggregation is over or not)
+        aggregator.requestAggregation();
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+}
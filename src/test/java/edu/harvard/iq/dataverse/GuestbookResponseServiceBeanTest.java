@@ -0,0 +1,118 @@
+package edu.harvard.iq.dataverse;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Query;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+
+class GuestbookResponseServiceBeanTest {
+
+    private static final int RESPONSES = 2 * GuestbookResponseServiceBean.EXPORT_PAGE_SIZE + 500;
+
+    private GuestbookResponseServiceBean service;
+    private final List<String> queries = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        service = new GuestbookResponseServiceBean();
+        service.em = Mockito.mock(EntityManager.class);
+        service.dataverseService = Mockito.mock(DataverseServiceBean.class);
+
+        // The guestbook responses, with ids 1 to RESPONSES, for datasets 1 to 10;
+        // those with an even id answered the custom question.
+        Mockito.when(service.em.createNativeQuery(anyString())).thenAnswer(invocation -> {
+            String queryString = invocation.getArgument(0);
+            queries.add(queryString);
+            Query query = Mockito.mock(Query.class);
+            Mockito.when(query.getResultList()).thenReturn(queryString.startsWith("select q.questionstring")
+                    ? answers(queryString) : responses(queryString));
+            return query;
+        });
+        Mockito.when(service.dataverseService.getDatasetTitles(any())).thenAnswer(invocation -> {
+            List<Object[]> titles = new ArrayList<>();
+            for (Integer datasetId : (Collection<Integer>) invocation.getArgument(0)) {
+                titles.add(new Object[]{"Dataset " + datasetId, datasetId});
+            }
+            return titles;
+        });
+    }
+
+    @Test
+    void testResponsesAreStreamedAPageAtATime() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        service.streamResponsesByDataverseIdAndGuestbookId(out, 1L, 2L);
+
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(RESPONSES + 1, lines.length);
+        assertTrue(lines[0].startsWith("Guestbook, Dataset, Dataset PID"));
+        // most recent first, with the titles and the answers
+        assertEquals("Guestbook,Dataset 10,doi:10.5072/FK2/10,N/A,Download,file2500.txt,2500,N/A,User 2500,,,,Why?,Because 2500", lines[1]);
+        assertEquals("Guestbook,Dataset 9,doi:10.5072/FK2/9,N/A,Download,file2499.txt,2499,N/A,User 2499,,,", lines[2]);
+        assertEquals("Guestbook,Dataset 1,doi:10.5072/FK2/1,N/A,Download,file1.txt,1,N/A,User 1,,,", lines[RESPONSES]);
+        for (int i = 1; i <= RESPONSES; i++) {
+            int responseId = RESPONSES + 1 - i;
+            assertTrue(lines[i].contains(",User " + responseId + ","), lines[i]);
+            assertEquals(responseId % 2 == 0, lines[i].endsWith(",Why?,Because " + responseId), lines[i]);
+        }
+
+        // 3 pages, each with the answers of its own responses only
+        assertEquals(6, queries.size());
+        assertTrue(queries.get(2).contains(" and r.id < " + (RESPONSES - GuestbookResponseServiceBean.EXPORT_PAGE_SIZE + 1)));
+        assertTrue(queries.get(3).contains(" and r.guestbookResponse_id >= 501 and r.guestbookResponse_id <= 1500"));
+        Mockito.verify(service.dataverseService, Mockito.times(3)).getDatasetTitles(any());
+    }
+
+    @Test
+    void testNoResponses() throws Exception {
+        Mockito.when(service.em.createNativeQuery(anyString())).thenReturn(Mockito.mock(Query.class));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        service.streamResponsesByDataverseIdAndGuestbookId(out, 1L, null);
+
+        assertEquals(1, out.toString(StandardCharsets.UTF_8).split("\n").length);
+        Mockito.verify(service.dataverseService, Mockito.never()).getDatasetTitles(any());
+    }
+
+    private static List<Object[]> responses(String queryString) {
+        int before = intAfter(queryString, " and r.id < ", RESPONSES + 1);
+        int limit = intAfter(queryString, " LIMIT ", Integer.MAX_VALUE);
+        List<Object[]> responses = new ArrayList<>();
+        for (int id = before - 1; id >= 1 && responses.size() < limit; id--) {
+            int datasetId = (id - 1) % 10 + 1;
+            responses.add(new Object[]{id, "Guestbook", datasetId, null, "Download", "file" + id + ".txt", id,
+                    "User " + id, null, null, null, "doi", "10.5072", "FK2/" + datasetId, null, null, null});
+        }
+        return responses;
+    }
+
+    private static List<Object[]> answers(String queryString) {
+        int first = intAfter(queryString, "r.guestbookResponse_id >= ", 1);
+        int last = intAfter(queryString, "r.guestbookResponse_id <= ", RESPONSES);
+        List<Object[]> answers = new ArrayList<>();
+        for (int id = first; id <= last; id++) {
+            if (id % 2 == 0) {
+                answers.add(new Object[]{"Why?", "Because " + id, id});
+            }
+        }
+        return answers;
+    }
+
+    private static int intAfter(String queryString, String prefix, int otherwise) {
+        Matcher matcher = Pattern.compile(Pattern.quote(prefix) + "(\\d+)").matcher(queryString);
+        return matcher.find() ? Integer.parseInt(matcher.group(1)) : otherwise;
+    }
+}
@@ -0,0 +1,117 @@
+package edu.harvard.iq.dataverse.api;
+
+import edu.harvard.iq.dataverse.Dataverse;
+import edu.harvard.iq.dataverse.DataverseServiceBean;
+import edu.harvard.iq.dataverse.api.imports.BatchImportFile;
+import edu.harvard.iq.dataverse.api.imports.BatchImportJob;
+import edu.harvard.iq.dataverse.api.imports.BatchImportJob.Status;
+import edu.harvard.iq.dataverse.api.imports.BatchImportJobServiceBean;
+import edu.harvard.iq.dataverse.api.imports.ImportServiceBean;
+import edu.harvard.iq.dataverse.api.imports.ImportUtil.ImportType;
+import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
+import jakarta.enterprise.concurrent.ManagedExecutorService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.AdditionalAnswers;
+import org.mockito.Mockito;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+
+class BatchServiceBeanTest {
+
+    @TempDir
+    Path tempDir;
+
+    private String instanceRoot;
+    private ExecutorService jobPool;
+    private ExecutorService importPool;
+    private BatchServiceBean service;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        // (where the validation and cleanup logs of the jobs go)
+        Files.createDirectories(tempDir.resolve("logs"));
+        instanceRoot = System.setProperty("com.sun.aas.instanceRoot", tempDir.toString());
+
+        // A single thread for the jobs, which it spends waiting for the files
+        jobPool = Executors.newSingleThreadExecutor();
+        importPool = Executors.newFixedThreadPool(2);
+        service = new BatchServiceBean();
+        service.executor = Mockito.mock(ManagedExecutorService.class, AdditionalAnswers.delegatesTo(jobPool));
+        service.importExecutor = Mockito.mock(ManagedExecutorService.class, AdditionalAnswers.delegatesTo(importPool));
+        service.jobService = Mockito.mock(BatchImportJobServiceBean.class);
+        service.dataverseService = Mockito.mock(DataverseServiceBean.class);
+        service.importService = Mockito.mock(ImportServiceBean.class);
+    }
+
+    @AfterEach
+    void tearDown() {
+        jobPool.shutdownNow();
+        importPool.shutdownNow();
+        if (instanceRoot == null) {
+            System.clearProperty("com.sun.aas.instanceRoot");
+        } else {
+            System.setProperty("com.sun.aas.instanceRoot", instanceRoot);
+        }
+    }
+
+    @Test
+    void testResumedJobOnlyImportsTheFilesLeft() throws Exception {
+        Path dir = Files.createDirectories(tempDir.resolve("ddi"));
+        for (String name : List.of("a.xml", "b.xml", "c.xml")) {
+            Files.writeString(dir.resolve(name), "<codeBook/>");
+        }
+        BatchImportJob job = new BatchImportJob(dir.toString(), 1L, ImportType.NEW, false, new AuthenticatedUser(), 2);
+        job.setId(5L);
+        job.setStatus(Status.INTERRUPTED);
+        Mockito.when(service.jobService.find(5L)).thenReturn(job);
+        Mockito.when(service.jobService.setStatus(5L, Status.RUNNING)).thenReturn(job);
+        // Checkpoints saved before the interruption: a.xml was imported,
+        // b.xml failed; c.xml was added to the directory since.
+        Mockito.when(service.jobService.findFilePaths(5L)).thenReturn(Set.of("a.xml", "b.xml"));
+        Mockito.when(service.jobService.findFileIdsToImport(eq(5L), isNull(), anyInt()))
+                .thenReturn(List.of(12L, 13L));
+        Mockito.when(service.jobService.findFileIdsToImport(eq(5L), eq(13L), anyInt()))
+                .thenReturn(List.of());
+        Mockito.when(service.jobService.findFile(12L)).thenReturn(new BatchImportFile(job, "b.xml", 1L));
+        Mockito.when(service.jobService.findFile(13L)).thenReturn(new BatchImportFile(job, "c.xml", 1L));
+        Mockito.when(service.dataverseService.find(1L)).thenReturn(new Dataverse());
+
+        service.resume(5L);
+
+        Mockito.verify(service.jobService, Mockito.timeout(10_000)).setStatus(5L, Status.COMPLETED);
+        Mockito.verify(service.jobService).addFiles(5L, Map.of("c.xml", 1L));
+        Mockito.verify(service.importService).importFile(any(), any(), eq(new File(dir.toFile(), "b.xml")), eq(ImportType.NEW), any(), eq(12L));
+        Mockito.verify(service.importService).importFile(any(), any(), eq(new File(dir.toFile(), "c.xml")), eq(ImportType.NEW), any(), eq(13L));
+        Mockito.verify(service.importService, Mockito.times(2)).importFile(any(), any(), any(), any(), any(), anyLong());
+        Mockito.verify(service.jobService, Mockito.never()).markFailed(anyLong(), any());
+        Mockito.verify(service.jobService).saveProgress(5L);
+    }
+
+    @Test
+    void testOnlyInterruptedJobsCanBeResumed() {
+        BatchImportJob job = new BatchImportJob("/data/ddi", 1L, ImportType.NEW, false, new AuthenticatedUser(), 2);
+        job.setId(6L);
+        Mockito.when(service.jobService.find(6L)).thenReturn(job);
+
+        assertThrows(IllegalStateException.class, () -> service.resume(6L));
+        Mockito.verify(service.jobService, Mockito.never()).setStatus(anyLong(), any());
+        Mockito.verifyNoInteractions(service.executor);
+    }
+}
@@ -76,33 +76,54 @@ public class DownloadInstanceWriterTest {
         assertNotNull(expectedException);
     }
 
-    // Attempt to get invalid range (multiple ranges).
+    // Get two separate ranges.
     @Test
-    public void testGetRangeInvalidMultipleRanges() {
-        Exception expectedException = null;
-        try {
-            List<Range> ranges = diw.getRanges("bytes=0-9,90-99", 100);
-        } catch (Exception ex) {
-            // "Only one range is allowed."
-            System.out.println("exception: " + ex);
-            expectedException = ex;
-        }
-        assertNotNull(expectedException);
+    public void testGetMultipleRanges() {
+        List<Range> ranges = diw.getRanges("bytes=0-9,190-199", 200);
+        assertEquals(2, ranges.size());
+        assertEquals(0, ranges.get(0).getStart());
+        assertEquals(9, ranges.get(0).getEnd());
+        assertEquals(190, ranges.get(1).getStart());
+        assertEquals(199, ranges.get(1).getEnd());
     }
 
-    // Attempt to get invalid range (multiple ranges, beyond file size).
+    // Multiple ranges, the second one partly beyond file size.
     @Test
-    public void testGetRangeInvalidMultipleRangesBeyondFileSize() {
-        Exception expectedException = null;
-        try {
-            List<Range> ranges = diw.getRanges("bytes=0-9,90-99", 40);
-        } catch (Exception ex) {
-            // "Only one range is allowed."
-            // We report the multiple ranges error before reporting the "beyond filesize" error.
-            System.out.println("exception: " + ex);
-            expectedException = ex;
+    public void testGetMultipleRangesBeyondFileSize() {
+        List<Range> ranges = diw.getRanges("bytes=0-9,290-399", 300);
+        assertEquals(2, ranges.size());
+        assertEquals(290, ranges.get(1).getStart());
+        assertEquals(299, ranges.get(1).getEnd());
+    }
+
+    // Overlapping, adjacent and nearby ranges are merged, and the result is sorted.
+    @Test
+    public void testGetRangesCoalesced() {
+        List<Range> ranges = diw.getRanges("bytes=500-599,0-9,10-19,5-14,40-49,1000-", 2000);
+        assertEquals(3, ranges.size());
+        // 0-9, 10-19 and 5-14 overlap or are adjacent; 40-49 is only 20 bytes away.
+        assertEquals(0, ranges.get(0).getStart());
+        assertEquals(49, ranges.get(0).getEnd());
+        assertEquals(500, ranges.get(1).getStart());
+        assertEquals(599, ranges.get(1).getEnd());
+        assertEquals(1000, ranges.get(2).getStart());
+        assertEquals(1999, ranges.get(2).getEnd());
+    }
+
+    // Too many (non-adjacent) ranges.
+    @Test
+    public void testGetRangesTooMany() {
+        StringBuilder header = new StringBuilder("bytes=0-0");
+        for (int i = 1; i <= DownloadInstanceWriter.MAX_RANGES; i++) {
+            header.append(",").append(i * 1000).append("-").append(i * 1000);
         }
-        assertNotNull(expectedException);
+        assertThrows(RuntimeException.class, () -> diw.getRanges(header.toString(), 1000000));
+    }
+
+    // Attempt to get invalid range (multiple ranges, one invalid).
+    @Test
+    public void testGetRangeInvalidMultipleRanges() {
+        assertThrows(RuntimeException.class, () -> diw.getRanges("bytes=0-9,90-80", 100));
     }
 
     // Test "junk" instead of "bytes=0-10"
@@ -119,30 +140,18 @@ public class DownloadInstanceWriterTest {
         assertNotNull(expectedException);
     }
 
-    // Get first 10 bytes and last 10 bytes. Not currently supported.
+    // Get first 10 bytes and last 10 bytes.
     @Test
     public void testGetRanges0to0and90toNull() {
-        Exception expectedException = null;
-        try {
-            List<Range> ranges = diw.getRanges("bytes=0-9,-10", 100);
-            // These asserts on start, end, etc. don't actually
-            // run because we throw an expection that multiple
-            // ranges are not supported.
-            //
-            // first range
-            assertEquals(0, ranges.get(0).getStart());
-            assertEquals(9, ranges.get(0).getEnd());
-            assertEquals(10, ranges.get(0).getLength());
-            // second range
-            assertEquals(90, ranges.get(1).getStart());
-            assertEquals(99, ranges.get(1).getEnd());
-            assertEquals(10, ranges.get(1).getLength());
-        } catch (Exception ex) {
-            // Only one range is allowed.
-            System.out.println("exception: " + ex);
-            expectedException = ex;
-        }
-        assertNotNull(expectedException);
+        List<Range> ranges = diw.getRanges("bytes=0-9,-10", 200);
+        // first range
+        assertEquals(0, ranges.get(0).getStart());
+        assertEquals(9, ranges.get(0).getEnd());
+        assertEquals(10, ranges.get(0).getLength());
+        // second range
+        assertEquals(190, ranges.get(1).getStart());
+        assertEquals(199, ranges.get(1).getEnd());
+        assertEquals(10, ranges.get(1).getLength());
     }
 
 }
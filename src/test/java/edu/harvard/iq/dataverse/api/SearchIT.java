@@ -897,6 +897,53 @@ public class SearchIT {
         assertTrue(UtilIT.sleepForSearch(searchPart, apiToken, "&subtree=" + dataverseAlias2, 1, UtilIT.GENERAL_LONG_DURATION), "Did not find 1 child");
     }
     
+    @Test
+    public void testCursorMarkPaging() {
+        Response createUser = UtilIT.createRandomUser();
+        String apiToken = UtilIT.getApiTokenFromResponse(createUser);
+
+        Response createDataverseResponse = UtilIT.createRandomDataverse(apiToken);
+        createDataverseResponse.then().assertThat().statusCode(CREATED.getStatusCode());
+        String dataverseAlias = UtilIT.getAliasFromResponse(createDataverseResponse);
+        for (int i = 0; i < 3; i++) {
+            UtilIT.createSubDataverse("subDV" + UtilIT.getRandomIdentifier(), null, apiToken, dataverseAlias)
+                    .then().assertThat().statusCode(CREATED.getStatusCode());
+        }
+        String subtree = "&subtree=" + dataverseAlias + "&type=dataverse";
+        assertTrue(UtilIT.sleepForSearch("*", apiToken, subtree, 3, UtilIT.GENERAL_LONG_DURATION), "Missing subDVs");
+
+        // one result per page, following the cursor until it stops moving
+        List<String> names = new java.util.ArrayList<>();
+        String cursorMark = "*";
+        while (true) {
+            Response page = UtilIT.search("*", apiToken, subtree + "&per_page=1&cursor_mark=" + cursorMark);
+            page.then().assertThat()
+                    .statusCode(OK.getStatusCode())
+                    .body("data.total_count", CoreMatchers.equalTo(3));
+            names.addAll(JsonPath.from(page.asString()).getList("data.items.name"));
+            String nextCursorMark = JsonPath.from(page.asString()).getString("data.next_cursor_mark");
+            if (nextCursorMark.equals(cursorMark)) {
+                break;
+            }
+            cursorMark = nextCursorMark;
+        }
+        assertEquals(3, names.size());
+        assertEquals(3, names.stream().distinct().count());
+
+        Response streamed = UtilIT.search("*", apiToken, subtree + "&per_page=1&stream=true&show_type_counts=true");
+        streamed.prettyPrint();
+        streamed.then().assertThat()
+                .statusCode(OK.getStatusCode())
+                .body("status", CoreMatchers.equalTo("OK"))
+                .body("data.total_count", CoreMatchers.equalTo(3))
+                .body("data.count_in_response", CoreMatchers.equalTo(3))
+                .body("data.items.name", Matchers.containsInAnyOrder(names.toArray()))
+                .body("data.total_count_per_object_type.Dataverses", CoreMatchers.equalTo(3));
+
+        UtilIT.search("*", apiToken, subtree + "&start=1&cursor_mark=*").then().assertThat()
+                .statusCode(BAD_REQUEST.getStatusCode());
+    }
+
     //If this test fails it'll fail inconsistently as it tests underlying async role code
     //Hopefully it will not fail as we fixed the issue in https://github.com/IQSS/dataverse/issues/3471
     @Test
@@ -0,0 +1,90 @@
+package edu.harvard.iq.dataverse.api.imports;
+
+import edu.harvard.iq.dataverse.api.imports.BatchImportJob.Status;
+import edu.harvard.iq.dataverse.api.imports.ImportUtil.ImportType;
+import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
+import jakarta.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Timestamp;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BatchImportJobTest {
+
+    @Test
+    public void testNewJobIsRunning() {
+        BatchImportJob job = new BatchImportJob("/data/ddi", 1L, ImportType.NEW, false, new AuthenticatedUser(), 4);
+        assertEquals(Status.RUNNING, job.getStatus());
+        assertNotNull(job.getStartTime());
+        assertEquals(job.getStartTime(), job.getLastUpdateTime());
+        assertEquals(0, job.getElapsedMillis());
+    }
+
+    @Test
+    public void testElapsedTimeIncludesCurrentRun() {
+        BatchImportJob job = new BatchImportJob("/data/ddi", 1L, ImportType.NEW, false, new AuthenticatedUser(), 4);
+        job.setElapsedMillis(60000);
+        job.setLastUpdateTime(new Timestamp(1000000));
+
+        assertEquals(65000, job.getElapsedMillis(1005000));
+
+        job.setStatus(Status.INTERRUPTED);
+        assertEquals(60000, job.getElapsedMillis(1005000));
+    }
+
+    @Test
+    public void testToJson() {
+        AuthenticatedUser user = new AuthenticatedUser();
+        user.setUserIdentifier("admin");
+        BatchImportJob job = new BatchImportJob("/data/ddi", 7L, ImportType.HARVEST, true, user, 8);
+        job.setId(3L);
+        job.setStatus(Status.INTERRUPTED);
+        job.setElapsedMillis(40000);
+
+        JsonObject json = job.toJson(Map.of(
+                BatchImportFile.Status.PENDING, 100L,
+                BatchImportFile.Status.IMPORTED, 190L,
+                BatchImportFile.Status.FAILED, 10L), System.currentTimeMillis()).build();
+        assertEquals(3, json.getInt("id"));
+        assertEquals("/data/ddi", json.getString("path"));
+        assertEquals(7, json.getInt("ownerId"));
+        assertEquals("HARVEST", json.getString("importType"));
+        assertTrue(json.getBoolean("createDataverses"));
+        assertEquals("INTERRUPTED", json.getString("status"));
+        assertEquals("admin", json.getString("user"));
+        assertEquals(8, json.getInt("concurrency"));
+        assertEquals(300, json.getInt("files"));
+        assertEquals(100, json.getInt("pending"));
+        assertEquals(190, json.getInt("imported"));
+        assertEquals(10, json.getInt("failed"));
+        assertEquals(40, json.getInt("elapsedSeconds"));
+        assertEquals(5.0, json.getJsonNumber("filesPerSecond").doubleValue(), 0.0001);
+        assertFalse(json.containsKey("endTime"));
+    }
+
+    @Test
+    public void testToJsonWithoutFiles() {
+        BatchImportJob job = new BatchImportJob("/data/ddi/study.xml", 1L, ImportType.NEW, false, new AuthenticatedUser(), 4);
+        job.setId(1L);
+
+        JsonObject json = job.toJson(Map.of(), job.getStartTime().getTime()).build();
+        assertEquals(0, json.getInt("files"));
+        assertEquals(0, json.getInt("pending"));
+        assertEquals(0.0, json.getJsonNumber("filesPerSecond").doubleValue());
+    }
+
+    @Test
+    public void testCheckpointRecordsAttempts() {
+        BatchImportFile file = new BatchImportFile(new BatchImportJob(), "harvard/study1.xml", 2L);
+        assertEquals(BatchImportFile.Status.PENDING, file.getStatus());
+
+        file.recordOutcome(BatchImportFile.Status.FAILED, "Import Exception processing file", new Timestamp(1000));
+        file.recordOutcome(BatchImportFile.Status.IMPORTED, "{\"message\":\" created dataset, id=5.\"}", new Timestamp(2000));
+
+        assertEquals(BatchImportFile.Status.IMPORTED, file.getStatus());
+        assertEquals(2, file.getAttempts());
+        assertEquals(new Timestamp(2000), file.getUpdateTime());
+    }
+}
@@ -0,0 +1,69 @@
+package edu.harvard.iq.dataverse.api.util;
+
+import edu.harvard.iq.dataverse.settings.JvmSettings;
+import edu.harvard.iq.dataverse.util.testing.JvmSetting;
+import edu.harvard.iq.dataverse.util.testing.LocalJvmSettings;
+import org.junit.jupiter.api.Test;
+
+import jakarta.ws.rs.core.EntityTag;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.Request;
+import jakarta.ws.rs.core.Response;
+
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@LocalJvmSettings
+class HttpCachingTest {
+
+    @Test
+    void testEntityTagIsStableAndStrong() {
+        EntityTag tag = HttpCaching.entityTag(42L, 7L, 1700000000000L, "ddi");
+        assertEquals(tag, HttpCaching.entityTag(42L, 7L, 1700000000000L, "ddi"));
+        assertNotEquals(tag, HttpCaching.entityTag(42L, 7L, 1700000000001L, "ddi"));
+        assertNotEquals(tag, HttpCaching.entityTag(42L, 7L, 1700000000000L, "dcterms"));
+        assertFalse(tag.isWeak());
+        assertEquals(32, tag.getValue().length());
+    }
+
+    @Test
+    void testNotModified() {
+        EntityTag tag = HttpCaching.entityTag("aux", 3L, "abc");
+        Date lastModified = new Date(1700000000123L);
+        Request request = mock(Request.class);
+        when(request.evaluatePreconditions(any(Date.class), eq(tag))).thenReturn(Response.notModified());
+
+        Response response = HttpCaching.notModified(request, tag, lastModified, false);
+
+        assertNotNull(response);
+        assertEquals(304, response.getStatus());
+        assertEquals(tag, response.getEntityTag());
+        assertEquals(new Date(1700000000000L), response.getLastModified());
+        assertEquals("private, no-cache", response.getHeaderString(HttpHeaders.CACHE_CONTROL));
+        // If-Modified-Since has a resolution of one second
+        verify(request).evaluatePreconditions(new Date(1700000000000L), tag);
+    }
+
+    @Test
+    void testModified() {
+        EntityTag tag = HttpCaching.entityTag("thumb", 3L);
+        Request request = mock(Request.class);
+        when(request.evaluatePreconditions(tag)).thenReturn(null);
+
+        assertNull(HttpCaching.notModified(request, tag, null, true));
+    }
+
+    @Test
+    void testPublicCacheControlDefaultsToRevalidation() {
+        assertEquals("public, max-age=0, must-revalidate", HttpCaching.cacheControl(true));
+    }
+
+    @Test
+    @JvmSetting(key = JvmSettings.API_CACHE_MAX_AGE, value = "600")
+    void testPublicCacheControlMaxAge() {
+        assertEquals("public, max-age=600, must-revalidate", HttpCaching.cacheControl(true));
+        assertEquals("private, no-cache", HttpCaching.cacheControl(false));
+    }
+}
@@ -0,0 +1,274 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import edu.harvard.iq.dataverse.DataFile;
+import edu.harvard.iq.dataverse.mocks.MocksFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DataFileZipperTest {
+
+    private ExecutorService prefetchExecutor;
+
+    @BeforeEach
+    public void setUp() {
+        prefetchExecutor = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        prefetchExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testEntriesAreWrittenInOrder() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataFileZipper zipper = new DataFileZipper(out, 2, prefetchExecutor);
+
+        byte[] text = "a,b,c\n1,2,3\n".repeat(100).getBytes(StandardCharsets.UTF_8);
+        byte[] png = randomBytes(1000);
+        DataFile textFile = dataFile("data");
+        DataFile pngFile = dataFile(null);
+        zipper.addToZipStream(textFile, storage("table.csv", "text/csv", text, 0));
+        zipper.addToZipStream(pngFile, storage("plot.png", "image/png", png, 0));
+        zipper.addToZipStream(dataFile(null), storage("plot.png", "image/png", png, 0));
+        zipper.finalizeZipStream();
+
+        List<ZipEntry> entries = new ArrayList<>();
+        List<byte[]> contents = new ArrayList<>();
+        readZip(out.toByteArray(), entries, contents);
+
+        assertEquals(List.of("data/", "data/table.csv", "plot.png", "plot_1.png", "MANIFEST.TXT"),
+                entries.stream().map(ZipEntry::getName).toList());
+        assertArrayEquals(text, contents.get(1));
+        assertEquals(ZipEntry.DEFLATED, entries.get(1).getMethod());
+        // already compressed and small enough to be fetched whole
+        assertArrayEquals(png, contents.get(2));
+        assertEquals(ZipEntry.STORED, entries.get(2).getMethod());
+        assertTrue(new String(contents.get(4), StandardCharsets.UTF_8).contains("data/table.csv (text/csv) 1200 bytes."));
+    }
+
+    @Test
+    public void testLargeFileIsStreamedAfterThePrefetchedBytes() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataFileZipper zipper = new DataFileZipper(out, 1, prefetchExecutor);
+
+        byte[] large = randomBytes(DataFileZipper.PREFETCH_BUFFER_SIZE + 12345);
+        assertEquals(large.length, zipper.addToZipStream(dataFile(null), storage("video.mp4", "video/mp4", large, 0))
+                + zipper.addToZipStream(dataFile(null), storage("small.txt", "text/plain", new byte[]{'x'}, 0)));
+        zipper.finalizeZipStream();
+
+        List<ZipEntry> entries = new ArrayList<>();
+        List<byte[]> contents = new ArrayList<>();
+        readZip(out.toByteArray(), entries, contents);
+
+        assertEquals("video.mp4", entries.get(0).getName());
+        assertArrayEquals(large, contents.get(0));
+        // Too large to be STORED; deflated without compression instead
+        assertEquals(ZipEntry.DEFLATED, entries.get(0).getMethod());
+        assertTrue(entries.get(0).getCompressedSize() >= large.length);
+        assertArrayEquals(new byte[]{'x'}, contents.get(1));
+    }
+
+    @Test
+    public void testFetchFailureIsReported() throws IOException {
+        DataFileZipper zipper = new DataFileZipper(new ByteArrayOutputStream(), 0, prefetchExecutor);
+        StorageIO<DataFile> broken = new InputStreamIO(new ByteArrayInputStream(new byte[0]), 0) {
+            @Override
+            public InputStream getInputStream() throws IOException {
+                throw new IOException("no such object");
+            }
+        };
+
+        IOException ex = assertThrows(IOException.class, () -> zipper.addToZipStream(dataFile(null), broken));
+        assertEquals("no such object", ex.getMessage());
+    }
+
+    /**
+     * Zips files from a stand-in for S3, where every object takes a while to
+     * start coming in: each of the first files only comes in once the others
+     * were asked for too, which only happens if they are fetched in parallel.
+     */
+    @Test
+    public void testPrefetchOverlapsTheFetches() throws IOException {
+        int files = 3;
+        CountDownLatch requested = new CountDownLatch(files);
+        AtomicBoolean overlapped = new AtomicBoolean(true);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataFileZipper zipper = new DataFileZipper(out, files, prefetchExecutor);
+        byte[] content = randomBytes(1000);
+
+        for (int i = 0; i < files; i++) {
+            StorageIO<DataFile> storageIO = new InputStreamIO(new ByteArrayInputStream(content), content.length) {
+                @Override
+                public InputStream getInputStream() throws IOException {
+                    requested.countDown();
+                    try {
+                        if (!requested.await(10, TimeUnit.SECONDS)) {
+                            overlapped.set(false);
+                        }
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    return super.getInputStream();
+                }
+            };
+            storageIO.setFileName("file" + i + ".bin");
+            storageIO.setMimeType("application/octet-stream");
+            zipper.addToZipStream(dataFile(null), storageIO);
+        }
+        zipper.finalizeZipStream();
+
+        assertTrue(overlapped.get());
+        List<ZipEntry> entries = new ArrayList<>();
+        List<byte[]> contents = new ArrayList<>();
+        readZip(out.toByteArray(), entries, contents);
+        assertEquals(List.of("file0.bin", "file1.bin", "file2.bin", "MANIFEST.TXT"),
+                entries.stream().map(ZipEntry::getName).toList());
+        assertArrayEquals(content, contents.get(2));
+    }
+
+    @Test
+    public void testPendingFilesAreClosedWhenDiscarded() throws IOException {
+        DataFileZipper zipper = new DataFileZipper(new ByteArrayOutputStream(), 2, prefetchExecutor);
+        List<AtomicBoolean> closed = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            AtomicBoolean streamClosed = new AtomicBoolean();
+            closed.add(streamClosed);
+            InputStream in = new ByteArrayInputStream(new byte[]{'x'}) {
+                @Override
+                public void close() throws IOException {
+                    streamClosed.set(true);
+                }
+            };
+            StorageIO<DataFile> storageIO = new InputStreamIO(in, 1);
+            storageIO.setFileName("file" + i + ".txt");
+            zipper.addToZipStream(dataFile(null), storageIO);
+        }
+
+        // (as if the client went away before the zip stream was finalized)
+        zipper.discardPendingFiles();
+
+        prefetchExecutor.shutdown();
+        assertDoesNotThrow(() -> prefetchExecutor.awaitTermination(10, TimeUnit.SECONDS));
+        assertTrue(closed.get(0).get());
+        assertTrue(closed.get(1).get());
+    }
+
+    @Test
+    public void testPrefetchBuffersGoBackToTheBudget() throws Exception {
+        Semaphore budget = new Semaphore(10_000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataFileZipper zipper = new DataFileZipper(out, 2, prefetchExecutor, budget);
+        for (int i = 0; i < 5; i++) {
+            zipper.addToZipStream(dataFile(null), storage("file" + i + ".bin", "application/octet-stream", randomBytes(1000), 0));
+        }
+        zipper.finalizeZipStream();
+        zipper = new DataFileZipper(new ByteArrayOutputStream(), 2, prefetchExecutor, budget);
+        for (int i = 0; i < 2; i++) {
+            zipper.addToZipStream(dataFile(null), storage("file" + i + ".bin", "application/octet-stream", randomBytes(1000), 0));
+        }
+        zipper.discardPendingFiles();
+
+        prefetchExecutor.shutdown();
+        assertTrue(prefetchExecutor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(10_000, budget.availablePermits());
+        List<ZipEntry> entries = new ArrayList<>();
+        readZip(out.toByteArray(), entries, new ArrayList<>());
+        assertEquals(6, entries.size());
+    }
+
+    @Test
+    public void testFilesAreFetchedWhenWrittenOnceTheBudgetIsUsedUp() throws IOException {
+        AtomicInteger prefetches = new AtomicInteger();
+        Executor countingExecutor = task -> {
+            prefetches.incrementAndGet();
+            prefetchExecutor.execute(task);
+        };
+        // Enough for the first file only (1000 bytes, plus one)
+        Semaphore budget = new Semaphore(1500);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataFileZipper zipper = new DataFileZipper(out, 2, countingExecutor, budget);
+        byte[] content = randomBytes(1000);
+        for (int i = 0; i < 3; i++) {
+            zipper.addToZipStream(dataFile(null), storage("file" + i + ".bin", "application/octet-stream", content, 0));
+        }
+        zipper.finalizeZipStream();
+
+        assertEquals(1, prefetches.get());
+        List<byte[]> contents = new ArrayList<>();
+        readZip(out.toByteArray(), new ArrayList<>(), contents);
+        assertArrayEquals(content, contents.get(2));
+    }
+
+    @Test
+    public void testIsCompressedContentType() {
+        assertTrue(DataFileZipper.isCompressedContentType("application/zip"));
+        assertTrue(DataFileZipper.isCompressedContentType("image/JPEG"));
+        assertTrue(DataFileZipper.isCompressedContentType("video/quicktime"));
+        assertTrue(DataFileZipper.isCompressedContentType("application/gzip; name=\"x.gz\""));
+        assertFalse(DataFileZipper.isCompressedContentType("text/tab-separated-values"));
+        assertFalse(DataFileZipper.isCompressedContentType("image/tiff"));
+        assertFalse(DataFileZipper.isCompressedContentType(null));
+    }
+
+    private static DataFile dataFile(String directoryLabel) {
+        DataFile dataFile = MocksFactory.makeDataFile();
+        dataFile.getFileMetadata().setDirectoryLabel(directoryLabel);
+        return dataFile;
+    }
+
+    private static StorageIO<DataFile> storage(String fileName, String mimeType, byte[] content, long latency) throws IOException {
+        StorageIO<DataFile> storageIO = new InputStreamIO(new ByteArrayInputStream(content), content.length) {
+            @Override
+            public InputStream getInputStream() throws IOException {
+                try {
+                    Thread.sleep(latency);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return super.getInputStream();
+            }
+        };
+        storageIO.setFileName(fileName);
+        storageIO.setMimeType(mimeType);
+        return storageIO;
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static void readZip(byte[] zip, List<ZipEntry> entries, List<byte[]> contents) throws IOException {
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                contents.add(in.readAllBytes());
+                entries.add(entry);
+            }
+        }
+    }
+}
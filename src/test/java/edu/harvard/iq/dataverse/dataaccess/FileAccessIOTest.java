@@ -14,11 +14,15 @@ import edu.harvard.iq.dataverse.util.FileUtil;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
@@ -291,6 +295,70 @@ public class FileAccessIOTest {
         assertEquals("This is a test string\n", sb.toString());
     }
     
+    @Test
+    public void testTransferTo() throws IOException {
+        datasetAccess.open(DataAccessOption.READ_ACCESS);
+
+        ByteArrayOutputStream whole = new ByteArrayOutputStream();
+        assertEquals(21, datasetAccess.transferTo(0, Long.MAX_VALUE, whole));
+        assertEquals("This is a test string", whole.toString());
+
+        ByteArrayOutputStream range = new ByteArrayOutputStream();
+        assertEquals(4, datasetAccess.transferTo(10, 4, range));
+        assertEquals("test", range.toString());
+
+        // Past the end of the file
+        assertEquals(6, datasetAccess.transferTo(15, 100, new ByteArrayOutputStream()));
+
+        // The main input stream is not moved
+        assertEquals('T', datasetAccess.getInputStream().read());
+    }
+
+    @Test
+    public void testTransferToChannel() throws IOException {
+        datasetAccess.open(DataAccessOption.READ_ACCESS);
+        ChannelOutputStream out = new ChannelOutputStream();
+
+        assertEquals(6, datasetAccess.transferTo(15, 6, out));
+        assertEquals("string", out.bytes.toString());
+        assertEquals(6, out.bytesFromChannel);
+    }
+
+    @Test
+    public void testTransferToRequiresReadAccess() {
+        assertThrows(IOException.class, () -> datasetAccess.transferTo(0, 1, new ByteArrayOutputStream()));
+    }
+
+    /**
+     * An output stream that is also a channel, like the ones some containers
+     * give to the servlets.
+     */
+    private static class ChannelOutputStream extends OutputStream implements WritableByteChannel {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        long bytesFromChannel = 0;
+
+        @Override
+        public void write(int b) {
+            bytes.write(b);
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            while (src.hasRemaining()) {
+                bytes.write(src.get());
+            }
+            bytesFromChannel += n;
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+    }
+
     @Test
     public void testFileIdentifierFormats() throws IOException {
         System.setProperty("dataverse.files.filetest.type", "file");
@@ -0,0 +1,190 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import edu.harvard.iq.dataverse.DataFile;
+import edu.harvard.iq.dataverse.Dataset;
+import edu.harvard.iq.dataverse.mocks.MocksFactory;
+import edu.harvard.iq.dataverse.util.testing.Tags;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares the throughput and the CPU time per GB of the ways a local file can
+ * be sent by the DownloadInstanceWriter: the generic 32 KB copy loop over the
+ * input stream, FileAccessIO.transferTo() into a plain output stream (large
+ * buffer) and FileAccessIO.transferTo() into an output stream that is also a
+ * channel (FileChannel.transferTo()). The results are printed; only the number
+ * of bytes copied is checked, since timings depend on the machine.
+ *
+ * Not run by default, as it writes a 512 MB file. Run it with e.g.
+ * mvn test -Dtest=FileAccessIOTransferBenchmarkTest -DtestsToExclude=none
+ */
+@Tag(Tags.NOT_ESSENTIAL_UNITTESTS)
+public class FileAccessIOTransferBenchmarkTest {
+
+    private static final long FILE_SIZE = 512L * 1024 * 1024;
+    private static final int ROUNDS = 5;
+    private static final double GB = 1024.0 * 1024 * 1024;
+
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    private static Path directory;
+    private static DataFile dataFile;
+
+    @BeforeAll
+    public static void setUp() throws IOException {
+        directory = Files.createTempDirectory("transfer-benchmark");
+        System.setProperty("dataverse.files.benchmark.type", "file");
+        System.setProperty("dataverse.files.benchmark.directory", directory.toString());
+
+        Dataset dataset = MocksFactory.makeDataset();
+        dataset.setAuthority("bench");
+        dataset.setIdentifier("dataset");
+        dataFile = MocksFactory.makeDataFile();
+        dataFile.setOwner(dataset);
+        dataFile.setStorageIdentifier("datafile");
+
+        Path file = directory.resolve("bench").resolve("dataset").resolve("datafile");
+        Files.createDirectories(file.getParent());
+        byte[] block = new byte[1024 * 1024];
+        new Random(42).nextBytes(block);
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (long written = 0; written < FILE_SIZE; written += block.length) {
+                out.write(block);
+            }
+        }
+    }
+
+    @AfterAll
+    public static void tearDown() throws IOException {
+        System.clearProperty("dataverse.files.benchmark.type");
+        System.clearProperty("dataverse.files.benchmark.directory");
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    @Test
+    public void compareCopyLoopAndTransferTo() throws IOException {
+        // the first round of each warms up the JIT and the page cache
+        for (int round = 0; round <= ROUNDS; round++) {
+            boolean report = round > 0;
+            measure("32 KB copy loop", report, this::copyLoop);
+            measure("transferTo, stream", report, this::transferToStream);
+            measure("transferTo, channel", report, this::transferToChannel);
+        }
+    }
+
+    private long copyLoop() throws IOException {
+        FileAccessIO<DataFile> storageIO = open();
+        try (InputStream in = storageIO.getInputStream()) {
+            CountingOutputStream out = new CountingOutputStream(NullOutputStream.INSTANCE);
+            // The loop in DownloadInstanceWriter
+            int bufsize;
+            byte[] bffr = new byte[4 * 8192];
+            while ((bufsize = in.read(bffr)) != -1) {
+                out.write(bffr, 0, bufsize);
+            }
+            return out.getByteCount();
+        }
+    }
+
+    private long transferToStream() throws IOException {
+        FileAccessIO<DataFile> storageIO = open();
+        try (InputStream in = storageIO.getInputStream()) {
+            return storageIO.transferTo(0, Long.MAX_VALUE, NullOutputStream.INSTANCE);
+        }
+    }
+
+    private long transferToChannel() throws IOException {
+        FileAccessIO<DataFile> storageIO = open();
+        // A file on the same disk stands in for the socket channel; the
+        // transfer is then done by the kernel in both cases.
+        File target = directory.resolve("target").toFile();
+        try (InputStream in = storageIO.getInputStream();
+                RandomAccessFile targetFile = new RandomAccessFile(target, "rw");
+                ChannelOutputStream out = new ChannelOutputStream(targetFile.getChannel())) {
+            return storageIO.transferTo(0, Long.MAX_VALUE, out);
+        } finally {
+            Files.deleteIfExists(target.toPath());
+        }
+    }
+
+    private FileAccessIO<DataFile> open() throws IOException {
+        FileAccessIO<DataFile> storageIO = new FileAccessIO<>(dataFile, null, "benchmark");
+        storageIO.open(DataAccessOption.READ_ACCESS);
+        return storageIO;
+    }
+
+    private void measure(String name, boolean report, Copy copy) throws IOException {
+        long cpuStart = threads.getCurrentThreadCpuTime();
+        long start = System.nanoTime();
+        long copied = copy.run();
+        long elapsed = System.nanoTime() - start;
+        long cpu = threads.getCurrentThreadCpuTime() - cpuStart;
+
+        assertEquals(FILE_SIZE, copied);
+        if (report) {
+            double gigabytes = copied / GB;
+            System.out.printf("%-20s %8.1f MB/s %8.1f ms CPU/GB%n", name,
+                    gigabytes * 1024 / (elapsed / 1e9), cpu / 1e6 / gigabytes);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Copy {
+        long run() throws IOException;
+    }
+
+    private static class ChannelOutputStream extends OutputStream implements WritableByteChannel {
+
+        private final FileChannel channel;
+
+        ChannelOutputStream(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            write(ByteBuffer.wrap(b, off, len));
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            return channel.write(src);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
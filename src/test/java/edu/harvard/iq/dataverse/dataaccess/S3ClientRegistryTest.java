@@ -0,0 +1,172 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.services.s3.AmazonS3;
+import edu.harvard.iq.dataverse.DataFile;
+import edu.harvard.iq.dataverse.Dataset;
+import edu.harvard.iq.dataverse.mocks.MocksFactory;
+import edu.harvard.iq.dataverse.util.FileUtil;
+import jakarta.json.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the S3 clients of the registry against a minimal S3 stand-in.
+ */
+class S3ClientRegistryTest {
+
+    private S3StandIn standIn;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        standIn = new S3StandIn();
+    }
+
+    @AfterEach
+    void tearDown() {
+        standIn.close();
+    }
+
+    @Test
+    void testClientIsSharedByTheThreadsOfTheStore() throws Exception {
+        String driverId = standIn.configureStore("shared");
+
+        ExecutorService pool = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<AmazonS3>> clients = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                clients.add(pool.submit(() -> S3ClientRegistry.getClient(driverId)));
+            }
+            Set<AmazonS3> distinct = ConcurrentHashMap.newKeySet();
+            for (Future<AmazonS3> client : clients) {
+                distinct.add(client.get());
+            }
+            assertEquals(1, distinct.size());
+        } finally {
+            pool.shutdownNow();
+        }
+        assertSame(S3ClientRegistry.getClient(driverId), S3ClientRegistry.getTransferManager(driverId).getAmazonS3Client());
+        assertNotSame(S3ClientRegistry.getClient(driverId), S3ClientRegistry.getClient(standIn.configureStore("other")));
+    }
+
+    @Test
+    void testClientConfiguration() {
+        String driverId = standIn.configureStore("tuned");
+        standIn.setProperty(driverId, S3ClientRegistry.CONNECTION_POOL_SIZE, "7");
+        standIn.setProperty(driverId, S3ClientRegistry.CONNECTION_TIMEOUT, "1500");
+        standIn.setProperty(driverId, S3ClientRegistry.SOCKET_TIMEOUT, "20000");
+        standIn.setProperty(driverId, S3ClientRegistry.REQUEST_TIMEOUT, "60000");
+        standIn.setProperty(driverId, S3ClientRegistry.MAX_RETRIES, "1");
+        standIn.setProperty(driverId, S3ClientRegistry.TCP_KEEPALIVE, "true");
+        standIn.setProperty(driverId, S3ClientRegistry.CONNECTION_MAX_IDLE, "not a number");
+
+        ClientConfiguration cc = S3ClientRegistry.getClientConfiguration(driverId);
+        assertEquals(7, cc.getMaxConnections());
+        assertEquals(1500, cc.getConnectionTimeout());
+        assertEquals(20000, cc.getSocketTimeout());
+        assertEquals(60000, cc.getRequestTimeout());
+        assertEquals(1, cc.getMaxErrorRetry());
+        assertTrue(cc.useTcpKeepAlive());
+        assertEquals(ClientConfiguration.DEFAULT_CONNECTION_MAX_IDLE_MILLIS, cc.getConnectionMaxIdleMillis());
+
+        ClientConfiguration defaults = S3ClientRegistry.getClientConfiguration(standIn.configureStore("untuned"));
+        assertEquals(256, defaults.getMaxConnections());
+        assertEquals(ClientConfiguration.DEFAULT_SOCKET_TIMEOUT, defaults.getSocketTimeout());
+        assertEquals(new ClientConfiguration().getMaxErrorRetry(), defaults.getMaxErrorRetry());
+        assertFalse(defaults.useTcpKeepAlive());
+    }
+
+    @Test
+    void testObjectMetadataIsLookedUpOnce() throws IOException {
+        String driverId = standIn.configureStore("cached");
+        DataFile dataFile = dataFile(driverId);
+
+        S3AccessIO<DataFile> upload = new S3AccessIO<>(dataFile, null, driverId);
+        upload.saveInputStream(new ByteArrayInputStream("Hello".getBytes()), 5L);
+        assertEquals(1, standIn.requests("PUT"));
+
+        // Opening the file, then checking that it exists and its size
+        // (and isAuxObjectCached opens it again)
+        S3AccessIO<DataFile> download = new S3AccessIO<>(dataFile, null, driverId);
+        download.open();
+        assertEquals(5, download.getSize());
+        assertTrue(download.exists());
+        assertEquals(5, download.retrieveSizeFromMedia());
+        assertEquals(1, standIn.requests("HEAD"));
+
+        // Objects that don't exist are not remembered
+        assertFalse(download.isAuxObjectCached("orig"));
+        assertFalse(download.isAuxObjectCached("orig"));
+        assertEquals(3, standIn.requests("HEAD"));
+
+        // Writing an object forgets its metadata
+        upload.saveInputStream(new ByteArrayInputStream("Hello, world".getBytes()), 12L);
+        assertEquals(12, download.retrieveSizeFromMedia());
+        assertEquals(4, standIn.requests("HEAD"));
+
+        try (InputStream in = download.getInputStream()) {
+            assertEquals("Hello, world", new String(in.readAllBytes()));
+        }
+
+        JsonObject metrics = S3ClientRegistry.getMetrics().build().getJsonObject(driverId);
+        assertEquals(standIn.requests(), metrics.getInt("requests"));
+        assertEquals(2, metrics.getInt("errors"));
+        assertEquals(0, metrics.getInt("retries"));
+        assertEquals(2, metrics.getJsonObject("requestsByType").getInt("PutObject"));
+        assertEquals(4, metrics.getJsonObject("requestsByType").getInt("GetObjectMetadata"));
+        assertEquals(1, metrics.getJsonObject("requestsByType").getInt("GetObject"));
+        assertEquals(4, metrics.getJsonObject("metadataCache").getInt("hits"));
+        assertEquals(4, metrics.getJsonObject("metadataCache").getInt("misses"));
+    }
+
+    @Test
+    void testObjectMetadataCacheCanBeDisabled() throws IOException {
+        String driverId = standIn.configureStore("uncached");
+        standIn.setProperty(driverId, S3ClientRegistry.METADATA_CACHE_SECONDS, "0");
+        DataFile dataFile = dataFile(driverId);
+
+        new S3AccessIO<>(dataFile, null, driverId).saveInputStream(new ByteArrayInputStream("Hello".getBytes()), 5L);
+        S3AccessIO<DataFile> download = new S3AccessIO<>(dataFile, null, driverId);
+        download.open();
+        assertTrue(download.exists());
+        assertEquals(5, download.retrieveSizeFromMedia());
+        assertEquals(3, standIn.requests("HEAD"));
+    }
+
+    @Test
+    void testServerErrorsAreRetriedAndCounted() {
+        String driverId = standIn.configureStore("flaky");
+        standIn.setProperty(driverId, S3ClientRegistry.MAX_RETRIES, "2");
+        standIn.failNext(2);
+
+        S3ClientRegistry.getClient(driverId).putObject("bucket", "key", "content");
+        assertEquals(3, standIn.requests("PUT"));
+
+        JsonObject metrics = S3ClientRegistry.getMetrics().build().getJsonObject(driverId);
+        assertEquals(1, metrics.getInt("requests"));
+        assertEquals(2, metrics.getInt("retries"));
+        assertEquals(0, metrics.getInt("errors"));
+    }
+
+    private static DataFile dataFile(String driverId) {
+        Dataset dataset = MocksFactory.makeDataset();
+        DataFile dataFile = MocksFactory.makeDataFile();
+        dataFile.setOwner(dataset);
+        dataFile.setStorageIdentifier(driverId + DataAccess.SEPARATOR + "bucket:" + FileUtil.generateStorageIdentifier());
+        return dataFile;
+    }
+}
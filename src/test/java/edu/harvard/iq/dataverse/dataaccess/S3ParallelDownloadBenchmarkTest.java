@@ -0,0 +1,110 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import edu.harvard.iq.dataverse.DataFile;
+import edu.harvard.iq.dataverse.Dataset;
+import edu.harvard.iq.dataverse.mocks.MocksFactory;
+import edu.harvard.iq.dataverse.util.testing.Tags;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares the throughput of a download from S3 with a single GET and with
+ * ranged GETs sent in parallel, from an S3 stand-in sending at most 16 MB/s
+ * per request (as a remote S3 server would, rather than a local one). The
+ * results are printed; only the number of bytes read is checked, since
+ * timings depend on the machine.
+ *
+ * Not run by default, as it takes a while. Run it with e.g.
+ * mvn test -Dtest=S3ParallelDownloadBenchmarkTest -DtestsToExclude=none
+ */
+@Tag(Tags.NOT_ESSENTIAL_UNITTESTS)
+public class S3ParallelDownloadBenchmarkTest {
+
+    private static final int FILE_SIZE = 128 * 1024 * 1024;
+    private static final long BYTES_PER_SECOND = 16L * 1024 * 1024;
+    private static final int ROUNDS = 3;
+
+    private static S3StandIn standIn;
+    private static String sequentialStore;
+    private static String parallelStore;
+    private static String storageIdentifier;
+    private static Dataset dataset;
+    private static ExecutorService downloadExecutor;
+
+    @BeforeAll
+    public static void setUp() throws IOException {
+        standIn = new S3StandIn();
+        sequentialStore = standIn.configureStore("sequential");
+        standIn.setProperty(sequentialStore, S3ClientRegistry.PARALLEL_DOWNLOAD_THRESHOLD, "0");
+        parallelStore = standIn.configureStore("parallel");
+        // (as many threads as the managed executor of the application)
+        downloadExecutor = Executors.newFixedThreadPool(16);
+        S3ClientRegistry.injectDownloadExecutor(downloadExecutor);
+
+        dataset = MocksFactory.makeDataset();
+        dataset.setAuthority("bench");
+        dataset.setIdentifier("dataset");
+        storageIdentifier = "datafile";
+
+        byte[] content = new byte[FILE_SIZE];
+        new Random(42).nextBytes(content);
+        standIn.putObject("bucket", "bench/dataset/datafile", content);
+        standIn.setBytesPerSecond(BYTES_PER_SECOND);
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        S3ClientRegistry.injectDownloadExecutor(null);
+        downloadExecutor.shutdownNow();
+        standIn.close();
+    }
+
+    @Test
+    public void compareSingleAndParallelGets() throws IOException {
+        // the first round of each warms up the JIT and the connections
+        for (int round = 0; round <= ROUNDS; round++) {
+            boolean report = round > 0;
+            measure("single GET", report, sequentialStore);
+            measure("parallel GETs", report, parallelStore);
+        }
+    }
+
+    private void measure(String name, boolean report, String driverId) throws IOException {
+        DataFile dataFile = MocksFactory.makeDataFile();
+        dataFile.setOwner(dataset);
+        dataFile.setStorageIdentifier(driverId + DataAccess.SEPARATOR + "bucket:" + storageIdentifier);
+        StorageIO<DataFile> storageIO = new S3AccessIO<>(dataFile, null, driverId);
+        storageIO.open(DataAccessOption.READ_ACCESS);
+
+        long start = System.nanoTime();
+        long copied;
+        try (InputStream in = storageIO.getInputStream()) {
+            CountingOutputStream out = new CountingOutputStream(NullOutputStream.INSTANCE);
+            // The loop in DownloadInstanceWriter
+            int bufsize;
+            byte[] bffr = new byte[4 * 8192];
+            while ((bufsize = in.read(bffr)) != -1) {
+                out.write(bffr, 0, bufsize);
+            }
+            copied = out.getByteCount();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        assertEquals(FILE_SIZE, copied);
+        if (report) {
+            System.out.printf("%-15s %8.1f MB/s%n", name, copied / 1024.0 / 1024 / (elapsed / 1e9));
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import edu.harvard.iq.dataverse.DataFile;
+import edu.harvard.iq.dataverse.Dataset;
+import edu.harvard.iq.dataverse.mocks.MocksFactory;
+import edu.harvard.iq.dataverse.util.FileUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class S3ParallelInputStreamTest {
+
+    private static final int PART_SIZE = 256;
+
+    private S3StandIn standIn;
+    private String driverId;
+    private AmazonS3 s3;
+    private ThreadPoolExecutor executor;
+    private Semaphore budget;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        standIn = new S3StandIn();
+        driverId = standIn.configureStore("parallel");
+        standIn.setProperty(driverId, S3ClientRegistry.MAX_RETRIES, "0");
+        s3 = S3ClientRegistry.getClient(driverId);
+        executor = new ThreadPoolExecutor(4, 4, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        budget = new Semaphore(100 * PART_SIZE);
+    }
+
+    @AfterEach
+    void tearDown() {
+        S3ClientRegistry.injectDownloadExecutor(null);
+        executor.shutdownNow();
+        standIn.close();
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 255, 256, 257, 10_000})
+    void testReadsTheObjectInOrder(int size) throws IOException {
+        byte[] content = put("object", size);
+
+        try (InputStream in = open("object", 3)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            // one byte, then blocks of various sizes
+            int b = in.read();
+            if (b != -1) {
+                out.write(b);
+            }
+            byte[] buffer = new byte[100];
+            int n;
+            while ((n = in.read(buffer, 0, 1 + out.size() % buffer.length)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            assertArrayEquals(content, out.toByteArray());
+            assertEquals(-1, in.read());
+        }
+        assertEquals((size + PART_SIZE - 1) / PART_SIZE, standIn.requests("GET"));
+    }
+
+    @Test
+    void testFetchesAtMostTheGivenNumberOfPartsAhead() throws IOException {
+        put("object", 100 * PART_SIZE);
+
+        try (InputStream in = open("object", 3)) {
+            in.read();
+            assertEquals(3, executor.getTaskCount());
+            in.readNBytes(PART_SIZE);
+            assertEquals(4, executor.getTaskCount());
+        }
+    }
+
+    @Test
+    void testClosingStopsTheDownload() throws IOException {
+        put("object", 100 * PART_SIZE);
+
+        InputStream in = open("object", 2);
+        in.read();
+        in.close();
+        assertThrows(IOException.class, in::read);
+        assertEquals(2, executor.getTaskCount());
+        awaitBudget(100 * PART_SIZE);
+    }
+
+    @Test
+    void testPartsAreFetchedWithinTheBudget() throws IOException {
+        byte[] content = put("object", 10 * PART_SIZE);
+        // Enough for 2 parts: the current one, and one ahead
+        budget = new Semaphore(2 * PART_SIZE);
+
+        try (InputStream in = open("object", 4)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(in.read());
+            assertEquals(2, executor.getTaskCount());
+            assertEquals(0, budget.availablePermits());
+            out.write(in.readNBytes(PART_SIZE));
+            assertEquals(3, executor.getTaskCount());
+            out.write(in.readAllBytes());
+            assertArrayEquals(content, out.toByteArray());
+        }
+        awaitBudget(2 * PART_SIZE);
+    }
+
+    @Test
+    void testPartsAreFetchedByTheReaderWhenTheBudgetIsUsedUp() throws IOException {
+        byte[] content = put("object", 10 * PART_SIZE);
+        budget = new Semaphore(0);
+
+        try (InputStream in = open("object", 4)) {
+            assertArrayEquals(content, in.readAllBytes());
+        }
+        assertEquals(0, executor.getTaskCount());
+        assertEquals(10, standIn.requests("GET"));
+    }
+
+    @Test
+    void testObjectModifiedWhileReadIsAnError() throws IOException {
+        put("object", 10 * PART_SIZE);
+
+        try (InputStream in = open("object", 1)) {
+            in.readNBytes(PART_SIZE);
+            put("object", 10 * PART_SIZE);
+            IOException e = assertThrows(IOException.class, () -> in.readNBytes(PART_SIZE));
+            assertTrue(e.getMessage().contains("modified"), e.getMessage());
+        }
+    }
+
+    @Test
+    void testFailedRequestIsAnError() throws IOException {
+        put("object", 10 * PART_SIZE);
+
+        try (InputStream in = open("object", 1)) {
+            standIn.failNext(1);
+            assertThrows(IOException.class, in::read);
+        }
+        awaitBudget(100 * PART_SIZE);
+    }
+
+    @Test
+    void testInterruptedReadGivesThePartBack() throws IOException {
+        put("object", 10 * PART_SIZE);
+
+        try (InputStream in = open("object", 1)) {
+            Thread.currentThread().interrupt();
+            assertThrows(InterruptedIOException.class, in::read);
+            assertTrue(Thread.interrupted());
+        }
+        awaitBudget(100 * PART_SIZE);
+    }
+
+    @Test
+    void testStorageIOReadsLargeFilesInParallel() throws IOException {
+        standIn.setProperty(driverId, S3ClientRegistry.PARALLEL_DOWNLOAD_THRESHOLD, "1000");
+        standIn.setProperty(driverId, S3ClientRegistry.PARALLEL_DOWNLOAD_PART_SIZE, String.valueOf(PART_SIZE));
+
+        S3ClientRegistry.injectDownloadExecutor(executor);
+        DataFile small = save(999);
+        DataFile large = save(1000);
+        int gets = standIn.requests("GET");
+
+        StorageIO<DataFile> storageIO = open(small);
+        assertFalse(storageIO.getInputStream() instanceof S3ParallelInputStream);
+        assertEquals(999, storageIO.getInputStream().readAllBytes().length);
+        assertEquals(gets + 1, standIn.requests("GET"));
+
+        storageIO = open(large);
+        assertTrue(storageIO.getInputStream() instanceof S3ParallelInputStream);
+        assertEquals(1000, storageIO.getInputStream().readAllBytes().length);
+        assertEquals(gets + 1 + 4, standIn.requests("GET"));
+
+        // Without the executor (e.g. while the application is stopping)
+        S3ClientRegistry.injectDownloadExecutor(null);
+        storageIO = open(large);
+        assertFalse(storageIO.getInputStream() instanceof S3ParallelInputStream);
+        assertEquals(1000, storageIO.getInputStream().readAllBytes().length);
+    }
+
+    private byte[] put(String key, int size) {
+        byte[] content = new byte[size];
+        new Random().nextBytes(content);
+        standIn.putObject("bucket", key, content);
+        return content;
+    }
+
+    private InputStream open(String key, int parts) {
+        ObjectMetadata metadata = s3.getObjectMetadata("bucket", key);
+        return new S3ParallelInputStream(s3, "bucket", key, metadata.getContentLength(), metadata.getETag(), PART_SIZE, parts, executor, budget);
+    }
+
+    /**
+     * Waits for the parts dropped by a stream to give their permits back
+     * (the GETs in progress when it was closed finish in the background).
+     */
+    private void awaitBudget(int permits) {
+        executor.shutdown();
+        try {
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            fail(e);
+        }
+        assertEquals(permits, budget.availablePermits());
+    }
+
+    private DataFile save(int size) throws IOException {
+        Dataset dataset = MocksFactory.makeDataset();
+        DataFile dataFile = MocksFactory.makeDataFile();
+        dataFile.setOwner(dataset);
+        dataFile.setStorageIdentifier(driverId + DataAccess.SEPARATOR + "bucket:" + FileUtil.generateStorageIdentifier());
+        byte[] content = new byte[size];
+        new Random().nextBytes(content);
+        new S3AccessIO<>(dataFile, null, driverId).saveInputStream(new ByteArrayInputStream(content), (long) size);
+        return dataFile;
+    }
+
+    private StorageIO<DataFile> open(DataFile dataFile) throws IOException {
+        StorageIO<DataFile> storageIO = new S3AccessIO<>(dataFile, null, driverId);
+        storageIO.open(DataAccessOption.READ_ACCESS);
+        return storageIO;
+    }
+}
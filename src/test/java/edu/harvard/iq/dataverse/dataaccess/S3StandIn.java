@@ -0,0 +1,199 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Just enough of S3 for the tests of the S3 clients, with path style
+ * buckets: PUT, GET (ranged or not, with If-Match), HEAD and DELETE of
+ * objects, kept in memory. It counts the requests it gets, and can send the
+ * content of objects at a limited rate per request, like a server whose
+ * connections are slower than its network.
+ */
+class S3StandIn implements AutoCloseable {
+
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+    private final List<String> properties = new ArrayList<>();
+    private volatile long bytesPerSecond;
+
+    S3StandIn() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Configures a new store (with bucket "bucket") using this server, by
+     * setting the system properties of its options, removed on close.
+     *
+     * @return the id of the store.
+     */
+    String configureStore(String name) {
+        // (a new store each time: the clients live as long as the JVM)
+        String driverId = name + System.nanoTime();
+        setProperty(driverId, "type", "s3");
+        setProperty(driverId, "label", name);
+        setProperty(driverId, S3AccessIO.BUCKET_NAME, "bucket");
+        setProperty(driverId, S3AccessIO.CUSTOM_ENDPOINT_URL, "http://127.0.0.1:" + server.getAddress().getPort());
+        setProperty(driverId, S3AccessIO.PATH_STYLE_ACCESS, "true");
+        // (aws-chunked bodies are not read here)
+        setProperty(driverId, S3AccessIO.CHUNKED_ENCODING, "false");
+        setProperty(driverId, "access-key", "access");
+        setProperty(driverId, "secret-key", "secret");
+        return driverId;
+    }
+
+    void setProperty(String driverId, String parameterName, String value) {
+        String property = "dataverse.files." + driverId + "." + parameterName;
+        System.setProperty(property, value);
+        properties.add(property);
+    }
+
+    void putObject(String bucketName, String key, byte[] content) {
+        objects.put("/" + bucketName + "/" + key, content);
+    }
+
+    int requests(String method) {
+        AtomicInteger count = requests.get(method);
+        return count == null ? 0 : count.get();
+    }
+
+    int requests() {
+        return requests.values().stream().mapToInt(AtomicInteger::get).sum();
+    }
+
+    /**
+     * @return the largest number of requests that were answered at once.
+     */
+    int maxConcurrentRequests() {
+        return maxRunning.get();
+    }
+
+    void failNext(int count) {
+        failures.set(count);
+    }
+
+    void setBytesPerSecond(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+        properties.forEach(System::clearProperty);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        requests.computeIfAbsent(method, m -> new AtomicInteger()).incrementAndGet();
+        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+        try (exchange) {
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            if (failures.getAndUpdate(n -> Math.max(n - 1, 0)) > 0) {
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+            switch (method) {
+                case "PUT" -> {
+                    objects.put(path, body);
+                    exchange.getResponseHeaders().set("ETag", etag(body));
+                    exchange.sendResponseHeaders(200, -1);
+                }
+                case "HEAD", "GET" -> get(exchange, path, method.equals("HEAD"));
+                case "DELETE" -> {
+                    objects.remove(path);
+                    exchange.sendResponseHeaders(204, -1);
+                }
+                default -> exchange.sendResponseHeaders(405, -1);
+            }
+        } finally {
+            running.decrementAndGet();
+        }
+    }
+
+    private void get(HttpExchange exchange, String path, boolean head) throws IOException {
+        byte[] object = objects.get(path);
+        if (object == null) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        String etag = etag(object);
+        String ifMatch = exchange.getRequestHeaders().getFirst("If-Match");
+        // (the client sends the ETag without its quotes)
+        if (ifMatch != null && !ifMatch.replace("\"", "").equals(etag.replace("\"", ""))) {
+            exchange.sendResponseHeaders(412, -1);
+            return;
+        }
+        exchange.getResponseHeaders().set("ETag", etag);
+        exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+        if (head) {
+            exchange.getResponseHeaders().set("Content-Length", String.valueOf(object.length));
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+        int start = 0;
+        int end = object.length - 1;
+        int status = 200;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range != null) {
+            Matcher matcher = RANGE.matcher(range);
+            if (matcher.matches()) {
+                start = Integer.parseInt(matcher.group(1));
+                end = Math.min(Integer.parseInt(matcher.group(2)), object.length - 1);
+                status = 206;
+                exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + object.length);
+            }
+        }
+        int length = end - start + 1;
+        exchange.sendResponseHeaders(status, length == 0 ? -1 : length);
+        write(exchange.getResponseBody(), object, start, length);
+    }
+
+    private void write(OutputStream out, byte[] object, int start, int length) throws IOException {
+        long rate = bytesPerSecond;
+        if (rate <= 0) {
+            out.write(object, start, length);
+            return;
+        }
+        // 10 chunks a second
+        int chunk = (int) Math.max(rate / 10, 1);
+        for (int written = 0; written < length; written += chunk) {
+            out.write(object, start + written, Math.min(chunk, length - written));
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+        }
+    }
+
+    private static String etag(byte[] content) {
+        return "\"" + DigestUtils.md5Hex(content) + "\"";
+    }
+}
@@ -255,4 +255,36 @@ public class StorageIOTest {
     public void testGetConfigParamWithDefault() {
     assertEquals(DataAccess.DEFAULT_STORAGE_DRIVER_IDENTIFIER, StorageIO.getConfigParamForDriver("globus", AbstractRemoteOverlayAccessIO.BASE_STORE, DataAccess.DEFAULT_STORAGE_DRIVER_IDENTIFIER));
     }
+
+    @Test
+    public void testGetRangeInputStreamSequential() throws IOException {
+        StorageIO<Dataset> io = new FileAccessIO<>();
+        io.setInputStream(new ByteArrayInputStream("0123456789abcdef".getBytes()));
+        try (InputStream range = io.getRangeInputStream(2, 3)) {
+            assertEquals("234", new String(range.readAllBytes()));
+        }
+        try (InputStream range = io.getRangeInputStream(10, 6)) {
+            assertEquals("abcdef", new String(range.readAllBytes()));
+        }
+        // The main input stream can't go backwards
+        assertThrows(IOException.class, () -> io.getRangeInputStream(0, 1));
+    }
+
+    @Test
+    public void testGetRangeInputStreamFromFileChannel() throws IOException {
+        StorageIO<Dataset> io = new FileAccessIO<>();
+        try (RandomAccessFile file = new RandomAccessFile("src/main/java/propertyFiles/Bundle.properties", "r")) {
+            io.setChannel(file.getChannel());
+            byte[] expected = new byte[20];
+            file.seek(100);
+            file.readFully(expected);
+            // Seeking, so the ranges may come in any order
+            try (InputStream range = io.getRangeInputStream(500, 10)) {
+                assertEquals(10, range.readAllBytes().length);
+            }
+            try (InputStream range = io.getRangeInputStream(100, 20)) {
+                assertArrayEquals(expected, range.readAllBytes());
+            }
+        }
+    }
 }
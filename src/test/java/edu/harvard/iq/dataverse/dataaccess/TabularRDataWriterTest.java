@@ -0,0 +1,275 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import edu.harvard.iq.dataverse.DataTable;
+import edu.harvard.iq.dataverse.datavariable.DataVariable;
+import edu.harvard.iq.dataverse.datavariable.VariableCategory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TabularRDataWriterTest {
+
+    private static final Path TAB_FILE = Paths.get("src/test/resources/rdata/dataframe.tab");
+
+    private DataTable dataTable;
+
+    @BeforeEach
+    public void setUp() {
+        dataTable = new DataTable();
+        dataTable.setCaseQuantity(4L);
+        dataTable.setOriginalFileFormat("application/x-spss-sav");
+        dataTable.setStoredWithVariableHeader(true);
+        List<DataVariable> variables = new ArrayList<>();
+        variables.add(numeric("id", DataVariable.VariableInterval.DISCRETE));
+        variables.add(numeric("score", DataVariable.VariableInterval.CONTINUOUS));
+        DataVariable name = variable("name");
+        name.setTypeCharacter();
+        name.setLabel("Name of the respondent");
+        variables.add(name);
+        DataVariable sex = numeric("sex", DataVariable.VariableInterval.DISCRETE);
+        sex.setCategories(List.of(category(sex, "2", "Female", 1), category(sex, "1", "Male", 0)));
+        variables.add(sex);
+        DataVariable visited = variable("visited");
+        visited.setTypeCharacter();
+        visited.setFormatCategory("date");
+        visited.setFormat("yyyy-MM-dd");
+        variables.add(visited);
+        DataVariable passed = numeric("passed", DataVariable.VariableInterval.DISCRETE);
+        passed.setFormatCategory("Boolean");
+        variables.add(passed);
+        variables.add(numeric("if", DataVariable.VariableInterval.DISCRETE));
+        dataTable.setDataVariables(variables);
+    }
+
+    @Test
+    public void testDataFrameRoundTrip(@TempDir Path tempDir) throws IOException {
+        Path rData = tempDir.resolve("dataframe.RData");
+        new TabularRDataWriter(dataTable).write(TAB_FILE, rData);
+
+        Map<String, RObject> workspace;
+        try (InputStream in = Files.newInputStream(rData)) {
+            workspace = RDataReader.readRData(in);
+        }
+        assertEquals(List.of("x"), List.copyOf(workspace.keySet()));
+        RObject x = workspace.get("x");
+        assertEquals(RObject.Type.LIST, x.getType());
+        assertArrayEquals(new String[]{"data.frame"}, x.getAttribute("class").getStrings());
+        assertArrayEquals(new String[]{"id", "score", "name", "sex", "visited", "passed", "if."},
+                x.getAttribute("names").getStrings());
+        assertArrayEquals(new int[]{RObject.NA_INTEGER, -4}, x.getAttribute("row.names").getInts());
+        assertArrayEquals(new String[]{"if"}, x.getAttribute("Rsafe2raw").getElements()[0].getStrings());
+        assertEquals("Name of the respondent", x.getAttribute("var.labels").getStrings()[2]);
+
+        RObject[] columns = x.getElements();
+        assertEquals(RObject.Type.INTEGER, columns[0].getType());
+        assertArrayEquals(new int[]{1, 2, 3, 4}, columns[0].getInts());
+
+        assertEquals(RObject.Type.DOUBLE, columns[1].getType());
+        assertEquals(1.5, columns[1].getDoubles()[0]);
+        assertTrue(RObject.isNA(columns[1].getDoubles()[1]));
+        assertEquals(Double.POSITIVE_INFINITY, columns[1].getDoubles()[2]);
+        assertEquals(-2.0, columns[1].getDoubles()[3]);
+
+        assertEquals(RObject.Type.CHARACTER, columns[2].getType());
+        assertArrayEquals(new String[]{"Ann", "B\"o\tb", null, "Zo\u00eb"}, columns[2].getStrings());
+        assertArrayEquals(new String[]{"Name of the respondent"}, columns[2].getAttribute("comment").getStrings());
+
+        // labelled values: a factor; the unlabelled value 3 is NA
+        assertArrayEquals(new String[]{"factor"}, columns[3].getAttribute("class").getStrings());
+        assertArrayEquals(new String[]{"Male", "Female"}, columns[3].getAttribute("levels").getStrings());
+        assertArrayEquals(new int[]{1, 2, 2, RObject.NA_INTEGER}, columns[3].getInts());
+
+        assertArrayEquals(new String[]{"Date"}, columns[4].getAttribute("class").getStrings());
+        assertEquals(18263.0, columns[4].getDoubles()[0]);
+        assertEquals(0.0, columns[4].getDoubles()[1]);
+        assertTrue(RObject.isNA(columns[4].getDoubles()[2]));
+        assertTrue(RObject.isNA(columns[4].getDoubles()[3]));
+
+        assertEquals(RObject.Type.LOGICAL, columns[5].getType());
+        assertArrayEquals(new int[]{1, 0, RObject.NA_INTEGER, 1}, columns[5].getInts());
+    }
+
+    @Test
+    public void testOrderedFactor() throws IOException {
+        DataTable table = new DataTable();
+        table.setCaseQuantity(3L);
+        table.setOriginalFileFormat("application/x-rlang-transport");
+        DataVariable rating = new DataVariable(0, table);
+        rating.setName("rating");
+        rating.setTypeCharacter();
+        rating.setOrderedCategorical(true);
+        rating.setCategories(List.of(category(rating, "low", null, 0), category(rating, "high", null, 2),
+                category(rating, "medium", null, 1)));
+        table.setDataVariables(List.of(rating));
+
+        RObject x = new TabularRDataWriter(table).readDataFrame(
+                new ByteArrayInputStream("\"high\"\n\"low\"\n\"unknown\"\n".getBytes(StandardCharsets.UTF_8)));
+        RObject factor = x.getElements()[0];
+        assertArrayEquals(new String[]{"ordered", "factor"}, factor.getAttribute("class").getStrings());
+        assertArrayEquals(new String[]{"low", "medium", "high"}, factor.getAttribute("levels").getStrings());
+        assertArrayEquals(new int[]{3, 1, RObject.NA_INTEGER}, factor.getInts());
+    }
+
+    @Test
+    public void testSerializedVector() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        RDataSerializer serializer = new RDataSerializer(bytes);
+        serializer.writeHeader();
+        serializer.writeItem(RObject.integers(1, RObject.NA_INTEGER));
+
+        // as written by saveRDS(c(1L, NA), version = 2, compress = FALSE)
+        byte[] expected = {
+            'X', '\n',
+            0, 0, 0, 2, 0, 3, 5, 0, 0, 2, 3, 0,
+            0, 0, 0, 13, 0, 0, 0, 2,
+            0, 0, 0, 1, (byte) 0x80, 0, 0, 0
+        };
+        assertArrayEquals(expected, bytes.toByteArray());
+    }
+
+    @Test
+    public void testMakeNames() {
+        assertArrayEquals(new String[]{"a", "X1st", "a.1", "a.b", "TRUE.", ".x", "X.1", "X"},
+                TabularRDataWriter.makeNames(new String[]{"a", "1st", "a", "a b", "TRUE", ".x", ".1", ""}));
+    }
+
+    @Test
+    public void testUnescapeCharacterValue() {
+        assertNull(TabularRDataWriter.unescapeCharacterValue(""));
+        assertEquals("", TabularRDataWriter.unescapeCharacterValue("\"\""));
+        assertEquals("a\\b\nc", TabularRDataWriter.unescapeCharacterValue("\"a\\\\b\\nc\""));
+        assertEquals("plain", TabularRDataWriter.unescapeCharacterValue("plain"));
+    }
+
+    private DataVariable variable(String name) {
+        DataVariable variable = new DataVariable(0, dataTable);
+        variable.setName(name);
+        return variable;
+    }
+
+    private DataVariable numeric(String name, DataVariable.VariableInterval interval) {
+        DataVariable variable = variable(name);
+        variable.setTypeNumeric();
+        variable.setInterval(interval);
+        return variable;
+    }
+
+    private static VariableCategory category(DataVariable variable, String value, String label, int order) {
+        VariableCategory category = new VariableCategory();
+        category.setDataVariable(variable);
+        category.setValue(value);
+        category.setLabel(label);
+        category.setOrder(order);
+        return category;
+    }
+
+    /**
+     * Reads back what RDataSerializer writes, as R's unserialize() would.
+     */
+    static class RDataReader {
+
+        private final DataInputStream in;
+        private final List<String> symbols = new ArrayList<>();
+
+        RDataReader(InputStream in) {
+            this.in = new DataInputStream(in);
+        }
+
+        static Map<String, RObject> readRData(InputStream in) throws IOException {
+            RDataReader reader = new RDataReader(new GZIPInputStream(in));
+            assertEquals("RDX2\n", new String(reader.in.readNBytes(5), StandardCharsets.US_ASCII));
+            assertEquals("X\n", new String(reader.in.readNBytes(2), StandardCharsets.US_ASCII));
+            assertEquals(RDataSerializer.FORMAT_VERSION, reader.in.readInt());
+            reader.in.readInt();
+            assertEquals(RDataSerializer.MIN_READER_VERSION, reader.in.readInt());
+            Map<String, RObject> objects = reader.readPairList();
+            assertEquals(-1, reader.in.read());
+            return objects;
+        }
+
+        private Map<String, RObject> readPairList() throws IOException {
+            Map<String, RObject> items = new LinkedHashMap<>();
+            int flags;
+            while ((flags = in.readInt()) != RDataSerializer.NILVALUE_SXP) {
+                assertEquals(RDataSerializer.LISTSXP | RDataSerializer.HAS_TAG_BIT, flags);
+                String tag = readSymbol();
+                items.put(tag, readItem(in.readInt()));
+            }
+            return items;
+        }
+
+        private String readSymbol() throws IOException {
+            int flags = in.readInt();
+            if ((flags & 0xFF) == RDataSerializer.REFSXP) {
+                return symbols.get((flags >> 8) - 1);
+            }
+            assertEquals(RDataSerializer.SYMSXP, flags);
+            String symbol = readCharsxp(in.readInt());
+            symbols.add(symbol);
+            return symbol;
+        }
+
+        private String readCharsxp(int flags) throws IOException {
+            assertEquals(RDataSerializer.CHARSXP, flags & 0xFF);
+            int length = in.readInt();
+            return length == -1 ? null : new String(in.readNBytes(length), StandardCharsets.UTF_8);
+        }
+
+        private RObject readItem(int flags) throws IOException {
+            int length = in.readInt();
+            RObject object = switch (flags & 0xFF) {
+                case RDataSerializer.LGLSXP, RDataSerializer.INTSXP -> {
+                    int[] values = new int[length];
+                    for (int i = 0; i < length; i++) {
+                        values[i] = in.readInt();
+                    }
+                    yield (flags & 0xFF) == RDataSerializer.LGLSXP ? RObject.logicals(values, length) : RObject.integers(values);
+                }
+                case RDataSerializer.REALSXP -> {
+                    double[] values = new double[length];
+                    for (int i = 0; i < length; i++) {
+                        values[i] = Double.longBitsToDouble(in.readLong());
+                    }
+                    yield RObject.doubles(values);
+                }
+                case RDataSerializer.STRSXP -> {
+                    String[] values = new String[length];
+                    for (int i = 0; i < length; i++) {
+                        values[i] = readCharsxp(in.readInt());
+                    }
+                    yield RObject.strings(values);
+                }
+                case RDataSerializer.VECSXP -> {
+                    List<RObject> elements = new ArrayList<>();
+                    for (int i = 0; i < length; i++) {
+                        elements.add(readItem(in.readInt()));
+                    }
+                    yield RObject.list(elements);
+                }
+                default -> throw new AssertionError("Unexpected SEXP type " + (flags & 0xFF));
+            };
+            if ((flags & RDataSerializer.HAS_ATTR_BIT) != 0) {
+                readPairList().forEach(object::setAttribute);
+            }
+            assertEquals((flags & RDataSerializer.IS_OBJECT_BIT) != 0, object.isObject());
+            return object;
+        }
+    }
+}
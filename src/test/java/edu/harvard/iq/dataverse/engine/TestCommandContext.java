@@ -242,6 +242,11 @@ public class TestCommandContext implements CommandContext {
         return null;
     }
 
+    @Override
+    public DatasetVersionDifferenceServiceBean versionDifferences() {
+        return null;
+    }
+
     @Override
     public StorageUseServiceBean storageUse() {
         return null;
@@ -0,0 +1,121 @@
+package edu.harvard.iq.dataverse.engine.command.impl;
+
+import edu.harvard.iq.dataverse.Dataset;
+import edu.harvard.iq.dataverse.Dataverse;
+import edu.harvard.iq.dataverse.DvObject;
+import edu.harvard.iq.dataverse.DvObjectServiceBean;
+import edu.harvard.iq.dataverse.PermissionServiceBean;
+import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
+import edu.harvard.iq.dataverse.engine.command.CommandContext;
+import edu.harvard.iq.dataverse.engine.command.DataverseRequest;
+import edu.harvard.iq.dataverse.engine.command.exception.CommandException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.same;
+
+public class ListDataverseContentCommandTest {
+
+    private DataverseRequest dataverseRequest;
+    private AuthenticatedUser user;
+    private Dataverse dataverse;
+    private CommandContext ctxt;
+    private DvObjectServiceBean dvObjects;
+    private PermissionServiceBean permissions;
+
+    @BeforeEach
+    public void beforeEachTest() {
+        user = new AuthenticatedUser();
+        dataverseRequest = Mockito.mock(DataverseRequest.class);
+        Mockito.when(dataverseRequest.getUser()).thenReturn(user);
+        dataverse = new Dataverse();
+        dataverse.setId(1L);
+        dvObjects = Mockito.mock(DvObjectServiceBean.class);
+        permissions = Mockito.mock(PermissionServiceBean.class);
+        ctxt = Mockito.mock(CommandContext.class);
+        Mockito.when(ctxt.dvObjects()).thenReturn(dvObjects);
+        Mockito.when(ctxt.permissions()).thenReturn(permissions);
+    }
+
+    @Test
+    public void execute_should_fill_the_page_across_batches_when_children_are_filtered_out() throws CommandException {
+        Dataverse hidden = dataverse(10L);
+        Dataverse visible = dataverse(11L);
+        Dataset first = dataset(12L);
+        Dataset second = dataset(13L);
+        List<DvObject> firstBatch = List.of(hidden, visible);
+        List<DvObject> secondBatch = List.of(first, second);
+        Mockito.when(dvObjects.findByOwnerIdAfter(1L, null, null, 2)).thenReturn(firstBatch);
+        Mockito.when(dvObjects.findByOwnerIdAfter(1L, DvObject.DType.Dataverse, 11L, 2)).thenReturn(secondBatch);
+        Mockito.when(permissions.whichChildrenHasPermissionsFor(same(dataverseRequest), same(dataverse), eq(firstBatch), any(), eq(true)))
+                .thenReturn(List.of(visible));
+        Mockito.when(permissions.whichChildrenHasPermissionsFor(same(dataverseRequest), same(dataverse), eq(secondBatch), any(), eq(true)))
+                .thenReturn(secondBatch);
+
+        List<DvObject> page = new ListDataverseContentCommand(dataverseRequest, dataverse, null, 2).execute(ctxt);
+
+        // The last dataset doesn't fit; the next page starts after the first one.
+        assertEquals(List.of(visible, first), page);
+    }
+
+    @Test
+    public void execute_should_stop_at_a_short_batch() throws CommandException {
+        user.setSuperuser(true);
+        List<DvObject> batch = List.of(dataset(20L));
+        Mockito.when(dvObjects.findByOwnerIdAfter(1L, DvObject.DType.Dataset, 19L, 5)).thenReturn(batch);
+
+        List<DvObject> page = new ListDataverseContentCommand(dataverseRequest, dataverse,
+                new ListDataverseContentCommand.Cursor(DvObject.DType.Dataset, 19L), 5).execute(ctxt);
+
+        assertEquals(batch, page);
+        Mockito.verify(dvObjects, Mockito.times(1)).findByOwnerIdAfter(Mockito.anyLong(), Mockito.any(), Mockito.any(), Mockito.anyInt());
+        Mockito.verify(permissions, Mockito.never()).whichChildrenHasPermissionsFor(any(), any(), any(List.class), any(), anyBoolean());
+    }
+
+    @Test
+    public void execute_without_limit_should_list_all_children() throws CommandException {
+        user.setSuperuser(true);
+        List<DvObject> children = List.of(dataverse(30L), dataset(31L));
+        Mockito.when(dvObjects.findByOwnerId(1L)).thenReturn(children);
+
+        assertEquals(children, new ListDataverseContentCommand(dataverseRequest, dataverse).execute(ctxt));
+    }
+
+    @Test
+    public void cursor_should_round_trip_through_its_string_form() {
+        ListDataverseContentCommand.Cursor cursor = ListDataverseContentCommand.Cursor.after(dataset(42L));
+
+        assertEquals("dataset:42", cursor.toString());
+        assertEquals(cursor, ListDataverseContentCommand.Cursor.parse("dataset:42"));
+        assertEquals(new ListDataverseContentCommand.Cursor(DvObject.DType.Dataverse, 7L),
+                ListDataverseContentCommand.Cursor.parse("dataverse:7"));
+    }
+
+    @Test
+    public void cursor_should_not_parse_unknown_values() {
+        assertNull(ListDataverseContentCommand.Cursor.parse("1234"));
+        assertNull(ListDataverseContentCommand.Cursor.parse("datafile:1234"));
+        assertNull(ListDataverseContentCommand.Cursor.parse("dataset:"));
+        assertNull(ListDataverseContentCommand.Cursor.parse("dataset:abc"));
+    }
+
+    private static Dataverse dataverse(Long id) {
+        Dataverse dv = new Dataverse();
+        dv.setId(id);
+        return dv;
+    }
+
+    private static Dataset dataset(Long id) {
+        Dataset ds = new Dataset();
+        ds.setId(id);
+        return ds;
+    }
+}
@@ -84,6 +84,7 @@ public class DDIExporterTest {
         ExportDataProvider exportDataProviderStub = Mockito.mock(ExportDataProvider.class);
         Mockito.when(exportDataProviderStub.getDatasetJson()).thenReturn(datasetDtoJson);
         Mockito.when(exportDataProviderStub.getDatasetFileDetails()).thenReturn(Json.createArrayBuilder().build());
+        Mockito.when(exportDataProviderStub.getDatasetFileDetailsIterable()).thenCallRealMethod();
         
         
         //when
@@ -107,6 +108,7 @@ public class DDIExporterTest {
         ExportDataProvider exportDataProviderStub = Mockito.mock(ExportDataProvider.class);
         Mockito.when(exportDataProviderStub.getDatasetJson()).thenReturn(json);
         Mockito.when(exportDataProviderStub.getDatasetFileDetails()).thenReturn(Json.createArrayBuilder().build());
+        Mockito.when(exportDataProviderStub.getDatasetFileDetailsIterable()).thenCallRealMethod();
         
         ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
         DDIExporter instance = new DDIExporter();
@@ -127,6 +129,7 @@ public class DDIExporterTest {
         ExportDataProvider exportDataProviderStub = Mockito.mock(ExportDataProvider.class);
         Mockito.when(exportDataProviderStub.getDatasetJson()).thenReturn(json);
         Mockito.when(exportDataProviderStub.getDatasetFileDetails()).thenReturn(Json.createArrayBuilder().build());
+        Mockito.when(exportDataProviderStub.getDatasetFileDetailsIterable()).thenCallRealMethod();
         
         ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
         DDIExporter instance = new DDIExporter();
@@ -0,0 +1,74 @@
+package edu.harvard.iq.dataverse.export;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ExportDependencyGraphTest {
+
+    @Test
+    public void testPrerequisiteComesFirst() {
+        Map<String, String> prerequisites = new HashMap<>();
+        prerequisites.put("html", "ddi");
+        prerequisites.put("ddi", null);
+        prerequisites.put("dataverse_json", null);
+        prerequisites.put("Datacite", null);
+
+        ExportDependencyGraph graph = new ExportDependencyGraph(prerequisites);
+        List<String> order = graph.getExecutionOrder();
+
+        assertEquals(4, order.size());
+        assertTrue(order.indexOf("ddi") < order.indexOf("html"));
+        assertTrue(graph.getUnresolvableFormats().isEmpty());
+        assertTrue(graph.hasDependents("ddi"));
+        assertFalse(graph.hasDependents("html"));
+        assertFalse(graph.hasDependents("dataverse_json"));
+        assertEquals("ddi", graph.getPrerequisite("html"));
+        assertNull(graph.getPrerequisite("ddi"));
+    }
+
+    @Test
+    public void testChainOfPrerequisites() {
+        Map<String, String> prerequisites = new HashMap<>();
+        prerequisites.put("pdf", "html");
+        prerequisites.put("html", "ddi");
+        prerequisites.put("ddi", null);
+
+        ExportDependencyGraph graph = new ExportDependencyGraph(prerequisites);
+
+        assertEquals(List.of("ddi", "html", "pdf"), graph.getExecutionOrder());
+        assertTrue(graph.hasDependents("html"));
+    }
+
+    @Test
+    public void testMissingPrerequisite() {
+        Map<String, String> prerequisites = new HashMap<>();
+        prerequisites.put("html", "ddi");
+        prerequisites.put("dcterms", null);
+
+        ExportDependencyGraph graph = new ExportDependencyGraph(prerequisites);
+
+        assertEquals(List.of("dcterms"), graph.getExecutionOrder());
+        assertEquals(Set.of("html"), graph.getUnresolvableFormats());
+    }
+
+    @Test
+    public void testCycleIsUnresolvable() {
+        Map<String, String> prerequisites = new HashMap<>();
+        prerequisites.put("a", "b");
+        prerequisites.put("b", "a");
+        prerequisites.put("c", "a");
+        prerequisites.put("self", "self");
+        prerequisites.put("ddi", null);
+
+        ExportDependencyGraph graph = new ExportDependencyGraph(prerequisites);
+
+        assertEquals(List.of("ddi"), graph.getExecutionOrder());
+        assertEquals(Set.of("a", "b", "c", "self"), graph.getUnresolvableFormats());
+        assertFalse(graph.hasDependents("a"));
+    }
+}
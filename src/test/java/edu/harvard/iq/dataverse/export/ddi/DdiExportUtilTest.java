@@ -10,6 +10,7 @@ import edu.harvard.iq.dataverse.settings.JvmSettings;
 import edu.harvard.iq.dataverse.settings.SettingsServiceBean;
 import edu.harvard.iq.dataverse.util.testing.JvmSetting;
 import edu.harvard.iq.dataverse.util.testing.LocalJvmSettings;
+import edu.harvard.iq.dataverse.util.json.JsonUtil;
 import edu.harvard.iq.dataverse.util.xml.XmlPrinter;
 
 import java.io.ByteArrayOutputStream;
@@ -24,6 +25,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import edu.harvard.iq.dataverse.util.xml.html.HtmlPrinter;
@@ -42,6 +44,9 @@ import org.xmlunit.assertj3.XmlAssert;
 import org.xmlunit.builder.DiffBuilder;
 import org.xmlunit.diff.Diff;
 
+import jakarta.json.Json;
+import jakarta.json.JsonArray;
+import jakarta.json.JsonObject;
 import javax.xml.stream.XMLStreamException;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -220,6 +225,49 @@ public class DdiExportUtilTest {
         }
     }
 
+    @Test
+    public void testJson2DdiWithFileDetailsGeneratedOneAtATime() throws Exception {
+        // given
+        Path datasetVersionJson = Path.of("src/test/java/edu/harvard/iq/dataverse/export/ddi/dataset-finch1.json");
+        JsonObject datasetJson = JsonUtil.getJsonObject(Files.readString(datasetVersionJson, StandardCharsets.UTF_8));
+        JsonArray fileDetails = Json.createArrayBuilder()
+                .add(Json.createObjectBuilder()
+                        .add("id", 11).add("fileMetadataId", 21)
+                        .add("filename", "data.tab").add("contentType", "text/tab-separated-values")
+                        .add("originalFileFormat", "text/csv")
+                        .add("dataTables", Json.createArrayBuilder().add(Json.createObjectBuilder()
+                                .add("varQuantity", 1).add("caseQuantity", 2)
+                                .add("dataVariables", Json.createArrayBuilder().add(Json.createObjectBuilder()
+                                        .add("id", 31).add("name", "x")
+                                        .add("isOrderedCategorical", false)
+                                        .add("variableFormatType", "NUMERIC")
+                                        .add("variableMetadata", Json.createArrayBuilder().add(Json.createObjectBuilder()
+                                                .add("fileMetadataId", "21").add("label", "The x")
+                                                .add("isWeightvar", false).add("notes", "<b>x</b> & y"))))))))
+                .add(Json.createObjectBuilder()
+                        .add("id", 12).add("filename", "readme.txt").add("contentType", "text/plain")
+                        .add("description", "Read me"))
+                .build();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        DdiExportUtil.datasetJson2ddi(datasetJson, fileDetails, expected);
+
+        AtomicInteger passes = new AtomicInteger();
+        Iterable<JsonObject> generatedFileDetails = () -> {
+            passes.incrementAndGet();
+            return fileDetails.getValuesAs(JsonObject.class).iterator();
+        };
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+
+        // when
+        DdiExportUtil.datasetJson2ddi(datasetJson, generatedFileDetails, result);
+
+        // then
+        assertEquals(1, passes.get());
+        assertTrue(expected.toString(StandardCharsets.UTF_8).contains("<var ID=\"v31\""));
+        XmlAssert.assertThat(result.toString(StandardCharsets.UTF_8)).and(expected.toString(StandardCharsets.UTF_8))
+                .ignoreWhitespace().areSimilar();
+    }
+
     @Test
     public void testDatasetHtmlDDI() throws IOException, XMLStreamException {
         // given
@@ -0,0 +1,163 @@
+package edu.harvard.iq.dataverse.ingest;
+
+import edu.harvard.iq.dataverse.DataFile;
+import edu.harvard.iq.dataverse.DataFileServiceBean;
+import edu.harvard.iq.dataverse.Dataset;
+import edu.harvard.iq.dataverse.DatasetServiceBean;
+import edu.harvard.iq.dataverse.FileMetadata;
+import edu.harvard.iq.dataverse.search.IndexServiceBean;
+import edu.harvard.iq.dataverse.settings.JvmSettings;
+import edu.harvard.iq.dataverse.util.testing.JvmSetting;
+import edu.harvard.iq.dataverse.util.testing.LocalJvmSettings;
+import jakarta.enterprise.concurrent.ManagedExecutorService;
+import jakarta.json.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.AdditionalAnswers;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+
+@LocalJvmSettings
+class IngestSchedulerTest {
+
+    private ExecutorService pool;
+    private IngestScheduler scheduler;
+
+    private final Map<Long, DataFile> dataFiles = new ConcurrentHashMap<>();
+    private final Map<Long, Dataset> datasets = new ConcurrentHashMap<>();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+    private final List<Long> ingestOrder = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        pool = Executors.newFixedThreadPool(16);
+        scheduler = new IngestScheduler();
+        scheduler.executor = Mockito.mock(ManagedExecutorService.class, AdditionalAnswers.delegatesTo(pool));
+        scheduler.ingestService = Mockito.mock(IngestServiceBean.class);
+        scheduler.fileService = Mockito.mock(DataFileServiceBean.class);
+        scheduler.datasetService = Mockito.mock(DatasetServiceBean.class);
+        scheduler.indexService = Mockito.mock(IndexServiceBean.class);
+
+        // Files whose id ends with 7 fail, those whose id ends with 9 blow up
+        Mockito.when(scheduler.ingestService.ingestAsTabular(anyLong())).thenAnswer(invocation -> {
+            long id = invocation.getArgument(0);
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(3);
+                synchronized (ingestOrder) {
+                    ingestOrder.add(id);
+                }
+                if (id % 10 == 9) {
+                    throw new IllegalStateException("Unreadable file");
+                }
+                return id % 10 != 7;
+            } finally {
+                running.decrementAndGet();
+            }
+        });
+        Mockito.when(scheduler.fileService.find(any())).thenAnswer(invocation -> dataFiles.computeIfAbsent(invocation.getArgument(0), id -> dataFile("file" + id + ".csv")));
+        Mockito.when(scheduler.datasetService.find(any())).thenAnswer(invocation -> datasets.computeIfAbsent(invocation.getArgument(0), id -> new Dataset()));
+    }
+
+    @AfterEach
+    void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    @JvmSetting(key = JvmSettings.INGEST_WORKERS, value = "4")
+    void testBatchIsIngestedInParallelAndIndexedOnce() {
+        scheduler.init();
+
+        IngestScheduler.Batch batch = scheduler.submit(message(1L, 1L, 1, 300));
+        batch.awaitCompletion();
+
+        assertTrue(batch.isFinished());
+        assertTrue(maxRunning.get() <= 4, "ingested " + maxRunning.get() + " files at once");
+        assertTrue(maxRunning.get() > 1, "files were not ingested in parallel");
+        Mockito.verify(scheduler.indexService, Mockito.times(1)).asyncIndexDataset(any(), anyBoolean());
+
+        assertTrue(batch.hasErrors());
+        assertEquals(60, batch.getFailedFileNames().size());
+        assertTrue(batch.getFailedFileNames().contains("file7.csv"));
+        assertTrue(batch.getFailedFileNames().contains("file9.csv"));
+        assertEquals(IngestScheduler.FileStatus.FAILED, batch.getFileStatuses().get(19L));
+        assertEquals(IngestScheduler.FileStatus.INGESTED, batch.getFileStatuses().get(20L));
+        // The exception is recorded on the file
+        assertNotNull(dataFiles.get(9L).getIngestReport());
+
+        JsonObject metrics = scheduler.getMetrics().build();
+        assertEquals(300, metrics.getInt("started"));
+        assertEquals(240, metrics.getInt("ingested"));
+        assertEquals(60, metrics.getInt("failed"));
+        assertEquals(0, metrics.getInt("queued"));
+        assertTrue(metrics.getJsonArray("batches").isEmpty());
+    }
+
+    @Test
+    @JvmSetting(key = JvmSettings.INGEST_WORKERS, value = "2")
+    void testSmallUploadIsNotHeldUpByLargeOne() {
+        scheduler.init();
+
+        IngestScheduler.Batch large = scheduler.submit(message(1L, 1L, 1, 400));
+        IngestScheduler.Batch small = scheduler.submit(message(2L, 2L, 1001, 10));
+        // Another dataset of the first user: waits for the second one's turn
+        IngestScheduler.Batch other = scheduler.submit(message(1L, 3L, 2001, 10));
+
+        JsonObject metrics = scheduler.getMetrics().build();
+        assertEquals(3, metrics.getJsonArray("batches").size());
+        assertTrue(metrics.getInt("queued") > 380);
+
+        small.awaitCompletion();
+        other.awaitCompletion();
+        assertFalse(large.isFinished(), "the small uploads waited for the large one");
+        large.awaitCompletion();
+
+        Mockito.verify(scheduler.indexService, Mockito.times(3)).asyncIndexDataset(any(), anyBoolean());
+        synchronized (ingestOrder) {
+            assertTrue(ingestOrder.indexOf(1010L) < 40, "last file of the small upload ingested " + ingestOrder.indexOf(1010L) + "th");
+        }
+    }
+
+    @Test
+    void testFilesWithTheSameTabularNameAreGrouped() {
+        dataFiles.put(1L, dataFile("data.csv"));
+        dataFiles.put(2L, dataFile("data.sav"));
+        dataFiles.put(3L, dataFile("other.csv"));
+        dataFiles.put(4L, dataFile("data.dta"));
+
+        assertEquals(List.of(List.of(1L, 2L, 4L), List.of(3L), List.of(5L)), scheduler.groupByTabularName(List.of(1L, 2L, 3L, 4L, 5L)));
+    }
+
+    private static IngestMessage message(Long userId, Long datasetId, long firstFileId, int files) {
+        IngestMessage ingestMessage = new IngestMessage(userId);
+        ingestMessage.setDatasetId(datasetId);
+        for (long id = firstFileId; id < firstFileId + files; id++) {
+            ingestMessage.addFileId(id);
+        }
+        return ingestMessage;
+    }
+
+    private static DataFile dataFile(String label) {
+        DataFile dataFile = new DataFile();
+        FileMetadata fileMetadata = new FileMetadata();
+        fileMetadata.setLabel(label);
+        fileMetadata.setDataFile(dataFile);
+        dataFile.getFileMetadatas().add(fileMetadata);
+        return dataFile;
+    }
+}
@@ -18,11 +18,19 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.logging.Logger;
 import org.dataverse.unf.UNFUtil;
 import org.dataverse.unf.UnfException;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -268,8 +276,9 @@ public class CSVFileReaderTest {
      * for this. But checking it in with this simple file, for now.
      * (thinking about it, the "csv file from hell" may be a better test case for the UNF test)
      */
-    @Test
-    public void testVariableUNFs() {
+    @ParameterizedTest
+    @ValueSource(ints = {CSVFileReader.DEFAULT_TYPING_ROWS, 0, 1})
+    public void testVariableUNFs(int typingRows) {
         String testFile = "src/test/java/edu/harvard/iq/dataverse/ingest/tabulardata/impl/plugins/csv/election_precincts.csv";
         Long expectedNumberOfVariables = 13L;
         Long expectedNumberOfCases = 24L; // aka the number of lines in the TAB file produced by the ingest plugin
@@ -297,6 +306,7 @@ public class CSVFileReaderTest {
         try (BufferedInputStream stream = new BufferedInputStream(
                 new FileInputStream(testFile))) {
             CSVFileReader instance = new CSVFileReader(new CSVFileReaderSpi(), ',');
+            instance.setTypingRows(typingRows);
 
             ingestResult = instance.read(stream, false, null);
 
@@ -420,4 +430,59 @@ public class CSVFileReaderTest {
             assertEquals(expMessage, ex.getMessage());
         }
     }
+
+    /**
+     * The tab files produced from the test CSV files must stay the same,
+     * byte for byte, whether the types of the columns are settled before
+     * the first case is written or only after some cases have been written
+     * (and the promoted columns have to be encoded again).
+     */
+    @ParameterizedTest
+    @CsvSource({
+        "IngestCSV, " + CSVFileReader.DEFAULT_TYPING_ROWS, "IngestCSV, 0", "IngestCSV, 1", "IngestCSV, 3",
+        "election_precincts, " + CSVFileReader.DEFAULT_TYPING_ROWS, "election_precincts, 0", "election_precincts, 10"})
+    public void testTabFileMatchesGoldenFile(String name, int typingRows) throws IOException {
+        String testDirectory = "src/test/java/edu/harvard/iq/dataverse/ingest/tabulardata/impl/plugins/csv/";
+        try (BufferedInputStream stream = new BufferedInputStream(
+                new FileInputStream(testDirectory + name + ".csv"))) {
+            CSVFileReader instance = new CSVFileReader(new CSVFileReaderSpi(), ',');
+            instance.setTypingRows(typingRows);
+            File outFile = instance.read(stream, false, null).getTabDelimitedFile();
+
+            assertArrayEquals(Files.readAllBytes(Paths.get(testDirectory + name + ".tab")), Files.readAllBytes(outFile.toPath()));
+        }
+    }
+
+    /**
+     * Numbers and dates are written as they are, tabs included; a column
+     * promoted after they have been written must still come out as if it
+     * had been typed first, variable name header included.
+     */
+    @Test
+    public void testPromotedColumnsAreEncodedAgain(@TempDir Path tempDir) throws IOException {
+        Path csv = tempDir.resolve("promoted.csv");
+        Files.write(csv, ("a,\"b\nc\",d\n"
+                + "\"1\t\",NA,2017-06-20\n"
+                + "2,null,\"2017-06-20\t\"\n"
+                + "foo,3.5,x\n"
+                + "\"5\t\",6,\"2017-06-21\"\"\"\n").getBytes(StandardCharsets.UTF_8));
+
+        String expected = "a\tb\nc\td\n"
+                + "\"1\\t\"\t\t\"2017-06-20\"\n"
+                + "\"2\"\t0.0\t\"2017-06-20\\t\"\n"
+                + "\"foo\"\t3.5\t\"x\"\n"
+                + "\"5\\t\"\t6\t\"2017-06-21\\\"\"\n";
+
+        for (int typingRows : new int[]{CSVFileReader.DEFAULT_TYPING_ROWS, 0, 2}) {
+            try (BufferedInputStream stream = new BufferedInputStream(Files.newInputStream(csv))) {
+                CSVFileReader instance = new CSVFileReader(new CSVFileReaderSpi(), ',');
+                instance.setTypingRows(typingRows);
+                TabularDataIngest ingest = instance.read(stream, true, null);
+
+                assertEquals(expected, new String(Files.readAllBytes(ingest.getTabDelimitedFile().toPath()), StandardCharsets.UTF_8), "typing rows: " + typingRows);
+                assertEquals(4L, ingest.getDataTable().getCaseQuantity());
+                assertTrue(ingest.getDataTable().getDataVariables().get(1).isIntervalContinuous());
+            }
+        }
+    }
 }
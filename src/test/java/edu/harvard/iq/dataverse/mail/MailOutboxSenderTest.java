@@ -0,0 +1,232 @@
+package edu.harvard.iq.dataverse.mail;
+
+import edu.harvard.iq.dataverse.MailServiceBean;
+import edu.harvard.iq.dataverse.mail.OutboxEmail.Status;
+import edu.harvard.iq.dataverse.settings.JvmSettings;
+import edu.harvard.iq.dataverse.util.testing.JvmSetting;
+import edu.harvard.iq.dataverse.util.testing.LocalJvmSettings;
+import jakarta.mail.Session;
+import jakarta.mail.internet.AddressException;
+import jakarta.mail.internet.InternetAddress;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@LocalJvmSettings
+class MailOutboxSenderTest {
+
+    private SmtpStandIn smtp;
+    private MailOutboxSender sender;
+
+    @BeforeEach
+    void setUp() throws IOException, AddressException {
+        smtp = new SmtpStandIn();
+        sender = new MailOutboxSender();
+        sender.session = session(smtp.getPort());
+        sender.mailService = Mockito.mock(MailServiceBean.class);
+        Mockito.when(sender.mailService.getSystemAddress()).thenReturn(Optional.of(new InternetAddress("noreply@example.org")));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        smtp.close();
+    }
+
+    @Test
+    void testBatchIsSentOverOneConnection() {
+        List<OutboxEmail> batch = List.of(
+                email(1L, "alice@example.org", "Dataset published"),
+                email(2L, "bob@example.org", "Dataset submitted for review"),
+                email(3L, "carol@example.org, dave@example.org", "Role assigned"));
+
+        sender.sendBatch(batch);
+
+        assertEquals(1, smtp.connections.get());
+        assertEquals(3, smtp.messages.size());
+        assertTrue(smtp.messages.get(0).contains("Subject: Dataset published"));
+        assertTrue(smtp.messages.get(2).contains("To: carol@example.org, dave@example.org"));
+        for (OutboxEmail email : batch) {
+            assertEquals(Status.SENT, email.getStatus());
+            assertEquals(1, email.getAttempts());
+            assertNotNull(email.getSentTime());
+        }
+    }
+
+    @Test
+    void testRejectedRecipientIsRetriedLater() {
+        smtp.rejectedRecipients.add("bob@example.org");
+        OutboxEmail rejected = email(2L, "bob@example.org", "Dataset returned to author");
+        OutboxEmail accepted = email(3L, "carol@example.org", "Dataset published");
+        Instant before = Instant.now();
+
+        sender.sendBatch(List.of(rejected, accepted));
+
+        assertEquals(Status.PENDING, rejected.getStatus());
+        assertEquals(1, rejected.getAttempts());
+        assertNotNull(rejected.getLastError());
+        assertFalse(rejected.getNextAttemptTime().toInstant().isBefore(before.plus(OutboxEmail.FIRST_RETRY_DELAY)));
+        // The connection was kept for the next email
+        assertEquals(Status.SENT, accepted.getStatus());
+        assertEquals(1, smtp.connections.get());
+        assertEquals(1, smtp.messages.size());
+    }
+
+    @Test
+    void testUnreachableServer() throws IOException {
+        smtp.close();
+        List<OutboxEmail> batch = List.of(email(1L, "alice@example.org", "a"), email(2L, "bob@example.org", "b"));
+
+        sender.sendBatch(batch);
+
+        for (OutboxEmail email : batch) {
+            assertEquals(Status.PENDING, email.getStatus());
+            assertEquals(1, email.getAttempts());
+            assertNotNull(email.getNextAttemptTime());
+        }
+    }
+
+    @Test
+    @JvmSetting(key = JvmSettings.MAIL_OUTBOX_MAX_ATTEMPTS, value = "1")
+    void testGivesUpAfterMaxAttempts() {
+        smtp.rejectedRecipients.add("bob@example.org");
+        OutboxEmail email = email(2L, "bob@example.org", "Dataset returned to author");
+
+        sender.sendBatch(List.of(email));
+
+        assertEquals(Status.FAILED, email.getStatus());
+        assertNull(email.getNextAttemptTime());
+    }
+
+    @Test
+    void testInvalidAddressIsNotRetried() {
+        OutboxEmail invalid = email(1L, "Alice <alice@example.org", "x");
+        OutboxEmail valid = email(2L, "alice@example.org", "y");
+
+        sender.sendBatch(List.of(invalid, valid));
+
+        assertEquals(Status.FAILED, invalid.getStatus());
+        assertEquals(Status.SENT, valid.getStatus());
+    }
+
+    @Test
+    void testRetryDelayDoublesUpToAnHour() {
+        assertEquals(Duration.ofMinutes(1), OutboxEmail.getRetryDelay(1));
+        assertEquals(Duration.ofMinutes(2), OutboxEmail.getRetryDelay(2));
+        assertEquals(Duration.ofMinutes(32), OutboxEmail.getRetryDelay(6));
+        assertEquals(Duration.ofHours(1), OutboxEmail.getRetryDelay(7));
+        assertEquals(Duration.ofHours(1), OutboxEmail.getRetryDelay(100));
+    }
+
+    private static OutboxEmail email(Long id, String to, String subject) {
+        OutboxEmail email = new OutboxEmail(to, subject, "Hello,\n\n" + subject + ".", false);
+        email.setId(id);
+        // as claimed by MailOutboxServiceBean.claimDue()
+        email.setStatus(Status.SENDING);
+        return email;
+    }
+
+    private static Session session(int port) {
+        Properties properties = new Properties();
+        properties.setProperty("mail.smtp.host", "localhost");
+        properties.setProperty("mail.smtp.port", String.valueOf(port));
+        properties.setProperty("mail.smtp.connectiontimeout", "2000");
+        properties.setProperty("mail.smtp.timeout", "2000");
+        return Session.getInstance(properties);
+    }
+
+    /**
+     * Just enough of an SMTP server to receive the emails, in process.
+     */
+    static class SmtpStandIn implements AutoCloseable {
+
+        final AtomicInteger connections = new AtomicInteger();
+        final List<String> messages = Collections.synchronizedList(new ArrayList<>());
+        final Set<String> rejectedRecipients = ConcurrentHashMap.newKeySet();
+
+        private final ServerSocket serverSocket;
+
+        SmtpStandIn() throws IOException {
+            serverSocket = new ServerSocket(0);
+            Thread thread = new Thread(this::accept, "smtp-stand-in");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        private void accept() {
+            while (!serverSocket.isClosed()) {
+                try (Socket socket = serverSocket.accept()) {
+                    connections.incrementAndGet();
+                    converse(socket);
+                } catch (IOException e) {
+                    // closed
+                }
+            }
+        }
+
+        private void converse(Socket socket) throws IOException {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true, StandardCharsets.UTF_8);
+            reply(out, "220 localhost SMTP stand-in");
+            String line;
+            while ((line = in.readLine()) != null) {
+                String command = line.length() >= 4 ? line.substring(0, 4).toUpperCase() : line.toUpperCase();
+                switch (command) {
+                    case "EHLO", "HELO", "MAIL", "RSET", "NOOP" -> reply(out, "250 OK");
+                    case "RCPT" -> {
+                        String recipient = line.substring(line.indexOf('<') + 1, line.indexOf('>'));
+                        reply(out, rejectedRecipients.contains(recipient) ? "550 5.1.1 No such user" : "250 OK");
+                    }
+                    case "DATA" -> {
+                        reply(out, "354 End data with <CR><LF>.<CR><LF>");
+                        StringBuilder message = new StringBuilder();
+                        while ((line = in.readLine()) != null && !line.equals(".")) {
+                            message.append(line).append("\n");
+                        }
+                        messages.add(message.toString());
+                        reply(out, "250 OK");
+                    }
+                    case "QUIT" -> {
+                        reply(out, "221 Bye");
+                        return;
+                    }
+                    default -> reply(out, "502 Command not implemented");
+                }
+            }
+        }
+
+        private static void reply(PrintWriter out, String reply) {
+            out.print(reply + "\r\n");
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+        }
+    }
+}
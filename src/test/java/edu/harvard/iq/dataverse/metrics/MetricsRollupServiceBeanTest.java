@@ -0,0 +1,161 @@
+package edu.harvard.iq.dataverse.metrics;
+
+import edu.harvard.iq.dataverse.Dataverse;
+import edu.harvard.iq.dataverse.Metric;
+import edu.harvard.iq.dataverse.metrics.MetricsRollupServiceBean.Expiry;
+import jakarta.enterprise.concurrent.ManagedScheduledExecutorService;
+import jakarta.json.JsonValue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.AdditionalAnswers;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+
+class MetricsRollupServiceBeanTest {
+
+    private ExecutorService pool;
+    private MetricsRollupServiceBean rollups;
+
+    // The Metric table, by name and dataverse id
+    private final Map<String, Metric> metrics = new ConcurrentHashMap<>();
+    private final Set<Metric> expired = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger queries = new AtomicInteger();
+    private final Dataverse dataverse = new Dataverse();
+
+    @BeforeEach
+    void setUp() {
+        pool = Executors.newScheduledThreadPool(4);
+        rollups = new MetricsRollupServiceBean();
+        rollups.scheduler = Mockito.mock(ManagedScheduledExecutorService.class, AdditionalAnswers.delegatesTo(pool));
+        rollups.metricsSvc = Mockito.mock(MetricsServiceBean.class);
+        dataverse.setId(7L);
+
+        Mockito.when(rollups.metricsSvc.getMetric(any(), any(), any(), any())).thenAnswer(invocation ->
+                metrics.get(key(invocation.getArgument(0), invocation.getArgument(3))));
+        Mockito.when(rollups.metricsSvc.save(any())).thenAnswer(invocation -> {
+            Metric metric = invocation.getArgument(0);
+            metrics.put(key(metric.getName(), metric.getDataverse()), metric);
+            return metric;
+        });
+        Mockito.when(rollups.metricsSvc.doWeQueryAgainAllTime(any())).thenAnswer(invocation -> expired.contains(invocation.getArgument(0)));
+    }
+
+    @AfterEach
+    void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    void testConcurrentMissesRunTheQueryOnce() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Supplier<JsonValue> query = () -> {
+            queries.incrementAndGet();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return JsonValue.TRUE;
+        };
+
+        ExecutorService requests = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                results.add(requests.submit(() -> rollups.get("dataverses", null, null, dataverse, Expiry.ALL_TIME, query)));
+            }
+            Thread.sleep(100);
+            release.countDown();
+            for (Future<String> result : results) {
+                assertEquals("true", result.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            requests.shutdownNow();
+        }
+        assertEquals(1, queries.get());
+        Mockito.verify(rollups.metricsSvc, Mockito.times(1)).save(any());
+    }
+
+    @Test
+    void testExpiredRollupIsServedWhileItIsRefreshed() throws Exception {
+        assertEquals("1", get("files"));
+        expired.add(metrics.get(key("files", dataverse)));
+
+        // Answered from the expired rollup, refreshed in the background
+        assertEquals("1", get("files"));
+        waitFor(() -> !expired.contains(metrics.get(key("files", dataverse))));
+        assertEquals("2", get("files"));
+        assertEquals(2, queries.get());
+    }
+
+    @Test
+    void testRollupNotKeptUpToDateIsComputedOnRequest() {
+        metrics.put(key("files", dataverse), new Metric("files", null, null, dataverse, "0"));
+        expired.add(metrics.get(key("files", dataverse)));
+
+        // (after a restart, say: the rollup is too old to be served)
+        assertEquals("1", get("files"));
+        assertEquals(1, queries.get());
+    }
+
+    @Test
+    void testExpiredRollupsAreRefreshed() {
+        get("files");
+        get("datasets");
+        expired.add(metrics.get(key("files", dataverse)));
+
+        rollups.refreshExpired();
+        assertEquals(3, queries.get());
+        assertEquals("3", metrics.get(key("files", dataverse)).getValueJson());
+        assertEquals("2", metrics.get(key("datasets", dataverse)).getValueJson());
+
+        rollups.refreshExpired();
+        assertEquals(3, queries.get());
+    }
+
+    @Test
+    void testQueryFailureIsThrownAndNotSaved() {
+        IllegalStateException failure = new IllegalStateException("No database");
+        assertSame(failure, assertThrows(IllegalStateException.class,
+                () -> rollups.get("files", null, null, dataverse, Expiry.ALL_TIME, () -> {
+                    throw failure;
+                })));
+        assertTrue(metrics.isEmpty());
+
+        // and the next request tries again
+        assertEquals("1", get("files"));
+    }
+
+    private String get(String name) {
+        return rollups.get(name, null, null, dataverse, Expiry.ALL_TIME,
+                () -> MetricsUtil.countToJson(queries.incrementAndGet()).build().get("count"));
+    }
+
+    private static String key(String name, Dataverse dataverse) {
+        return name + "/" + (dataverse == null ? null : dataverse.getId());
+    }
+
+    private static void waitFor(Supplier<Boolean> condition) throws InterruptedException {
+        for (int i = 0; i < 100 && !Objects.requireNonNull(condition.get()); i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(condition.get());
+    }
+}
@@ -0,0 +1,138 @@
+package edu.harvard.iq.dataverse.mydata;
+
+import edu.harvard.iq.dataverse.DvObjectServiceBean;
+import edu.harvard.iq.dataverse.RoleAssigneeServiceBean;
+import edu.harvard.iq.dataverse.authorization.DataverseRolePermissionHelper;
+import edu.harvard.iq.dataverse.authorization.groups.GroupServiceBean;
+import edu.harvard.iq.dataverse.mocks.MocksFactory;
+import edu.harvard.iq.dataverse.search.SearchFields;
+import edu.harvard.iq.dataverse.util.testing.Tags;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+
+/**
+ * Builds the MyData filter query for a user with 50,000 role assignments:
+ * an admin role on 500 collections, a curator role on 40,000 datasets and a
+ * file downloader role on 9,500 files, none of them in the collections of
+ * the admin role.
+ */
+@Tag(Tags.NOT_ESSENTIAL_UNITTESTS)
+class MyDataFinderBenchmarkTest {
+
+    private static final long ADMIN = 1L;
+    private static final long CURATOR = 2L;
+    private static final long FILE_DOWNLOADER = 3L;
+
+    private static final int DATAVERSES = 500;
+    private static final int DATASETS = 40_000;
+    private static final int FILES = 9_500;
+    private static final int DATASETS_PER_DATAVERSE = 5;
+
+    private DataverseRolePermissionHelper rolePermissionHelper;
+    private RoleAssigneeServiceBean roleAssigneeService;
+    private DvObjectServiceBean dvObjectService;
+
+    @BeforeEach
+    void setUp() {
+        List<Object[]> assignments = new ArrayList<>();
+        List<Object[]> assigned = new ArrayList<>();
+        for (long id = 1; id <= DATAVERSES; id++) {
+            assignments.add(new Object[]{id, ADMIN});
+            assigned.add(new Object[]{(int) id, "Dataverse", 0L});
+        }
+        for (long id = 1_001; id < 1_001 + DATASETS; id++) {
+            assignments.add(new Object[]{id, CURATOR});
+            assigned.add(new Object[]{(int) id, "Dataset", 100_001 + id % 400});
+        }
+        for (long id = 200_001; id < 200_001 + FILES; id++) {
+            assignments.add(new Object[]{id, FILE_DOWNLOADER});
+            assigned.add(new Object[]{(int) id, "DataFile", 300_001 + id % 2_000});
+        }
+        // The datasets in the collections of the admin role, for the file permissions
+        List<Object[]> datasetsInDataverses = new ArrayList<>();
+        for (long dv = 1; dv <= DATAVERSES; dv++) {
+            for (int i = 0; i < DATASETS_PER_DATAVERSE; i++) {
+                datasetsInDataverses.add(new Object[]{(int) (500_000 + dv * DATASETS_PER_DATAVERSE + i), "Dataset", dv});
+            }
+        }
+
+        rolePermissionHelper = Mockito.mock(DataverseRolePermissionHelper.class);
+        Mockito.when(rolePermissionHelper.hasDataversePermissions(anyLong())).thenAnswer(i -> i.getArgument(0).equals(ADMIN));
+        Mockito.when(rolePermissionHelper.hasDatasetPermissions(anyLong())).thenAnswer(i -> !i.getArgument(0).equals(FILE_DOWNLOADER));
+        Mockito.when(rolePermissionHelper.hasFilePermissions(anyLong())).thenReturn(true);
+
+        roleAssigneeService = Mockito.mock(RoleAssigneeServiceBean.class);
+        Mockito.when(roleAssigneeService.getAssigneeAndRoleIdListFor(any())).thenReturn(assignments);
+
+        dvObjectService = Mockito.mock(DvObjectServiceBean.class);
+        Mockito.when(dvObjectService.getDvObjectInfoForMyData(anyList())).thenReturn(assigned);
+        Mockito.when(dvObjectService.getDvObjectInfoByParentIdForMyData(anyList())).thenReturn(datasetsInDataverses);
+    }
+
+    @Test
+    void testFilterQueryForFiftyThousandAssignments() {
+        MyDataFilterParams filterParams = new MyDataFilterParams(
+                MocksFactory.makeRequest(MocksFactory.makeAuthenticatedUser("Many", "Roles")),
+                MyDataFilterParams.allDvObjectTypes, null, List.of(ADMIN, CURATOR, FILE_DOWNLOADER), null, null);
+
+        long start = System.nanoTime();
+        MyDataFinder finder = new MyDataFinder(rolePermissionHelper, roleAssigneeService, dvObjectService, Mockito.mock(GroupServiceBean.class));
+        finder.runFindDataSteps(filterParams);
+        assertFalse(finder.hasError(), finder.getErrorMessage());
+        String fq = finder.getSolrDvObjectFilterQuery();
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        // One {!terms} query per field, instead of 91 groups of up to 1,000 boolean clauses
+        assertEquals(1, countOccurrences(fq, "{!terms f=" + SearchFields.ENTITY_ID + " "));
+        assertEquals(1, countOccurrences(fq, "{!terms f=" + SearchFields.PARENT_ID + " "));
+        assertFalse(fq.contains(SearchFields.ENTITY_ID + ":"));
+        assertFalse(fq.contains(SearchFields.PARENT_ID + ":"));
+
+        // Every collection, dataset and file: the datasets are not in the
+        // collections of the admin role, so they are not found through them.
+        String entityIds = termsOf(fq, SearchFields.ENTITY_ID);
+        assertEquals(DATAVERSES + DATASETS + FILES, entityIds.split(",").length);
+        // The collections of the admin role, the datasets of the curator role
+        // and the datasets in the collections (for the file permissions)
+        String parentIds = termsOf(fq, SearchFields.PARENT_ID);
+        assertEquals(DATAVERSES + DATASETS + DATAVERSES * DATASETS_PER_DATAVERSE, parentIds.split(",").length);
+
+        Set<Long> ids = new HashSet<>();
+        for (String id : entityIds.split(",")) {
+            ids.add(Long.valueOf(id));
+        }
+        SolrQueryFormatter sqf = new SolrQueryFormatter();
+        String booleanQuery = sqf.buildIdQuery(ids, SearchFields.ENTITY_ID, null);
+        String termsQuery = sqf.buildTermsQuery(ids, SearchFields.ENTITY_ID, null);
+        System.out.println("MyData filter query for " + (DATAVERSES + DATASETS + FILES) + " assignments built in " + millis + " ms: "
+                + fq.length() + " chars; entity ids as boolean clauses: " + countOccurrences(booleanQuery, " OR ") + " ORs, "
+                + booleanQuery.length() + " chars; as terms: " + termsQuery.length() + " chars");
+        assertTrue(termsQuery.length() < booleanQuery.length());
+    }
+
+    private static String termsOf(String fq, String field) {
+        String prefix = "{!terms f=" + field + " v='";
+        int start = fq.indexOf(prefix) + prefix.length();
+        return fq.substring(start, fq.indexOf('\'', start));
+    }
+
+    private static int countOccurrences(String s, String part) {
+        int count = 0;
+        for (int i = s.indexOf(part); i >= 0; i = s.indexOf(part, i + part.length())) {
+            count++;
+        }
+        return count;
+    }
+}
@@ -270,6 +270,17 @@ public class SolrQueryFormatterTest {
         assertEquals(expectedResult, e.getMessage());
     }
     
+    @Test
+    void testBuildTermsQuery() {
+        SolrQueryFormatter sqf = new SolrQueryFormatter();
+
+        assertEquals(null, sqf.buildTermsQuery(new HashSet<>(), "entityId", null));
+        assertEquals("{!terms f=entityId v='2,10,11'}", sqf.buildTermsQuery(new HashSet<>(list(11L, 2L, 10L)), "entityId", null));
+        assertEquals("({!terms f=parentId v='7'} AND dvObjectType:(datasets OR files))",
+                sqf.buildTermsQuery(new HashSet<>(list(7L, null)), "parentId", "datasets OR files"));
+        assertThrows(NullPointerException.class, () -> sqf.buildTermsQuery(new HashSet<>(list(1L)), null, null));
+    }
+
     static List<Long> list(Long... args) {
         return Arrays.asList(args);
     }
@@ -0,0 +1,62 @@
+package edu.harvard.iq.dataverse.pidproviders;
+
+import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
+import edu.harvard.iq.dataverse.pidproviders.PidReRegistrationJob.JobType;
+import edu.harvard.iq.dataverse.pidproviders.PidReRegistrationJob.Status;
+import jakarta.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PidReRegistrationJobTest {
+
+    @Test
+    public void testNewJobIsRunningWithoutProgress() {
+        PidReRegistrationJob job = new PidReRegistrationJob(JobType.PID_METADATA, new AuthenticatedUser(), 4);
+        assertEquals(Status.RUNNING, job.getStatus());
+        assertNull(job.getLastProcessedId());
+        assertNotNull(job.getStartTime());
+        assertEquals(0.0, job.getThroughput());
+    }
+
+    @Test
+    public void testThroughputCountsAllHandledDatasets() {
+        PidReRegistrationJob job = new PidReRegistrationJob(JobType.TARGET_URL, new AuthenticatedUser(), 4);
+        job.setProcessedCount(150);
+        job.setSkippedCount(40);
+        job.setFailedCount(10);
+        job.setElapsedMillis(20000);
+        assertEquals(10.0, job.getThroughput(), 0.0001);
+    }
+
+    @Test
+    public void testToJson() {
+        AuthenticatedUser user = new AuthenticatedUser();
+        user.setUserIdentifier("admin");
+        PidReRegistrationJob job = new PidReRegistrationJob(JobType.PID_METADATA, user, 8);
+        job.setId(3L);
+        job.setLastProcessedId(1200L);
+        job.setProcessedCount(99);
+        job.setElapsedMillis(33000);
+
+        JsonObject json = job.toJson().build();
+        assertEquals(3, json.getInt("id"));
+        assertEquals("PID_METADATA", json.getString("type"));
+        assertEquals("RUNNING", json.getString("status"));
+        assertEquals("admin", json.getString("user"));
+        assertEquals(8, json.getInt("concurrency"));
+        assertEquals(1200, json.getInt("lastProcessedId"));
+        assertEquals(99, json.getInt("processed"));
+        assertEquals(33, json.getInt("elapsedSeconds"));
+        assertEquals(3.0, json.getJsonNumber("datasetsPerSecond").doubleValue(), 0.0001);
+        assertFalse(json.containsKey("endTime"));
+    }
+
+    @Test
+    public void testSanitizeConcurrency() {
+        assertEquals(PidReRegistrationServiceBean.DEFAULT_CONCURRENCY, PidReRegistrationServiceBean.sanitizeConcurrency(null));
+        assertEquals(PidReRegistrationServiceBean.DEFAULT_CONCURRENCY, PidReRegistrationServiceBean.sanitizeConcurrency(0));
+        assertEquals(2, PidReRegistrationServiceBean.sanitizeConcurrency(2));
+        assertEquals(PidReRegistrationServiceBean.MAX_CONCURRENCY, PidReRegistrationServiceBean.sanitizeConcurrency(1000));
+    }
+}
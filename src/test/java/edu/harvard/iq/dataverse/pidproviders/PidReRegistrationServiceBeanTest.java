@@ -0,0 +1,62 @@
+package edu.harvard.iq.dataverse.pidproviders;
+
+import edu.harvard.iq.dataverse.DatasetServiceBean;
+import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
+import edu.harvard.iq.dataverse.pidproviders.PidReRegistrationJob.JobType;
+import edu.harvard.iq.dataverse.pidproviders.PidReRegistrationJob.Status;
+import jakarta.enterprise.concurrent.ManagedExecutorService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.AdditionalAnswers;
+import org.mockito.Mockito;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+
+class PidReRegistrationServiceBeanTest {
+
+    private ExecutorService jobPool;
+    private ExecutorService registrationPool;
+    private PidReRegistrationServiceBean service;
+
+    @BeforeEach
+    void setUp() {
+        // A single thread for the jobs, which it spends waiting for the registrations
+        jobPool = Executors.newSingleThreadExecutor();
+        registrationPool = Executors.newFixedThreadPool(2);
+        service = new PidReRegistrationServiceBean();
+        service.executor = Mockito.mock(ManagedExecutorService.class, AdditionalAnswers.delegatesTo(jobPool));
+        service.registrationExecutor = Mockito.mock(ManagedExecutorService.class, AdditionalAnswers.delegatesTo(registrationPool));
+        service.jobService = Mockito.mock(PidReRegistrationJobServiceBean.class);
+        service.datasetService = Mockito.mock(DatasetServiceBean.class);
+    }
+
+    @AfterEach
+    void tearDown() {
+        jobPool.shutdownNow();
+        registrationPool.shutdownNow();
+    }
+
+    @Test
+    void testRegistrationsDoNotWaitForTheJobThreads() {
+        PidReRegistrationJob job = new PidReRegistrationJob(JobType.PID_METADATA, new AuthenticatedUser(), 2);
+        job.setId(1L);
+        Mockito.when(service.jobService.create(any(), any(), anyInt())).thenReturn(job);
+        Mockito.when(service.datasetService.findLocalDatasetIdsAfter(any(), anyInt()))
+                .thenReturn(List.of(1L, 2L, 3L), List.of());
+        // (not found, so skipped)
+        Mockito.when(service.datasetService.find(anyLong())).thenReturn(null);
+
+        service.start(JobType.PID_METADATA, job.getUser(), 2);
+
+        Mockito.verify(service.jobService, Mockito.timeout(10_000)).setStatus(1L, Status.COMPLETED);
+        Mockito.verify(service.jobService).saveProgress(eq(1L), eq(3L), eq(0L), eq(3L), eq(0L), anyLong());
+    }
+}
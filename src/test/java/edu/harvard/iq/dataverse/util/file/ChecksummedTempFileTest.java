@@ -0,0 +1,169 @@
+package edu.harvard.iq.dataverse.util.file;
+
+import edu.harvard.iq.dataverse.DataFile.ChecksumType;
+import edu.harvard.iq.dataverse.util.FileUtil;
+import edu.harvard.iq.dataverse.util.testing.Tags;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChecksummedTempFileTest {
+
+    @TempDir
+    Path tempDir;
+
+    @ParameterizedTest
+    @EnumSource(ChecksumType.class)
+    void testChecksumIsTheChecksumOfTheSavedFile(ChecksumType checksumType) throws IOException {
+        byte[] bytes = randomBytes(300_000);
+        Path path = tempDir.resolve("upload");
+
+        ChecksummedTempFile saved = ChecksummedTempFile.write(new ByteArrayInputStream(bytes), path, checksumType);
+
+        assertEquals(path, saved.getPath());
+        assertEquals(bytes.length, saved.getSize());
+        assertEquals(bytes.length, Files.size(path));
+        assertEquals(checksumType, saved.getChecksumType());
+        assertEquals(FileUtil.calculateChecksum(path.toString(), checksumType), saved.getChecksum());
+        assertArrayEquals(Arrays.copyOf(bytes, ChecksummedTempFile.HEADER_SIZE), saved.getHeader());
+    }
+
+    @Test
+    void testShortAndEmptyFiles() throws IOException {
+        Path path = tempDir.resolve("upload");
+        Files.write(path, randomBytes(1000));
+
+        ChecksummedTempFile saved = ChecksummedTempFile.write(new ByteArrayInputStream("SIMPLE".getBytes()), path, null);
+        assertEquals(6, Files.size(path));
+        assertArrayEquals("SIMPLE".getBytes(), saved.getHeader());
+        assertNull(saved.getChecksum());
+
+        saved = ChecksummedTempFile.write(new ByteArrayInputStream(new byte[0]), path, ChecksumType.MD5);
+        assertEquals(0, saved.getSize());
+        assertEquals(0, saved.getHeader().length);
+        assertEquals("d41d8cd98f00b204e9800998ecf8427e", saved.getChecksum());
+    }
+
+    @Test
+    void testTypeIsRecognizedFromTheHeader() throws IOException {
+        Path path = tempDir.resolve("upload");
+        byte[] fits = Arrays.copyOf("SIMPLE  =                    T".getBytes(), 20_000);
+        ChecksummedTempFile saved = ChecksummedTempFile.write(new ByteArrayInputStream(fits), path, ChecksumType.MD5);
+
+        assertEquals(FileUtil.determineFileType(path.toFile(), "image"),
+                FileUtil.determineFileType(path.toFile(), "image", saved.getHeader()));
+        assertEquals("application/fits", FileUtil.determineFileType(path.toFile(), "image", saved.getHeader()));
+    }
+
+    /**
+     * Saves 256 MB as an upload used to be saved (written, then read again
+     * for the checksum) and as it is now, and prints the number of passes
+     * over the bytes and the time per GB of each.
+     */
+    @Test
+    @Tag(Tags.NOT_ESSENTIAL_UNITTESTS)
+    void benchmarkSavingAnUpload() throws IOException {
+        long size = 256L * 1024 * 1024;
+        Path path = tempDir.resolve("upload");
+        ChecksumType checksumType = ChecksumType.MD5;
+
+        // Before: Files.copy(), then FileUtil.calculateChecksum() on the file
+        long start = System.nanoTime();
+        CountingInputStream upload = new CountingInputStream(new SyntheticInputStream(size));
+        Files.copy(upload, path, StandardCopyOption.REPLACE_EXISTING);
+        CountingInputStream reread = new CountingInputStream(Files.newInputStream(path));
+        String checksumBefore = FileUtil.calculateChecksum(reread, checksumType);
+        long millisBefore = (System.nanoTime() - start) / 1_000_000;
+        double passesBefore = (double) (upload.count + reread.count) / size;
+
+        // After: one pass
+        start = System.nanoTime();
+        upload = new CountingInputStream(new SyntheticInputStream(size));
+        ChecksummedTempFile saved = ChecksummedTempFile.write(upload, path, checksumType);
+        long millisAfter = (System.nanoTime() - start) / 1_000_000;
+        double passesAfter = (double) upload.count / size;
+
+        assertEquals(checksumBefore, saved.getChecksum());
+        assertEquals(2.0, passesBefore);
+        assertEquals(1.0, passesAfter);
+        double gigabytes = size / (1024.0 * 1024 * 1024);
+        System.out.printf("Saving an upload with its %s checksum: before %.0f passes, %.0f ms/GB; after %.0f pass, %.0f ms/GB%n",
+                checksumType, passesBefore, millisBefore / gigabytes, passesAfter, millisAfter / gigabytes);
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    }
+
+    /** A stream of pseudo-random bytes, without holding them in memory. */
+    private static class SyntheticInputStream extends InputStream {
+        private final byte[] block = randomBytes(1024 * 1024 + 7);
+        private long remaining;
+
+        SyntheticInputStream(long size) {
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() {
+            if (remaining <= 0) {
+                return -1;
+            }
+            return block[(int) (remaining-- % block.length)] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int offset = (int) (remaining % block.length);
+            int n = (int) Math.min(Math.min(len, remaining), block.length - offset);
+            System.arraycopy(block, offset, b, off, n);
+            remaining -= n;
+            return n;
+        }
+    }
+}
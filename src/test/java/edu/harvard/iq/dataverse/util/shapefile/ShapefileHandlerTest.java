@@ -20,6 +20,7 @@ import java.io.File;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -28,10 +29,16 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
 
 
@@ -283,6 +290,72 @@ public class ShapefileHandlerTest {
         msg("Passed!");
     }
 
+    @Test
+    public void testRezipMixedContent() throws IOException {
+        msgt("(5) testRezipMixedContent");
+
+        // A shapefile in a subfolder, with one of its files stored uncompressed, 
+        // next to a second shapefile and to other files, with actual content:
+        Map<String, byte[]> contents = new LinkedHashMap<>();
+        for (String name : Arrays.asList("data/roads.shp", "data/roads.shx", "data/roads.dbf", "data/roads.prj", "data/roads.pdf",
+                "rivers.shp", "rivers.shx", "rivers.dbf", "rivers.prj", "rivers.cpg",
+                "README.md", "data/codebook.csv")) {
+            contents.put(name, ("content of " + name + " ").repeat(100).getBytes(StandardCharsets.UTF_8));
+        }
+        File zipfile_obj = this.tempFolder.resolve("mixed.zip").toFile();
+        try (ZipOutputStream zip_stream = new ZipOutputStream(new FileOutputStream(zipfile_obj))) {
+            for (Map.Entry<String, byte[]> content : contents.entrySet()) {
+                ZipEntry zipEntry = new ZipEntry(content.getKey());
+                if (content.getKey().endsWith(".prj")) {
+                    CRC32 crc = new CRC32();
+                    crc.update(content.getValue());
+                    zipEntry.setMethod(ZipEntry.STORED);
+                    zipEntry.setSize(content.getValue().length);
+                    zipEntry.setCrc(crc.getValue());
+                }
+                zip_stream.putNextEntry(zipEntry);
+                zip_stream.write(content.getValue());
+                zip_stream.closeEntry();
+            }
+        }
+
+        ShapefileHandler shp_handler = new ShapefileHandler(zipfile_obj);
+        assertEquals(2, shp_handler.getShapefileCount());
+
+        File rezip_folder = Files.createDirectory(this.tempFolder.resolve("test_rezip_mixed")).toFile();
+        assertTrue(shp_handler.rezipShapefileSets(rezip_folder));
+        assertFalse(shp_handler.errorFound);
+
+        // nothing but the final files is left in the folder
+        List<String> final_files = new ArrayList<>();
+        for (File f : shp_handler.getFinalRezippedFiles()) {
+            final_files.add(rezip_folder.toPath().relativize(f.toPath()).toString().replace(File.separatorChar, '/'));
+        }
+        assertEquals(Set.of("data/roads.zip", "data/roads.pdf", "rivers.zip", "README.md", "data/codebook.csv"), Set.copyOf(final_files));
+        try (var files = Files.walk(rezip_folder.toPath())) {
+            assertEquals(5, files.filter(Files::isRegularFile).count());
+        }
+
+        // the other files are extracted as they are
+        assertArrayEquals(contents.get("README.md"), Files.readAllBytes(rezip_folder.toPath().resolve("README.md")));
+        assertArrayEquals(contents.get("data/roads.pdf"), Files.readAllBytes(rezip_folder.toPath().resolve("data/roads.pdf")));
+
+        // the shapefile sets are zipped with their original entries
+        try (ZipFile roads = new ZipFile(rezip_folder.toPath().resolve("data/roads.zip").toFile())) {
+            List<String> entry_names = new ArrayList<>();
+            for (ZipEntry zipEntry : Collections.list(roads.entries())) {
+                entry_names.add(zipEntry.getName());
+                assertArrayEquals(contents.get(zipEntry.getName()), roads.getInputStream(zipEntry).readAllBytes());
+                assertEquals(zipEntry.getName().endsWith(".prj") ? ZipEntry.STORED : ZipEntry.DEFLATED, zipEntry.getMethod());
+            }
+            assertEquals(Set.of("data/roads.shp", "data/roads.shx", "data/roads.dbf", "data/roads.prj"), Set.copyOf(entry_names));
+        }
+        try (ZipFile rivers = new ZipFile(rezip_folder.toPath().resolve("rivers.zip").toFile())) {
+            assertEquals(5, rivers.size());
+            assertArrayEquals(contents.get("rivers.cpg"), rivers.getInputStream(rivers.getEntry("rivers.cpg")).readAllBytes());
+        }
+    }
+
     @Test
     public void testHiddenFiles() throws IOException {
         // test with shapefiles in hidden directory
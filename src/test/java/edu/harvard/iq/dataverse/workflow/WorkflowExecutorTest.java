@@ -0,0 +1,192 @@
+package edu.harvard.iq.dataverse.workflow;
+
+import edu.harvard.iq.dataverse.engine.command.exception.CommandException;
+import edu.harvard.iq.dataverse.settings.JvmSettings;
+import edu.harvard.iq.dataverse.util.SystemConfig;
+import edu.harvard.iq.dataverse.util.testing.JvmSetting;
+import edu.harvard.iq.dataverse.util.testing.LocalJvmSettings;
+import edu.harvard.iq.dataverse.workflow.WorkflowServiceBean.RunOutcome;
+import jakarta.enterprise.concurrent.ManagedExecutorService;
+import jakarta.json.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.AdditionalAnswers;
+import org.mockito.Mockito;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+
+/**
+ * Runs hundreds of workflows through the executor, against an in-memory
+ * stand-in for the queue table.
+ */
+@LocalJvmSettings
+class WorkflowExecutorTest {
+
+    private static final int WORKFLOWS = 400;
+
+    private ExecutorService pool;
+    private WorkflowExecutor workflowExecutor;
+
+    private final Queue<QueuedWorkflowStep> queue = new ConcurrentLinkedQueue<>();
+    private final Set<Long> ran = ConcurrentHashMap.newKeySet();
+    private final Set<Long> deleted = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+    private final AtomicInteger ranTwice = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() throws CommandException {
+        pool = Executors.newFixedThreadPool(32);
+        workflowExecutor = new WorkflowExecutor();
+        workflowExecutor.executor = Mockito.mock(ManagedExecutorService.class, AdditionalAnswers.delegatesTo(pool));
+        workflowExecutor.systemConfig = Mockito.mock(SystemConfig.class);
+        workflowExecutor.workflows = Mockito.mock(WorkflowServiceBean.class);
+
+        Mockito.when(workflowExecutor.workflows.claimQueuedSteps(anyInt())).thenAnswer(invocation -> {
+            int max = invocation.getArgument(0);
+            List<QueuedWorkflowStep> claimed = new ArrayList<>();
+            QueuedWorkflowStep queuedStep;
+            while (claimed.size() < max && (queuedStep = queue.poll()) != null) {
+                claimed.add(queuedStep);
+            }
+            return claimed;
+        });
+        Mockito.when(workflowExecutor.workflows.runQueuedStep(anyLong())).thenAnswer(invocation -> {
+            long id = invocation.getArgument(0);
+            int nowRunning = running.incrementAndGet();
+            maxRunning.accumulateAndGet(nowRunning, Math::max);
+            try {
+                if (!ran.add(id)) {
+                    ranTwice.incrementAndGet();
+                }
+                Thread.sleep(2);
+                switch ((int) (id % 10)) {
+                    case 0:
+                        return RunOutcome.PAUSED;
+                    case 1:
+                        return RunOutcome.FAILED;
+                    case 2:
+                        throw new CommandException("Dataset is locked", null);
+                    default:
+                        return RunOutcome.COMPLETED;
+                }
+            } finally {
+                running.decrementAndGet();
+            }
+        });
+        Mockito.doAnswer(invocation -> deleted.add(invocation.getArgument(0)))
+                .when(workflowExecutor.workflows).deleteQueuedStep(anyLong());
+        Mockito.when(workflowExecutor.workflows.countQueuedSteps()).thenReturn(Map.of());
+    }
+
+    @AfterEach
+    void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    @JvmSetting(key = JvmSettings.WORKFLOWS_EXECUTOR_THREADS, value = "8")
+    void testManyWorkflowsRunInParallelWithinTheBound() throws InterruptedException {
+        workflowExecutor.init();
+
+        // Publications committing from many threads at once
+        ExecutorService publishers = Executors.newFixedThreadPool(16);
+        CountDownLatch go = new CountDownLatch(1);
+        for (long id = 1; id <= WORKFLOWS; id++) {
+            QueuedWorkflowStep queuedStep = queuedStep(id);
+            publishers.execute(() -> {
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                queue.add(queuedStep);
+                workflowExecutor.onStepQueued(new WorkflowServiceBean.WorkflowStepQueued());
+            });
+        }
+        go.countDown();
+        publishers.shutdown();
+        assertTrue(publishers.awaitTermination(10, TimeUnit.SECONDS));
+
+        awaitDeleted(WORKFLOWS);
+
+        assertEquals(WORKFLOWS, ran.size());
+        assertEquals(0, ranTwice.get());
+        assertTrue(queue.isEmpty());
+        assertTrue(maxRunning.get() <= 8, "ran " + maxRunning.get() + " workflows at once");
+        assertTrue(maxRunning.get() > 1, "workflows did not run in parallel");
+
+        JsonObject metrics = workflowExecutor.getMetrics().build();
+        assertEquals(8, metrics.getInt("threads"));
+        assertEquals(WORKFLOWS, metrics.getInt("started"));
+        assertEquals(WORKFLOWS / 10, metrics.getInt("paused"));
+        assertEquals(WORKFLOWS / 10, metrics.getInt("failed"));
+        assertEquals(WORKFLOWS / 10, metrics.getInt("errors"));
+        assertEquals(WORKFLOWS * 7 / 10, metrics.getInt("completed"));
+        assertTrue(metrics.getInt("maxRunning") <= 8);
+        // The workflows that could not be run don't leave their datasets locked
+        Mockito.verify(workflowExecutor.workflows, Mockito.times(WORKFLOWS / 10)).releaseQueuedStepLock(Mockito.any());
+    }
+
+    @Test
+    @JvmSetting(key = JvmSettings.WORKFLOWS_EXECUTOR_THREADS, value = "1")
+    void testStepsQueuedWhileBusyAreRunLater() throws InterruptedException {
+        workflowExecutor.init();
+
+        for (long id = 1; id <= 20; id++) {
+            queue.add(queuedStep(id * 10 + 3));
+        }
+        workflowExecutor.requestDrain();
+        // Queued by a server that went down: only picked up when the next
+        // drain is requested, which every finished step does.
+        for (long id = 21; id <= 40; id++) {
+            queue.add(queuedStep(id * 10 + 3));
+        }
+
+        awaitDeleted(40);
+
+        assertEquals(1, maxRunning.get());
+        assertEquals(40, workflowExecutor.getMetrics().build().getInt("completed"));
+    }
+
+    @Test
+    @JvmSetting(key = JvmSettings.WORKFLOWS_EXECUTOR_THREADS, value = "100")
+    void testThreadsAreCappedToTheExecutorSize() {
+        workflowExecutor.init();
+
+        assertEquals(WorkflowExecutor.MAX_THREADS, workflowExecutor.getMetrics().build().getInt("threads"));
+    }
+
+    private void awaitDeleted(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (deleted.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, deleted.size());
+    }
+
+    private static QueuedWorkflowStep queuedStep(long id) {
+        QueuedWorkflowStep queuedStep = Mockito.mock(QueuedWorkflowStep.class);
+        Mockito.when(queuedStep.getId()).thenReturn(id);
+        Mockito.when(queuedStep.getInvocationId()).thenReturn("invocation-" + id);
+        Mockito.when(queuedStep.getCreateTime()).thenReturn(new Timestamp(System.currentTimeMillis()));
+        return queuedStep;
+    }
+}